@@ -0,0 +1,442 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohort.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.array;
+
+import com.cohort.util.*;
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+/**
+ * This has the fast versions of PrimitiveArray.applyConstraint that are used
+ * for big arrays:
+ * <ul>
+ * <li>For DoubleArray, FloatArray, IntArray, and LongArray, there is a specialized
+ *   loop for each operator which works directly on the backing array,
+ *   64 rows at a time, to make a BitSet of the rows that pass.
+ *   That is then ANDed with keep.
+ * <li>For ByteArray, UByteArray, ShortArray, UShortArray, and CharArray
+ *   (which have at most 65536 distinct values), each distinct value is tested once
+ *   (with PrimitiveArray.applyConstraintRowByRow, or the regex),
+ *   and the result is reused for all of the other rows with that value.
+ * </ul>
+ * The results are exactly the same as from PrimitiveArray.applyConstraintRowByRow.
+ * Other types (and unusual cases, e.g., a long column and a non-integer value2)
+ * are left to applyConstraintRowByRow.
+ * (StringArray has its own applyConstraint which tests each distinct value once.)
+ */
+public class ConstraintKernels {
+
+    /** Arrays with fewer than this number of elements are tested row by row. */
+    public static int minNRows = 1024;
+
+    private final static int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5;
+
+    /** This returns the opCode for op, or -1 if op isn't one of the numeric ops. */
+    private static int opCode(String op) {
+        if (op.equals("="))  return EQ;
+        if (op.equals("!=")) return NE;
+        if (op.equals("<"))  return LT;
+        if (op.equals("<=")) return LE;
+        if (op.equals(">"))  return GT;
+        if (op.equals(">=")) return GE;
+        return -1;
+    }
+
+    /**
+     * This tries to do PrimitiveArray.applyConstraint quickly.
+     * See PrimitiveArray.applyConstraint for the parameters.
+     *
+     * @return nStillGood, or -1 if this didn't do the test
+     *   (so the caller should use applyConstraintRowByRow).
+     * @throws RuntimeException if trouble (e.g., invalid op)
+     */
+    public static int applyConstraint(PrimitiveArray pa, boolean morePrecise,
+        BitSet keep, String op, String value2) {
+
+        int size = pa.size();
+        if (size < minNRows)
+            return -1;
+
+        //types with few distinct values
+        PAType paType = pa.elementType();
+        if (paType == PAType.BYTE  || paType == PAType.UBYTE ||
+            paType == PAType.SHORT || paType == PAType.USHORT ||
+            paType == PAType.CHAR)
+            return applyByDistinctValue(pa, morePrecise, keep, op, value2);
+
+        int opCode = opCode(op);
+        if (opCode < 0) //e.g., regex
+            return -1;
+        long words[] = keep.toLongArray();
+        long results[] = new long[words.length];
+
+        if (paType == PAType.DOUBLE) {
+            doubleKernel(((DoubleArray)pa).array, size, words, results, opCode,
+                String2.parseDouble(value2), morePrecise? 12 : 9);
+
+        } else if (paType == PAType.FLOAT) {
+            floatKernel(((FloatArray)pa).array, size, words, results, opCode,
+                String2.parseFloat(value2));
+
+        } else if (paType == PAType.INT) {
+            double value2d = String2.parseDouble(value2);
+            int    value2i = String2.parseInt(value2);
+            if (value2d != value2i || value2d == Integer.MAX_VALUE)
+                return -1; //do exact test
+            intKernel(((IntArray)pa).array, size, words, results, opCode, value2i);
+
+        } else if (paType == PAType.LONG) {
+            double value2d = String2.parseDouble(value2);
+            long   value2l = String2.parseLong(value2);
+            if (value2d != value2l || value2l == Long.MAX_VALUE)
+                return -1; //do exact test
+            longKernel(((LongArray)pa).array, size, words, results, opCode, value2l);
+
+        } else {
+            return -1;
+        }
+
+        keep.and(BitSet.valueOf(results));
+        return keep.cardinality();
+    }
+
+    /**
+     * For the rows with keep=true (64 rows at a time), this tests each distinct value once.
+     * This is for BYTE, UBYTE, SHORT, USHORT, and CHAR arrays.
+     */
+    private static int applyByDistinctValue(PrimitiveArray pa, boolean morePrecise,
+        BitSet keep, String op, String value2) {
+
+        PAType paType = pa.elementType();
+        byte  bar[] = paType == PAType.BYTE?   ((ByteArray)pa).array :
+                      paType == PAType.UBYTE?  ((UByteArray)pa).array : null;
+        short sar[] = paType == PAType.SHORT?  ((ShortArray)pa).array :
+                      paType == PAType.USHORT? ((UShortArray)pa).array : null;
+        char  car[] = paType == PAType.CHAR?   ((CharArray)pa).array : null;
+        byte results[] = new byte[bar == null? 65536 : 256]; //0=not yet tested, 1=true, 2=false
+        Pattern pattern = op.equals(PrimitiveArray.REGEX_OP)? Pattern.compile(value2) : null;
+        BitSet oneRow = new BitSet();
+        int size = pa.size();
+        long words[] = keep.toLongArray();
+        for (int w = 0; w < words.length; w++) {
+            if (words[w] == 0)
+                continue;
+            int base = w << 6;
+            int end = Math.min(base + 64, size);
+            long bits = 0;
+            for (int row = base; row < end; row++) {
+                int key = bar != null? bar[row] & 0xFF :
+                          sar != null? sar[row] & 0xFFFF : car[row];
+                byte result = results[key];
+                if (result == 0) {
+                    boolean b;
+                    if (pattern == null) {
+                        oneRow.set(row);
+                        b = pa.applyConstraintRowByRow(morePrecise, oneRow, op, value2) == 1;
+                        oneRow.clear(row);
+                    } else {
+                        b = pattern.matcher(pa.getString(row)).matches();
+                    }
+                    result = b? (byte)1 : (byte)2;
+                    results[key] = result;
+                }
+                bits |= (result == 1? 1L : 0L) << (row - base);
+            }
+            words[w] &= bits;
+        }
+        keep.and(BitSet.valueOf(words));
+        return keep.cardinality();
+    }
+
+    /**
+     * This is like testValueOpValue(double) (or testValueOpValueExtra if nDigits=12)
+     * for the 64 rows of each words[w] != 0, and stores the results in results[w].
+     */
+    private static void doubleKernel(double ar[], int size, long words[], long results[],
+        int opCode, double value2, int nDigits) {
+
+        boolean value2NaN = Double.isNaN(value2);
+        for (int w = 0; w < words.length; w++) {
+            if (words[w] == 0)
+                continue;
+            int base = w << 6;
+            int end = Math.min(base + 64, size);
+            long bits = 0;
+            if (opCode == LT) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] < value2? 1L : 0L) << (i - base);
+            } else if (opCode == GT) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] > value2? 1L : 0L) << (i - base);
+            } else if (opCode == LE) {
+                for (int i = base; i < end; i++)
+                    if (ar[i] <= value2 || Math2.almostEqual(nDigits, ar[i], value2))
+                        bits |= 1L << (i - base);
+            } else if (opCode == GE) {
+                for (int i = base; i < end; i++)
+                    if (ar[i] >= value2 || Math2.almostEqual(nDigits, ar[i], value2))
+                        bits |= 1L << (i - base);
+            } else if (opCode == EQ) {
+                for (int i = base; i < end; i++)
+                    if ((value2NaN && Double.isNaN(ar[i])) || Math2.almostEqual(nDigits, ar[i], value2))
+                        bits |= 1L << (i - base);
+            } else { //NE
+                for (int i = base; i < end; i++)
+                    if (value2NaN? !Double.isNaN(ar[i]) : ar[i] != value2)
+                        bits |= 1L << (i - base);
+            }
+            results[w] = bits;
+        }
+    }
+
+    /**
+     * This is like testValueOpValue(float)
+     * for the 64 rows of each words[w] != 0, and stores the results in results[w].
+     */
+    private static void floatKernel(float ar[], int size, long words[], long results[],
+        int opCode, float value2) {
+
+        boolean value2NaN = Float.isNaN(value2);
+        for (int w = 0; w < words.length; w++) {
+            if (words[w] == 0)
+                continue;
+            int base = w << 6;
+            int end = Math.min(base + 64, size);
+            long bits = 0;
+            if (opCode == LT) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] < value2? 1L : 0L) << (i - base);
+            } else if (opCode == GT) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] > value2? 1L : 0L) << (i - base);
+            } else if (opCode == LE) {
+                for (int i = base; i < end; i++)
+                    if (ar[i] <= value2 || Math2.almostEqual(6, ar[i], value2))
+                        bits |= 1L << (i - base);
+            } else if (opCode == GE) {
+                for (int i = base; i < end; i++)
+                    if (ar[i] >= value2 || Math2.almostEqual(6, ar[i], value2))
+                        bits |= 1L << (i - base);
+            } else if (opCode == EQ) {
+                for (int i = base; i < end; i++)
+                    if ((value2NaN && Float.isNaN(ar[i])) || Math2.almostEqual(6, ar[i], value2))
+                        bits |= 1L << (i - base);
+            } else { //NE
+                for (int i = base; i < end; i++)
+                    if (value2NaN? !Float.isNaN(ar[i]) : ar[i] != value2)
+                        bits |= 1L << (i - base);
+            }
+            results[w] = bits;
+        }
+    }
+
+    /**
+     * This is like testValueOpValue(int) (value2 isn't Integer.MAX_VALUE)
+     * for the 64 rows of each words[w] != 0, and stores the results in results[w].
+     */
+    private static void intKernel(int ar[], int size, long words[], long results[],
+        int opCode, int value2) {
+
+        final int mv = Integer.MAX_VALUE;
+        for (int w = 0; w < words.length; w++) {
+            if (words[w] == 0)
+                continue;
+            int base = w << 6;
+            int end = Math.min(base + 64, size);
+            long bits = 0;
+            if (opCode == EQ) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] == value2? 1L : 0L) << (i - base);
+            } else if (opCode == NE) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] != value2? 1L : 0L) << (i - base);
+            } else if (opCode == LT) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] < value2? 1L : 0L) << (i - base); //mv is never <
+            } else if (opCode == LE) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] <= value2? 1L : 0L) << (i - base); //mv is never <=
+            } else if (opCode == GT) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] > value2 && ar[i] != mv? 1L : 0L) << (i - base);
+            } else { //GE
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] >= value2 && ar[i] != mv? 1L : 0L) << (i - base);
+            }
+            results[w] = bits;
+        }
+    }
+
+    /**
+     * This is like testValueOpValue(long) (value2 isn't Long.MAX_VALUE)
+     * for the 64 rows of each words[w] != 0, and stores the results in results[w].
+     */
+    private static void longKernel(long ar[], int size, long words[], long results[],
+        int opCode, long value2) {
+
+        final long mv = Long.MAX_VALUE;
+        for (int w = 0; w < words.length; w++) {
+            if (words[w] == 0)
+                continue;
+            int base = w << 6;
+            int end = Math.min(base + 64, size);
+            long bits = 0;
+            if (opCode == EQ) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] == value2? 1L : 0L) << (i - base);
+            } else if (opCode == NE) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] != value2? 1L : 0L) << (i - base);
+            } else if (opCode == LT) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] < value2? 1L : 0L) << (i - base); //mv is never <
+            } else if (opCode == LE) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] <= value2? 1L : 0L) << (i - base); //mv is never <=
+            } else if (opCode == GT) {
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] > value2 && ar[i] != mv? 1L : 0L) << (i - base);
+            } else { //GE
+                for (int i = base; i < end; i++)
+                    bits |= (ar[i] >= value2 && ar[i] != mv? 1L : 0L) << (i - base);
+            }
+            results[w] = bits;
+        }
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** ConstraintKernels.basicTest");
+
+        //for each type: compare applyConstraint and applyConstraintRowByRow
+        java.util.Random random = new java.util.Random(19);
+        int n = 5000;
+        PAType paTypes[] = {PAType.BYTE, PAType.UBYTE, PAType.SHORT, PAType.USHORT, 
+            PAType.CHAR, PAType.INT, PAType.LONG, PAType.FLOAT, PAType.DOUBLE};
+        String ops[] = {"=", "!=", "<", "<=", ">", ">=", PrimitiveArray.REGEX_OP};
+        String values[] = {"-1", "0", "1", "2", "2.0000000001", "1.5", "NaN", "127", "255", 
+            "65535", "2147483647", "a", "", "(1|2)", "[a-c]", "-?1.*"};
+        for (int pt = 0; pt < paTypes.length; pt++) {
+            PrimitiveArray pa = PrimitiveArray.factory(paTypes[pt], n, false);
+            pa.setMaxIsMV(true);
+            for (int i = 0; i < n; i++) {
+                int r = random.nextInt(10);
+                if (paTypes[pt] == PAType.CHAR)
+                    pa.addString(r == 9? "" : "" + "aAbc12".charAt(random.nextInt(6)));
+                else if (r == 9) pa.addString(""); //mv
+                else if (r == 8) pa.addString("127"); //maxValue for BYTE
+                else pa.addDouble(random.nextInt(5) - 1 + 
+                    (paTypes[pt] == PAType.FLOAT || paTypes[pt] == PAType.DOUBLE?
+                        (random.nextInt(3) - 1) * 1e-11 : 0)); //almostEqual
+            }
+            for (int op = 0; op < ops.length; op++) {
+                for (int v = 0; v < values.length; v++) {
+                    if (!ops[op].equals(PrimitiveArray.REGEX_OP) && v >= values.length - 3)
+                        continue; //regex values
+                    for (int morePrecise = 0; morePrecise < 2; morePrecise++) {
+                        BitSet keep = new BitSet();
+                        for (int i = 0; i < n; i++)
+                            if (random.nextInt(8) > 0)  //some are already false
+                                keep.set(i);
+                        BitSet expected = (BitSet)keep.clone();
+                        int nExpected = pa.applyConstraintRowByRow(morePrecise == 1, expected, 
+                            ops[op], values[v]);
+                        int nResults = pa.applyConstraint(morePrecise == 1, keep, 
+                            ops[op], values[v]);
+                        String msg = pa.elementTypeString() + " " + ops[op] + " " + 
+                            String2.toJson(values[v]) + " morePrecise=" + (morePrecise == 1);
+                        Test.ensureEqual(nResults, nExpected, msg);
+                        Test.ensureEqual(keep, expected, msg);
+                    }
+                }
+            }
+        }
+
+        //invalid op
+        PrimitiveArray pa = PrimitiveArray.factory(PAType.DOUBLE, n, "1");
+        BitSet keep = new BitSet();
+        keep.set(0, n);
+        try {
+            pa.applyConstraint(false, keep, "<>", "1");
+            throw new RuntimeException("shouldn't get here");
+        } catch (Exception e) {
+            Test.ensureEqual(e.getMessage(), "Query error: Unknown operator=\"<>\".", "");
+        }
+
+        //timing
+        n = 5000000;
+        double dar[] = new double[n];
+        for (int i = 0; i < n; i++)
+            dar[i] = random.nextDouble();
+        pa = new DoubleArray(dar);
+        ByteArray ba = new ByteArray(n, false);
+        for (int i = 0; i < n; i++)
+            ba.add((byte)random.nextInt(10));
+        for (int rep = 0; rep < 3; rep++) {
+            for (int type = 0; type < 2; type++) {
+                PrimitiveArray tpa = type == 0? pa : ba;
+                String op    = type == 0? "<=" : PrimitiveArray.REGEX_OP;
+                String value = type == 0? "0.5" : "[2-4]";
+                keep = new BitSet();
+                keep.set(0, n);
+                long time = System.currentTimeMillis();
+                int nExpected = tpa.applyConstraintRowByRow(false, keep, op, value);
+                long rowByRowTime = System.currentTimeMillis() - time;
+                keep = new BitSet();
+                keep.set(0, n);
+                time = System.currentTimeMillis();
+                Test.ensureEqual(tpa.applyConstraint(false, keep, op, value), nExpected, "");
+                String2.log("applyConstraint " + tpa.elementTypeString() + op + value + 
+                    " n=" + n + " rowByRow=" + rowByRowTime + "ms kernel=" + 
+                    (System.currentTimeMillis() - time) + "ms");
+            }
+        }
+
+        String2.log("ConstraintKernels.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ ConstraintKernels.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -15,6 +15,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.RandomAccessFile;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -554,6 +555,37 @@ public class PAOne {
         return this;
     }
 
+    /**
+     * This reads one number from a ByteBuffer (e.g., a MappedByteBuffer of a file
+     * written with writeToRAF or PrimitiveArray.writeDos), so there is no seek and
+     * no read syscall per value.
+     * The ByteBuffer's position isn't changed.
+     * This doesn't support StringArray.
+     *
+     * @param bb the ByteBuffer (with the default, BIG_ENDIAN, byte order)
+     * @param byteIndex the offset (in bytes) of the value in bb
+     * @return this PAOne, for convenience
+     * @throws RuntimeException if trouble
+     */
+    public PAOne readFromByteBuffer(ByteBuffer bb, int byteIndex) {
+        PAType paType = pa.elementType();
+        pa.clear();
+        if      (paType == PAType.DOUBLE) ((DoubleArray)pa).add(bb.getDouble(byteIndex));
+        else if (paType == PAType.FLOAT)  ((FloatArray) pa).add(bb.getFloat( byteIndex));
+        else if (paType == PAType.LONG)   ((LongArray)  pa).add(bb.getLong(  byteIndex));
+        else if (paType == PAType.ULONG)  ((ULongArray) pa).addPacked(bb.getLong(byteIndex));
+        else if (paType == PAType.INT)    ((IntArray)   pa).add(bb.getInt(   byteIndex));
+        else if (paType == PAType.UINT)   ((UIntArray)  pa).addPacked(bb.getInt(byteIndex));
+        else if (paType == PAType.SHORT)  ((ShortArray) pa).add(bb.getShort( byteIndex));
+        else if (paType == PAType.USHORT) ((UShortArray)pa).addPacked(bb.getShort(byteIndex));
+        else if (paType == PAType.BYTE)   ((ByteArray)  pa).add(bb.get(      byteIndex));
+        else if (paType == PAType.UBYTE)  ((UByteArray) pa).addPacked(bb.get(byteIndex));
+        else if (paType == PAType.CHAR)   ((CharArray)  pa).add(bb.getChar( byteIndex));
+        else throw new RuntimeException(String2.ERROR + ": PAOne.readFromByteBuffer doesn't support " + 
+            paType + ".");
+        return this;
+    }
+
     /**
      * This writes the one number to a randomAccessFile at the current position.
      * This doesn't support StringArray (for which you need nBytesPer)
@@ -639,6 +671,17 @@ public class PAOne {
         Test.ensureEqual(paOne.getInt(), -128, "");
 
 
+        //readFromByteBuffer
+        ByteBuffer bb = ByteBuffer.allocate(24);
+        bb.putShort(0, (short)-2);
+        bb.putDouble(8, 1.5);
+        bb.putInt(16, -1);
+        Test.ensureEqual(new PAOne(PAType.SHORT ).readFromByteBuffer(bb,  0).toString(), "-2", "");
+        Test.ensureEqual(new PAOne(PAType.USHORT).readFromByteBuffer(bb,  0).toString(), "65534", "");
+        Test.ensureEqual(new PAOne(PAType.DOUBLE).readFromByteBuffer(bb,  8).toString(), "1.5", "");
+        Test.ensureEqual(new PAOne(PAType.UINT  ).readFromByteBuffer(bb, 16).toString(), "4294967295", "");
+        Test.ensureEqual(bb.position(), 0, "");
+
         //raf test
         String raf2Name = File2.getSystemTempDirectory() + "PAOneTest.bin";
         String2.log("rafName=" + raf2Name);
@@ -2871,22 +2871,9 @@ public abstract class PrimitiveArray {
     
     private static int[] lowRank(RowComparator comparator, List table) {
 
-        //create the rowArray with pointer to specific rows
-        int n = ((PrimitiveArray)table.get(0)).size();
-        Integer rowArray[] = new Integer[n];
-        for (int i = 0; i < n; i++)
-            rowArray[i] = new Integer(i);
-
-        //sort the rows
-        Arrays.sort(rowArray, comparator);   //this is "stable"
-        //String2.log("rank results: " + String2.toCSSVString(integerArray));
-
-        //create the int[] 
-        int newArray[] = new int[n];
-        for (int i = 0; i < n; i++)
-            newArray[i] = rowArray[i].intValue();
-
-        return newArray;
+        //rank the rows (with int row numbers, radix sort if all keys are numeric,
+        //  else merge sort, in parallel if big). This is "stable".
+        return RowRanker.rank(comparator);
     }
 
 
@@ -2910,10 +2897,8 @@ public abstract class PrimitiveArray {
         //rank the rows
         int ranks[] = rank(table, keys, ascending);
 
-        //reorder the columns
-        for (int col = 0; col < table.size(); col++) {
-            ((PrimitiveArray)table.get(col)).reorder(ranks);
-        }
+        //reorder the columns (in parallel if big)
+        RowRanker.reorder(table, ranks);
     }
 
     /** This is like sort, but StringArrays are tested case insensitively.   */
@@ -2922,10 +2907,8 @@ public abstract class PrimitiveArray {
         //rank the rows
         int ranks[] = rankIgnoreCase(table, keys, ascending);
 
-        //reorder the columns
-        for (int col = 0; col < table.size(); col++) {
-            ((PrimitiveArray)table.get(col)).reorder(ranks);
-        }
+        //reorder the columns (in parallel if big)
+        RowRanker.reorder(table, ranks);
     }
 
     /**
@@ -4004,6 +3987,24 @@ public abstract class PrimitiveArray {
      */
     public int applyConstraint(boolean morePrecise, BitSet keep, String op, String value2) {
 
+        //for big arrays, try the type-specialized kernels
+        int nStillGood = ConstraintKernels.applyConstraint(this, morePrecise, keep, op, value2);
+        if (nStillGood >= 0)
+            return nStillGood;
+
+        return applyConstraintRowByRow(morePrecise, keep, op, value2);
+    }
+
+    /**
+     * This is the basic version of applyConstraint, which tests the keep=true 
+     * elements one at a time (via getDouble(row), getString(row), ...).
+     * See applyConstraint for the parameters.
+     *
+     * @return nStillGood
+     * @throws RuntimeException if trouble (e.g., invalid op or invalid keep element)
+     */
+    public int applyConstraintRowByRow(boolean morePrecise, BitSet keep, String op, String value2) {
+
         //regex
         if (op.equals(REGEX_OP)) {
             //String2.log("applyConstraint(regex)");
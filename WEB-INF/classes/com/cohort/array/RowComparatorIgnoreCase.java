@@ -45,9 +45,21 @@ public class RowComparatorIgnoreCase extends RowComparator {
      *   Think "o1 - o2".
      */
     public int compare(Object o1, Object o2) {
+        return compareRows(((Integer)o1).intValue(), ((Integer)o2).intValue());
+    }
+
+    /**
+     * This is like compare(), but with primitive row numbers (used by RowRanker).
+     *
+     * @param row1 a row number (0 ... size-1)
+     * @param row2 a row number (0 ... size-1)
+     * @return returns a negative integer, zero, or a positive integer if the 
+     *   value at row1 is less than, equal to, or greater than 
+     *   the value at row2.  
+     */
+    public int compareRows(int row1, int row2) {
         for (int k = 0; k < keys.length; k++) {
-            int result = ((PrimitiveArray)table.get(keys[k])).compareIgnoreCase(
-                ((Integer)o1).intValue(), ((Integer)o2).intValue());
+            int result = ((PrimitiveArray)table.get(keys[k])).compareIgnoreCase(row1, row2);
             if (result != 0) 
                 return ascending[k]? result : -result;
         }
@@ -0,0 +1,466 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohort.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.array;
+
+import com.cohort.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This is used by PrimitiveArray.rank, rankIgnoreCase, sort, and sortIgnoreCase
+ * to rank the rows of a table of data stored as a List of PrimitiveArrays.
+ * Unlike Arrays.sort(Integer[], RowComparator), this works with primitive
+ * int row numbers (so there is no Integer boxing):
+ * <ul>
+ * <li>If all of the keys are numeric (other than ULONG), this uses an LSD radix sort.
+ * <li>Otherwise, this uses a merge sort that compares rows with
+ *   RowComparator.compareRows().
+ *   For big tables, the halves are sorted in parallel (with the common ForkJoinPool).
+ * </ul>
+ * Both sorts are stable: equal elements will not be reordered as a result of the sort.
+ * The results are the same as Arrays.sort(Integer[], RowComparator).
+ */
+public class RowRanker {
+
+    /**
+     * The minimum number of rows for which radix sort is used.
+     * For fewer rows, merge sort is faster.
+     */
+    public static int radixMinNRows = 256;
+
+    /**
+     * The minimum number of rows that a merge sort task will split
+     * into 2 tasks that run in parallel.
+     * Use Integer.MAX_VALUE to never sort in parallel.
+     */
+    public static int parallelMinNRows = 50000;
+
+    /**
+     * The minimum number of values (nRows * nColumns) for which reorder() reorders
+     * the columns in parallel.
+     */
+    public static int parallelReorderMinNValues = 200000;
+
+    /** Ranges smaller than this are sorted with insertion sort. */
+    private final static int INSERTION_SORT_MAX = 32;
+
+    /**
+     * This ranks the rows of the comparator's table.
+     *
+     * @param comparator a RowComparator (or RowComparatorIgnoreCase),
+     *   which specifies the table, keys, and ascending.
+     * @return an int[] with values (0 ... size-1)
+     *   which points to the row number for a row with a specific
+     *   rank (e.g., rank[0] is the row number of the first item
+     *   in the sorted list, rank[1] is the row number of the
+     *   second item in the sorted list, ...).
+     */
+    public static int[] rank(RowComparator comparator) {
+        List table = comparator.table;
+        int n = ((PrimitiveArray)table.get(0)).size();
+        int rows[] = new int[n];
+        for (int i = 0; i < n; i++)
+            rows[i] = i;
+        if (n < 2)
+            return rows;
+
+        if (n >= radixMinNRows && canRadixSort(comparator)) {
+            radixSort(comparator, rows);
+        } else {
+            int tmp[] = new int[n];
+            if (n / 2 >= parallelMinNRows &&
+                ForkJoinPool.getCommonPoolParallelism() > 1)
+                ForkJoinPool.commonPool().invoke(new MergeSortTask(comparator, rows, tmp, 0, n));
+            else mergeSort(comparator, rows, tmp, 0, n);
+        }
+        return rows;
+    }
+
+    /**
+     * This reorders all of the columns in the table based on rank.
+     * For big tables, the columns are reordered in parallel.
+     *
+     * @param table a List of PrimitiveArrays
+     * @param rank see PrimitiveArray.reorder
+     */
+    public static void reorder(List table, int rank[]) {
+        int nCols = table.size();
+        if (nCols > 1 && (long)rank.length * nCols >= parallelReorderMinNValues &&
+            ForkJoinPool.getCommonPoolParallelism() > 1) {
+            ArrayList<RecursiveAction> tasks = new ArrayList();
+            for (int col = 0; col < nCols; col++) {
+                final PrimitiveArray pa = (PrimitiveArray)table.get(col);
+                tasks.add(new RecursiveAction() {
+                    protected void compute() {
+                        pa.reorder(rank);
+                    }
+                });
+            }
+            ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (int col = 0; col < nCols; col++)
+                ((PrimitiveArray)table.get(col)).reorder(rank);
+        }
+    }
+
+    /**
+     * This returns true if all of the keys are numeric types
+     * whose compare() order can be expressed as a long (i.e., not ULONG, CHAR, or STRING).
+     */
+    private static boolean canRadixSort(RowComparator comparator) {
+        for (int k = 0; k < comparator.keys.length; k++) {
+            PAType paType = ((PrimitiveArray)comparator.table.get(comparator.keys[k])).elementType();
+            if (paType == PAType.ULONG || paType == PAType.CHAR || paType == PAType.STRING)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * This returns a long for each value in pa,
+     * which (when compared as unsigned longs) sorts the same way as pa.compare().
+     * E.g., missing values (which getLong returns as Long.MAX_VALUE) sort high,
+     * and for floats and doubles, NaN sorts highest (as with Double.compare).
+     */
+    private static long[] radixKeys(PrimitiveArray pa, boolean ascending) {
+        int n = pa.size();
+        long keys[] = new long[n];
+        PAType paType = pa.elementType();
+        if (paType == PAType.DOUBLE) {
+            for (int i = 0; i < n; i++) {
+                long bits = Double.doubleToLongBits(pa.getDouble(i)); //all NaNs are the same
+                keys[i] = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+            }
+        } else if (paType == PAType.FLOAT) {
+            for (int i = 0; i < n; i++) {
+                int bits = Float.floatToIntBits(pa.getFloat(i));
+                keys[i] = (bits ^ ((bits >> 31) | Integer.MIN_VALUE)) & 0xFFFFFFFFL;
+            }
+        } else {
+            for (int i = 0; i < n; i++)
+                keys[i] = pa.getLong(i) ^ Long.MIN_VALUE;
+        }
+        if (!ascending) {
+            for (int i = 0; i < n; i++)
+                keys[i] = ~keys[i];
+        }
+        return keys;
+    }
+
+    /**
+     * This does a stable LSD radix sort of rows (8 bits per pass),
+     * from the least important key to the most important key.
+     * Passes where all of the values have the same digit are skipped.
+     */
+    private static void radixSort(RowComparator comparator, int rows[]) {
+        int n = rows.length;
+        long srcKeys[] = new long[n];
+        long dstKeys[] = new long[n];
+        int dstRows[] = new int[n];
+        int srcRows[] = rows;
+        int count[] = new int[256];
+        for (int k = comparator.keys.length - 1; k >= 0; k--) {
+            long keys[] = radixKeys((PrimitiveArray)comparator.table.get(comparator.keys[k]),
+                comparator.ascending[k]);
+            for (int i = 0; i < n; i++)
+                srcKeys[i] = keys[srcRows[i]];
+
+            for (int shift = 0; shift < 64; shift += 8) {
+                Arrays.fill(count, 0);
+                for (int i = 0; i < n; i++)
+                    count[(int)(srcKeys[i] >>> shift) & 0xFF]++;
+                if (count[(int)(srcKeys[0] >>> shift) & 0xFF] == n)
+                    continue; //all the same digit
+
+                //count -> starting positions
+                int sum = 0;
+                for (int d = 0; d < 256; d++) {
+                    int c = count[d];
+                    count[d] = sum;
+                    sum += c;
+                }
+                for (int i = 0; i < n; i++) {
+                    int po = count[(int)(srcKeys[i] >>> shift) & 0xFF]++;
+                    dstKeys[po] = srcKeys[i];
+                    dstRows[po] = srcRows[i];
+                }
+                long tKeys[] = srcKeys; srcKeys = dstKeys; dstKeys = tKeys;
+                int  tRows[] = srcRows; srcRows = dstRows; dstRows = tRows;
+            }
+        }
+        if (srcRows != rows)
+            System.arraycopy(srcRows, 0, rows, 0, n);
+    }
+
+    /**
+     * This does a stable merge sort of rows[from ... to-1].
+     *
+     * @param tmp a scratch array at least as big as rows
+     */
+    private static void mergeSort(RowComparator comparator, int rows[], int tmp[],
+        int from, int to) {
+
+        if (to - from <= INSERTION_SORT_MAX) {
+            insertionSort(comparator, rows, from, to);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(comparator, rows, tmp, from, mid);
+        mergeSort(comparator, rows, tmp, mid, to);
+        merge(comparator, rows, tmp, from, mid, to);
+    }
+
+    /** This does a stable insertion sort of rows[from ... to-1]. */
+    private static void insertionSort(RowComparator comparator, int rows[], int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int row = rows[i];
+            int j = i - 1;
+            while (j >= from && comparator.compareRows(rows[j], row) > 0) {
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            rows[j + 1] = row;
+        }
+    }
+
+    /** This merges the sorted rows[from ... mid-1] and rows[mid ... to-1]. */
+    private static void merge(RowComparator comparator, int rows[], int tmp[],
+        int from, int mid, int to) {
+
+        //already in order?
+        if (comparator.compareRows(rows[mid - 1], rows[mid]) <= 0)
+            return;
+
+        System.arraycopy(rows, from, tmp, from, mid - from);
+        int i = from, j = mid, po = from;
+        while (i < mid && j < to) {
+            //<= keeps it stable
+            rows[po++] = comparator.compareRows(tmp[i], rows[j]) <= 0? tmp[i++] : rows[j++];
+        }
+        while (i < mid)
+            rows[po++] = tmp[i++];
+        //the rest of j are already in place
+    }
+
+    /** This sorts the halves of big ranges in parallel. */
+    private static class MergeSortTask extends RecursiveAction {
+        private final RowComparator comparator;
+        private final int rows[], tmp[];
+        private final int from, to;
+
+        MergeSortTask(RowComparator comparator, int rows[], int tmp[], int from, int to) {
+            this.comparator = comparator;
+            this.rows = rows;
+            this.tmp = tmp;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if ((to - from) / 2 < parallelMinNRows) {
+                mergeSort(comparator, rows, tmp, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new MergeSortTask(comparator, rows, tmp, from, mid),
+                      new MergeSortTask(comparator, rows, tmp, mid, to));
+            merge(comparator, rows, tmp, from, mid, to);
+        }
+    }
+
+    /** This ranks the rows the old way (with Integer[] and Arrays.sort), for testing. */
+    private static int[] boxedRank(RowComparator comparator) {
+        int n = ((PrimitiveArray)comparator.table.get(0)).size();
+        Integer rowArray[] = new Integer[n];
+        for (int i = 0; i < n; i++)
+            rowArray[i] = i;
+        Arrays.sort(rowArray, comparator);
+        int rows[] = new int[n];
+        for (int i = 0; i < n; i++)
+            rows[i] = rowArray[i];
+        return rows;
+    }
+
+    /** This tests rank() against boxedRank(). */
+    private static void testRank(String name, List table, int keys[], boolean ascending[],
+        boolean ignoreCase) throws Exception {
+
+        RowComparator comparator = ignoreCase?
+            new RowComparatorIgnoreCase(table, keys, ascending) :
+            new RowComparator(table, keys, ascending);
+        int expected[] = boxedRank(comparator);
+        int results[] = rank(comparator);
+        for (int i = 0; i < expected.length; i++)
+            if (results[i] != expected[i])
+                throw new RuntimeException("RowRanker.testRank " + name + 
+                    " keys=" + String2.toCSSVString(keys) + 
+                    " ascending=" + String2.toCSSVString(ascending) + 
+                    ": rank[" + i + "]=" + results[i] + " should be " + expected[i]);
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** RowRanker.basicTest");
+        int oParallelMinNRows = parallelMinNRows;
+        int oParallelReorderMinNValues = parallelReorderMinNValues;
+        try {
+            //a table with lots of ties, NaNs, and missing values
+            java.util.Random random = new java.util.Random(17);
+            int n = 20000;
+            ByteArray   ba = new ByteArray(n, false);
+            ShortArray  sa = new ShortArray(n, false);
+            IntArray    ia = new IntArray(n, false);
+            LongArray   la = new LongArray(n, false);
+            UIntArray   uia= new UIntArray(n, false);
+            ULongArray  ula= new ULongArray(n, false);
+            FloatArray  fa = new FloatArray(n, false);
+            DoubleArray da = new DoubleArray(n, false);
+            StringArray sta= new StringArray(n, false);
+            CharArray   ca = new CharArray(n, false);
+            ba.setMaxIsMV(true);
+            ia.setMaxIsMV(true);
+            String strings[] = {"a", "B", "b", "", "A", "c"};
+            for (int i = 0; i < n; i++) {
+                int r = random.nextInt(7);
+                ba.add(r == 0? Byte.MAX_VALUE : (byte)(random.nextInt(5) - 2));
+                sa.add((short)(random.nextInt(1000) - 500));
+                ia.add(r == 1? Integer.MAX_VALUE : random.nextInt(5) - 2); 
+                la.add(random.nextLong() >> random.nextInt(64));
+                uia.add(random.nextInt(3) * 2000000000L);
+                ula.add(new java.math.BigInteger("" + random.nextInt(4)));
+                fa.add(r == 2? Float.NaN : r == 3? -0.0f : (random.nextInt(7) - 3) / 2f);
+                da.add(r == 4? Double.NaN : r == 5? Double.NEGATIVE_INFINITY : 
+                    r == 6? -0.0 : (random.nextInt(9) - 4) / 4.0);
+                sta.add(strings[random.nextInt(strings.length)]);
+                ca.add("aBbAc".charAt(random.nextInt(5)));
+            }
+            ArrayList table = new ArrayList();
+            table.add(ba);  table.add(sa); table.add(ia);  table.add(la); table.add(uia);
+            table.add(ula); table.add(fa); table.add(da);  table.add(sta); table.add(ca);
+
+            for (int pass = 0; pass < 2; pass++) {
+                //pass 1: small parallel sorts
+                parallelMinNRows = pass == 0? Integer.MAX_VALUE : 300;
+
+                //each column alone (radix sort for numeric columns)
+                for (int col = 0; col < table.size(); col++) {
+                    for (int asc = 0; asc < 2; asc++) {
+                        testRank("pass=" + pass, table, new int[]{col}, new boolean[]{asc == 0}, false);
+                        testRank("pass=" + pass, table, new int[]{col}, new boolean[]{asc == 0}, true);
+                    }
+                }
+
+                //multiple keys
+                int keys[][] = {{0, 1}, {2, 6, 7}, {4, 0, 3}, {8, 2}, {9, 8, 0}, {5, 1}, {7, 9}};
+                for (int k = 0; k < keys.length; k++) {
+                    boolean ascending[] = new boolean[keys[k].length];
+                    for (int ak = 0; ak < ascending.length; ak++)
+                        ascending[ak] = ((k + ak) % 2) == 0;
+                    testRank("pass=" + pass, table, keys[k], ascending, false);
+                    testRank("pass=" + pass, table, keys[k], ascending, true);
+                }
+            }
+
+            //tiny tables
+            for (int tn = 0; tn < 3; tn++) {
+                ArrayList tTable = new ArrayList();
+                tTable.add(da.subset(0, 1, tn - 1));
+                testRank("tn=" + tn, tTable, new int[]{0}, new boolean[]{true}, false);
+            }
+
+            //sort (with parallel reorder) == rank + reorder
+            parallelReorderMinNValues = 1000;
+            int expected[] = boxedRank(new RowComparator(table, new int[]{7, 8}, new boolean[]{true, false}));
+            ArrayList table2 = new ArrayList();
+            for (int col = 0; col < table.size(); col++) {
+                PrimitiveArray pa = (PrimitiveArray)table.get(col);
+                table2.add(pa.subset(0, 1, n - 1));
+                pa.reorder(expected);
+            }
+            PrimitiveArray.sort(table2, new int[]{7, 8}, new boolean[]{true, false});
+            for (int col = 0; col < table.size(); col++)
+                Test.ensureEqual(((PrimitiveArray)table2.get(col)).toString(), 
+                    ((PrimitiveArray)table.get(col)).toString(), "col=" + col);
+
+            //timing (radix vs merge vs old way) 
+            n = 2000000;
+            da = new DoubleArray(n, false);
+            sta = new StringArray(n, false);
+            for (int i = 0; i < n; i++) {
+                da.add(random.nextDouble());
+                sta.add("s" + random.nextInt(10000));
+            }
+            table = new ArrayList();
+            table.add(da);
+            table.add(sta);
+            parallelMinNRows = oParallelMinNRows;
+            for (int col = 0; col < 2; col++) {
+                RowComparator comparator = new RowComparator(table, new int[]{col}, new boolean[]{true});
+                long time = System.currentTimeMillis();
+                boxedRank(comparator);
+                long boxedTime = System.currentTimeMillis() - time;
+                time = System.currentTimeMillis();
+                rank(comparator);
+                String2.log("rank " + (col == 0? "doubles" : "Strings") + 
+                    " n=" + n + " boxed=" + boxedTime + "ms RowRanker=" + 
+                    (System.currentTimeMillis() - time) + "ms");
+            }
+        } finally {
+            parallelMinNRows = oParallelMinNRows;
+            parallelReorderMinNValues = oParallelReorderMinNValues;
+        }
+        String2.log("RowRanker.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ RowRanker.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -28,6 +28,7 @@ import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -1492,6 +1493,61 @@ public class StringArray extends PrimitiveArray {
         return stringHolderComparator.compare(getStringHolder(index1), otherSH);
     }
 
+    /**
+     * The maximum number of distinct values whose applyConstraint results
+     * are remembered in one call to applyConstraint.
+     * If a column has more distinct values than this, the other values are 
+     * just tested for each row.
+     */
+    public static int APPLY_CONSTRAINT_MAX_DISTINCT = 100000;
+
+    /**
+     * This is like PrimitiveArray.applyConstraint(), but since StringArray stores
+     * canonical StringHolders (so all elements with the same value usually share
+     * one StringHolder, which acts as a dictionary entry), 
+     * the test is just done once per distinct value 
+     * (e.g., once per station, not once per row) 
+     * and the result is reused for all of the other rows with that value.
+     * That is a big time savings for regex and case-insensitive tests on
+     * the typical low-cardinality String columns (station, platform, QC flag, cruise).
+     *
+     * @param morePrecise is ignored for Strings
+     * @param keep   The test is only applied to keep=true elements.
+     *   If the test is false, the keep element is set to false.
+     * @param op an EDDTable-style op, e.g., "=" or PrimitiveArray.REGEX_OP
+     * @param value2 the value to be compared to. For REGEX_OP, this is the regex.
+     * @return nStillGood
+     */
+    public int applyConstraint(boolean morePrecise, BitSet keep, String op, String value2) {
+
+        Pattern pattern = op.equals(REGEX_OP)? Pattern.compile(value2) : null;  //big time savings
+        IdentityHashMap<StringHolder,Boolean> results = new IdentityHashMap();
+        StringHolder lastSH = null; //since values are often grouped, cache the last result
+        boolean lastResult = false;
+        int nStillGood = 0;
+        for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
+            StringHolder sh = array[row];
+            if (sh != lastSH) {
+                Boolean b = results.get(sh);
+                if (b == null) {
+                    String s = sh.string();
+                    lastResult = pattern == null?
+                        testValueOpValue(s, op, value2) :
+                        pattern.matcher(s).matches();
+                    if (results.size() < APPLY_CONSTRAINT_MAX_DISTINCT)
+                        results.put(sh, lastResult? Boolean.TRUE : Boolean.FALSE);
+                } else {
+                    lastResult = b.booleanValue();
+                }
+                lastSH = sh;
+            }
+            if (lastResult) 
+                nStillGood++;
+            else keep.clear(row);
+        }
+        return nStillGood;
+    }
+
     /**
      * This is like compare(), except for CharArray and StringArray it is fancy caseInsensitive.
      *
@@ -3342,6 +3398,25 @@ public class StringArray extends PrimitiveArray {
         Test.ensureEqual((new StringArray(new String[] {"a", "", "1", "2" })).tryToFindNumericMissingValue(), null, "");
         Test.ensureEqual((new StringArray(new String[] {"a", "", "1", "99"})).tryToFindNumericMissingValue(), null, ""); //doesn't catch 99. Should it?
 
+        //applyConstraint (once per distinct value)
+        anArray = new StringArray();
+        for (int i = 0; i < 1000; i++) 
+            anArray.add(i % 3 == 0? "WTEP" : i % 3 == 1? "NRQ" : "");
+        BitSet keep = new BitSet();
+        keep.set(0, anArray.size());
+        Test.ensureEqual(anArray.applyConstraint(false, keep, "=~", "W.*"), 334, "");
+        Test.ensureEqual(keep.cardinality(), 334, "");
+        Test.ensureEqual(keep.get(0), true, "");
+        Test.ensureEqual(keep.get(1), false, "");
+        keep.set(0, anArray.size());
+        Test.ensureEqual(anArray.applyConstraint(false, keep, "!=", "NRQ"), 667, "");
+        Test.ensureEqual(keep.get(2), true, "");
+        keep.set(0, anArray.size());
+        keep.clear(0);
+        Test.ensureEqual(anArray.applyConstraint(false, keep, "=", "WTEP"), 333, "");
+        keep.set(0, anArray.size());
+        Test.ensureEqual(anArray.applyConstraint(false, keep, ">=", "nrq"), 667, ""); //case insensitive
+
     }
 
     /**
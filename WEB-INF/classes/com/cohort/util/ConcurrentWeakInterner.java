@@ -0,0 +1,280 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohort.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrentWeakInterner is like String.intern(), but for any type of
+ * immutable object with equals() and hashCode() methods (e.g., String and StringHolder),
+ * and the canonical objects can be garbage collected when they are no longer
+ * used elsewhere.
+ *
+ * <p>This is thread safe and it doesn't use any global locks:
+ * lookups are ConcurrentHashMap.get() calls and new canonical objects
+ * are added with putIfAbsent(), so many threads (e.g., several datasets
+ * being loaded and several ASCII files being parsed) can use it at once.
+ * Entries whose canonical object has been garbage collected are removed
+ * (via a ReferenceQueue) by later calls to intern() and size().
+ *
+ * <p>This keeps counts of hits (the canonical object already existed) and
+ * misses (a new canonical object was added) for statistics().
+ */
+public class ConcurrentWeakInterner<T> {
+
+    /**
+     * The key (and value) stored in the map.
+     * equals() compares the referents, so a WeakKey whose referent has been
+     * garbage collected only equals itself.
+     */
+    private static class WeakKey<T> extends WeakReference<T> {
+        final int hash;
+
+        WeakKey(T referent, ReferenceQueue<T> queue) {
+            super(referent, queue);
+            hash = referent.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof WeakKey))
+                return false;
+            Object t = get();
+            return t != null && t.equals(((WeakKey)o).get());
+        }
+    }
+
+    /**
+     * A short-lived key used for lookups, so that a lookup doesn't
+     * have to make a WeakReference (which is more work for the garbage collector).
+     */
+    private static class LookupKey {
+        final Object referent;
+
+        LookupKey(Object tReferent) {
+            referent = tReferent;
+        }
+
+        public int hashCode() {
+            return referent.hashCode();
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof WeakKey && referent.equals(((WeakKey)o).get());
+        }
+    }
+
+    private final ConcurrentHashMap<Object, WeakKey<T>> map;
+    private final ReferenceQueue<T> queue = new ReferenceQueue();
+    private final LongAdder nHits   = new LongAdder();
+    private final LongAdder nMisses = new LongAdder();
+
+    /**
+     * The constructor.
+     *
+     * @param initialCapacity the initial capacity of the map (e.g., 1024)
+     */
+    public ConcurrentWeakInterner(int initialCapacity) {
+        map = new ConcurrentHashMap(initialCapacity);
+    }
+
+    /**
+     * This returns the canonical object equal to t, or null if there isn't one.
+     * This doesn't add t. If found, this counts as a hit.
+     *
+     * @param t an object. It mustn't be null.
+     * @return the canonical object equal to t, or null if there isn't one.
+     */
+    public T get(T t) {
+        WeakKey<T> wk = map.get(new LookupKey(t));
+        T canonical = wk == null? null : wk.get();
+        if (canonical != null)
+            nHits.increment();
+        return canonical;
+    }
+
+    /**
+     * This returns the canonical object equal to t.
+     * If there isn't one yet, t becomes the canonical object.
+     *
+     * @param t an object. It mustn't be null and it mustn't be modified later.
+     * @return the canonical object equal to t.
+     */
+    public T intern(T t) {
+        T canonical = get(t);
+        if (canonical != null)
+            return canonical;
+        return add(t);
+    }
+
+    /**
+     * This is like intern(), but is for when get(t) just returned null
+     * (e.g., so the caller could make a compact copy of t before adding it).
+     *
+     * @param t an object. It mustn't be null and it mustn't be modified later.
+     * @return the canonical object equal to t (usually t).
+     */
+    public T add(T t) {
+        expungeStaleEntries();
+        WeakKey<T> newWk = new WeakKey(t, queue);
+        while (true) {
+            WeakKey<T> oldWk = map.putIfAbsent(newWk, newWk);
+            if (oldWk == null) {
+                nMisses.increment();
+                return t;
+            }
+            T canonical = oldWk.get();
+            if (canonical != null) {  //another thread added it
+                nHits.increment();
+                return canonical;
+            }
+            //it was garbage collected but not yet expunged
+            map.remove(oldWk, oldWk);
+        }
+    }
+
+    /** This removes the entries whose canonical object has been garbage collected. */
+    private void expungeStaleEntries() {
+        Object wk;
+        while ((wk = queue.poll()) != null)
+            map.remove(wk, wk);
+    }
+
+    /**
+     * This returns the number of canonical objects
+     * (after removing the ones that have been garbage collected).
+     */
+    public int size() {
+        expungeStaleEntries();
+        return map.size();
+    }
+
+    /** This returns the number of hits (the canonical object already existed). */
+    public long nHits() {
+        return nHits.sum();
+    }
+
+    /** This returns the number of misses (a new canonical object was added). */
+    public long nMisses() {
+        return nMisses.sum();
+    }
+
+    /**
+     * This returns a string with the size, nHits, nMisses and the hit rate,
+     * e.g., "size=1234, nHits=5678, nMisses=1300, hitRate=81%".
+     */
+    public String statistics() {
+        long tHits = nHits();
+        long tMisses = nMisses();
+        long total = tHits + tMisses;
+        return "size=" + size() + ", nHits=" + tHits + ", nMisses=" + tMisses +
+            ", hitRate=" + (total == 0? "NaN" : (Math2.roundToLong(tHits * 100.0 / total) + "%"));
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** ConcurrentWeakInterner.basicTest");
+        ConcurrentWeakInterner<String> interner = new ConcurrentWeakInterner(16);
+
+        //find a way to make != strings (that aren't compile-time constants)
+        int i = 1;
+        String a = "" + i;
+        String b = "" + i;
+        Test.ensureTrue(a != b, "");
+
+        Test.ensureTrue(interner.get(a) == null, "");
+        Test.ensureTrue(interner.intern(a) == a, "");
+        Test.ensureTrue(interner.intern(b) == a, "");
+        Test.ensureTrue(interner.get(b) == a, "");
+        Test.ensureEqual(interner.size(), 1, "");
+        Test.ensureEqual(interner.nHits(), 2, "");
+        Test.ensureEqual(interner.nMisses(), 1, "");
+        Test.ensureEqual(interner.statistics(), "size=1, nHits=2, nMisses=1, hitRate=67%", "");
+
+        //many threads at once: each value has just 1 canonical object
+        final ConcurrentWeakInterner<String> interner2 = new ConcurrentWeakInterner(16);
+        final String results[][] = new String[4][1000];
+        Thread threads[] = new Thread[results.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int tt = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++)
+                        results[tt][j] = interner2.intern("value" + (j % 100));
+                }};
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        for (int t = 0; t < threads.length; t++)
+            for (int j = 0; j < 1000; j++)
+                Test.ensureTrue(results[t][j] == results[0][j % 100], "t=" + t + " j=" + j);
+        Test.ensureEqual(interner2.size(), 100, "");
+        Test.ensureEqual(interner2.nHits() + interner2.nMisses(), 4000, "");
+        Test.ensureEqual(interner2.nMisses(), 100, "");
+
+        //unused canonical objects are garbage collected
+        a = null;
+        b = null;
+        for (int t = 0; t < results.length; t++)
+            results[t] = null;
+        Math2.gcAndWait(); Math2.gcAndWait(); //in a test
+        Test.ensureEqual(interner.size(), 0, "");
+        Test.ensureEqual(interner2.size(), 0, "");
+
+        String2.log("ConcurrentWeakInterner.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests; 
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test). 
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive, 
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ ConcurrentWeakInterner.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+            
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" + 
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive) 
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
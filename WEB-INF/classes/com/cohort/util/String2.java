@@ -201,16 +201,12 @@ public class String2 {
 
     private static String classPath; //lazy creation by getClassPath
 
-    //splitting canonicalMap and canonicalStringHolderMap into 6 maps allows each 
-    //to be bigger and makes synchronized contention less common.
-    private static Map canonicalMap[] = new Map[6];
-    private static Map canonicalStringHolderMap[] = new Map[6];
-    static {
-        for (int i = 0; i < canonicalMap.length; i++) {
-            canonicalMap[i]             = new WeakHashMap();
-            canonicalStringHolderMap[i] = new WeakHashMap();
-        }
-    }
+    //These use ConcurrentHashMaps of WeakReferences, so there is no 
+    //synchronized contention when many threads make canonical strings.
+    private static ConcurrentWeakInterner<String> canonicalMap = 
+        new ConcurrentWeakInterner(8192);
+    private static ConcurrentWeakInterner<StringHolder> canonicalStringHolderMap = 
+        new ConcurrentWeakInterner(8192);
     private static Map canonicalLockMap = new WeakHashMap();
     public static int longTimeoutSeconds = 300; //5 minutes. This is >= other timeouts in the system. This is used in places that previously waited forever.
 
@@ -6521,9 +6517,9 @@ and zoom and pan with controls in
     }
 
     /** 
-     * This is like String.intern(), but uses a WeakHashMap so the canonical strings 
+     * This is like String.intern(), but uses a ConcurrentWeakInterner so the canonical strings 
      * can be garbage collected.
-     * <br>This is thread safe.
+     * <br>This is thread safe and doesn't use any global locks.
      * <br>It is fast: ~0.002ms per call.
      * <br>See TestUtil.testString2canonical().
      *
@@ -6541,34 +6537,18 @@ and zoom and pan with controls in
         if (s.length() == 0)
             return EMPTY_STRING;
         //generally, it slows things down to see if same as last canonical String.
-        char ch0 = s.charAt(0);
-        Map tCanonicalMap = canonicalMap[
-            ch0 < 'A'? 0 : ch0 < 'N'? 1 : //divide uppercase into 2 parts
-            ch0 < 'a'? 2 : ch0 < 'j'? 3 : //divide lowercase into 3 parts
-            ch0 < 'r'? 4 : 5];
-       
-        //faster and logically better to use synchronized(canonicalMap) once 
-        //  (and use a few times in consistent state)
-        //than to synchronize canonicalMap and lock/unlock twice
-        synchronized(tCanonicalMap) {
-            WeakReference wr = (WeakReference)tCanonicalMap.get(s);
-            //wr won't be garbage collected, but reference might (making wr.get() return null)
-            String canonical = wr == null? null : (String)(wr.get());
-            if (canonical == null) {
-                //For proof that new String(s.substring(,)) is just storing relevant chars,
-                //not a reference to the parent string, see TestUtil.testString2canonical2()
-                canonical = new String(s); //in case s is from s2.substring, copy to be just the characters
-                tCanonicalMap.put(canonical, new WeakReference(canonical));
-                //log("new canonical string: " + canonical);
-            }
+        String canonical = canonicalMap.get(s);
+        if (canonical != null)
             return canonical;
-        }
+        //For proof that new String(s.substring(,)) is just storing relevant chars,
+        //not a reference to the parent string, see TestUtil.testString2canonical2()
+        return canonicalMap.add(new String(s)); //in case s is from s2.substring, copy to be just the characters
     }
 
     /** 
-     * This is like String.intern(), but uses a WeakHashMap so the canonical 
+     * This is like String.intern(), but uses a ConcurrentWeakInterner so the canonical 
      * StringHolder can be garbage collected.
-     * <br>This is thread safe.
+     * <br>This is thread safe and doesn't use any global locks.
      * <br>It is fast: ~0.002ms per call.
      * <br>See TestUtil.testString2canonicalStringHolder().
      *
@@ -6588,27 +6568,7 @@ and zoom and pan with controls in
             return STRING_HOLDER_NULL;
         if (car.length == 0)
             return STRING_HOLDER_ZERO;
-        char b = car[0];
-        int which = //b == -128? 7 : Math.abs(b)/16; //0..7
-            b < 'A'? 0 : b < 'N'? 1 : //divide uppercase into 2 parts
-            b < 'a'? 2 : b < 'j'? 3 : //divide lowercase into 3 parts
-            b < 'r'? 4 : 5;
-        Map tCanonicalStringHolderMap = canonicalStringHolderMap[which];
-       
-        //faster and logically better to use synchronized(canonicalStringHolderMap) once 
-        //  (and use a few times in consistent state)
-        //than to synchronize canonicalStringHolderMap and lock/unlock twice
-        synchronized(tCanonicalStringHolderMap) {
-            WeakReference wr = (WeakReference)tCanonicalStringHolderMap.get(sh);
-            //wr won't be garbage collected, but reference might (making wr.get() return null)
-            StringHolder canonical = wr == null? null : (StringHolder)(wr.get());
-            if (canonical == null) {
-                canonical = sh; //use this object
-                tCanonicalStringHolderMap.put(canonical, new WeakReference(canonical));
-                //log("new canonical string: " + canonical);
-            }
-            return canonical;
-        }
+        return canonicalStringHolderMap.intern(sh);
     }
 
     /** 
@@ -6641,41 +6601,23 @@ and zoom and pan with controls in
         }
     }
 
-    /** This is only used to test canonical. There isn't a trailing newline. */
+    /** 
+     * This returns the sizes and hit rates of the canonical maps 
+     * (e.g., for the status page). There isn't a trailing newline. 
+     */
     public static String canonicalStatistics() {
-        StringBuilder sb = new StringBuilder("canonical map sizes: ");
-        int sum = 0;
-        for (int i = 0; i < canonicalMap.length; i++) {
-            int tSize = canonicalMap[i].size();
-            sum += tSize;
-            sb.append((i==0? "" : " + ") + tSize);
-        }
-        sb.append(" = " + sum + 
-            "\ncanonicalStringHolder map sizes: ");
-        sum = 0;
-        for (int i = 0; i < canonicalStringHolderMap.length; i++) {
-            int tSize = canonicalStringHolderMap[i].size();
-            sum += tSize;
-            sb.append((i==0? "" : " + ") + tSize);
-        }
-        sb.append(" = " + sum);
-        return sb.toString();
+        return "canonical map: " + canonicalMap.statistics() + 
+            "\ncanonicalStringHolder map: " + canonicalStringHolderMap.statistics();
     }
 
     /** This is only used to test canonical. */
     public static int canonicalSize() {
-        int sum = 0;
-        for (int i = 0; i < canonicalMap.length; i++)
-            sum += canonicalMap[i].size();
-        return sum;
+        return canonicalMap.size();
     }
 
     /** This is only used to test canonicalStringHolder. */
     public static int canonicalStringHolderSize() {
-        int sum = 0;
-        for (int i = 0; i < canonicalStringHolderMap.length; i++)
-            sum += canonicalStringHolderMap[i].size();
-        return sum;
+        return canonicalStringHolderMap.size();
     }
 
     /** 
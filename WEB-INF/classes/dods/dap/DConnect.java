@@ -239,7 +239,9 @@ public class DConnect {
         is = (InputStream)object[1];
     } catch (Exception e) {
         String2.log(MustBe.throwableToString(e));
-        throw new DODSException("Connection cannot be opened");
+        DODSException de = new DODSException("Connection cannot be opened");
+        de.initCause(e); //so callers can tell, e.g., a timeout from an HTTP 4xx error
+        throw de;
     }
 
     if (connection == null) { //bob added this because S3 URLs aren't opened like regular URLs so there's no 'connection'
@@ -502,6 +504,7 @@ public class DConnect {
 
     String errorMsg = "DConnect getData failed "+url;
     int errorCode = DODSException.UNKNOWN_ERROR;
+    Throwable errorCause = null;
     int retry = 1;
     long backoff = 100L;
     while (true) {
@@ -513,6 +516,7 @@ public class DConnect {
             MustBe.throwableToString(e));
         errorMsg = e.getErrorMessage();
         errorCode = e.getErrorCode();
+        errorCause = e.getCause();
 	
         try { 
 	    Thread.sleep(backoff);
@@ -520,8 +524,12 @@ public class DConnect {
         catch (InterruptedException ie) {}
       }
 
-      if (retry == getDataMaxRetry)
-        throw new DODSException(errorCode,errorMsg);
+      if (retry == getDataMaxRetry) {
+        DODSException de = new DODSException(errorCode,errorMsg);
+        if (errorCause != null)
+          de.initCause(errorCause);
+        throw de;
+      }
       retry++;
       backoff *= 2;
     }
@@ -603,7 +611,9 @@ public class DConnect {
         }
       } */
 
-      throw new DODSException("Connection cannot be read "+url);
+      DODSException de = new DODSException("Connection cannot be read "+url);
+      de.initCause(e);
+      throw de;
 
     } finally {
       is.close();  // stream is always closed even if parse() throws exception
@@ -843,6 +843,7 @@ MapScreen mapScreen;
 Math2 m2;
 Matlab matlab;     
 MustBe mb;
+NcFilePool ncFilePool;
 NcHelper ncHelper;
 NetCheck netCheck;
 OneOf oneOf;
@@ -859,6 +860,8 @@ RegexFilenameFilter rff;
 ResourceBundle2 rb2;
 RowComparator rc;
 RowComparatorIgnoreCase rcic;
+RowRanker rr;
+ConstraintKernels ck;
 SaveOpendap so;
 SdsReader sr;
 SgtGraph sgtGraph; 
@@ -1013,6 +1016,7 @@ GridDataRandomAccessor gdracc;
 GridDataRandomAccessorInMemory gdraccim;
 HtmlWidgets hw;
 LoadDatasets ld;
+MappedFileTable mft;
 NoMoreDataPleaseException nmdpe;
 OpendapHelper oh;
 OutputStreamSource oss;
@@ -1067,6 +1071,7 @@ WaitThenTryAgainException wttae;
         Image2.test(                     errorSB, interactive, doSlowTestsToo, 0, -1);  
         XML.test(                        errorSB, interactive, doSlowTestsToo, 0, -1);
         LRUCache.test(                   errorSB, interactive, doSlowTestsToo, 0, -1);
+        ConcurrentWeakInterner.test(     errorSB, interactive, doSlowTestsToo, 0, -1);
 
         ByteArray.test(                  errorSB, interactive, doSlowTestsToo, 0, -1);
         CharArray.test(                  errorSB, interactive, doSlowTestsToo, 0, -1);
@@ -1081,6 +1086,8 @@ WaitThenTryAgainException wttae;
         UIntArray.test(                  errorSB, interactive, doSlowTestsToo, 0, -1);
         ULongArray.test(                 errorSB, interactive, doSlowTestsToo, 0, -1);
         PrimitiveArray.test(             errorSB, interactive, doSlowTestsToo, 0, -1);
+        RowRanker.test(                  errorSB, interactive, doSlowTestsToo, 0, -1);
+        ConstraintKernels.test(          errorSB, interactive, doSlowTestsToo, 0, -1);
         PAOne.test(                      errorSB, interactive, doSlowTestsToo, 0, -1);
         Attributes.test(                 errorSB, interactive, doSlowTestsToo, 0, -1);
         ResourceBundle2.test(            errorSB, interactive, doSlowTestsToo, 0, -1);
@@ -1109,6 +1116,7 @@ WaitThenTryAgainException wttae;
         //hdf.SdsWriter.main(null); //needs work
         DataHelper.test(                 errorSB, interactive, doSlowTestsToo, 0, -1);  
         NcHelper.test(                   errorSB, interactive, doSlowTestsToo, 0, -1);   
+        NcFilePool.test(                 errorSB, interactive, doSlowTestsToo, 0, -1);   
         OpendapHelper.test(              errorSB, interactive, doSlowTestsToo, 0, -1);  //few tests. relies on testing in classes that use it.
         Grid.test(                       errorSB, interactive, doSlowTestsToo, 0, -1);
         //GridDataSetCWOpendap.test(     errorSB, interactive, doSlowTestsToo, 0, -1);  //INACTIVE. The test files are no longer available since we are moving to thredds
@@ -1156,6 +1164,16 @@ WaitThenTryAgainException wttae;
         EDVTimeStamp.test(               errorSB, interactive, doSlowTestsToo, 0, -1); 
         Units2.test(                     errorSB, interactive, doSlowTestsToo, 0, -1); 
         Subscriptions.test(              errorSB, interactive, doSlowTestsToo, 0, -1);  
+        ResponseCache.test(              errorSB, interactive, doSlowTestsToo, 0, -1);  
+        SingleFlight.test(               errorSB, interactive, doSlowTestsToo, 0, -1);  
+        RequestScheduler.test(           errorSB, interactive, doSlowTestsToo, 0, -1);  
+        RequestCost.test(                errorSB, interactive, doSlowTestsToo, 0, -1);  
+        ColumnSpillFile.test(            errorSB, interactive, doSlowTestsToo, 0, -1);  
+        ExternalSort.test(               errorSB, interactive, doSlowTestsToo, 0, -1);  
+        GroupIndex.test(                 errorSB, interactive, doSlowTestsToo, 0, -1);  
+        GridChunkCache.test(             errorSB, interactive, doSlowTestsToo, 0, -1);  
+        TimeSeriesCache.test(            errorSB, interactive, doSlowTestsToo, 0, -1);  
+        DapFetcher.test(                 errorSB, interactive, doSlowTestsToo, 0, -1);  
         FileVisitorDNLS.test(            errorSB, interactive, doSlowTestsToo, 0, -1);
         FileVisitorSubdir.test(          errorSB, interactive, doSlowTestsToo, 0, -1);  
         WatchDirectory.test(             errorSB, interactive, doSlowTestsToo, 0, -1); 
@@ -0,0 +1,454 @@
+/*
+ * NcFilePool Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.coastwatch.griddata;
+
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import ucar.nc2.NetcdfFile;
+
+/**
+ * NcFilePool keeps recently used, read-only NetcdfFile handles open,
+ * so repeated requests for data from the same (hot) files don't have to
+ * reopen the files and reparse their headers each time.
+ *
+ * <p>Use it like this:
+ * <pre>
+ * NetcdfFile ncFile = NcHelper.acquireFile(fullName);
+ * try {
+ *     ... read from ncFile (but don't modify it)
+ *     NcHelper.releaseFile(ncFile); //return it to the pool
+ * } catch (Throwable t) {
+ *     NcHelper.discardFile(ncFile); //it may be in a bad state, so don't return it to the pool
+ *     throw t;
+ * }
+ * </pre>
+ *
+ * <p>A handle is only given to one borrower at a time (NetcdfFile isn't thread safe),
+ * so there may be several handles for the same file.
+ * Idle handles are identified by the file's name and lastModified time,
+ * so if the file changes, the old handles aren't reused.
+ * Idle handles are closed after maxIdleMillis, and
+ * when there are more than maxOpen open handles (idle and borrowed),
+ * the least recently used idle handles are closed.
+ * Borrowed handles are never closed by the pool.
+ *
+ * <p>This is thread safe.
+ */
+public class NcFilePool {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** Info about an idle or borrowed handle. */
+    private static class Handle {
+        final NetcdfFile ncFile;
+        final String fullName;
+        final long lastModified;
+        long lastUsed;
+        boolean invalid = false; //if true, it will be closed when released
+
+        Handle(NetcdfFile tNcFile, String tFullName, long tLastModified) {
+            ncFile = tNcFile;
+            fullName = tFullName;
+            lastModified = tLastModified;
+        }
+    }
+
+    private int maxOpen;
+    private long maxIdleMillis;
+    private final HashMap<String, ArrayDeque<Handle>> idle = new HashMap(); //fullName -> idle handles
+    private final LinkedHashSet<Handle> idleLru = new LinkedHashSet(); //least recently released first
+    private final IdentityHashMap<NetcdfFile, Handle> borrowed = new IdentityHashMap();
+    private long nHits = 0, nMisses = 0, nClosed = 0;
+
+    /**
+     * The constructor.
+     *
+     * @param tMaxOpen the maximum number of open handles (idle and borrowed)
+     *    that the pool tries to keep. 0 turns off pooling (each acquire opens the file
+     *    and each release closes it).
+     * @param tMaxIdleMillis idle handles are closed after this many milliseconds
+     */
+    public NcFilePool(int tMaxOpen, long tMaxIdleMillis) {
+        setMaxOpen(tMaxOpen, tMaxIdleMillis);
+    }
+
+    /**
+     * This changes the pool's limits (e.g., after datasets.xml is reread).
+     *
+     * @param tMaxOpen the maximum number of open handles, 0+
+     * @param tMaxIdleMillis idle handles are closed after this many milliseconds
+     */
+    public void setMaxOpen(int tMaxOpen, long tMaxIdleMillis) {
+        ArrayList<Handle> toClose;
+        synchronized (this) {
+            maxOpen = Math.max(0, tMaxOpen);
+            maxIdleMillis = Math.max(0, tMaxIdleMillis);
+            toClose = removeExcess(System.currentTimeMillis());
+        }
+        close(toClose);
+    }
+
+    /**
+     * This gets a handle for a local file from the pool (or opens the file),
+     * for read-only use by the calling thread.
+     * When finished, call release(ncFile) to return it to the pool,
+     * or (if there was trouble) call discard(ncFile).
+     * Don't just call ncFile.close(), since the pool would still count it as borrowed.
+     *
+     * @param fullName the file's full name (as for NcHelper.openFile)
+     * @return the NetcdfFile
+     * @throws Exception if trouble
+     */
+    public NetcdfFile acquire(String fullName) throws Exception {
+        long lastModified = File2.getLastModified(fullName); //0 if trouble or not a local file
+        ArrayList<Handle> toClose = null;
+        Handle handle = null;
+        synchronized (this) {
+            ArrayDeque<Handle> deque = idle.get(fullName);
+            if (deque != null) {
+                //close stale handles (the file changed)
+                for (Iterator<Handle> it = deque.iterator(); it.hasNext(); ) {
+                    Handle h = it.next();
+                    if (h.lastModified != lastModified) {
+                        it.remove();
+                        idleLru.remove(h);
+                        if (toClose == null)
+                            toClose = new ArrayList();
+                        toClose.add(h);
+                    }
+                }
+                handle = deque.pollLast(); //the most recently used
+                if (deque.isEmpty())
+                    idle.remove(fullName);
+                if (handle != null) {
+                    idleLru.remove(handle);
+                    borrowed.put(handle.ncFile, handle);
+                    nHits++;
+                }
+            }
+            if (handle == null)
+                nMisses++;
+        }
+        close(toClose);
+        if (handle != null) {
+            if (verbose) String2.log("NcFilePool reused " + fullName);
+            return handle.ncFile;
+        }
+
+        //open it (outside of synchronized)
+        NetcdfFile ncFile = NcHelper.openFile(fullName);
+        if (lastModified > 0 && !fullName.endsWith(".ncml")) { //ncml depends on other files
+            synchronized (this) {
+                borrowed.put(ncFile, new Handle(ncFile, fullName, lastModified));
+            }
+        }
+        return ncFile;
+    }
+
+    /**
+     * This returns a handle (from acquire) to the pool.
+     * If the handle isn't from the pool, the file changed, or the pool is full,
+     * this closes it.
+     *
+     * @param ncFile the NetcdfFile from acquire(). If null, nothing is done.
+     * @throws Exception if trouble closing the file
+     */
+    public void release(NetcdfFile ncFile) throws Exception {
+        if (ncFile == null)
+            return;
+        Handle handle;
+        synchronized (this) {
+            handle = borrowed.remove(ncFile);
+        }
+        boolean keep = handle != null && 
+            File2.getLastModified(handle.fullName) == handle.lastModified; //not synchronized
+        ArrayList<Handle> toClose;
+        synchronized (this) {
+            keep = keep && !handle.invalid && maxOpen > 0;
+            if (keep) {
+                handle.lastUsed = System.currentTimeMillis();
+                ArrayDeque<Handle> deque = idle.get(handle.fullName);
+                if (deque == null) {
+                    deque = new ArrayDeque();
+                    idle.put(handle.fullName, deque);
+                }
+                deque.addLast(handle);
+                idleLru.add(handle);
+            }
+            toClose = removeExcess(System.currentTimeMillis());
+        }
+        close(toClose);
+        if (!keep) {
+            ncFile.close();
+            synchronized (this) {
+                nClosed++;
+            }
+        }
+    }
+
+    /**
+     * This closes a handle (from acquire) without returning it to the pool
+     * (e.g., because there was trouble while reading, so it may be in a bad state).
+     *
+     * @param ncFile the NetcdfFile from acquire(). If null, nothing is done.
+     * @throws Exception if trouble closing the file
+     */
+    public void discard(NetcdfFile ncFile) throws Exception {
+        if (ncFile == null)
+            return;
+        synchronized (this) {
+            borrowed.remove(ncFile);
+            nClosed++;
+        }
+        ncFile.close();
+    }
+
+    /**
+     * This closes the idle handles for a file and ensures that the borrowed handles
+     * for the file won't be returned to the pool (e.g., when the file was changed or deleted).
+     *
+     * @param fullName the file's full name
+     */
+    public void invalidate(String fullName) {
+        ArrayList<Handle> toClose = new ArrayList();
+        synchronized (this) {
+            ArrayDeque<Handle> deque = idle.remove(fullName);
+            if (deque != null) {
+                for (Handle h : deque) {
+                    idleLru.remove(h);
+                    toClose.add(h);
+                }
+            }
+            for (Handle h : borrowed.values())
+                if (h.fullName.equals(fullName))
+                    h.invalid = true;
+        }
+        close(toClose);
+    }
+
+    /**
+     * This closes all of the idle handles and ensures that the borrowed handles
+     * won't be returned to the pool.
+     */
+    public void clear() {
+        ArrayList<Handle> toClose;
+        synchronized (this) {
+            toClose = new ArrayList(idleLru);
+            idle.clear();
+            idleLru.clear();
+            for (Handle h : borrowed.values())
+                h.invalid = true;
+        }
+        close(toClose);
+    }
+
+    /**
+     * This closes the idle handles which have been idle for more than maxIdleMillis.
+     * release() does this, too, so this only needs to be called
+     * if the pool may not be used for a while.
+     */
+    public void closeIdle() {
+        ArrayList<Handle> toClose;
+        synchronized (this) {
+            toClose = removeExcess(System.currentTimeMillis());
+        }
+        close(toClose);
+    }
+
+    /**
+     * This removes the idle handles which are too old or (least recently used first)
+     * over the maxOpen budget. The caller must be synchronized on this
+     * and must close the handles (after leaving synchronized).
+     *
+     * @return the handles to be closed (or null if none)
+     */
+    private ArrayList<Handle> removeExcess(long now) {
+        ArrayList<Handle> toClose = null;
+        Iterator<Handle> it = idleLru.iterator();
+        while (it.hasNext()) {
+            Handle h = it.next();
+            if (idleLru.size() + borrowed.size() <= maxOpen &&
+                now - h.lastUsed <= maxIdleMillis)
+                break;
+            it.remove();
+            ArrayDeque<Handle> deque = idle.get(h.fullName);
+            deque.remove(h);
+            if (deque.isEmpty())
+                idle.remove(h.fullName);
+            if (toClose == null)
+                toClose = new ArrayList();
+            toClose.add(h);
+        }
+        return toClose;
+    }
+
+    /** This closes the handles (not while synchronized). */
+    private void close(ArrayList<Handle> toClose) {
+        if (toClose == null || toClose.size() == 0)
+            return;
+        for (Handle h : toClose) {
+            try {
+                h.ncFile.close();
+            } catch (Throwable t) {
+                String2.log("NcFilePool caught while closing " + h.fullName + ":\n" +
+                    MustBe.throwableToString(t));
+            }
+        }
+        synchronized (this) {
+            nClosed += toClose.size();
+        }
+    }
+
+    /** The number of idle handles. */
+    public synchronized int nIdle() {
+        return idleLru.size();
+    }
+
+    /** The number of borrowed handles (which will be returned to the pool if possible). */
+    public synchronized int nBorrowed() {
+        return borrowed.size();
+    }
+
+    /** This returns a string with statistics (e.g., for the status.html page). */
+    public synchronized String statistics() {
+        return "NcFilePool: maxOpen=" + maxOpen +
+            ", maxIdleSeconds=" + (maxIdleMillis / 1000) +
+            ", nIdle=" + idleLru.size() +
+            ", nBorrowed=" + borrowed.size() +
+            ", nHits=" + nHits +
+            ", nMisses=" + nMisses +
+            ", nClosed=" + nClosed;
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** NcFilePool.basicTest");
+        String dir = File2.getSystemTempDirectory();
+        String fileName = dir + "NcFilePool_" + Math2.random(Integer.MAX_VALUE) + ".h5";
+        File2.copy(String2.unitTestDataDir + "nc/SDScompound.h5", fileName);
+        try {
+            NcFilePool pool = new NcFilePool(2, 60000);
+
+            //the same handle is reused
+            NetcdfFile nc1 = pool.acquire(fileName);
+            Test.ensureTrue(nc1.findVariable("ArrayOfStructures") != null, "");
+            pool.release(nc1);
+            Test.ensureEqual(pool.nIdle(), 1, "");
+            NetcdfFile nc2 = pool.acquire(fileName);
+            Test.ensureTrue(nc1 == nc2, "");
+            Test.ensureEqual(pool.nIdle(), 0, "");
+
+            //a concurrent borrower gets a different handle
+            NetcdfFile nc3 = pool.acquire(fileName);
+            Test.ensureTrue(nc3 != nc2, "");
+            Test.ensureEqual(pool.nBorrowed(), 2, "");
+
+            //over budget: the third handle is closed when released
+            NetcdfFile nc4 = pool.acquire(fileName);
+            pool.release(nc4);
+            Test.ensureEqual(pool.nIdle(), 0, pool.statistics());
+            pool.release(nc3);
+            pool.release(nc2);
+            Test.ensureEqual(pool.nIdle(), 2, "");
+            Test.ensureEqual(pool.nBorrowed(), 0, "");
+            Test.ensureTrue(pool.statistics().indexOf("nHits=1, nMisses=3, nClosed=1") > 0,
+                pool.statistics());
+
+            //if the file changes, the old handles aren't reused
+            File2.touch(fileName, 10000);
+            NetcdfFile nc5 = pool.acquire(fileName);
+            Test.ensureTrue(nc5 != nc2 && nc5 != nc3, "");
+            Test.ensureEqual(pool.nIdle(), 0, "");
+
+            //invalidate: a borrowed handle isn't returned to the pool
+            pool.invalidate(fileName);
+            pool.release(nc5);
+            Test.ensureEqual(pool.nIdle(), 0, "");
+
+            //discard: a borrowed handle in a bad state is closed and no longer counted as borrowed
+            NetcdfFile nc6 = pool.acquire(fileName);
+            Test.ensureEqual(pool.nBorrowed(), 1, "");
+            pool.discard(nc6);
+            Test.ensureEqual(pool.nBorrowed(), 0, "");
+            Test.ensureEqual(pool.nIdle(), 0, "");
+            pool.discard(nc6); //discarding it again is harmless
+
+            //idle handles are closed after maxIdleMillis
+            pool.setMaxOpen(2, 0);
+            pool.release(pool.acquire(fileName));
+            Math2.sleep(5);
+            pool.closeIdle();
+            Test.ensureEqual(pool.nIdle(), 0, "");
+
+            //maxOpen=0 turns off pooling
+            pool.setMaxOpen(0, 60000);
+            pool.release(pool.acquire(fileName));
+            Test.ensureEqual(pool.nIdle(), 0, "");
+            pool.clear();
+        } finally {
+            File2.delete(fileName);
+        }
+
+        String2.log("NcFilePool.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ NcFilePool.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -67,6 +67,12 @@ public class NcHelper  {
      */
     public static boolean debugMode = false;
 
+    /** 
+     * The pool of open, read-only NetcdfFile handles used by acquireFile and releaseFile.
+     * ERDDAP sets its limits from datasets.xml's &lt;ncFilePoolMaxOpen&gt;.
+     */
+    public final static NcFilePool filePool = new NcFilePool(200, 5 * 60000); //5 minutes
+
     /** 
      * varName + StringLengthSuffix is used to create the name for the char dimension 
      * of a String variable. "_strlen" is what netcdf-java uses.
@@ -852,6 +858,54 @@ public class NcHelper  {
             NetcdfFiles.open(fullName);  //'s' is the new API
     }
 
+    /**
+     * This is like openFile, but gets the NetcdfFile from filePool 
+     * (so the file's header needn't be read and parsed again) if possible.
+     * Use this for read-only access to files which are read often (e.g., a dataset's data files).
+     * When finished, call releaseFile(netcdfFile) (not netcdfFile.close()) to return it to the pool.
+     * If there is trouble while reading, call discardFile(netcdfFile) instead,
+     * so a NetcdfFile in a bad state isn't returned to the pool.
+     *
+     * @param fullName the file's full name (see openFile)
+     * @return a NetcdfFile
+     * @throws Exception if trouble
+     */
+    public static NetcdfFile acquireFile(String fullName) throws Exception {
+        return filePool.acquire(fullName);
+    }
+
+    /**
+     * This returns a NetcdfFile from acquireFile to filePool 
+     * (or closes it if it can't be pooled).
+     *
+     * @param netcdfFile a NetcdfFile from acquireFile. If null, nothing is done.
+     * @throws Exception if trouble
+     */
+    public static void releaseFile(NetcdfFile netcdfFile) throws Exception {
+        filePool.release(netcdfFile);
+    }
+
+    /**
+     * This closes a NetcdfFile from acquireFile without returning it to filePool
+     * (e.g., because there was trouble while reading it).
+     *
+     * @param netcdfFile a NetcdfFile from acquireFile. If null, nothing is done.
+     * @throws Exception if trouble
+     */
+    public static void discardFile(NetcdfFile netcdfFile) throws Exception {
+        filePool.discard(netcdfFile);
+    }
+
+    /**
+     * This ensures that filePool won't reuse any NetcdfFiles for this file
+     * (e.g., because the file was changed or deleted).
+     *
+     * @param fullName the file's full name
+     */
+    public static void invalidateFile(String fullName) {
+        filePool.invalidate(fullName);
+    }
+
     /** 
      * This converts a List of variables to a Variable[].
      *
@@ -1826,6 +1880,84 @@ public class NcHelper  {
         return pa;
     }
 
+    /**
+     * This reads just the 'keep' values from an nDimensional variable in a NetcdfFile.
+     * The values are numbered as if the variable were flattened (e.g., 
+     * for a [station][obs] variable, the value for station s and obs o is 
+     * s*nObs + o), so 'keep' can be the same obsKeep BitSet used with the 
+     * flattened table.
+     * Instead of reading the entire variable, this just reads the range
+     * of the leftmost dimension from the first to the last set bit in 'keep',
+     * then applies 'keep' to that range.
+     * This is much faster and uses much less memory when the constraints 
+     * select a small, contiguous part of a large variable (e.g., a few
+     * stations or a short time range in a ragged array file).
+     *
+     * @param variable the variable to be read from.
+     *   Char variables are converted to Strings (so the rightmost, nChar/String,
+     *   dimension doesn't count).
+     * @param keep the values to be kept. 
+     *   This isn't modified.
+     * @return a PrimitiveArray with keep.cardinality() values.
+     * @throws Exception if trouble
+     */
+    public static PrimitiveArray getPrimitiveArray(Variable variable, 
+        BitSet keep) throws Exception {
+
+        boolean isChar = variable.getDataType() == DataType.CHAR;
+        int oShape[] = variable.getShape();
+        int nDim = oShape.length;
+        int nValueDim = nDim - (isChar? 1 : 0);
+        int first = keep.nextSetBit(0);
+        if (nValueDim < 1 || oShape[0] == 0 || 
+            (first < 0 && oShape[0] == 1)) {
+            //scalar or tiny: just read it all
+            PrimitiveArray pa = getPrimitiveArray(variable);
+            pa.justKeep(keep);
+            return pa;
+        }
+
+        //find the range of the leftmost dimension with the keep values
+        long valuesPerRow = 1;
+        for (int d = 1; d < nValueDim; d++)
+            valuesPerRow *= oShape[d];
+        int firstRow = first < 0? 0 : Math2.narrowToInt(first / valuesPerRow);
+        int lastRow  = first < 0? 0 : Math2.narrowToInt((keep.length() - 1) / valuesPerRow);
+        if (firstRow == 0 && lastRow == oShape[0] - 1) {
+            //the range is the whole variable
+            PrimitiveArray pa = getPrimitiveArray(variable);
+            pa.justKeep(keep);
+            return pa;
+        }
+
+        //read the range
+        int origin[] = new int[nDim]; //all 0's
+        int shape[] = Arrays.copyOf(oShape, nDim);
+        origin[0] = firstRow;
+        shape[0] = lastRow - firstRow + 1;
+        int firstValue = Math2.narrowToInt(firstRow * valuesPerRow);
+        int nValues = Math2.narrowToInt(shape[0] * valuesPerRow);
+        PrimitiveArray pa = getPrimitiveArray(variable.read(origin, shape), true, isUnsigned(variable));
+
+        //eek! opendap returns a full-sized array! 
+        //     netcdf  returns a shape-sized array
+        if (pa.size() < nValues) 
+            Test.error(String2.ERROR + " in NcHelper.getPrimitiveArray(firstRow=" + 
+                firstRow + " lastRow=" + lastRow + ")\n" +
+                "variable.read returned too few (" + pa.size() + ").");
+        if (pa.size() > nValues) {
+            //it full-sized; reduce to correct size
+            if (reallyVerbose) String2.log(
+                "    NcHelper.getPrimitiveArray variable.read returned entire variable!"); 
+            pa.removeRange(firstValue + nValues, pa.size()); //remove tail first 
+            pa.removeRange(0, firstValue); //remove head section
+        }
+        if (first < 0) 
+            pa.clear();
+        else pa.justKeep(keep.get(firstValue, firstValue + nValues));
+        return pa;
+    }
+
     /**
      * This reads a 1D range of values from a 4D variable
      * (or 5D if it holds strings, so 5th dimension DataType is CHAR) in a NetcdfFile.
@@ -488,7 +488,7 @@ public class OpendapHelper  {
             return getPrimitiveArrays(bt);
         } catch (Exception e) {
             throw new RuntimeException(String2.ERROR + " in getPrimitiveArrays for query=" + query + "\n" +
-                e.getMessage());
+                e.getMessage(), e);
         }
 
     }
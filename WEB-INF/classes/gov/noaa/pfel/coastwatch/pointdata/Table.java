@@ -6432,8 +6432,9 @@ Dataset {
         //get information
         String msg = "  Table.readNcMetadata " + fullName; 
         long time = System.currentTimeMillis();
-        NetcdfFile netcdfFile = NcHelper.openFile(fullName);
+        NetcdfFile netcdfFile = NcHelper.acquireFile(fullName); //usually from NcHelper.filePool
         Attributes gridMappingAtts = null;
+        boolean trouble = false;
         try {
             //fill the table
             clear();
@@ -6473,11 +6474,13 @@ Dataset {
                     " TIME=" + (System.currentTimeMillis() - time) + "ms";
 
         } catch (Throwable t) {
+            trouble = true; //so netcdfFile isn't returned to the pool
             if (!reallyVerbose) String2.log(msg); 
             throw t;
 
         } finally {
-            netcdfFile.close(); 
+            if (trouble) NcHelper.discardFile(netcdfFile); 
+            else NcHelper.releaseFile(netcdfFile); //return it to the pool
             if (reallyVerbose) String2.log(msg);
         }
     }
@@ -6832,6 +6835,27 @@ Dataset {
         int standardizeWhat, 
         String constraintAxisVarName, double constraintMin, double constraintMax) throws Exception {
 
+        readNDNc(fullName, loadVariableNames, standardizeWhat, 
+            constraintAxisVarName, constraintMin, constraintMax, null);
+    }
+
+    /**
+     * This is like the other readNDNc, but also lets the caller specify 
+     * which ranges of rows to read.
+     *
+     * @param rowRanges null (read all rows) or pairs of first,last (inclusive) 
+     *    indices along the dimension of the variables (e.g., from 
+     *    EDDTableFromFiles.rowGroupRanges()). 
+     *    Rows outside of the ranges aren't read. 
+     *    This is only used if the non-axis variables have just one dimension;
+     *    otherwise it is ignored. It is also ignored if it has no ranges which
+     *    overlap the constraintAxisVar range.
+     */
+    public void readNDNc(String fullName, String loadVariableNames[], 
+        int standardizeWhat, 
+        String constraintAxisVarName, double constraintMin, double constraintMax,
+        IntArray rowRanges) throws Exception {
+
         //clear the table
         clear();
         if (loadVariableNames == null)
@@ -6844,8 +6868,9 @@ Dataset {
         long time = System.currentTimeMillis();
         String errorInMethod = String2.ERROR + " in Table.readNDNc " + fullName + ":\n";
         //get information
-        NetcdfFile ncFile = NcHelper.openFile(fullName);
+        NetcdfFile ncFile = NcHelper.acquireFile(fullName); //usually from NcHelper.filePool
         Attributes gridMappingAtts = null;
+        boolean trouble = false;
         StringArray varsNotFound = new StringArray();
         try {
             //load the global metadata
@@ -6908,6 +6933,7 @@ Dataset {
             int nAxes = -1;  //not set up yet
             int readOrigin[] = null;
             int axisLengths[] = null;
+            int readRanges[] = null; //null=read all rows
             for (int v = 0; v < loadVariables.length; v++) {
                 Variable variable = loadVariables[v];
                 boolean isChar = variable.getDataType() == DataType.CHAR;
@@ -6992,19 +7018,47 @@ Dataset {
                         }
                     }
 
+                    //deal with rowRanges (just for 1D variables)
+                    if (nAxes == 1 && rowRanges != null) {
+                        //keep the parts of the ranges within the constraintAxisVar range
+                        int wFirst = readOrigin[0];
+                        int wLast  = readOrigin[0] + axisLengths[0] - 1;
+                        IntArray tRanges = new IntArray();
+                        for (int i = 0; i < rowRanges.size() - 1; i += 2) {
+                            int first = Math.max(wFirst, rowRanges.get(i));
+                            int last  = Math.min(wLast,  rowRanges.get(i + 1));
+                            if (first <= last) {
+                                tRanges.add(first);
+                                tRanges.add(last);
+                            }
+                        }
+                        if (tRanges.size() > 0) {
+                            readRanges = tRanges.toArray();
+                            for (int i = 0; i < readRanges.length; i += 2) {
+                                columnPAs[0].ensureCapacity(columnPAs[0].size() + readRanges[i + 1] - readRanges[i] + 1);
+                                for (int row = readRanges[i]; row <= readRanges[i + 1]; row++)
+                                    columnPAs[0].addDouble(axisPAs[0].getDouble(row - wFirst)); 
+                            }
+                            if (debugMode) String2.log("  rowRanges: read " + columnPAs[0].size() + 
+                                " of " + axisLengths[0] + " rows"); 
+                        }
+                    }
+
                     //populate the axes columns
-                    NDimensionalIndex ndi = new NDimensionalIndex(axisLengths);
-                    Math2.ensureArraySizeOkay(ndi.size(), "Table.readNDNc");
-                    int nRows = (int)ndi.size(); //safe since checked above
-                    int current[] = ndi.getCurrent();
-                    for (int a = 0; a < nAxes; a++) 
-                        columnPAs[a].ensureCapacity(nRows);
-                    while (ndi.increment()) {
-                        for (int a = 0; a < nAxes; a++) {
-                            //String2.log("  a=" + a + " current[a]=" + current[a] + 
-                            //    " axisPAs[a].size=" + axisPAs[a].size());
-                            //getDouble not getString since axisVars aren't strings, double is faster
-                            columnPAs[a].addDouble(axisPAs[a].getDouble(current[a])); 
+                    if (readRanges == null) {
+                        NDimensionalIndex ndi = new NDimensionalIndex(axisLengths);
+                        Math2.ensureArraySizeOkay(ndi.size(), "Table.readNDNc");
+                        int nRows = (int)ndi.size(); //safe since checked above
+                        int current[] = ndi.getCurrent();
+                        for (int a = 0; a < nAxes; a++) 
+                            columnPAs[a].ensureCapacity(nRows);
+                        while (ndi.increment()) {
+                            for (int a = 0; a < nAxes; a++) {
+                                //String2.log("  a=" + a + " current[a]=" + current[a] + 
+                                //    " axisPAs[a].size=" + axisPAs[a].size());
+                                //getDouble not getString since axisVars aren't strings, double is faster
+                                columnPAs[a].addDouble(axisPAs[a].getDouble(current[a])); 
+                            }
                         }
                     }
                 }
@@ -7035,8 +7089,25 @@ Dataset {
                     tReadOrigin[nAxes] = 0;
                     tReadShape[nAxes] = variable.getDimension(nAxes).getLength();
                 }
-                Array array = variable.read(tReadOrigin, tReadShape); 
-                PrimitiveArray pa = PrimitiveArray.factory(NcHelper.getArray(array)); 
+                PrimitiveArray pa;
+                if (readRanges == null) {
+                    Array array = variable.read(tReadOrigin, tReadShape); 
+                    pa = PrimitiveArray.factory(NcHelper.getArray(array)); 
+                } else {
+                    //read each range and append
+                    pa = null;
+                    tReadOrigin = (int[])tReadOrigin.clone();
+                    tReadShape  = (int[])tReadShape.clone();
+                    for (int i = 0; i < readRanges.length; i += 2) {
+                        tReadOrigin[0] = readRanges[i];
+                        tReadShape[0]  = readRanges[i + 1] - readRanges[i] + 1;
+                        PrimitiveArray tPa = PrimitiveArray.factory(NcHelper.getArray(
+                            variable.read(tReadOrigin, tReadShape))); 
+                        if (pa == null)
+                            pa = tPa;
+                        else pa.append(tPa);
+                    }
+                }
                 Test.ensureEqual(pa.size(), nRows(),
                     errorInMethod + "Unexpected nRows for " + variable.getFullName() + ".");
 
@@ -7189,11 +7260,13 @@ Dataset {
                 " nCols=" + nColumns() + " time=" + (System.currentTimeMillis() - time) + "ms";
 
         } catch (Throwable t) {
+            trouble = true; //so ncFile isn't returned to the pool
             if (!reallyVerbose) String2.log(msg); 
             throw t;
 
         } finally {            
-            ncFile.close(); 
+            if (trouble) NcHelper.discardFile(ncFile); 
+            else NcHelper.releaseFile(ncFile); //return it to the pool
             if (reallyVerbose) String2.log(msg);
         }
     }
@@ -7301,8 +7374,9 @@ Dataset {
         }
 
         //read the file
-        NetcdfFile ncFile = NcHelper.openFile(fullName);
+        NetcdfFile ncFile = NcHelper.acquireFile(fullName); //usually from NcHelper.filePool
         Attributes gridMappingAtts = null;
+        boolean trouble = false;
         try {
 
             //load the global metadata
@@ -7509,12 +7583,14 @@ Dataset {
 
 
             // *** quick reject file? (by testing constraints on small (scalar and 1D) vars)
-//FUTURE: this could be a little smarter: maintain separate keep bitsets for each 1D var 
-//(and for scalars) so that the constraints are cumulative for each dimension.
+            //The keep bitsets for 1D vars are cumulative for each dimension,
+            //so e.g., lat and lon constraints that are each passed by some
+            //stations, but never by the same station, reject the file.
             PrimitiveArray knownPAs[]  = new PrimitiveArray[nLoadVars]; //read vars will be cached here
             Attributes     knownAtts[] = new Attributes[nLoadVars]; //read var's atts will be cached here
             if (haveConstraints) {
                 int nCons = conVars.size();
+                HashMap<Dimension,BitSet> dimKeep = new HashMap();  //for 1D vars
                 
                 //go through the load vars looking for 0D or 1D vars that have constraints
                 for (int v = 0; v < nLoadVars; v++) {
@@ -7546,8 +7622,13 @@ Dataset {
                     knownAtts[v] = atts;
 
                     //test constraints
-                    BitSet keep = new BitSet();
-                    keep.set(0, pa.size());
+                    BitSet keep = ntDims == 1? dimKeep.get(tDims.get(0)) : null;
+                    if (keep == null || keep.length() > pa.size()) {
+                        keep = new BitSet();
+                        keep.set(0, pa.size());
+                        if (ntDims == 1)
+                            dimKeep.put(tDims.get(0), keep);
+                    }
                     for (int con = con1; con < nCons; con++) {
                         if (!conVars.get(con).equals(varName))
                             continue;
@@ -8044,11 +8125,13 @@ Dataset {
                 " time=" + (System.currentTimeMillis() - time) + "ms";
 
         } catch (Throwable t) {
+            trouble = true; //so ncFile isn't returned to the pool
             if (!reallyVerbose) String2.log(msg); 
             throw t;
 
         } finally  {
-            ncFile.close(); 
+            if (trouble) NcHelper.discardFile(ncFile); 
+            else NcHelper.releaseFile(ncFile); //return it to the pool
             if (debugMode) msg += "\n" + Math2.memoryString();                
             if (reallyVerbose) String2.log(msg);
         }
@@ -9749,9 +9832,10 @@ Dataset {
     public void readNcCF(String fullName, StringArray loadVariableNames, 
         int standardizeWhat,
         StringArray conNames, StringArray conOps, StringArray conValues) throws Exception {
-        //FUTURE optimization: instead of reading all of 1D obs variables,
-        //find first and last set bit in obsKeep, just read a range of values,
-        //then apply obsKeep.
+        //The constraints are applied to the cheap (outer/feature-level) variables 
+        //first, then to the obs index and constraint variables. The other obs 
+        //variables are then read with NcHelper.getPrimitiveArray(var, obsKeep),
+        //which just reads the range from the first to the last set bit in obsKeep.
 
         if (loadVariableNames == null) 
             loadVariableNames = new StringArray();
@@ -9796,8 +9880,9 @@ Dataset {
             }
         }
 
-        NetcdfFile ncFile = NcHelper.openFile(fullName); 
+        NetcdfFile ncFile = NcHelper.acquireFile(fullName); //usually from NcHelper.filePool
         Attributes gridMappingAtts = null;
+        boolean trouble = false;
         String readAs = null;
         try {
             /* 
@@ -9863,7 +9948,7 @@ Dataset {
             //deal with pointType
             if (pointType) {
                 if (ncCFcc != null) ncCFcc.set(1);
-                ncFile.close();
+                NcHelper.releaseFile(ncFile); //return it to the pool
                 ncFile = null;
                 if (debugMode) msg += "PointType.  loadVars=" + loadVariableNames + "\n";
                 StringArray loadCon = new StringArray(loadVariableNames);
@@ -10175,7 +10260,7 @@ Dataset {
                 if (nLevels == 1) {
                     if (debugMode) String2.log("  Debug: nLevels=1, outerDim=scalarDim, read via readNDNc");
                     if (ncCFcc != null) ncCFcc.set(20);
-                    ncFile.close();
+                    NcHelper.releaseFile(ncFile); //return it to the pool
                     ncFile = null;
                     StringArray loadCon = new StringArray(loadVariableNames);
                     if (loadCon.size() > 0) //if loadVars specified, then add conNames
@@ -10549,12 +10634,11 @@ Dataset {
                         if (debugMode) String2.log("  Debug: nObsRows=" + tnRows + " nObsKeep=" + indexVarPA.size());
 
                         //read all of requested variable[obs]
-                        //With indexed, we have to read entire var then apply obsKeep.
+                        //With indexed, the kept obs may be scattered, so this may read most of each var.
                         for (int v = 0; v < nVars; v++) {       
                             if (varInLoadOrConVariables[v] &&
                                 varNDims[v] == 1 && varUsesDim[v][obsDim]) {  //ensure correct dim
-                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
-                                pa.justKeep(obsKeep); //as each var read in, to save memory
+                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v], obsKeep); //just read the range with obsKeep rows
                                 pa.trimToSize();
                                 addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                                 standardizeLastColumn(standardizeWhat);
@@ -10643,8 +10727,7 @@ Dataset {
                             //String2.log("var[" + v + "]=" + varNames[v] + " ndim=" + varNDims[v] + " usesObsDim=" + varUsesDim[v][obsDim]);
                             if (varInLoadOrConVariables[v] &&
                                 varNDims[v] == 1 && varUsesDim[v][obsDim]) {  //ensure correct dim
-                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
-                                pa.justKeep(obsKeep); //as each var read in, to save memory
+                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v], obsKeep); //just read the range with obsKeep rows
                                 pa.trimToSize();
                                 addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                                 standardizeLastColumn(standardizeWhat);
@@ -10854,9 +10937,8 @@ Dataset {
                                 varNDims[v] == 2 && 
                                 varUsesDim[v][outerDim] && varUsesDim[v][obsDim]) { //dim order checked above
                                 if (ncCFcc != null) ncCFcc.set(54);
-                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
+                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v], obsKeep); //just read the range with obsKeep rows
                                 if (debugMode) String2.log("  Debug: read var=" + varNames[v] + " pa.size=" + pa.size());
-                                pa.justKeep(obsKeep); //as each var read in, to save memory
                                 pa.trimToSize();
                                 if (debugMode) String2.log("    trimmed pa.size=" + pa.size());
                                 addColumn(nColumns(), varNames[v], pa, varAtts[v]);
@@ -11115,8 +11197,7 @@ Dataset {
                     if (ncCFcc != null) ncCFcc.set(71);
                     if (varInLoadOrConVariables[v] &&
                         varNDims[v] == 1 && varUsesDim[v][obsDim]) { //ensure correct dim
-                        PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
-                        pa.justKeep(obsKeep); //as each var read in, to save memory
+                        PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v], obsKeep); //just read the range with obsKeep rows
                         pa.trimToSize();
                         addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                         standardizeLastColumn(standardizeWhat);
@@ -11417,8 +11498,7 @@ Dataset {
                         varUsesDim[v][innerDim] && 
                         varUsesDim[v][obsDim]) {
                         if (ncCFcc != null) ncCFcc.set(92);
-                        PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
-                        pa.justKeep(obsKeep); //as each var read in, to save memory
+                        PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v], obsKeep); //just read the range with obsKeep rows
                         pa.trimToSize();
                         addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                         standardizeLastColumn(standardizeWhat);
@@ -11540,6 +11620,7 @@ Dataset {
                 " time=" + (System.currentTimeMillis() - time) + "ms";
 
         } catch (Throwable t) {
+            trouble = true; //so ncFile isn't returned to the pool
             if (!reallyVerbose) String2.log(msg); 
             throw t;
 
@@ -11547,7 +11628,8 @@ Dataset {
             //make sure ncFile is explicitly closed
             if (ncFile != null) {
                 try {
-                    ncFile.close();
+                    if (trouble) NcHelper.discardFile(ncFile);
+                    else NcHelper.releaseFile(ncFile); //return it to the pool
                 } catch (Throwable t) {
                     msg += "\n" + MustBe.throwableToString(t);
                 }
@@ -24059,7 +24141,8 @@ String2.log(table.dataToString());
 
 
     /**
-     * This appends okRows rows from a .nc file by doing one big read
+     * This appends okRows rows from a .nc file by doing one big read per variable
+     * (of the range from the first to the last okRow)
      * and then removing unwanted rows -- thus it may be more suited
      * for opendap since it may avoid huge numbers of separate reads.
      * This doesn't read global attributes or variable attributes.
@@ -24080,28 +24163,29 @@ String2.log(table.dataToString());
         String errorInMethod = String2.ERROR + " in blockAppendNcRows: ";
         long time = System.currentTimeMillis();
       
-        //!!****THIS HASN'T BEEN MODIFIED TO DO BLOCK READ YET
-
-        //get the desired rows   (first call adds pa's to data and adds columnNames)
-        int n = okRows.size();
-        int firstRow = okRows.nextSetBit(0);
-        int nAppendCalls = 0;
-        while (firstRow >= 0) {
-            //find end of sequence of okRows
-            int endRow = firstRow == n-1? n : okRows.nextClearBit(firstRow + 1);
-            if (endRow == -1)
-                endRow = n;
-
-            //get the data
-            appendNcRows(loadVariables, firstRow, endRow - 1);
-            nAppendCalls++;
-            
-            //first start of next sequence of okRows
-            if (endRow >= n - 1)
-                firstRow = -1;
-            else firstRow = okRows.nextSetBit(endRow + 1); 
+        //for each variable, read the range from the first to the last okRow 
+        //in one read, then just keep the okRows
+        //(first var adds pa's to data and adds columnNames)
+        boolean needToAddColumns = nColumns() == 0;
+        for (int col = 0; col < loadVariables.length; col++) {
+            Variable variable = loadVariables[col];
+            PrimitiveArray pa;
+            if (variable.getDataType() == DataType.CHAR && 
+                variable.getRank() == 1) {
+                //2016-05-20 chars in ArrayChar.D1 are read as 1 string, 
+                //  so convert the 1 string into a CharArray
+                pa = NcHelper.getPrimitiveArray(variable);
+                if (pa instanceof StringArray && pa.size() == 1)                 
+                    pa = new CharArray(pa.getString(0).toCharArray());
+                pa.justKeep(okRows);
+            } else {
+                pa = NcHelper.getPrimitiveArray(variable, okRows);
+            }
+            if (needToAddColumns) {
+                addColumn(variable.getShortName(), pa);
+            } else getColumn(col).append(pa);
         }
-        String2.log("Table.blockAppendNcRows done. nAppendCalls=" + nAppendCalls +
+        String2.log("Table.blockAppendNcRows done. nReads=" + loadVariables.length +
             " nRows=" + nRows() + 
             " TIME=" + (System.currentTimeMillis() - time) + "ms");
 
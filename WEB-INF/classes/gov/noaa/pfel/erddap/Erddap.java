@@ -432,6 +432,7 @@ public class Erddap extends HttpServlet {
         long doGetTime = System.currentTimeMillis();
         int requestNumber = totalNRequests.incrementAndGet();
         String ipAddress = EDStatic.ipAddressNotSetYet; //won't be null
+        RequestScheduler.Ticket schedulerTicket = null;
 
         try {
 
@@ -509,34 +510,24 @@ public class Erddap extends HttpServlet {
                     //   (but still counts toward ipAddressMaxRequests above)
                     //so don't wait
                     //if (debugMode) String2.log(">> requestUrl=" + requestUrl + " is exempt");
-                } else {
-                    //Wait up to 2 minutes until requestNumber is in top ipAddressMaxRequestsActive slots of this user's queue.
+                } else if (requestUrl.startsWith("/" + EDStatic.warName + "/griddap/") ||
+                           requestUrl.startsWith("/" + EDStatic.warName + "/tabledap/")) {
+                    //doDap estimates the request's cost, then waits for requestScheduler
+                    //  (except for cheap metadata requests)
+                } else if (requestUrl.startsWith("/" + EDStatic.warName + "/files/") ||
+                           requestUrl.startsWith("/" + EDStatic.warName + "/wms/") ||
+                           requestUrl.startsWith("/" + EDStatic.warName + "/sos/") ||
+                           requestUrl.startsWith("/" + EDStatic.warName + "/rest/")) {
+                    //Wait up to 2 minutes until requestScheduler admits this request.
+                    //It admits requests by fair share per client (see schedulerClientKey) and 
+                    //  allows at most ipAddressMaxRequestsActive active requests per client.
                     //This automatically deals with users making multiple simultaneous requests (no blacklist needed).
-                    //This is a really good approach because it disperses the burden on ERDDAP.
-                    long start = System.currentTimeMillis();
-                    boolean printMsg = reallyVerbose; //just print msg first time, if reallyVerbose
-                    TOP_N:
-                    while (true) { 
-                        synchronized (iaq) { //this takes very little time (~ 31 nanoseconds) (see IntArray.testSynchSpeed())
-                            for (int which = Math.min(iaq.size()-1, EDStatic.ipAddressMaxRequestsActive-1); which >= 0; which--) 
-                                if (iaq.get(which) == requestNumber) 
-                                    break TOP_N; //fall through and respond to this request
-                        }
-                        //getting here (multiple simultaneous requests) should be rare 
-                        //but there are legit reasons, e.g., WMS client, web pages like BloomWatch
-                        //FUTURE? Do tally of these IP addresses?
-                        if (printMsg) {
-                            String2.log(ipAddress + " has exceeded ipAddressMaxRequestsActive=" + 
-                                EDStatic.ipAddressMaxRequestsActive);
-                            printMsg = false;
-                        }
-                        //this number determines how ~max requests/second/user. 
-                        // 1000ms/200ms *2maxRequestsActive = 10/second = 9000/15minutes which is a lot for 1 user
-                        Thread.sleep(200); //millis. Not Math2.sleep() because we want to allow InterruptedException
-                        if (System.currentTimeMillis() - start > 120000)  //120s * 1000 millis/s
-                            throw new TimeoutException(EDStatic.timeoutOtherRequests + " " +
-                                EDStatic.oneRequestAtATime);
-                    }
+                    schedulerTicket = EDStatic.requestScheduler.admit(
+                        schedulerClientKey(loggedInAs, ipAddress), RequestScheduler.DEFAULT_COST, 
+                        120000);  //120s * 1000 millis/s
+                } else {
+                    //all other requests (e.g., web pages, searches, metadata) are cheap: 
+                    //  they use the fast lane, so don't wait
                 }
             }
 
@@ -709,6 +700,10 @@ public class Erddap extends HttpServlet {
 
         } finally {
 
+            //release this request's requestScheduler slot (if any)
+            if (schedulerTicket != null)
+                schedulerTicket.release();
+
             //remove requestNumber from ipAddressQueue for this ipAddress
             try {
                 if (!EDStatic.ipAddressUnlimited.contains(ipAddress)) {
@@ -4333,6 +4328,18 @@ writer.write(
         EDStatic.tally.add(protocol + " File Type (since startup)", fileTypeName);
         EDStatic.tally.add(protocol + " File Type (since last daily report)", fileTypeName);
 
+        //respond to a .cost request: the estimated cost of the request (without doing it)
+        if (fileTypeName.equals(".cost")) {
+            RequestCost cost = dataset.estimateCost(loggedInAs, userDapQuery, fileTypeName);
+            Writer writer = getJsonWriter(request, response, id + "_cost", ".jsonText");
+            try {
+                writer.write(cost.toJson(id, EDStatic.requestMaxEstimatedSeconds));
+            } finally {
+                writer.close(); //it calls writer.flush then out.close();  
+            }
+            return;
+        }
+
         String fileName = dataset.suggestFileName(loggedInAs, userDapQuery, 
             //e.g., .ncHeader -> .nc, so same .nc file can be used for both responses
             fileTypeName.endsWith("Header")? fileTypeName.substring(0, fileTypeName.length() - 6) : fileTypeName);
@@ -4410,74 +4417,135 @@ writer.write(
             }
         }
 
+        //estimate the request's cost (cheap metadata requests use the fast lane)
+        //and reject it if it is over requestMaxEstimatedSeconds
+        RequestCost cost = null;
+        if (!dapFastLane(fileTypeName) && 
+            !EDStatic.ipAddressUnlimited.contains(ipAddress)) {
+            cost = dataset.estimateCost(loggedInAs, userDapQuery, fileTypeName);
+            if (cost.isOverBudget(EDStatic.requestMaxEstimatedSeconds)) {
+                if (verbose) String2.log("  request is over budget: " + cost);
+                throw new SimpleException(EDStatic.queryError + 
+                    "The request's estimated time (" + 
+                    Math2.roundToLong(cost.seconds()) + " seconds) exceeds this ERDDAP's limit (" +
+                    EDStatic.requestMaxEstimatedSeconds + " seconds). Please request less data. " +
+                    "(Use the .cost file type to see a request's estimated cost.)");
+            }
+        }
+
         String cacheDir = dataset.cacheDirectory(); //it is created by EDD.ensureValid
         OutputStreamSource outputStreamSource = new OutputStreamFromHttpResponse(
             request, response, fileName, 
             jsonp == null? fileTypeName : ".jsonp",  //.jsonp pseudo fileTypeName to get correct mime type
             extension);
 
+        //*** if an identical request is in progress, wait for it and send its response
+        SingleFlight.Flight flight = null;
+        if (singleFlightFileType(fileTypeName) && request.getHeader("Range") == null) {
+            flight = SingleFlight.join(
+                SingleFlight.key(id, loggedInAs, userDapQuery, fileTypeName), cacheDir);
+            if (flight.isLeader()) {
+                outputStreamSource = flight.leaderOutputStreamSource(outputStreamSource);
+            } else {
+                boolean sent = flight.sendTo(outputStreamSource);
+                flight = null;
+                if (sent) {
+                    closeOutputStream(outputStreamSource);
+                    return;
+                } //else the leader failed, so make the response independently
+            }
+        }
+
         //*** tell the dataset to send the data
+        boolean flightOk = false;
+        RequestScheduler.Ticket schedulerTicket = null;
         try {
-            //give the dataset the opportunity to update (DAP)
-            dataset.update();
-
-            //respond to the request
-            dataset.respondToDapQuery(request, response,
-                ipAddress, loggedInAs, requestUrl, userDapQuery, 
-                outputStreamSource, 
-                cacheDir, fileName, fileTypeName);            
+            //wait up to 2 minutes until requestScheduler admits this request
+            //  (cheap metadata requests use the fast lane, so don't wait)
+            if (cost != null) 
+                schedulerTicket = EDStatic.requestScheduler.admit(
+                    schedulerClientKey(loggedInAs, ipAddress),
+                    cost.kb(), 
+                    120000);  //120s * 1000 millis/s
 
-        } catch (WaitThenTryAgainException wttae) {
-            String2.log("!!ERDDAP caught WaitThenTryAgainException");
-
-            //unload the dataset and set flag to reload it
-            LoadDatasets.tryToUnload(this, id, new StringArray(), true); //needToUpdateLucene
-            EDD.requestReloadASAP(id);
-            //This is imperfect, but not bad. Worst case: dataset is unloaded
-            //and reloaded 2+ times in quick succession when only once was needed.
-
-            //is response committed?
-            if (response.isCommitted()) {
-                String2.log("but the response is already committed. So rethrowing the error.");
-                throw wttae;
-            }
+            try {
+                //give the dataset the opportunity to update (DAP)
+                dataset.update();
+
+                //respond to the request
+                dataset.respondToDapQuery(request, response,
+                    ipAddress, loggedInAs, requestUrl, userDapQuery, 
+                    outputStreamSource, 
+                    cacheDir, fileName, fileTypeName);            
+
+            } catch (WaitThenTryAgainException wttae) {
+                String2.log("!!ERDDAP caught WaitThenTryAgainException");
+
+                //unload the dataset and set flag to reload it
+                LoadDatasets.tryToUnload(this, id, new StringArray(), true); //needToUpdateLucene
+                EDD.requestReloadASAP(id);
+                //This is imperfect, but not bad. Worst case: dataset is unloaded
+                //and reloaded 2+ times in quick succession when only once was needed.
+
+                //is response committed?
+                if (response.isCommitted()) {
+                    String2.log("but the response is already committed. So rethrowing the error.");
+                    throw wttae;
+                }
 
-            //wait up to 30 seconds for dataset to reload (tested below via dataset2!=dataset)
-            //This also slows down the client (esp. if a script) and buys time for erddap.
-            int waitSeconds = 30;
-            for (int sec = 0; sec < waitSeconds; sec++) {
-                //sleep for a second
-                Math2.sleep(1000); 
+                //wait up to 30 seconds for dataset to reload (tested below via dataset2!=dataset)
+                //This also slows down the client (esp. if a script) and buys time for erddap.
+                int waitSeconds = 30;
+                for (int sec = 0; sec < waitSeconds; sec++) {
+                    //sleep for a second
+                    Math2.sleep(1000); 
 
-                //has the dataset finished reloading?
-                EDD dataset2 = protocol.equals("griddap")? 
-                    gridDatasetHashMap.get(id) : 
-                    tableDatasetHashMap.get(id);
-                if (dataset2 != null && dataset != dataset2) { //yes, simplistic !=,  not !equals
-                    //yes! ask dataset2 to respond to the query
+                    //has the dataset finished reloading?
+                    EDD dataset2 = protocol.equals("griddap")? 
+                        gridDatasetHashMap.get(id) : 
+                        tableDatasetHashMap.get(id);
+                    if (dataset2 != null && dataset != dataset2) { //yes, simplistic !=,  not !equals
+                        //yes! ask dataset2 to respond to the query
 
-                    try {
-                        //note that this will fail if the previous response is already committed
-                        dataset2.respondToDapQuery(request, response, ipAddress, loggedInAs,
-                            requestUrl, userDapQuery, outputStreamSource, 
-                            dataset2.cacheDirectory(), fileName, //dir is created by EDD.ensureValid
-                            fileTypeName);
-                        String2.log("!!ERDDAP successfully used dataset2 to respond to the request.");
-                        break; //success! jump out of for(sec) loop
-                    } catch (Throwable t) {
-                        String2.log("!!!!ERDDAP caught Exception while handling WaitThenTryAgainException:\n" +
-                            MustBe.throwableToString(t));
-                        throw wttae; //throw original error
+                        try {
+                            //note that this will fail if the previous response is already committed
+                            dataset2.respondToDapQuery(request, response, ipAddress, loggedInAs,
+                                requestUrl, userDapQuery, outputStreamSource, 
+                                dataset2.cacheDirectory(), fileName, //dir is created by EDD.ensureValid
+                                fileTypeName);
+                            String2.log("!!ERDDAP successfully used dataset2 to respond to the request.");
+                            break; //success! jump out of for(sec) loop
+                        } catch (Throwable t) {
+                            String2.log("!!!!ERDDAP caught Exception while handling WaitThenTryAgainException:\n" +
+                                MustBe.throwableToString(t));
+                            throw wttae; //throw original error
+                        }
                     }
-                }
 
-                //if the dataset didn't reload after waitSeconds, throw the original error
-                if (sec == waitSeconds - 1)
-                    throw wttae;
+                    //if the dataset didn't reload after waitSeconds, throw the original error
+                    if (sec == waitSeconds - 1)
+                        throw wttae;
+                }
             }
+            flightOk = true;
+        } finally {
+            if (schedulerTicket != null)
+                schedulerTicket.release();
+            if (flight != null)
+                flight.finish(flightOk); //release the followers
         }
 
         //2018-05-23 now this is to make doubly sure the outputStream is closed.
+        closeOutputStream(outputStreamSource);
+    }
+
+    /**
+     * This makes doubly sure an outputStreamSource's outputStream (if any) is closed.
+     * This is essential, to end compression. Errors are logged, not thrown.
+     *
+     * @param outputStreamSource 
+     */
+    private static void closeOutputStream(OutputStreamSource outputStreamSource) {
         try {
             OutputStream out = outputStreamSource.existingOutputStream();
             if (out != null) {
@@ -4486,7 +4554,64 @@ writer.write(
             }
         } catch (Exception e2) {
             String2.log(MustBe.throwableToString(e2));
-        } //essential, to end compression  //hard to put in finally {}
+        } 
+    }
+
+    /**
+     * This returns the key which identifies a client for requestScheduler:
+     * the user's name if logged in, else the ipAddress.
+     *
+     * @param loggedInAs  the name of the logged in user (or null if not logged in)
+     * @param ipAddress the requester's ipAddress
+     * @return the key
+     */
+    static String schedulerClientKey(String loggedInAs, String ipAddress) {
+        return loggedInAs == null || loggedInAs.equals(EDStatic.loggedInAsHttps)?
+            ipAddress : "user:" + loggedInAs;
+    }
+
+    /**
+     * This indicates if doDap requests for this fileType are cheap metadata
+     * requests (e.g., .das, .dds, .html), which use requestScheduler's fast lane
+     * (i.e., they don't wait to be admitted).
+     *
+     * @param fileTypeName e.g., .das
+     * @return true if requests for this fileType use the fast lane
+     */
+    static boolean dapFastLane(String fileTypeName) {
+        return fileTypeName.equals(".cost") ||
+               fileTypeName.equals(".das") ||
+               fileTypeName.equals(".dds") ||
+               fileTypeName.equals(".fgdc") ||
+               fileTypeName.equals(".graph") ||
+               fileTypeName.equals(".help") ||
+               fileTypeName.equals(".html") ||
+               fileTypeName.equals(".iso19115") ||
+               fileTypeName.equals(".ncml") ||
+               fileTypeName.endsWith("Info"); //.pngInfo .pdfInfo
+    }
+
+    /**
+     * This indicates if identical concurrent doDap requests for this fileType
+     * should be coalesced by SingleFlight.
+     * Responses that are specific to the request (e.g., .html, .graph, .subset)
+     * and responses that EDDGrid and EDDTable make as cached files 
+     * (e.g., .nc and images, which are already coalesced via String2.canonicalLock) 
+     * aren't.
+     *
+     * @param fileTypeName e.g., .csv
+     * @return true if requests for this fileType should be coalesced
+     */
+    static boolean singleFlightFileType(String fileTypeName) {
+        return !fileTypeName.equals(".html") &&
+               !fileTypeName.equals(".graph") &&
+               !fileTypeName.equals(".subset") &&
+               !fileTypeName.endsWith("Info") &&  //.pngInfo .pdfInfo
+               (!fileTypeName.startsWith(".nc") || //.nc .ncHeader .ncCF .ncCFMA .nc4 ...
+                fileTypeName.equals(".ncoJson")) &&
+               !fileTypeName.equals(".wav") &&
+               String2.indexOf(EDDGrid.imageFileTypeNames,  fileTypeName) < 0 &&
+               String2.indexOf(EDDTable.imageFileTypeNames, fileTypeName) < 0;
     }
 
     /**
@@ -16,6 +16,7 @@ import com.cohort.util.XML;
 
 import com.sun.management.UnixOperatingSystemMXBean;
 
+import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.coastwatch.sgt.GSHHS;
 import gov.noaa.pfel.coastwatch.sgt.SgtMap;
 import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
@@ -406,8 +407,14 @@ public class LoadDatasets extends Thread {
                             //add new info to categoryInfo
                             addRemoveDatasetInfo(ADD, erddap.categoryInfo, dataset); 
 
+                            //start (or stop) its timeSeriesCache now that the dataset is in place
+                            if (dataset instanceof EDDGridFromFiles)
+                                ((EDDGridFromFiles)dataset).startTimeSeriesCache();
+                            else TimeSeriesCache.removeDataset(tId);
+
                             //clear the dataset's cache 
                             //since axis values may have changed and "last" may have changed
+                            ResponseCache.removeDataset(tId);
                             File2.deleteAllFiles(dataset.cacheDirectory());                           
                        
                             change = dataset.changed(oldDataset);
@@ -436,6 +443,7 @@ public class LoadDatasets extends Thread {
                                 tDataset = erddap.tableDatasetHashMap.remove(tId);
                             if (oldDataset == null)
                                 oldDataset = tDataset;
+                            TimeSeriesCache.removeDataset(tId);
 
                             //if oldDataset existed, remove it from categoryInfo
                             if (oldDataset != null && !oldCatInfoRemoved)
@@ -540,6 +548,13 @@ public class LoadDatasets extends Thread {
                         EDStatic.DEFAULT_decompressedCacheMaxMinutesOld : tnt; 
                     String2.log("decompressedCacheMaxMinutesOld=" + EDStatic.decompressedCacheMaxMinutesOld);
 
+                } else if (tags.equals("<erddapDatasets><dapMaxConnectionsPerDataset>")) {
+                } else if (tags.equals("<erddapDatasets></dapMaxConnectionsPerDataset>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.dapMaxConnectionsPerDataset = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_dapMaxConnectionsPerDataset : tnt; 
+                    String2.log("dapMaxConnectionsPerDataset=" + EDStatic.dapMaxConnectionsPerDataset);
+
                 } else if (tags.equals("<erddapDatasets><drawLandMask>")) {
                 } else if (tags.equals("<erddapDatasets></drawLandMask>")) {
                     String ts = xmlReader.content();
@@ -561,6 +576,29 @@ public class LoadDatasets extends Thread {
                     EDStatic.graphBackgroundColor = new Color(tnt, true); //hasAlpha
                     String2.log("graphBackgroundColor=" + String2.to0xHexString(tnt, 8));
 
+                } else if (tags.equals("<erddapDatasets><gridChunkCacheMaxMB>")) {
+                } else if (tags.equals("<erddapDatasets></gridChunkCacheMaxMB>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.gridChunkCacheMaxMB = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_gridChunkCacheMaxMB : tnt; 
+                    EDDGridFromFiles.gridChunkCache.setMaxBytes(
+                        EDStatic.gridChunkCacheMaxMB * (long)Math2.BytesPerMB);
+                    String2.log("gridChunkCacheMaxMB=" + EDStatic.gridChunkCacheMaxMB);
+
+                } else if (tags.equals("<erddapDatasets><gridMaxChunkReadsPerDataset>")) {
+                } else if (tags.equals("<erddapDatasets></gridMaxChunkReadsPerDataset>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.gridMaxChunkReadsPerDataset = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_gridMaxChunkReadsPerDataset : tnt; 
+                    String2.log("gridMaxChunkReadsPerDataset=" + EDStatic.gridMaxChunkReadsPerDataset);
+
+                } else if (tags.equals("<erddapDatasets><gridThreadPoolSize>")) {
+                } else if (tags.equals("<erddapDatasets></gridThreadPoolSize>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.gridThreadPoolSize = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_gridThreadPoolSize : tnt; 
+                    String2.log("gridThreadPoolSize=" + EDStatic.gridThreadPoolSize);
+
                 } else if (tags.equals("<erddapDatasets><ipAddressMaxRequests>")) {
                 } else if (tags.equals("<erddapDatasets></ipAddressMaxRequests>")) {
                     int tnt = String2.parseInt(xmlReader.content());
@@ -573,6 +611,7 @@ public class LoadDatasets extends Thread {
                     int tnt = String2.parseInt(xmlReader.content());
                     tnt = tnt < 1 || tnt > 100? EDStatic.DEFAULT_ipAddressMaxRequestsActive : tnt;
                     EDStatic.ipAddressMaxRequestsActive = tnt;
+                    EDStatic.updateRequestScheduler();
                     String2.log("ipAddressMaxRequestsActive=" + tnt);
 
                 } else if (tags.equals("<erddapDatasets><ipAddressUnlimited>")) {
@@ -607,6 +646,14 @@ public class LoadDatasets extends Thread {
                 } else if (tags.equals("<erddapDatasets></logLevel>")) {                    
                     EDStatic.setLogLevel(xmlReader.content()); //""->"info".  It prints diagnostic to log.txt.
 
+                } else if (tags.equals("<erddapDatasets><ncFilePoolMaxOpen>")) {
+                } else if (tags.equals("<erddapDatasets></ncFilePoolMaxOpen>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.ncFilePoolMaxOpen = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_ncFilePoolMaxOpen : tnt; 
+                    NcHelper.filePool.setMaxOpen(EDStatic.ncFilePoolMaxOpen, 5 * 60000); //5 minutes
+                    String2.log("ncFilePoolMaxOpen=" + EDStatic.ncFilePoolMaxOpen);
+
                 } else if (tags.equals("<erddapDatasets><nGridThreads>")) {
                 } else if (tags.equals("<erddapDatasets></nGridThreads>")) {
                     int tnt = String2.parseInt(xmlReader.content());
@@ -660,6 +707,28 @@ public class LoadDatasets extends Thread {
                 } else if (tags.equals("<erddapDatasets></requestBlacklist>")) {
                     EDStatic.setRequestBlacklist(xmlReader.content());
 
+                } else if (tags.equals("<erddapDatasets><requestMaxEstimatedSeconds>")) {
+                } else if (tags.equals("<erddapDatasets></requestMaxEstimatedSeconds>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.requestMaxEstimatedSeconds = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_requestMaxEstimatedSeconds : tnt; 
+                    String2.log("requestMaxEstimatedSeconds=" + EDStatic.requestMaxEstimatedSeconds);
+
+                } else if (tags.equals("<erddapDatasets><requestSchedulerMaxActive>")) {
+                } else if (tags.equals("<erddapDatasets></requestSchedulerMaxActive>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.requestSchedulerMaxActive = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_requestSchedulerMaxActive : tnt; 
+                    EDStatic.updateRequestScheduler();
+                    String2.log("requestSchedulerMaxActive=" + EDStatic.requestSchedulerMaxActive);
+
+                } else if (tags.equals("<erddapDatasets><responseCacheMaxGB>")) {
+                } else if (tags.equals("<erddapDatasets></responseCacheMaxGB>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.responseCacheMaxGB = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_responseCacheMaxGB : tnt; 
+                    String2.log("responseCacheMaxGB=" + EDStatic.responseCacheMaxGB);
+
                 } else if (tags.equals("<erddapDatasets><slowDownTroubleMillis>")) {
                 } else if (tags.equals("<erddapDatasets></slowDownTroubleMillis>")) {
                     int tms = String2.parseInt(xmlReader.content());
@@ -768,6 +837,20 @@ public class LoadDatasets extends Thread {
                     EDStatic.convertInterpolateDatasetIDVariableList = sar;
                     String2.log("convertInterpolateDatasetIDVariableList=" + String2.toCSVString(sar));
 
+                } else if (tags.equals("<erddapDatasets><tableRowGroupSize>")) {
+                } else if (tags.equals("<erddapDatasets></tableRowGroupSize>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.tableRowGroupSize = tnt < 100 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_tableRowGroupSize : tnt; 
+                    String2.log("tableRowGroupSize=" + EDStatic.tableRowGroupSize);
+
+                } else if (tags.equals("<erddapDatasets><tableThreadPoolSize>")) {
+                } else if (tags.equals("<erddapDatasets></tableThreadPoolSize>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.tableThreadPoolSize = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_tableThreadPoolSize : tnt; 
+                    String2.log("tableThreadPoolSize=" + EDStatic.tableThreadPoolSize);
+
                 } else if (tags.equals("<erddapDatasets><unusualActivity>")) {
                 } else if (tags.equals("<erddapDatasets></unusualActivity>")) {
                     int tnt = String2.parseInt(xmlReader.content());
@@ -777,6 +860,13 @@ public class LoadDatasets extends Thread {
 
                 //<user username="bsimons" password="..." roles="admin, role1" />
                 //this mimics tomcat syntax
+                } else if (tags.equals("<erddapDatasets><updateMaxEvents>")) {
+                } else if (tags.equals("<erddapDatasets></updateMaxEvents>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.updateMaxEvents = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_updateMaxEvents : tnt; 
+                    String2.log("updateMaxEvents=" + EDStatic.updateMaxEvents);
+
                 } else if (tags.equals("<erddapDatasets><user>")) { 
                     String tUsername = xmlReader.attributeValue("username");
                     String tPassword  = xmlReader.attributeValue("password");  
@@ -1476,6 +1566,8 @@ public class LoadDatasets extends Thread {
         //do in quick succession...   (???synchronized on ?)
         String2.log("*** unloading datasetID=" + tId);
         addRemoveDatasetInfo(REMOVE, erddap.categoryInfo, oldEdd); 
+        ResponseCache.removeDataset(tId);
+        TimeSeriesCache.removeDataset(tId);
         File2.deleteAllFiles(EDD.cacheDirectory(tId));
         changedDatasetIDs.add(tId);
         if (needToUpdateLucene)
@@ -105,6 +105,7 @@ public class RunLoadDatasets extends Thread {
                 int nPublicFiles = File2.deleteIfOld(EDStatic.fullPublicDirectory,   
                     System.currentTimeMillis() - EDStatic.cacheMillis, true, 
                     false);  //false: important not to delete empty dirs 
+                ResponseCache.removeDeletedFiles(); //so the index agrees with the files that remain
                 String2.log( 
                     nPublicFiles + " files remain in " + EDStatic.fullPublicDirectory + "\n" +
                     nCacheFiles + " files remain in " + EDStatic.fullCacheDirectory + " and subdirectories.");
@@ -0,0 +1,593 @@
+/*
+ * ColumnSpillFile Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * ColumnSpillFile is the block-based file format that TableWriterAll uses
+ * to store the data for one column (of one PAType) on disk.
+ *
+ * <p>The values are stored in blocks of (usually) BLOCK_NROWS values.
+ * Each block has a header:
+ * <br>int nRows, byte encoding (PLAIN or DICTIONARY), byte compression (NONE or LZ4),
+ * <br>double min, double max (of the finite values, or NaN if none, or for Strings),
+ * <br>int rawLength, int storedLength,
+ * <br>then storedLength bytes of data.
+ * <br>PLAIN data is pa.writeDos().
+ * DICTIONARY data (just for Strings with lots of repeated values, e.g., station IDs)
+ * is int nUnique, the unique Strings (writeDos),
+ * byte indexNBytes (1, 2, or 4), then an index for each row.
+ * <br>The data is LZ4 compressed if that makes it significantly smaller.
+ *
+ * <p>Because each block has a row count and the min and max values,
+ * a reader can skip blocks which don't have any relevant values (see Reader.skipBlock).
+ *
+ * <p>Writers and Readers aren't thread safe.
+ */
+public class ColumnSpillFile {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /**
+     * Set this to false (by calling compress=false in your program,
+     * not by changing the code here)
+     * if you don't want the blocks to be LZ4 compressed.
+     */
+    public static boolean compress = true;
+
+    /** 
+     * The normal number of values per block.
+     * A Writer holds up to 1 block of values in memory, for each column.
+     */
+    public final static int BLOCK_NROWS = 8192;
+
+    public final static byte PLAIN = 0;
+    public final static byte DICTIONARY = 1;
+    public final static byte NONE = 0;
+    public final static byte LZ4 = 1;
+
+    /** The size of a block header (in bytes). */
+    public final static int HEADER_NBYTES = 4 + 1 + 1 + 8 + 8 + 4 + 4;
+
+    //the pure Java instance avoids loading a native library in the servlet container
+    private final static LZ4Factory lz4Factory = LZ4Factory.fastestJavaInstance();
+
+    /**
+     * This writes a column's values to a ColumnSpillFile.
+     */
+    public static class Writer {
+        private final String fileName;
+        private DataOutputStream dos;
+        private final PrimitiveArray pending; //values not yet written
+        private final LZ4Compressor compressor = lz4Factory.fastCompressor();
+        private long nRows = 0, nBlocks = 0, nRawBytes = 0, nStoredBytes = 0;
+
+        /**
+         * The constructor. This creates the file (or overwrites an existing file).
+         *
+         * @param tFileName the full name of the file
+         * @param emptyPA an empty PrimitiveArray of the column's type
+         * @throws Exception if trouble
+         */
+        public Writer(String tFileName, PrimitiveArray emptyPA) throws Exception {
+            fileName = tFileName;
+            pending = PrimitiveArray.factory(emptyPA.elementType(), 8, false);
+            dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName)));
+        }
+
+        /**
+         * This adds the values in pa (which must be the column's type) to the file.
+         * Full blocks are written; the remaining values are written later.
+         *
+         * @param pa the values
+         * @throws Exception if trouble
+         */
+        public void write(PrimitiveArray pa) throws Exception {
+            int paSize = pa.size();
+            int po = 0;
+
+            //fill up pending
+            if (pending.size() > 0) {
+                po = Math.min(BLOCK_NROWS - pending.size(), paSize);
+                pending.addFromPA(pa, 0, po);
+                if (pending.size() < BLOCK_NROWS)
+                    return;
+                writeBlock(pending);
+                pending.clear();
+            }
+
+            //write full blocks directly from pa
+            PrimitiveArray block = null;
+            while (paSize - po >= BLOCK_NROWS) {
+                block = pa.subset(block, po, 1, po + BLOCK_NROWS - 1);
+                writeBlock(block);
+                po += BLOCK_NROWS;
+            }
+
+            //keep the rest 
+            if (po < paSize)
+                pending.addFromPA(pa, po, paSize - po);
+        }
+
+        /** This writes one block. */
+        private void writeBlock(PrimitiveArray block) throws Exception {
+            int n = block.size();
+            byte encoding = PLAIN;
+            double min = Double.NaN, max = Double.NaN;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(8 * n + 64);
+            DataOutputStream bdos = new DataOutputStream(baos);
+
+            if (block instanceof StringArray) {
+                //use a dictionary if there are lots of repeated values
+                StringArray sa = (StringArray)block;
+                HashMap<String, Integer> dict = new HashMap();
+                StringArray unique = new StringArray();
+                int index[] = new int[n];
+                int maxNUnique = n / 2;
+                for (int i = 0; i < n; i++) {
+                    String s = sa.get(i);
+                    Integer u = dict.get(s);
+                    if (u == null) {
+                        if (unique.size() >= maxNUnique) {
+                            unique = null; //too many unique values
+                            break;
+                        }
+                        u = new Integer(unique.size());
+                        dict.put(s, u);
+                        unique.add(s);
+                    }
+                    index[i] = u.intValue();
+                }
+                if (unique != null) {
+                    encoding = DICTIONARY;
+                    int nUnique = unique.size();
+                    bdos.writeInt(nUnique);
+                    unique.writeDos(bdos);
+                    int indexNBytes = nUnique <= 256? 1 : nUnique <= 65536? 2 : 4;
+                    bdos.writeByte(indexNBytes);
+                    for (int i = 0; i < n; i++) {
+                        if      (indexNBytes == 1) bdos.writeByte(index[i]);
+                        else if (indexNBytes == 2) bdos.writeShort(index[i]);
+                        else                       bdos.writeInt(index[i]);
+                    }
+                }
+
+            } else {
+                double stats[] = block.calculateStats();
+                min = stats[PrimitiveArray.STATS_MIN];
+                max = stats[PrimitiveArray.STATS_MAX];
+            }
+            if (encoding == PLAIN)
+                block.writeDos(bdos);
+            bdos.flush();
+            int rawLength = baos.size();
+            byte raw[] = baos.toByteArray();
+
+            //compress it?
+            byte compression = NONE;
+            byte stored[] = raw;
+            int storedLength = rawLength;
+            if (compress && rawLength >= 64) {
+                int maxLength = compressor.maxCompressedLength(rawLength);
+                byte compressed[] = new byte[maxLength];
+                int cLength = compressor.compress(raw, 0, rawLength, compressed, 0, maxLength);
+                if (cLength < rawLength * 0.9) {  //significantly smaller
+                    compression = LZ4;
+                    stored = compressed;
+                    storedLength = cLength;
+                }
+            }
+
+            //write the header and data
+            dos.writeInt(n);
+            dos.writeByte(encoding);
+            dos.writeByte(compression);
+            dos.writeDouble(min);
+            dos.writeDouble(max);
+            dos.writeInt(rawLength);
+            dos.writeInt(storedLength);
+            dos.write(stored, 0, storedLength);
+            nRows += n;
+            nBlocks++;
+            nRawBytes += rawLength;
+            nStoredBytes += HEADER_NBYTES + storedLength;
+        }
+
+        /**
+         * This writes the remaining values and closes the file.
+         * Calling this more than once is harmless.
+         *
+         * @throws Exception if trouble
+         */
+        public void close() throws Exception {
+            if (dos == null)
+                return;
+            try {
+                if (pending.size() > 0) {
+                    writeBlock(pending);
+                    pending.clear();
+                }
+            } finally {
+                dos.close();
+                dos = null;
+            }
+            if (verbose) String2.log("ColumnSpillFile.Writer " + statistics());
+        }
+
+        /**
+         * This closes the file without writing the remaining values
+         * (e.g., because the data is no longer needed).
+         * This won't throw an exception.
+         */
+        public void abort() {
+            try {
+                if (dos != null)
+                    dos.close();
+            } catch (Exception e) {
+            }
+            dos = null;
+        }
+
+        /** The number of values written so far. */
+        public long nRows() {
+            return nRows;
+        }
+
+        /** The number of bytes written so far (headers and stored data). */
+        public long nStoredBytes() {
+            return nStoredBytes;
+        }
+
+        /**
+         * This returns a string with statistics, e.g.,
+         * "nRows=1000000 nBlocks=16 nRawBytes=8000000 nStoredBytes=1234567".
+         */
+        public String statistics() {
+            return "nRows=" + nRows + " nBlocks=" + nBlocks +
+                " nRawBytes=" + nRawBytes + " nStoredBytes=" + nStoredBytes;
+        }
+    }
+
+    /**
+     * This reads a column's values from a ColumnSpillFile.
+     */
+    public static class Reader {
+        private DataInputStream dis;
+        private final PrimitiveArray block; //the current block's values
+        private int blockPo = 0;            //the index of the next value to be read from block
+        private final LZ4FastDecompressor decompressor = lz4Factory.fastDecompressor();
+        private byte raw[] = new byte[0];
+        private byte stored[] = new byte[0];
+
+        //the next block's header (if haveHeader)
+        private boolean haveHeader = false;
+        private int hNRows, hRawLength, hStoredLength;
+        private byte hEncoding, hCompression;
+        private double hMin, hMax;
+
+        /**
+         * The constructor.
+         *
+         * @param fileName the full name of the file
+         * @param emptyPA an empty PrimitiveArray of the column's type
+         *    (with the column's maxIsMV setting)
+         * @throws Exception if trouble
+         */
+        public Reader(String fileName, PrimitiveArray emptyPA) throws Exception {
+            block = PrimitiveArray.factory(emptyPA.elementType(), BLOCK_NROWS, false);
+            block.setMaxIsMV(emptyPA.getMaxIsMV());
+            dis = new DataInputStream(File2.getBufferedInputStream(fileName));
+        }
+
+        /**
+         * This reads the next n values and adds them to pa
+         * (like pa.readDis(dis, n) for a DataInputStream).
+         *
+         * @param pa the destination, which must be of the column's type
+         * @param n the number of values to be read
+         * @throws Exception if trouble (e.g., EOFException if there aren't n more values)
+         */
+        public void read(PrimitiveArray pa, int n) throws Exception {
+            pa.ensureCapacity(pa.size() + (long)n);
+            while (n > 0) {
+                if (blockPo >= block.size()) {
+                    if (!nextBlock())
+                        throw new EOFException();
+                    readBlock();
+                }
+                int tn = Math.min(n, block.size() - blockPo);
+                pa.addFromPA(block, blockPo, tn);
+                blockPo += tn;
+                n -= tn;
+            }
+        }
+
+        /**
+         * This reads the header of the next block, so the caller can use
+         * blockNRows(), blockMin() and blockMax() to decide whether to
+         * readBlock() or skipBlock().
+         * Use this (with readBlock and skipBlock) or read(), not both.
+         *
+         * @return false if there are no more blocks
+         * @throws Exception if trouble
+         */
+        public boolean nextBlock() throws Exception {
+            if (haveHeader)
+                return true;
+            try {
+                hNRows = dis.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            hEncoding     = dis.readByte();
+            hCompression  = dis.readByte();
+            hMin          = dis.readDouble();
+            hMax          = dis.readDouble();
+            hRawLength    = dis.readInt();
+            hStoredLength = dis.readInt();
+            haveHeader = true;
+            return true;
+        }
+
+        /** The number of values in the next block (after nextBlock() returns true). */
+        public int blockNRows() {
+            return hNRows;
+        }
+
+        /**
+         * The minimum finite value in the next block (after nextBlock() returns true),
+         * or NaN if there are no finite values or for Strings.
+         * For LongArray and ULongArray, the value may be slightly rounded.
+         */
+        public double blockMin() {
+            return hMin;
+        }
+
+        /** The maximum finite value in the next block (see blockMin). */
+        public double blockMax() {
+            return hMax;
+        }
+
+        /**
+         * This skips the next block (after nextBlock() returns true).
+         *
+         * @throws Exception if trouble
+         */
+        public void skipBlock() throws Exception {
+            File2.skipFully(dis, hStoredLength);
+            haveHeader = false;
+            block.clear();
+            blockPo = 0;
+        }
+
+        /**
+         * This reads the next block (after nextBlock() returns true).
+         *
+         * @return the block's values. The PrimitiveArray is reused by the next
+         *    readBlock(), so don't keep a reference to it.
+         * @throws Exception if trouble
+         */
+        public PrimitiveArray readBlock() throws Exception {
+            if (stored.length < hStoredLength)
+                stored = new byte[hStoredLength];
+            dis.readFully(stored, 0, hStoredLength);
+            byte tRaw[] = stored;
+            if (hCompression == LZ4) {
+                if (raw.length < hRawLength)
+                    raw = new byte[hRawLength];
+                decompressor.decompress(stored, 0, raw, 0, hRawLength);
+                tRaw = raw;
+            }
+            DataInputStream bdis = new DataInputStream(
+                new ByteArrayInputStream(tRaw, 0, hRawLength));
+
+            block.clear();
+            if (hEncoding == DICTIONARY) {
+                int nUnique = bdis.readInt();
+                StringArray unique = new StringArray(nUnique, false);
+                unique.readDis(bdis, nUnique);
+                int indexNBytes = bdis.readByte();
+                StringArray sa = (StringArray)block;
+                sa.ensureCapacity(hNRows);
+                for (int i = 0; i < hNRows; i++)
+                    sa.add(unique.get(
+                        indexNBytes == 1? bdis.readUnsignedByte() :
+                        indexNBytes == 2? bdis.readUnsignedShort() :
+                                          bdis.readInt()));
+            } else {
+                block.readDis(bdis, hNRows);
+            }
+            haveHeader = false;
+            blockPo = 0;
+            return block;
+        }
+
+        /**
+         * This closes the file. Calling this more than once is harmless.
+         * This won't throw an exception.
+         */
+        public void close() {
+            try {
+                if (dis != null)
+                    dis.close();
+            } catch (Exception e) {
+            }
+            dis = null;
+        }
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** ColumnSpillFile.basicTest");
+        String fileName = File2.getSystemTempDirectory() +
+            "ColumnSpillFile" + Math2.random(Integer.MAX_VALUE) + ".temp";
+        try {
+            //doubles (with NaNs) in odd-sized chunks
+            int n = 3 * BLOCK_NROWS + 17;
+            DoubleArray da = new DoubleArray();
+            for (int i = 0; i < n; i++)
+                da.add(i % 100 == 0? Double.NaN : i / 10.0);
+            Writer writer = new Writer(fileName, new DoubleArray());
+            for (int i = 0; i < n; i += 10000)
+                writer.write(da.subset(i, 1, Math.min(n, i + 10000) - 1));
+            writer.close();
+            writer.close(); //harmless
+            Test.ensureEqual(writer.nRows(), n, "");
+
+            Reader reader = new Reader(fileName, new DoubleArray());
+            DoubleArray da2 = new DoubleArray();
+            reader.read(da2, 5);
+            reader.read(da2, n - 5);
+            reader.close();
+            Test.ensureEqual(da2, da, "");
+
+            //block min and max, and skipping
+            reader = new Reader(fileName, new DoubleArray());
+            Test.ensureTrue(reader.nextBlock(), "");
+            Test.ensureEqual(reader.blockNRows(), BLOCK_NROWS, "");
+            Test.ensureEqual(reader.blockMin(), 0.1, "");
+            Test.ensureEqual(reader.blockMax(), (BLOCK_NROWS - 1) / 10.0, "");
+            reader.skipBlock();
+            Test.ensureTrue(reader.nextBlock(), "");
+            Test.ensureEqual(reader.blockMin(), BLOCK_NROWS / 10.0, "");
+            PrimitiveArray block = reader.readBlock();
+            Test.ensureEqual(block.getDouble(0), BLOCK_NROWS / 10.0, "");
+            Test.ensureTrue(reader.nextBlock(), "");
+            reader.skipBlock();
+            Test.ensureTrue(reader.nextBlock(), "");
+            Test.ensureEqual(reader.blockNRows(), 17, "");
+            reader.readBlock();
+            Test.ensureTrue(!reader.nextBlock(), "");
+            reader.close();
+
+            //Strings with lots of repeated values use a dictionary and are much smaller
+            n = 2 * BLOCK_NROWS + 3;
+            StringArray sa = new StringArray();
+            for (int i = 0; i < n; i++)
+                sa.add(i % 7 == 0? "" : "station" + (i % 30));
+            writer = new Writer(fileName, new StringArray());
+            writer.write(sa);
+            writer.close();
+            Test.ensureTrue(writer.nStoredBytes() < n, writer.statistics());
+            reader = new Reader(fileName, new StringArray());
+            StringArray sa2 = new StringArray();
+            reader.read(sa2, n);
+            reader.close();
+            Test.ensureEqual(sa2, sa, "");
+
+            //mostly unique Strings are stored plain
+            sa.clear();
+            for (int i = 0; i < 1000; i++)
+                sa.add("a" + i);
+            writer = new Writer(fileName, new StringArray());
+            writer.write(sa);
+            writer.close();
+            reader = new Reader(fileName, new StringArray());
+            sa2.clear();
+            reader.read(sa2, 1000);
+            try {
+                reader.read(sa2, 1);
+                throw new RuntimeException("shouldn't get here");
+            } catch (EOFException e) {
+                //expected
+            }
+            reader.close();
+            Test.ensureEqual(sa2, sa, "");
+
+            //ints, uncompressed
+            compress = false;
+            try {
+                IntArray ia = new IntArray(0, 99999);
+                writer = new Writer(fileName, new IntArray());
+                writer.write(ia);
+                writer.close();
+                Test.ensureEqual(writer.nStoredBytes(),
+                    ((100000 + BLOCK_NROWS - 1) / BLOCK_NROWS) * HEADER_NBYTES + 4 * 100000, 
+                    writer.statistics());
+                reader = new Reader(fileName, new IntArray());
+                IntArray ia2 = new IntArray();
+                reader.read(ia2, 100000);
+                reader.close();
+                Test.ensureEqual(ia2, ia, "");
+            } finally {
+                compress = true;
+            }
+
+        } finally {
+            File2.delete(fileName);
+        }
+        String2.log("ColumnSpillFile.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ ColumnSpillFile.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,578 @@
+/*
+ * DapFetcher Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import dods.dap.DConnect;
+
+import gov.noaa.pfel.coastwatch.griddata.OpendapHelper;
+import gov.noaa.pfel.erddap.util.EDStatic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URLDecoder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DapFetcher gets the data for EDDGridFromDap.getSourceData from the remote
+ * OPeNDAP server via several concurrent sub-requests, instead of one
+ * request at a time over one connection, so that large requests are limited
+ * by the bandwidth, not by the round-trip latency, of the remote server.
+ *
+ * <p>getSourceData splits each partial request (from GridDataAccessor) into
+ * one sub-request per data variable, and splits those along the leftmost axis
+ * (see splitAxis0) if they are big enough to be worth it.
+ * The sub-requests are submitted in order to EDStatic.dapThreadPool(),
+ * each with its own DConnect. If dapMaxConnectionsPerDataset (a setting in 
+ * datasets.xml) is &gt; 0, each first gets a permit from the dataset's
+ * EDStatic.dapConnectionSemaphore(), so the number of connections to the source
+ * from all of a dataset's requests combined is at most dapMaxConnectionsPerDataset.
+ * A sub-request that fails because of a transient problem (see isRetryable)
+ * is retried (nRetries times) after a delay
+ * that doubles each time (retryDelayMillis, then 2*retryDelayMillis, ...).
+ * The results are returned in the order of the queries, so the caller
+ * reassembles them in order.
+ *
+ * <p>This is thread safe.
+ */
+public class DapFetcher {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** The number of times a failed sub-request is retried. */
+    public static int nRetries = 3;
+
+    /** The delay before the first retry (later delays are 2x, 4x, ... this). */
+    public static long retryDelayMillis = 1000;
+
+    /** A data variable's request is only split along the leftmost axis into pieces of at least this many bytes. */
+    public static long subRequestMinBytes = Math2.BytesPerMB;
+
+    /** How SSR starts the message of an IOException for an HTTP error. */
+    private final static String HTTP_STATUS_CODE = "HTTP status code=";
+
+    /** Server-wide statistics. */
+    private static AtomicLong nSubRequests = new AtomicLong(),
+        nRetried = new AtomicLong(), nFailed = new AtomicLong();
+
+    /** The thing that actually gets the data for a query. */
+    public interface Getter {
+        /**
+         * @param query a DAP query, e.g., ?sst[0:1:10][0:1:20][0:1:30]
+         * @return the PrimitiveArrays (see OpendapHelper.getPrimitiveArrays)
+         * @throws Exception if trouble
+         */
+        PrimitiveArray[] get(String query) throws Exception;
+    }
+
+    /** One sub-request, which releases its permit when it is finished (or cancelled before it starts). */
+    private static class SubRequest implements Callable<PrimitiveArray[]> {
+        final Getter getter;
+        final String query;
+        final Semaphore semaphore;
+        final AtomicBoolean released = new AtomicBoolean(false);
+
+        SubRequest(Getter tGetter, String tQuery, Semaphore tSemaphore) {
+            getter = tGetter;
+            query = tQuery;
+            semaphore = tSemaphore;
+        }
+
+        public PrimitiveArray[] call() throws Exception {
+            try {
+                return getWithRetry(getter, query);
+            } finally {
+                release();
+            }
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true) && semaphore != null)
+                semaphore.release();
+        }
+    }
+
+    /**
+     * This gets the data for several queries from an OPeNDAP source,
+     * concurrently, limited by the dataset's dapConnectionSemaphore (if any).
+     *
+     * @param tDatasetID the datasetID (for the per-dataset connection limit)
+     * @param tSourceUrl the OPeNDAP dataset's url (without extension)
+     * @param tAcceptDeflate see DConnect
+     * @param queries the DAP queries (e.g., ?sst[0:1:10][0:1:20][0:1:30])
+     * @return the results for each query (in the same order)
+     * @throws Throwable if trouble (the exception from the first failed query)
+     */
+    public static PrimitiveArray[][] getAll(String tDatasetID, final String tSourceUrl,
+        final boolean tAcceptDeflate, String queries[]) throws Throwable {
+
+        return getAll(
+            new Getter() {
+                public PrimitiveArray[] get(String query) throws Exception {
+                    //DConnect isn't thread safe, so each sub-request gets its own
+                    DConnect dConnect = new DConnect(tSourceUrl, tAcceptDeflate, 1, 1);
+                    return OpendapHelper.getPrimitiveArrays(dConnect, query);
+                }
+            },
+            queries, EDStatic.dapConnectionSemaphore(tDatasetID), 
+            EDStatic.dapMaxConnectionsPerDataset != 1? EDStatic.dapThreadPool() : null);
+    }
+
+    /**
+     * This is the low level version of getAll.
+     *
+     * @param getter the thing that gets the data for a query
+     * @param queries the DAP queries
+     * @param semaphore limits the number of sub-requests in progress at once
+     *   (or null if there is no limit)
+     * @param pool the threads which run the sub-requests
+     *   (or null to run them one at a time in this thread)
+     * @return the results for each query (in the same order)
+     * @throws Throwable if trouble (the exception from the first failed query)
+     */
+    public static PrimitiveArray[][] getAll(Getter getter, String queries[],
+        Semaphore semaphore, ExecutorService pool) throws Throwable {
+
+        int n = queries.length;
+        PrimitiveArray results[][] = new PrimitiveArray[n][];
+        if (n == 1 || pool == null) {
+            //one at a time, in this thread
+            for (int i = 0; i < n; i++) {
+                if (semaphore != null)
+                    semaphore.acquire();
+                try {
+                    results[i] = getWithRetry(getter, queries[i]);
+                } finally {
+                    if (semaphore != null)
+                        semaphore.release();
+                }
+            }
+            return results;
+        }
+
+        //pipeline: submit in order (each when a connection is available), then collect in order
+        long time = System.currentTimeMillis();
+        SubRequest subRequests[] = new SubRequest[n];
+        Future<PrimitiveArray[]> futures[] = new Future[n];
+        int nSubmitted = 0;
+        try {
+            for (int i = 0; i < n; i++) {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedException("DapFetcher.getAll" + EDStatic.caughtInterrupted);
+                if (semaphore != null)
+                    semaphore.acquire();
+                subRequests[i] = new SubRequest(getter, queries[i], semaphore);
+                try {
+                    futures[i] = pool.submit(subRequests[i]);
+                } catch (Throwable t) {
+                    subRequests[i].release(); //e.g., RejectedExecutionException
+                    throw t;
+                }
+                nSubmitted++;
+            }
+            for (int i = 0; i < n; i++) {
+                try {
+                    results[i] = futures[i].get();
+                } catch (ExecutionException ee) {
+                    throw ee.getCause() == null? ee : ee.getCause();
+                }
+            }
+            if (verbose) String2.log("DapFetcher.getAll nQueries=" + n +
+                " time=" + (System.currentTimeMillis() - time) + "ms");
+            return results;
+
+        } catch (Throwable t) {
+            //cancel the others and free their connections
+            for (int i = 0; i < nSubmitted; i++) {
+                if (futures[i].cancel(true))
+                    subRequests[i].release(); //no effect if it already released
+            }
+            throw t;
+        }
+    }
+
+    /**
+     * This gets the data for one query, retrying (with increasing delays) if it fails.
+     *
+     * @param getter the thing that gets the data for a query
+     * @param query the DAP query
+     * @return the result
+     * @throws Exception if trouble (the exception from the last try)
+     */
+    public static PrimitiveArray[] getWithRetry(Getter getter, String query) throws Exception {
+        nSubRequests.incrementAndGet();
+        long delay = retryDelayMillis;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return getter.get(query);
+            } catch (Exception e) {
+                if (attempt >= nRetries || !isRetryable(e)) {
+                    nFailed.incrementAndGet();
+                    throw e;
+                }
+                nRetried.incrementAndGet();
+                String2.log("DapFetcher: retry #" + (attempt + 1) + " in " + delay +
+                    "ms for query=" + query + " after " + e.toString());
+                Thread.sleep(delay); //throws InterruptedException, which stops the retries
+                delay *= 2;
+            }
+        }
+    }
+
+    /**
+     * This indicates if a sub-request which failed with this exception
+     * should be retried: only if it failed because of a transient problem, 
+     * i.e., an I/O error, a timeout, or an HTTP 5xx error from the remote server.
+     * Not, e.g., if the user's request was cancelled or asks for too much data,
+     * or if the remote server rejected the request (an HTTP 4xx error
+     * or a DAP error message, e.g., for an invalid constraint).
+     *
+     * @param t the exception
+     * @return true if the sub-request should be retried
+     */
+    public static boolean isRetryable(Throwable t) {
+        if (Thread.currentThread().isInterrupted() ||
+            t instanceof InterruptedException ||
+            t instanceof OutOfMemoryError ||
+            EDStatic.isClientAbortException(t))
+            return false;
+        String tToString = t.toString();
+        if (tToString.indexOf(Math2.memoryTooMuchData) >= 0 ||
+            tToString.indexOf(Math2.TooManyOpenFiles) >= 0)
+            return false;
+
+        //look through the causes (e.g., OpendapHelper and DConnect wrap the IOException)
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException)
+                return true;
+            if (cause instanceof IOException) {
+                //SSR reports an HTTP error as an IOException: "HTTP status code=503 ..."
+                String msg = cause.getMessage();
+                int po = msg == null? -1 : msg.indexOf(HTTP_STATUS_CODE);
+                if (po >= 0)
+                    return msg.startsWith("5", po + HTTP_STATUS_CODE.length());
+                return !(cause instanceof FileNotFoundException) &&
+                       !(cause instanceof MalformedURLException); 
+            }
+        }
+        return false; 
+    }
+
+    /**
+     * This returns the number of pieces that a data variable's request
+     * should be split into along the leftmost axis.
+     *
+     * @param tConstraints the start, stride, stop for each axis variable
+     * @param elementSize the size (in bytes) of each of the variable's values
+     * @param maxPieces the maximum number of pieces (e.g., dapMaxConnectionsPerDataset)
+     * @return the number of pieces (1+)
+     */
+    public static int nPieces(IntArray tConstraints, int elementSize, int maxPieces) {
+        long nValues = 1;
+        for (int av = 0; av < tConstraints.size() / 3; av++)
+            nValues *= TimeSeriesCache.nIndices(tConstraints, av);
+        long nBytes = nValues * elementSize;
+        long n = Math.min(maxPieces, TimeSeriesCache.nIndices(tConstraints, 0));
+        n = Math.min(n, nBytes / Math.max(1, subRequestMinBytes));
+        return (int)Math.max(1, n);
+    }
+
+    /**
+     * This splits the constraints into nPieces (or fewer) contiguous pieces
+     * along the leftmost axis, so that the pieces' results, appended in order,
+     * are the results for tConstraints.
+     *
+     * @param tConstraints the start, stride, stop for each axis variable
+     * @param nPieces the desired number of pieces
+     * @return the constraints for each piece
+     */
+    public static IntArray[] splitAxis0(IntArray tConstraints, int nPieces) {
+        int start  = tConstraints.get(0);
+        int stride = tConstraints.get(1);
+        int n0 = TimeSeriesCache.nIndices(tConstraints, 0);
+        nPieces = Math.max(1, Math.min(nPieces, n0));
+        if (nPieces == 1)
+            return new IntArray[]{tConstraints};
+        int perPiece = (n0 + nPieces - 1) / nPieces; //ceiling
+        nPieces = (n0 + perPiece - 1) / perPiece;    //e.g., n0=9, nPieces=4 -> perPiece=3 -> nPieces=3
+        IntArray pieces[] = new IntArray[nPieces];
+        for (int p = 0; p < nPieces; p++) {
+            int first = p * perPiece;                         //index in the n0 requested values
+            int last = Math.min(n0, first + perPiece) - 1;
+            pieces[p] = (IntArray)tConstraints.clone();
+            pieces[p].set(0, start + first * stride);
+            pieces[p].set(2, start + last  * stride);
+        }
+        return pieces;
+    }
+
+    /**
+     * This returns a one line summary of DapFetcher's statistics (for the status page).
+     */
+    public static String statistics() {
+        return "DapFetcher: nSubRequests=" + nSubRequests.get() +
+            ", nRetried=" + nRetried.get() + ", nFailed=" + nFailed.get();
+    }
+
+    /**
+     * This makes a stand-in OPeNDAP server (for testing) which serves
+     * one Float32 array, sst[time=1000], where sst[i] = i/10,
+     * e.g., http://localhost:port/dap/test.dods?sst[0:1:9].
+     * Each response is delayed by delayMillis.
+     * The first failFirstN responses are HTTP 500 errors.
+     * Requests beyond the end of sst are HTTP 400 errors.
+     *
+     * @param delayMillis the delay for each response
+     * @param failFirstN the number of initial requests which fail
+     * @param nActive this counts the requests in progress
+     * @param maxActive this records the maximum nActive
+     * @return the server (already started). Call server.stop(0) when done.
+     */
+    static HttpServer makeStandInServer(final long delayMillis, int failFirstN,
+        final AtomicInteger nActive, final AtomicInteger maxActive) throws Exception {
+
+        final AtomicInteger nToFail = new AtomicInteger(failFirstN);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/dap/test.dods", new HttpHandler() {
+            public void handle(HttpExchange exchange) {
+                int active = nActive.incrementAndGet();
+                maxActive.accumulateAndGet(active, Math::max);
+                try {
+                    Thread.sleep(delayMillis);
+                    String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8");
+                    int po1 = query.indexOf('['), po2 = query.indexOf(']');
+                    int csv[] = String2.csvToIntArray(query.substring(po1 + 1, po2).replace(':', ','));
+                    if (csv[2] >= 1000) {
+                        exchange.sendResponseHeaders(400, -1);
+                        return;
+                    }
+                    if (nToFail.getAndDecrement() > 0) {
+                        exchange.sendResponseHeaders(500, -1);
+                        return;
+                    }
+                    int n = (csv[2] - csv[0]) / csv[1] + 1;
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    DataOutputStream dos = new DataOutputStream(baos);
+                    dos.write(String2.toByteArray(
+                        "Dataset {\n" +
+                        "    Float32 sst[time = " + n + "];\n" +
+                        "} test;\n" +
+                        "Data:\n"));
+                    dos.writeInt(n);
+                    dos.writeInt(n);
+                    for (int i = csv[0]; i <= csv[2]; i += csv[1])
+                        dos.writeFloat(i / 10f);
+                    dos.flush();
+                    exchange.getResponseHeaders().set("Content-Description", "dods-data");
+                    exchange.getResponseHeaders().set("XDODS-Server", "dods/3.7");
+                    exchange.sendResponseHeaders(200, baos.size());
+                    OutputStream os = exchange.getResponseBody();
+                    baos.writeTo(os);
+                    os.close();
+                } catch (Throwable t) {
+                    String2.log(MustBe.throwableToString(t));
+                } finally {
+                    nActive.decrementAndGet();
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** DapFetcher.basicTest");
+
+        //nPieces and splitAxis0
+        long oSubRequestMinBytes = subRequestMinBytes;
+        long oRetryDelayMillis = retryDelayMillis;
+        try {
+            subRequestMinBytes = 1000;
+            retryDelayMillis = 10;
+            IntArray con = new IntArray(new int[]{0, 1, 99,  0, 1, 9});
+            Test.ensureEqual(nPieces(con, 4, 8), 4, "");   //4000 bytes
+            Test.ensureEqual(nPieces(con, 8, 8), 8, "");   //8000 bytes
+            Test.ensureEqual(nPieces(con, 1, 8), 1, "");   //too small to split
+            Test.ensureEqual(nPieces(new IntArray(new int[]{5, 1, 6,  0, 1, 999}), 8, 8), 2, ""); //just 2 axis0 values
+            IntArray pieces[] = splitAxis0(new IntArray(new int[]{10, 2, 26,  0, 1, 9}), 4); //9 values
+            Test.ensureEqual(pieces.length, 3, "");
+            Test.ensureEqual(pieces[0].toString(), "10, 2, 14, 0, 1, 9", "");
+            Test.ensureEqual(pieces[1].toString(), "16, 2, 20, 0, 1, 9", "");
+            Test.ensureEqual(pieces[2].toString(), "22, 2, 26, 0, 1, 9", "");
+            pieces = splitAxis0(new IntArray(new int[]{0, 1, 9}), 4); //10 values
+            Test.ensureEqual(pieces.length, 4, "");
+            Test.ensureEqual(pieces[3].toString(), "9, 1, 9", "");
+            pieces = splitAxis0(new IntArray(new int[]{3, 1, 3}), 4);
+            Test.ensureEqual(pieces.length, 1, "");
+            Test.ensureEqual(pieces[0].toString(), "3, 1, 3", "");
+
+            //retry
+            final AtomicInteger nCalls = new AtomicInteger(0);
+            Getter flaky = new Getter() {
+                public PrimitiveArray[] get(String query) throws Exception {
+                    if (nCalls.incrementAndGet() < 3)
+                        throw new IOException("flaky");
+                    return new PrimitiveArray[]{new FloatArray(new float[]{1})};
+                }};
+            Test.ensureEqual(getWithRetry(flaky, "?a")[0].toString(), "1.0", "");
+            Test.ensureEqual(nCalls.get(), 3, "");
+            nCalls.set(-100);
+            try {
+                getWithRetry(flaky, "?a");
+                throw new RuntimeException("shouldn't get here");
+            } catch (IOException e) {
+                Test.ensureEqual(e.getMessage(), "flaky", "");
+            }
+            Test.ensureEqual(nCalls.get(), -100 + nRetries + 1, "");
+            Test.ensureEqual(isRetryable(new RuntimeException(Math2.memoryTooMuchData)), false, "");
+            Test.ensureEqual(isRetryable(new InterruptedException()), false, "");
+            //only I/O errors, timeouts and HTTP 5xx errors are retried
+            Test.ensureEqual(isRetryable(new java.net.SocketTimeoutException("Read timed out")), true, "");
+            Test.ensureEqual(isRetryable(new TimeoutException()), true, "");
+            Test.ensureEqual(isRetryable(new RuntimeException("ERROR in getPrimitiveArrays", 
+                new IOException("HTTP status code=503 for URL: http://a"))), true, "");
+            Test.ensureEqual(isRetryable(new RuntimeException("ERROR in getPrimitiveArrays", 
+                new IOException("HTTP status code=400 for URL: http://a"))), false, "");
+            Test.ensureEqual(isRetryable(new FileNotFoundException("http://a")), false, "");
+            Test.ensureEqual(isRetryable(new RuntimeException("ERROR in getPrimitiveArrays", 
+                new dods.dap.DODSException("Constraint expression parse error"))), false, "");
+            Test.ensureEqual(isRetryable(new RuntimeException("flaky")), false, "");
+
+            //concurrent, in-order sub-requests from a stand-in DAP server
+            AtomicInteger nActive = new AtomicInteger(0);
+            AtomicInteger maxActive = new AtomicInteger(0);
+            HttpServer server = makeStandInServer(200, 2, nActive, maxActive); //first 2 fail
+            ExecutorService pool = Executors.newCachedThreadPool();
+            try {
+                final String url = "http://localhost:" + server.getAddress().getPort() + "/dap/test";
+                Getter getter = new Getter() {
+                    public PrimitiveArray[] get(String query) throws Exception {
+                        return OpendapHelper.getPrimitiveArrays(new DConnect(url, false, 1, 1), query);
+                    }};
+                IntArray request = new IntArray(new int[]{0, 1, 79});
+                IntArray parts[] = splitAxis0(request, 8);
+                String queries[] = new String[parts.length];
+                for (int i = 0; i < parts.length; i++)
+                    queries[i] = "?sst[" + parts[i].get(0) + ":" + parts[i].get(1) + ":" + parts[i].get(2) + "]";
+                Semaphore semaphore = new Semaphore(3, true);
+                long time = System.currentTimeMillis();
+                PrimitiveArray results[][] = getAll(getter, queries, semaphore, pool);
+                time = System.currentTimeMillis() - time;
+                PrimitiveArray all = results[0][0];
+                for (int i = 1; i < results.length; i++)
+                    all.append(results[i][0]);
+                Test.ensureEqual(all.size(), 80, "");
+                for (int i = 0; i < 80; i++)
+                    Test.ensureEqual(all.getFloat(i), i / 10f, "i=" + i);
+                Test.ensureTrue(maxActive.get() >= 2 && maxActive.get() <= 3, //concurrent, but never more than the permits
+                    "maxActive=" + maxActive.get());
+                Test.ensureEqual(semaphore.availablePermits(), 3, ""); //all released
+                String2.log("8 sub-requests (200ms each, 2 retried) with 3 connections took " + time + "ms");
+                Test.ensureTrue(time < 9 * 200, "time=" + time); //sequential would be >10*200ms
+
+                //a failure (an HTTP 400 error, so it isn't retried) is reported and all permits are released
+                long oNRetried = nRetried.get();
+                try {
+                    getAll(getter, new String[]{"?sst[0:1:9]", "?sst[0:1:2000]", "?sst[10:1:19]"},
+                        semaphore, pool);
+                    throw new RuntimeException("shouldn't get here");
+                } catch (Throwable t) {
+                    String msg = t.toString();
+                    Test.ensureTrue(msg.indexOf("sst") >= 0 || msg.indexOf("Connection") >= 0, msg);
+                }
+                Test.ensureEqual(semaphore.availablePermits(), 3, "");
+                Test.ensureEqual(nRetried.get(), oNRetried, "");
+
+                //no semaphore (dapMaxConnectionsPerDataset=0: no per-dataset limit)
+                results = getAll(getter, queries, null, pool);
+                Test.ensureEqual(results.length, queries.length, "");
+                Test.ensureEqual(results[results.length - 1][0].getFloat(0), 
+                    parts[parts.length - 1].get(0) / 10f, "");
+            } finally {
+                server.stop(0);
+                pool.shutdownNow();
+            }
+        } finally {
+            subRequestMinBytes = oSubRequestMinBytes;
+            retryDelayMillis = oRetryDelayMillis;
+        }
+        String2.log("DapFetcher.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ DapFetcher.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
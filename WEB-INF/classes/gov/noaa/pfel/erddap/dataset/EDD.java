@@ -373,6 +373,9 @@ public abstract class EDD {
     protected int updateEveryNMillis = 0; // <=0 means incremental update not active
     protected ReentrantLock updateLock = null;  //setUpdateEveryNMillis creates this if needed
     protected long cumulativeUpdateTime = 0, updateCount = 0; 
+    /** File events (full file names, sorted, no duplicates) that lowUpdate hasn't 
+        processed yet (see takeFileEventBatch). Only used while holding updateLock. */
+    protected StringArray pendingFileEvents = new StringArray();
 
     /* The source of data is files in an S3 bucket. */
     protected boolean filesInS3Bucket = false; 
@@ -571,6 +574,8 @@ public abstract class EDD {
                 } else if (tags.equals("<erddapDatasets></cacheMinutes>")) {
                 } else if (tags.equals("<erddapDatasets><commonStandardNames>")) {
                 } else if (tags.equals("<erddapDatasets></commonStandardNames>")) {
+                } else if (tags.equals("<erddapDatasets><dapMaxConnectionsPerDataset>")) {
+                } else if (tags.equals("<erddapDatasets></dapMaxConnectionsPerDataset>")) {
                 } else if (tags.equals("<erddapDatasets><decompressedCacheMaxGB>")) {
                 } else if (tags.equals("<erddapDatasets></decompressedCacheMaxGB>")) {
                 } else if (tags.equals("<erddapDatasets><decompressedCacheMaxMinutesOld>")) {
@@ -581,6 +586,12 @@ public abstract class EDD {
                 } else if (tags.equals("<erddapDatasets></emailDiagnosticsToErdData>")) {
                 } else if (tags.equals("<erddapDatasets><graphBackgroundColor>")) {
                 } else if (tags.equals("<erddapDatasets></graphBackgroundColor>")) {
+                } else if (tags.equals("<erddapDatasets><gridChunkCacheMaxMB>")) {
+                } else if (tags.equals("<erddapDatasets></gridChunkCacheMaxMB>")) {
+                } else if (tags.equals("<erddapDatasets><gridMaxChunkReadsPerDataset>")) {
+                } else if (tags.equals("<erddapDatasets></gridMaxChunkReadsPerDataset>")) {
+                } else if (tags.equals("<erddapDatasets><gridThreadPoolSize>")) {
+                } else if (tags.equals("<erddapDatasets></gridThreadPoolSize>")) {
                 } else if (tags.equals("<erddapDatasets><ipAddressMaxRequests>")) {
                 } else if (tags.equals("<erddapDatasets></ipAddressMaxRequests>")) {
                 } else if (tags.equals("<erddapDatasets><ipAddressMaxRequestsActive>")) {
@@ -593,6 +604,8 @@ public abstract class EDD {
                 } else if (tags.equals("<erddapDatasets></loadDatasetsMaxMinutes>")) {
                 } else if (tags.equals("<erddapDatasets><logLevel>")) {
                 } else if (tags.equals("<erddapDatasets></logLevel>")) {                    
+                } else if (tags.equals("<erddapDatasets><ncFilePoolMaxOpen>")) {
+                } else if (tags.equals("<erddapDatasets></ncFilePoolMaxOpen>")) {
                 } else if (tags.equals("<erddapDatasets><nGridThreads>")) {
                 } else if (tags.equals("<erddapDatasets></nGridThreads>")) {
                 } else if (tags.equals("<erddapDatasets><nTableThreads>")) {
@@ -605,6 +618,12 @@ public abstract class EDD {
                 } else if (tags.equals("<erddapDatasets></partialRequestMaxCells>")) {
                 } else if (tags.equals("<erddapDatasets><requestBlacklist>")) {
                 } else if (tags.equals("<erddapDatasets></requestBlacklist>")) {
+                } else if (tags.equals("<erddapDatasets><requestMaxEstimatedSeconds>")) {
+                } else if (tags.equals("<erddapDatasets></requestMaxEstimatedSeconds>")) {
+                } else if (tags.equals("<erddapDatasets><requestSchedulerMaxActive>")) {
+                } else if (tags.equals("<erddapDatasets></requestSchedulerMaxActive>")) {
+                } else if (tags.equals("<erddapDatasets><responseCacheMaxGB>")) {
+                } else if (tags.equals("<erddapDatasets></responseCacheMaxGB>")) {
                 } else if (tags.equals("<erddapDatasets><slowDownTroubleMillis>")) {
                 } else if (tags.equals("<erddapDatasets></slowDownTroubleMillis>")) {
                 } else if (tags.equals("<erddapDatasets><subscriptionEmailBlacklist>")) {
@@ -627,6 +646,10 @@ public abstract class EDD {
                 } else if (tags.equals("<erddapDatasets></startHeadHtml5>")) {
                 } else if (tags.equals("<erddapDatasets><startBodyHtml5>")) {
                 } else if (tags.equals("<erddapDatasets></startBodyHtml5>")) {
+                } else if (tags.equals("<erddapDatasets><tableRowGroupSize>")) {
+                } else if (tags.equals("<erddapDatasets></tableRowGroupSize>")) {
+                } else if (tags.equals("<erddapDatasets><tableThreadPoolSize>")) {
+                } else if (tags.equals("<erddapDatasets></tableThreadPoolSize>")) {
                 } else if (tags.equals("<erddapDatasets><theShortDescriptionHtml>")) {
                 } else if (tags.equals("<erddapDatasets></theShortDescriptionHtml>")) {
                 } else if (tags.equals("<erddapDatasets><endBodyHtml5>")) {
@@ -637,6 +660,8 @@ public abstract class EDD {
                 } else if (tags.equals("<erddapDatasets></convertInterpolateDatasetIDVariableList>")) {
                 } else if (tags.equals("<erddapDatasets><unusualActivity>")) {
                 } else if (tags.equals("<erddapDatasets></unusualActivity>")) {
+                } else if (tags.equals("<erddapDatasets><updateMaxEvents>")) {
+                } else if (tags.equals("<erddapDatasets></updateMaxEvents>")) {
                 } else if (tags.equals("<erddapDatasets><user>")) {
                 } else if (tags.equals("<erddapDatasets></user>")) {
                 } else {
@@ -2507,7 +2532,11 @@ public abstract class EDD {
             return false; 
         } //else: this thread got the lock. Do the update!
         try {
-            return lowUpdate(msg, startUpdateMillis);
+            boolean changed = lowUpdate(msg, startUpdateMillis);
+            //the cached response files may now be wrong
+            if (changed)
+                ResponseCache.removeDataset(datasetID);
+            return changed;
 
         } finally {  
             lastUpdate = startUpdateMillis;     //say dataset is now up-to-date (or at least tried)
@@ -2873,12 +2902,9 @@ public abstract class EDD {
      */
     public String suggestFileName(String loggedInAs, String userDapQuery, String fileTypeName) {
 
-        //decode userDapQuery to a canonical form to avoid slight differences in percent-encoding 
-        try {
-            userDapQuery = SSR.percentDecode(userDapQuery);
-        } catch (Exception e) {
-            //shouldn't happen
-        }
+        //normalize userDapQuery to avoid slight differences in percent-encoding 
+        //  and in the order of the constraints, so they all use the same cached file
+        userDapQuery = ResponseCache.normalizeQuery(userDapQuery);
 
         if (".fgdc".equals(fileTypeName))     return datasetID + fgdcSuffix;    //without trailing .xml
         if (".iso19115".equals(fileTypeName)) return datasetID + iso19115Suffix;//without trailing .xml
@@ -2892,6 +2918,25 @@ public abstract class EDD {
         return name;
     }
 
+    /**
+     * This estimates the number of files, bytes, rows, and seconds of a data request
+     * before it is executed (for EDStatic.requestScheduler, 
+     * the requestMaxEstimatedSeconds limit, and .cost requests).
+     * This must be fast (e.g., it must not read the source data) 
+     * and must not throw exceptions.
+     * This default implementation returns RequestCost.UNKNOWN.
+     * Subclasses (e.g., EDDGrid, EDDTableFromFiles) overwrite this 
+     * if they can make a better estimate.
+     *
+     * @param loggedInAs  the name of the logged in user (or null if not logged in).
+     * @param userDapQuery the part of the user's request after the '?', still percentEncoded.
+     * @param fileTypeName e.g., .csv
+     * @return the estimate (not null)
+     */
+    public RequestCost estimateCost(String loggedInAs, String userDapQuery, String fileTypeName) {
+        return RequestCost.UNKNOWN;
+    }
+
     /**
      * Given the last time value, this suggests a reloadEveryNMinutes value.
      *
@@ -3079,10 +3124,13 @@ public abstract class EDD {
         if (File2.touch(fullName)) {
             if (verbose) String2.log(
                 "EDD.makeFileForDapQuery reusing " + fileName + fileTypeExtension);
+            ResponseCache.reuse(datasetID, fullName);
             return fileName + fileTypeExtension;
         }
-        return lowMakeFileForDapQuery(request, null, loggedInAs, userDapQuery, 
+        String result = lowMakeFileForDapQuery(request, null, loggedInAs, userDapQuery, 
             dir, fileName, fileTypeName);
+        ResponseCache.add(datasetID, dir + result);
+        return result;
     }
 
     /**
@@ -10481,6 +10529,62 @@ public abstract class EDD {
         return sb.toString();
     }
 
+    /**
+     * This is used by EDDGridFromFiles and EDDTableFromFiles lowUpdate to 
+     * coalesce new file events with the events that weren't processed by 
+     * previous calls to lowUpdate, and return the next batch of at most 
+     * EDStatic.updateMaxEvents events to be processed now.
+     * Since lowUpdate is usually called by a user's request thread 
+     * (while holding updateLock, so other requests for this dataset wait),
+     * the batch is small. 
+     * If there are more events, the rest are kept in pendingFileEvents 
+     * (so the next call(s) to lowUpdate can process them)
+     * and this calls requestReloadASAP(), so that the backlog is 
+     * dealt with by the LoadDatasets thread, not by users' requests.
+     *
+     * @param contexts the full file names from the new file events
+     *   (already filtered by fileNameRegex and pathRegex). This may be changed.
+     * @return the batch to be processed now (sorted, no duplicates). 
+     *   It may be empty, but won't be null.
+     */
+    protected StringArray takeFileEventBatch(StringArray contexts) {
+        if (pendingFileEvents.size() > 0) {
+            contexts.append(pendingFileEvents);
+            contexts.sort();
+            contexts.removeDuplicates();
+        }
+        int nEvents = contexts.size();
+        int max = Math.max(1, EDStatic.updateMaxEvents);
+        if (nEvents <= max) {
+            pendingFileEvents = new StringArray();
+            return contexts;
+        }
+        pendingFileEvents = (StringArray)contexts.subset(max, 1, nEvents - 1);
+        contexts.removeRange(max, nEvents);
+        if (verbose) String2.log("update(" + datasetID + "): processing " + max + 
+            " file events now. " + pendingFileEvents.size() + 
+            " are pending, so I called requestReloadASAP().");
+        requestReloadASAP();
+        return contexts;
+    }
+
+    /**
+     * This is used by EDDGridFromFiles and EDDTableFromFiles lowUpdate to 
+     * make an index of the files in the fileTable, so that finding each of
+     * a batch of files doesn't need a linear search.
+     *
+     * @return a HashMap with dirIndex + "/" + fileName -&gt; row number
+     */
+    public static HashMap<String,Integer> makeFileTableIndex(
+        ShortArray ftDirIndex, StringArray ftFileList) {
+
+        int nFiles = ftDirIndex.size();
+        HashMap<String,Integer> index = new HashMap(Math.max(16, nFiles * 4 / 3 + 1));
+        for (int row = 0; row < nFiles; row++)
+            index.put(ftDirIndex.get(row) + "/" + ftFileList.get(row), row);
+        return index;
+    }
+
     /** 
      * This is used by EDDGridFromFiles and EDDTableFromFiles to 
      * find a file from the fileTable (via linear search).
@@ -10502,6 +10606,24 @@ public abstract class EDD {
         return -1;
     }
 
+    /** 
+     * This is used by EDDGridFromFiles and EDDTableFromFiles lowUpdate to 
+     * find a file from the fileTable via the index (if not null) 
+     * or via linear search.
+     *
+     * @param index from makeFileTableIndex, or null
+     * @return the row number if it was in the fileTable (else -1)
+     */     
+    public static int findInFileTable(HashMap<String,Integer> index,
+        int dirIndex, String fileName, 
+        Table tFileTable, ShortArray ftDirIndex, StringArray ftFileList) {
+
+        if (index == null)
+            return findInFileTable(dirIndex, fileName, tFileTable, ftDirIndex, ftFileList);
+        Integer row = index.get(dirIndex + "/" + fileName);
+        return row == null? -1 : row.intValue();
+    }
+
     /** 
      * This is used by EDDGridFromFiles and EDDTableFromFiles to remove
      * a file from the fileTable (via linear search).
@@ -1176,6 +1176,67 @@ public abstract class EDDGrid extends EDD {
         return axisVariableDestinationNames;
     }
 
+    /**
+     * This estimates the cost of a data request (see EDD.estimateCost):
+     * the number of bytes of data values that the query will get from the source
+     * (like GridDataAccessor.totalNBytes, but without making a GridDataAccessor),
+     * the number of rows (the number of values of each data variable),
+     * and the number of source files (see estimateNFiles).
+     * Requests for just axis variables are cheap (the values are in memory).
+     *
+     * @param loggedInAs  the name of the logged in user (or null if not logged in).
+     * @param userDapQuery the part of the user's request after the '?', still percentEncoded.
+     * @param fileTypeName e.g., .csv
+     * @return the estimate. If the query can't be parsed, 
+     *    this returns RequestCost.UNKNOWN.
+     */
+    public RequestCost estimateCost(String loggedInAs, String userDapQuery, String fileTypeName) {
+        try {
+            StringArray destNames = new StringArray();
+            IntArray constraints = new IntArray();
+            if (isAxisDapQuery(userDapQuery)) {
+                parseAxisDapQuery(userDapQuery, destNames, constraints, true); //repair
+                double nBytes = 0;
+                int nRows = 0;
+                for (int i = 0; i < destNames.size(); i++) {
+                    int n = (constraints.get(i * 3 + 2) - constraints.get(i * 3)) / 
+                        constraints.get(i * 3 + 1) + 1;
+                    nBytes += n * (double)findAxisVariableByDestinationName(
+                        destNames.get(i)).destinationBytesPerElement();
+                    nRows = Math.max(nRows, n);
+                }
+                return new RequestCost(0, nBytes, nRows);
+            }
+            parseDataDapQuery(userDapQuery, destNames, constraints, true); //repair
+            double nValues = 1; //double to avoid overflow
+            for (int av = 0; av < axisVariables.length; av++) 
+                nValues *= (constraints.get(av * 3 + 2) - constraints.get(av * 3)) / 
+                    constraints.get(av * 3 + 1) + 1;
+            double nBytes = 0;
+            for (int dv = 0; dv < destNames.size(); dv++) 
+                nBytes += nValues * 
+                    findDataVariableByDestinationName(destNames.get(dv)).destinationBytesPerElement();
+            return new RequestCost(estimateNFiles(constraints), nBytes, nValues);
+        } catch (Throwable t) {
+            return RequestCost.UNKNOWN;
+        }
+    }
+
+    /**
+     * This estimates the number of source files that a data request with 
+     * these constraints will read (for estimateCost).
+     * This default implementation returns -1 (unknown).
+     * Subclasses (e.g., EDDGridFromFiles) overwrite this.
+     *
+     * @param constraints the start, stride, stop for each axis variable
+     *    (from parseDataDapQuery)
+     * @return the number of files (or -1 if unknown)
+     * @throws Throwable if trouble
+     */
+    protected long estimateNFiles(IntArray constraints) throws Throwable {
+        return -1;
+    }
+
     /**
      * This indicates if userDapQuery is a request for one or more axis variables
      * (vs. a request for one or more data variables).
@@ -2525,8 +2586,17 @@ public abstract class EDDGrid extends EDD {
             if (!lock.tryLock(String2.longTimeoutSeconds, TimeUnit.SECONDS))
                 throw new TimeoutException("Timeout waiting for lock on EDDGrid.cacheFullName.");
             try {
-                if (File2.isFile(cacheFullName)) { //don't 'touch()'; files for latest data will change
+                boolean reused = ResponseCache.isReusable(cacheFullName); 
+                if (!reused) {
+                    //if the old (stale) file is still being read, make the new file with another name
+                    String newName = ResponseCache.nameForNewFile(cacheFullName);
+                    if (fullName.equals(cacheFullName))
+                        fullName = newName;
+                    cacheFullName = newName;
+                }
+                if (reused) { //don't 'touch()'; files for latest data will change
                     if (verbose) String2.log("  reusing cached " + cacheFullName);
+                    ResponseCache.reuse(datasetID, cacheFullName);
 
                 } else if (fileTypeName.equals(".nc") || fileTypeName.equals(".ncHeader")) {
                     //if .ncHeader, make sure the .nc file exists (and it is the better file to cache)
@@ -2581,50 +2651,57 @@ public abstract class EDDGrid extends EDD {
 
                     File2.isFile(cacheFullName, 5); //for possible waiting thread, wait till file is visible via operating system
                 }
+                if (!reused)
+                    ResponseCache.add(datasetID, cacheFullName);
+                ResponseCache.beginRead(cacheFullName); //so it isn't evicted while it is used below
             } finally {
                 lock.unlock();
             }
 
-            //then handle .ncHeader
-            if (fileTypeName.equals(".ncHeader") ||
-                fileTypeName.equals(".nc4Header")) {
-                //thread-safe creation of the file 
-                //(If there are almost simultaneous requests for the same one, only one thread will make it.)
-                fullName = String2.canonical(fullName);
-                ReentrantLock lock2 = String2.canonicalLock(fullName);
-                if (!lock2.tryLock(String2.longTimeoutSeconds, TimeUnit.SECONDS))
-                    throw new TimeoutException("Timeout waiting for lock on EDDGrid .ncHeader fullName.");
-                try {
+            try {
+                //then handle .ncHeader
+                if (fileTypeName.equals(".ncHeader") ||
+                    fileTypeName.equals(".nc4Header")) {
+                    //thread-safe creation of the file 
+                    //(If there are almost simultaneous requests for the same one, only one thread will make it.)
+                    fullName = String2.canonical(fullName);
+                    ReentrantLock lock2 = String2.canonicalLock(fullName);
+                    if (!lock2.tryLock(String2.longTimeoutSeconds, TimeUnit.SECONDS))
+                        throw new TimeoutException("Timeout waiting for lock on EDDGrid .ncHeader fullName.");
+                    try {
 
-                    String error = String2.writeToFile(fullName + random, 
-                        NcHelper.ncdump(cacheFullName, "-h"), String2.UTF_8); //!!!this doesn't do anything to internal " in a String attribute value.
-                    if (error.length() == 0) {
-                        File2.rename(fullName + random, fullName); //make available in an instant
-                        File2.isFile(fullName, 5); //for possible waiting thread, wait till file is visible via operating system
-                    } else {
-                        throw new RuntimeException(error);
+                        String error = String2.writeToFile(fullName + random, 
+                            NcHelper.ncdump(cacheFullName, "-h"), String2.UTF_8); //!!!this doesn't do anything to internal " in a String attribute value.
+                        if (error.length() == 0) {
+                            File2.rename(fullName + random, fullName); //make available in an instant
+                            File2.isFile(fullName, 5); //for possible waiting thread, wait till file is visible via operating system
+                        } else {
+                            throw new RuntimeException(error);
+                        }
+                    } finally {
+                        lock2.unlock();
                     }
-                } finally {
-                    lock2.unlock();
                 }
-            }
 
-            //copy file to outputStream
-            //(I delayed getting actual outputStream as long as possible.)
-            OutputStream out = outputStreamSource.outputStream(
-                fileTypeName.equals(".ncHeader")? String2.UTF_8 : 
-                fileTypeName.equals(".nc4Header")? String2.UTF_8 : 
-                fileTypeName.equals(".kml")? String2.UTF_8 : 
-                "");
-            try {
-                if (!File2.copy(fullName, out)) {
-                    //outputStream contentType already set,
-                    //so I can't go back to html and display error message
-                    //note than the message is thrown if user cancels the transmission; so don't email to me
-                    throw new SimpleException(String2.ERROR + " while transmitting file.");
+                //copy file to outputStream
+                //(I delayed getting actual outputStream as long as possible.)
+                OutputStream out = outputStreamSource.outputStream(
+                    fileTypeName.equals(".ncHeader")? String2.UTF_8 : 
+                    fileTypeName.equals(".nc4Header")? String2.UTF_8 : 
+                    fileTypeName.equals(".kml")? String2.UTF_8 : 
+                    "");
+                try {
+                    if (!File2.copy(fullName, out)) {
+                        //outputStream contentType already set,
+                        //so I can't go back to html and display error message
+                        //note than the message is thrown if user cancels the transmission; so don't email to me
+                        throw new SimpleException(String2.ERROR + " while transmitting file.");
+                    }
+                } finally {
+                    try {out.close();} catch (Exception e) {} //downloads of e.g., erddap2.css don't work right if not closed. (just if gzip'd?)
                 }
             } finally {
-                try {out.close();} catch (Exception e) {} //downloads of e.g., erddap2.css don't work right if not closed. (just if gzip'd?)
+                ResponseCache.endRead(cacheFullName);
             }
 
         } finally {
@@ -854,39 +854,62 @@ public class EDDGridFromDap extends EDDGrid {
         EDV tDataVariables[], IntArray tConstraints) 
         throws Throwable {
 
-        //build String form of the constraint
+        //Make the sub-requests: one (or more, split along the leftmost axis, if it's big)
+        //  for each dataVariable.
+        //???why not get all the dataVariables at once?
+        //thredds has (and other servers may have) limits to the size of a given request
+        //so breaking into parts avoids the problem.
+        //The sub-requests are gotten concurrently (see DapFetcher).
         //String errorInMethod = "Error in EDDGridFromDap.getSourceData for " + datasetID + ": "; 
-        String constraint = buildDapArrayQuery(tConstraints);
-
-        DConnect dConnect = new DConnect(localSourceUrl, acceptDeflate, 1, 1);
-        PrimitiveArray results[] = new PrimitiveArray[axisVariables.length + tDataVariables.length];
-        for (int dv = 0; dv < tDataVariables.length; dv++) {
-            //???why not get all the dataVariables at once?
-            //thredds has (and other servers may have) limits to the size of a given request
-            //so breaking into parts avoids the problem.
-
-            //get the data
-            PrimitiveArray pa[] = null;
-            try {
-                pa = OpendapHelper.getPrimitiveArrays(dConnect, 
-                    "?" + tDataVariables[dv].sourceName() + constraint);
-            } catch (Throwable t) {
-                EDStatic.rethrowClientAbortException(t);  //first thing in catch{}
+        int ndv = tDataVariables.length;
+        int firstQuery[] = new int[ndv + 1]; //dv's queries are firstQuery[dv] to firstQuery[dv+1]-1
+        StringArray queries = new StringArray();
+        for (int dv = 0; dv < ndv; dv++) {
+            firstQuery[dv] = queries.size();
+            IntArray pieces[] = DapFetcher.splitAxis0(tConstraints, 
+                DapFetcher.nPieces(tConstraints, 
+                    PAType.elementSize(tDataVariables[dv].sourceDataPAType()),
+                    EDStatic.dapMaxSubRequests()));
+            for (int piece = 0; piece < pieces.length; piece++)
+                queries.add("?" + tDataVariables[dv].sourceName() + buildDapArrayQuery(pieces[piece]));
+        }
+        firstQuery[ndv] = queries.size();
 
-                //if OutOfMemoryError or too much data, rethrow t
-                String tToString = t.toString();
-                if (Thread.currentThread().isInterrupted() ||
-                    t instanceof InterruptedException ||
-                    t instanceof OutOfMemoryError ||
-                    tToString.indexOf(Math2.memoryTooMuchData) >= 0 ||
-                    tToString.indexOf(Math2.TooManyOpenFiles) >= 0)
-                    throw t;
+        //get the data
+        PrimitiveArray got[][] = null;
+        try {
+            got = DapFetcher.getAll(datasetID, localSourceUrl, acceptDeflate, queries.toArray());
+        } catch (Throwable t) {
+            EDStatic.rethrowClientAbortException(t);  //first thing in catch{}
+
+            //if OutOfMemoryError or too much data, rethrow t
+            String tToString = t.toString();
+            if (Thread.currentThread().isInterrupted() ||
+                t instanceof InterruptedException ||
+                t instanceof OutOfMemoryError ||
+                tToString.indexOf(Math2.memoryTooMuchData) >= 0 ||
+                tToString.indexOf(Math2.TooManyOpenFiles) >= 0)
+                throw t;
+
+            String2.log(MustBe.throwableToString(t));
+            throw t instanceof WaitThenTryAgainException? t : 
+                new WaitThenTryAgainException(EDStatic.waitThenTryAgain + 
+                    "\n(" + EDStatic.errorFromDataSource + t.toString() + ")", 
+                    t); 
+        }
 
-                String2.log(MustBe.throwableToString(t));
-                throw t instanceof WaitThenTryAgainException? t : 
-                    new WaitThenTryAgainException(EDStatic.waitThenTryAgain + 
-                        "\n(" + EDStatic.errorFromDataSource + t.toString() + ")", 
-                        t); 
+        PrimitiveArray results[] = new PrimitiveArray[axisVariables.length + ndv];
+        for (int dv = 0; dv < ndv; dv++) {
+            //reassemble the pieces (in order)
+            PrimitiveArray pa[] = got[firstQuery[dv]];
+            for (int q = firstQuery[dv] + 1; q < firstQuery[dv + 1]; q++) {
+                if (got[q].length != pa.length)
+                    throw new WaitThenTryAgainException(EDStatic.waitThenTryAgain + 
+                        "\nDetails: An unexpected data structure was returned from the source (size observed=" + 
+                        got[q].length + ", expected=" + pa.length + ").");
+                pa[0].append(got[q][0]);
+                if (pa.length > 1)
+                    pa[1].append(got[q][1]); //a DGrid's leftmost axis
             }
 
             if (pa.length == 1) {
@@ -685,13 +685,13 @@ public class EDDGridFromEDDTable extends EDDGrid {
 
         //go through the tabular results in TableWriterAll
         PrimitiveArray twaPA[] = new PrimitiveArray[nCols];
-        DataInputStream twaDIS[] = new DataInputStream[nCols];
+        ColumnSpillFile.Reader twaReaders[] = new ColumnSpillFile.Reader[nCols];
         int nMatches = 0;
         long nRows = twa.nRows();
         try {
             for (int col = 0; col < nCols; col++) {
                 twaPA[col] = twa.columnEmptyPA(col);
-                twaDIS[col] = twa.dataInputStream(col);
+                twaReaders[col] = twa.columnReader(col);
             }
 
             int oAxisIndex[] = new int[nav]; //all 0's
@@ -702,7 +702,7 @@ public class EDDGridFromEDDTable extends EDDGrid {
                 //read all of the twa values for this row
                 for (int col = 0; col < nCols; col++) {
                     twaPA[col].clear();
-                    twaPA[col].readDis(twaDIS[col], 1); //read 1 value
+                    twaReaders[col].read(twaPA[col], 1); //read 1 value
                 }
 
                 //see if this row matches a desired combo of axis values 
@@ -754,7 +754,8 @@ public class EDDGridFromEDDTable extends EDDGrid {
         } finally {
             //release twa resources
             for (int col = 0; col < nCols; col++) 
-                try {twaDIS[col].close();} catch (Exception e) {}
+                if (twaReaders[col] != null) 
+                    twaReaders[col].close();
             try {twa.releaseResources();} catch (Exception e) {}
         }
 
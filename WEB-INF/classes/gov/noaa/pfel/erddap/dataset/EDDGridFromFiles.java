@@ -23,6 +23,7 @@ import com.cohort.util.String2;
 import com.cohort.util.Test;
 import com.cohort.util.Units2;
 
+import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
 import gov.noaa.pfel.coastwatch.util.RegexFilenameFilter;
@@ -45,9 +46,12 @@ import java.util.BitSet;
 import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.TimeZone;
@@ -76,6 +80,14 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         return String2.isTrulyRemote(tFileDir)? 0 : suggestedUpdateEveryNMillis;
     }
 
+    /** 
+     * The server-wide cache of decoded data values read from all
+     * EDDGridFromFiles datasets' files (see getSourceDataFromFile).
+     * Its size is set by &lt;gridChunkCacheMaxMB&gt; in datasets.xml.
+     */
+    public final static GridChunkCache gridChunkCache = new GridChunkCache(
+        EDStatic.DEFAULT_gridChunkCacheMaxMB * (long)Math2.BytesPerMB);
+
     /** Don't set this to true here.  Some test methods set this to true temporarily. */
     protected static boolean testQuickRestart = false;
 
@@ -86,7 +98,8 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         FT_LAST_MOD_COL=2, 
         FT_SIZE_COL=3, 
         FT_N_VALUES_COL=4, FT_MIN_COL=5, FT_MAX_COL=6, FT_CSV_VALUES_COL=7,
-        FT_START_INDEX_COL = 8;
+        FT_START_INDEX_COL = 8,
+        FT_CHUNK_SHAPES_COL = 9; //see chunkShapesString()
 
     //set by constructor
     protected String fileDir;
@@ -150,6 +163,11 @@ public abstract class EDDGridFromFiles extends EDDGrid{
     /** When threshold size is reached, prune cache to fraction*threshold. */
     protected double cacheFraction = FileVisitorDNLS.PRUNE_CACHE_DEFAULT_FRACTION; 
 
+    /** True if &lt;timeSeriesCache&gt; is true. See setTimeSeriesCache. */
+    protected boolean timeSeriesCacheActive = false;
+    /** Null until startTimeSeriesCache starts it. */
+    protected volatile TimeSeriesCache timeSeriesCache = null;
+
     //a system for deriving the source axis values without opening the file
     protected String sourceAxisValuesDataType;
     protected String sourceAxisValuesExtractRegex;
@@ -197,6 +215,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         String tCacheFromUrl = null;
         int tCacheSizeGB = -1;
         String tCachePartialPathRegex = null;
+        boolean tTimeSeriesCache = false;
 
         //process the tags
         String startOfTags = xmlReader.allTags();
@@ -268,6 +287,8 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             else if (localTags.equals("</cacheSizeGB>")) tCacheSizeGB = String2.parseInt(content); 
             else if (localTags.equals( "<cachePartialPathRegex>")) {}
             else if (localTags.equals("</cachePartialPathRegex>")) tCachePartialPathRegex = content; 
+            else if (localTags.equals( "<timeSeriesCache>")) {}
+            else if (localTags.equals("</timeSeriesCache>")) tTimeSeriesCache = String2.parseBoolean(content); 
             else xmlReader.unexpectedTagException();
         }
         int nav = tAxisVariables.size();
@@ -282,8 +303,9 @@ public abstract class EDDGridFromFiles extends EDDGrid{
 
         if (tType == null)
             tType = "";
+        EDDGridFromFiles tEDDGridFromFiles;
         if (tType.equals("EDDGridFromAudioFiles")) 
-            return new EDDGridFromAudioFiles(tDatasetID, 
+            tEDDGridFromFiles = new EDDGridFromAudioFiles(tDatasetID, 
                 tAccessibleTo, tGraphsAccessibleTo, tAccessibleViaWMS,
                 tOnChange, tFgdcFile, tIso19115File,
                 tDefaultDataQuery, tDefaultGraphQuery, tGlobalAttributes,
@@ -296,7 +318,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                 tnThreads, tDimensionValuesInMemory, 
                 tCacheFromUrl, tCacheSizeGB, tCachePartialPathRegex);
         else if (tType.equals("EDDGridFromNcFiles")) 
-            return new EDDGridFromNcFiles(tDatasetID, 
+            tEDDGridFromFiles = new EDDGridFromNcFiles(tDatasetID, 
                 tAccessibleTo, tGraphsAccessibleTo, tAccessibleViaWMS,
                 tOnChange, tFgdcFile, tIso19115File,
                 tDefaultDataQuery, tDefaultGraphQuery, tGlobalAttributes,
@@ -309,7 +331,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                 tnThreads, tDimensionValuesInMemory, 
                 tCacheFromUrl, tCacheSizeGB, tCachePartialPathRegex);
         else if (tType.equals("EDDGridFromNcFilesUnpacked")) 
-            return new EDDGridFromNcFilesUnpacked(tDatasetID, 
+            tEDDGridFromFiles = new EDDGridFromNcFilesUnpacked(tDatasetID, 
                 tAccessibleTo, tGraphsAccessibleTo, tAccessibleViaWMS,
                 tOnChange, tFgdcFile, tIso19115File,
                 tDefaultDataQuery, tDefaultGraphQuery, tGlobalAttributes,
@@ -322,7 +344,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                 tnThreads, tDimensionValuesInMemory, 
                 tCacheFromUrl, tCacheSizeGB, tCachePartialPathRegex);
         else if (tType.equals("EDDGridFromMergeIRFiles")) 
-            return new EDDGridFromMergeIRFiles(tDatasetID, 
+            tEDDGridFromFiles = new EDDGridFromMergeIRFiles(tDatasetID, 
                 tAccessibleTo, tGraphsAccessibleTo, tAccessibleViaWMS,
                 tOnChange, tFgdcFile, tIso19115File,
                 tDefaultDataQuery, tDefaultGraphQuery, tGlobalAttributes,
@@ -337,6 +359,8 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         else throw new Exception("type=\"" + tType + 
             "\" needs to be added to EDDGridFromFiles.fromXml at end.");
 
+        tEDDGridFromFiles.setTimeSeriesCache(tTimeSeriesCache);
+        return tEDDGridFromFiles;
     }
 
     /**
@@ -646,6 +670,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             else if (fileTable.findColumnNumber("max")           != FT_MAX_COL)         ok = false;
             else if (fileTable.findColumnNumber("csvValues")     != FT_CSV_VALUES_COL)  ok = false;
             else if (fileTable.findColumnNumber("startIndex")    != FT_START_INDEX_COL) ok = false;
+            else if (fileTable.findColumnNumber("chunkShapes")   != FT_CHUNK_SHAPES_COL) ok = false;
             else if (!(fileTable.getColumn(FT_DIR_INDEX_COL)   instanceof ShortArray))  ok = false;
             else if (!(fileTable.getColumn(FT_FILE_LIST_COL)   instanceof StringArray)) ok = false;
             else if (!(fileTable.getColumn(FT_LAST_MOD_COL)    instanceof LongArray))   ok = false;
@@ -655,6 +680,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             else if (!(fileTable.getColumn(FT_MAX_COL)         instanceof DoubleArray)) ok = false;
             else if (!(fileTable.getColumn(FT_CSV_VALUES_COL)  instanceof StringArray)) ok = false;
             else if (!(fileTable.getColumn(FT_START_INDEX_COL) instanceof IntArray))    ok = false;
+            else if (!(fileTable.getColumn(FT_CHUNK_SHAPES_COL) instanceof StringArray)) ok = false;
             if (!ok) {
                 String2.log("Old fileTable discarded because of incorrect column arrangement (first 2 rows):\n" +
                     fileTable.toString(2));
@@ -684,6 +710,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             Test.ensureEqual(fileTable.addColumn(FT_MAX_COL,         "max",           new DoubleArray()), FT_MAX_COL,         "FT_MAX_COL is wrong.");
             Test.ensureEqual(fileTable.addColumn(FT_CSV_VALUES_COL,  "csvValues",     new StringArray()), FT_CSV_VALUES_COL,  "FT_CSV_VALUES_COL is wrong.");
             Test.ensureEqual(fileTable.addColumn(FT_START_INDEX_COL, "startIndex",    new IntArray()),    FT_START_INDEX_COL, "FT_START_INDEX_COL is wrong.");
+            Test.ensureEqual(fileTable.addColumn(FT_CHUNK_SHAPES_COL, "chunkShapes",  new StringArray()), FT_CHUNK_SHAPES_COL, "FT_CHUNK_SHAPES_COL is wrong.");
 
             badFileMap = newEmptyBadFileMap();
         }
@@ -709,6 +736,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         DoubleArray ftMax        = (DoubleArray)fileTable.getColumn(FT_MAX_COL);
         StringArray ftCsvValues  = (StringArray)fileTable.getColumn(FT_CSV_VALUES_COL);
         IntArray    ftStartIndex = (IntArray)   fileTable.getColumn(FT_START_INDEX_COL);
+        StringArray ftChunkShapes = (StringArray)fileTable.getColumn(FT_CHUNK_SHAPES_COL);
 
         //get sourceAxisValues and sourceAxisAttributes from an existing file (if any)
         //Last one should succeed and has newest (most?) data variables.
@@ -1060,6 +1088,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                     ftMin.set(fileListPo, tSourceAxisValues[0].getNiceDouble(0));
                     ftMax.set(fileListPo, tSourceAxisValues[0].getNiceDouble(tnValues - 1));
                     ftCsvValues.set(fileListPo, tSourceAxisValues[0].toString());
+                    ftChunkShapes.set(fileListPo, chunkShapesString(tSourceDataAttributes));
 
                     tFileListPo++;
                     fileListPo++;
@@ -1499,7 +1528,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         ArrayList<WatchEvent.Kind> eventKinds = new ArrayList();
         StringArray contexts  = new StringArray();
         int nEvents = watchDirectory.getEvents(eventKinds, contexts);
-        if (nEvents == 0) {
+        if (nEvents == 0 && pendingFileEvents.size() == 0) {
             if (verbose) String2.log(msg + "found 0 events.");
             return false; //no changes
         }
@@ -1510,6 +1539,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                 if (verbose) String2.log(msg +  
                     "caught OVERFLOW event in " + contexts.get(evi) + 
                     ", so I called requestReloadASAP() instead of making changes here."); 
+                pendingFileEvents = new StringArray(); //the reload will deal with them
                 requestReloadASAP();
                 return false; 
             }
@@ -1535,6 +1565,10 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                 keep.set(evi);
         }
         contexts.justKeep(keep);        
+
+        //Coalesce with events not yet processed by previous calls and
+        //just process a batch of up to EDStatic.updateMaxEvents files now.
+        contexts = takeFileEventBatch(contexts);
         nEvents = contexts.size();
         if (nEvents == 0) {
             if (verbose) String2.log(msg + 
@@ -1542,15 +1576,6 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             return false; //no changes
         }
 
-        //If too many events, call for reload.
-        //This method isn't as nearly as efficient as full reload.
-        if (nEvents > 10) {
-            if (verbose) String2.log(msg + nEvents + 
-                ">10 file events, so I called requestReloadASAP() instead of making changes here."); 
-            requestReloadASAP();
-            return false;
-        }
-
         //get BadFile and FileTable info and make local copies
         ConcurrentHashMap badFileMap = readBadFileMap(); //already a copy of what's in file
         Table tDirTable  = getDirTableCopy();   //not null, throws Throwable
@@ -1571,6 +1596,14 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         DoubleArray ftMax        = (DoubleArray)tFileTable.getColumn(FT_MAX_COL);
         StringArray ftCsvValues  = (StringArray)tFileTable.getColumn(FT_CSV_VALUES_COL);
         IntArray    ftStartIndex = (IntArray)   tFileTable.getColumn(FT_START_INDEX_COL);
+        StringArray ftChunkShapes = (StringArray)tFileTable.getColumn(FT_CHUNK_SHAPES_COL);
+
+        //If several events, index the fileTable so each file is found quickly.
+        //Rows of removed files are just noted here and removed all at once below
+        //  (so row numbers in the index stay valid).
+        HashMap<String,Integer> fileTableIndex = nEvents > 1? 
+            makeFileTableIndex(ftDirIndex, ftFileList) : null;
+        BitSet removeRows = new BitSet();
 
         //for each changed file
         int nChanges = 0; //BadFiles or FileTable
@@ -1588,6 +1621,10 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             //dirIndex   (dirName may not be in dirList!)
             int dirIndex = dirList.indexOf(dirName); //linear search, but should be short list
 
+            //the file changed, so don't reuse pooled NetcdfFiles or cached data values for it
+            NcHelper.invalidateFile(fullName);
+            gridChunkCache.invalidate(fullName);
+
             //if it is an existing file, see if it is valid
             if (File2.isFile(fullName)) {
                 //test that all axisVariable and dataVariable units are identical
@@ -1641,19 +1678,22 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                                     //another msg is always for this file printed below
                         }
 
-                        //If file name already in tFileTable, remove it.
+                        //If file name already in tFileTable, remove it (below).
                         //Don't take shortcut, e.g., by searching with tMin.
                         //It is possible file had wrong name/wrong value before.
-                        wasInFileTable = removeFromFileTable(dirIndex, fileName, 
+                        int po = findInFileTable(fileTableIndex, dirIndex, fileName, 
                             tFileTable, ftDirIndex, ftFileList);
+                        if (po >= 0) {
+                            removeRows.set(po);
+                            wasInFileTable = true;
+                        }
 
                     }
 
-                    //Insert row in tFileTable for this valid file.
-                    //Use exact binary search.  AlmostEquals isn't a problem. 
-                    //  If file was in tFileTable, it is gone now (above).
-                    int fileListPo = ftMin.binaryFindFirstGE(0, ftMin.size() - 1, 
-                        new PAOne(tSourceAxisValues[0], 0)); 
+                    //Add a row at the end of tFileTable for this valid file.
+                    //(The table is sorted by ftMin below.)
+                    //  If file was in tFileTable, that row is removed below.
+                    int fileListPo = ftMin.size(); 
                     if (verbose)
                         String2.log(msg + 
                             (wasInFileTable? "updated a file in" : "added a file to") + 
@@ -1669,6 +1709,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                     ftMin.set(fileListPo, tSourceAxisValues[0].getNiceDouble(0));
                     ftMax.set(fileListPo, tSourceAxisValues[0].getNiceDouble(tnValues - 1));
                     ftCsvValues.set(fileListPo, tSourceAxisValues[0].toString());
+                    ftChunkShapes.set(fileListPo, chunkShapesString(tSourceDataAttributes));
                     //ftStartIndex is updated when file is saved                    
 
                 } else {
@@ -1676,8 +1717,10 @@ public abstract class EDDGridFromFiles extends EDDGrid{
 
                     //Remove from tFileTable if it is there.
                     if (dirIndex >= 0) { //it might be in tFileTable
-                        if (removeFromFileTable(dirIndex, fileName, 
-                                tFileTable, ftDirIndex, ftFileList)) {
+                        int po = findInFileTable(fileTableIndex, dirIndex, fileName, 
+                            tFileTable, ftDirIndex, ftFileList);
+                        if (po >= 0) {
+                            removeRows.set(po);
                             nChanges++;
                             if (verbose)
                                 String2.log(msg + 
@@ -1709,8 +1752,10 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                     //Remove it from tFileTable if it's there.
                     //Don't take shortcut, e.g., binary search with tMin.
                     //It is possible file had wrong name/wrong value before.
-                    if (removeFromFileTable(dirIndex, fileName, 
-                            tFileTable, ftDirIndex, ftFileList)) {
+                    int po = findInFileTable(fileTableIndex, dirIndex, fileName, 
+                        tFileTable, ftDirIndex, ftFileList);
+                    if (po >= 0) {
+                        removeRows.set(po);
                         nChanges++;
                         if (verbose)
                             String2.log(msg + 
@@ -1732,6 +1777,13 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         //if changes observed, make the changes to the dataset (as fast/atomically as possible)
         if (nChanges > 0) {
             //first, change local info only
+            if (!removeRows.isEmpty()) {
+                removeRows.flip(0, tFileTable.nRows()); //now it's the rows to keep
+                tFileTable.justKeep(removeRows);
+            }
+            //sort by ftMin (stable, so unchanged files stay in order)
+            tFileTable.sort(new int[]{FT_MIN_COL}, new boolean[]{true});
+
             //finish up, validate, and save dirTable, fileTable, badFileMap
             PrimitiveArray sourceAxisValues0 = PrimitiveArray.factory(
                 axisVariables[0].sourceValues().elementType(), 
@@ -1763,6 +1815,8 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                 dirTable  = tDirTable;
                 fileTable = tFileTable; 
             }
+            if (timeSeriesCache != null)
+                timeSeriesCache.fileTableChanged(tDirTable, tFileTable);
 
             //after changes all in place
 //Currently, update() doesn't trigger these changes.
@@ -1809,8 +1863,37 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             false); //dirsToo
     }
 
-    /** 
-     * This gets the dirTable (perhaps the private copy) for read-only use. 
+    /**
+     * This sets whether this dataset should have a timeSeriesCache (see &lt;timeSeriesCache&gt;
+     * in datasets.xml). This doesn't start the cache. See startTimeSeriesCache.
+     *
+     * @param tTimeSeriesCache true to turn it on, false to turn it off
+     */
+    public void setTimeSeriesCache(boolean tTimeSeriesCache) {
+        timeSeriesCacheActive = tTimeSeriesCache;
+    }
+
+    /**
+     * LoadDatasets calls this after this dataset has been put in place
+     * to start (or, if &lt;timeSeriesCache&gt; isn't true, to stop) the 
+     * datasetID's timeSeriesCache.
+     * If on, the cache is built in the background and then long time series
+     * requests at a few points are gotten from it.
+     * Datasets which are just constructed (e.g., by DasDds, GenerateDatasetsXml, 
+     * or tests) don't call this, so they don't touch the running ERDDAP's
+     * cache in datasetDir().
+     */
+    public void startTimeSeriesCache() {
+        if (timeSeriesCacheActive) {
+            timeSeriesCache = TimeSeriesCache.forDataset(this);
+        } else {
+            timeSeriesCache = null;
+            TimeSeriesCache.removeDataset(datasetID);
+        }
+    }
+
+    /**
+     * This gets the dirTable (perhaps the private copy) for read-only use.
      *
      * @throw Throwable if trouble
      */
@@ -2245,11 +2328,40 @@ public abstract class EDDGridFromFiles extends EDDGrid{
      *   <br>The primitiveArray dataTypes are usually the sourceDataPAType,
      *     but can be any type. EDDGridFromFiles will convert to the sourceDataPAType.
      *   <br>Note the lack of axisVariable values!
+     *   <br>The values may come from (and are added to) gridChunkCache.
+     *   The caller may change the PrimitiveArrays.
      * @throws Throwable if trouble (e.g., invalid file).
      *   If there is trouble, this doesn't call addBadFile or requestReloadASAP().
      */
     public PrimitiveArray[] getSourceDataFromFile(String tFileDir, String tFileName, 
         EDV tDataVariables[], IntArray tConstraints) throws Throwable {
+        return getSourceDataFromFile(tFileDir, tFileName, tDataVariables, tConstraints, 
+            null, -1);
+    }
+
+    /**
+     * This variant of getSourceDataFromFile uses the file's chunk shapes 
+     * (from the fileTable) to read chunk-aligned blocks (see cachedGetSourceDataFromFile).
+     *
+     * @param tChunkShapes the file's chunkShapes value from the fileTable (may be null)
+     * @param tNValues the file's number of axis0 values (from the fileTable)
+     */
+    public PrimitiveArray[] getSourceDataFromFile(String tFileDir, String tFileName, 
+        EDV tDataVariables[], IntArray tConstraints, String tChunkShapes, int tNValues) 
+        throws Throwable {
+        return getSourceDataFromFile(tFileDir, tFileName, tDataVariables, tConstraints, 
+            tChunkShapes, tNValues, true);
+    }
+
+    /**
+     * This variant of getSourceDataFromFile can bypass gridChunkCache.
+     *
+     * @param tUseGridChunkCache if false, the values are read from the file
+     *   and aren't added to gridChunkCache (e.g., for a one-time read of all of the data).
+     */
+    public PrimitiveArray[] getSourceDataFromFile(String tFileDir, String tFileName, 
+        EDV tDataVariables[], IntArray tConstraints, String tChunkShapes, int tNValues,
+        boolean tUseGridChunkCache) throws Throwable {
 
         //if using temporary cache system, ensure file is in cache
         ensureInCache(tFileDir + tFileName); //throws Exception 
@@ -2259,21 +2371,171 @@ public abstract class EDDGridFromFiles extends EDDGrid{
 
         if (axis0Type == AXIS0_REGULAR ||
             axis0Type == AXIS0_REPLACE_FROM_FILENAME) 
-            return lowGetSourceDataFromFile(decompFullName, 
-                tDataVariables, tConstraints);
+            return cachedGetSourceDataFromFile(tFileDir + tFileName, decompFullName, 
+                tDataVariables, tConstraints, tChunkShapes, tNValues, tUseGridChunkCache);
         
         //special axis0?  ***fileName, time=YYYYMMDD, regex, captureGroup
         if (axis0Type == AXIS0_FILENAME ||
             axis0Type == AXIS0_PATHNAME ||
             axis0Type == AXIS0_GLOBAL) {
-            return lowGetSourceDataFromFile(decompFullName, 
+            return cachedGetSourceDataFromFile(tFileDir + tFileName, decompFullName, 
                 tDataVariables,             //start, stride, stop
-                (IntArray)tConstraints.subset(3, 1, tConstraints.size() - 1)); //remove the axis0 constraints
+                (IntArray)tConstraints.subset(3, 1, tConstraints.size() - 1), //remove the axis0 constraints
+                tChunkShapes, -1, tUseGridChunkCache);
         }
 
         throw new RuntimeException("Invalid axis0Type=" + axis0Type);
     }
 
+    /**
+     * This returns a file's value for the fileTable's chunkShapes column:
+     * for each dataVariable (in order), the variable's _ChunkSizes source attribute 
+     * (e.g., "1,64,64", from a chunked NetCDF-4 or HDF5 file), or "" if it isn't chunked
+     * (or the file type doesn't say), separated by ';'.
+     * See GridChunkCache.parseChunkShape().
+     *
+     * @param tSourceDataAttributes the file's source attributes for each dataVariable
+     * @return the chunkShapes value
+     */
+    protected static String chunkShapesString(Attributes tSourceDataAttributes[]) {
+        StringBuilder sb = new StringBuilder();
+        for (int dvi = 0; dvi < tSourceDataAttributes.length; dvi++) {
+            if (dvi > 0)
+                sb.append(';');
+            PrimitiveArray pa = tSourceDataAttributes[dvi].get("_ChunkSizes");
+            if (pa != null && pa.size() > 0 && pa.elementType() != PAType.STRING)
+                sb.append(pa.toCSVString());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * This gets the dataVariables' values from gridChunkCache if they are there,
+     * gets the others via lowGetSourceDataFromFile, and adds those to gridChunkCache.
+     *
+     * <p>If a variable is chunked in the file (e.g., NetCDF-4 and HDF5 files)
+     * and the request doesn't fall on chunk boundaries, this reads the chunk-aligned 
+     * block (see GridChunkCache.chunkAlignedConstraints), so each chunk is
+     * decompressed once, caches the block, and returns the requested subset of it.
+     * So consecutive partial requests (e.g., from GridDataAccessor, one time point 
+     * at a time) reuse the decoded block.
+     *
+     * @param tFullName the name of the data file (as used by lowUpdate's
+     *   gridChunkCache.invalidate())
+     * @param tDecompFullName the name of the decompressed data file
+     * @param tDataVariables the desired data variables
+     * @param tConstraints the constraints for lowGetSourceDataFromFile
+     * @param tChunkShapes the file's chunkShapes value from the fileTable (may be null)
+     * @param tNValues the file's number of axis0 values, 
+     *   or -1 if tConstraints doesn't include axis0 (or it is unknown)
+     * @param tUseGridChunkCache if false, this just calls lowGetSourceDataFromFile
+     * @return a PrimitiveArray[] with an element for each tDataVariable with the dataValues.
+     * @throws Throwable if trouble
+     */
+    private PrimitiveArray[] cachedGetSourceDataFromFile(String tFullName, 
+        String tDecompFullName, EDV tDataVariables[], IntArray tConstraints,
+        String tChunkShapes, int tNValues, boolean tUseGridChunkCache) throws Throwable {
+
+        long lastMod = tUseGridChunkCache && gridChunkCache.isActive()? 
+            File2.getLastModified(tDecompFullName) : 0;
+        if (lastMod == 0) //cache is off or not wanted, or trouble (let lowGetSourceDataFromFile deal with it)
+            return lowGetSourceDataFromFile(tDecompFullName, tDataVariables, tConstraints);
+
+        //the size of each of the file's axes
+        int nFileAxes = tConstraints.size() / 3;
+        int axisSizes[] = null;
+        if (String2.isSomething(tChunkShapes)) {
+            int offset = axisVariables.length - nFileAxes; //1 if special axis0
+            axisSizes = new int[nFileAxes];
+            for (int a = 0; a < nFileAxes; a++)
+                axisSizes[a] = a == 0 && offset == 0? tNValues : 
+                    axisVariables[a + offset].sourceValues().size();
+            if (axisSizes[0] < 1)
+                axisSizes = null;
+        }
+
+        //for each dv: the constraints to be read (maybe chunk-aligned) and the key
+        int nDV = tDataVariables.length;
+        PrimitiveArray results[] = new PrimitiveArray[nDV];
+        IntArray readConstraints[] = new IntArray[nDV];
+        String keys[] = new String[nDV];
+        //readConstraints.toString() -> the dvs to be read with those constraints
+        LinkedHashMap<String, IntArray> toRead = new LinkedHashMap(); 
+        long maxAlignedNBytes = Math.min(EDStatic.partialRequestMaxBytes, 
+            gridChunkCache.maxBytes() / 4);
+        for (int dv = 0; dv < nDV; dv++) {
+            readConstraints[dv] = tConstraints;
+            if (axisSizes != null) {
+                int chunkShape[] = GridChunkCache.parseChunkShape(tChunkShapes,
+                    String2.indexOfObject(dataVariables, tDataVariables[dv]));
+                IntArray aligned = GridChunkCache.chunkAlignedConstraints(
+                    tConstraints, chunkShape, axisSizes);
+                if (aligned != null && GridChunkCache.nValues(aligned) * 
+                        PAType.elementSize(tDataVariables[dv].sourceDataPAType()) <= maxAlignedNBytes)
+                    readConstraints[dv] = aligned;
+            }
+            keys[dv] = GridChunkCache.key(datasetID, tDecompFullName, lastMod, 
+                tDataVariables[dv].sourceName(), readConstraints[dv]);
+            results[dv] = gridChunkCache.get(keys[dv]);
+            if (results[dv] == null) {
+                String rcString = readConstraints[dv].toString();
+                IntArray dvs = toRead.get(rcString);
+                if (dvs == null) {
+                    dvs = new IntArray();
+                    toRead.put(rcString, dvs);
+                }
+                dvs.add(dv);
+            }
+        }
+
+        //read the others (a group for each distinct readConstraints)
+        for (IntArray dvs : toRead.values()) {
+            IntArray tReadConstraints = readConstraints[dvs.get(0)];
+            boolean isAligned = tReadConstraints != tConstraints;
+
+            //if aligned, other threads may want the same block, so just read it once
+            ReentrantLock lock = isAligned? 
+                String2.canonicalLock(String2.canonical(
+                    tDecompFullName + "\n" + tReadConstraints.toString())) : 
+                null;
+            if (lock != null && !lock.tryLock(10, TimeUnit.SECONDS))
+                lock = null; //proceed without it
+            try {
+                ArrayList<EDV> edvs = new ArrayList();
+                IntArray edvsDV = new IntArray();
+                for (int i = 0; i < dvs.size(); i++) {
+                    int dv = dvs.get(i);
+                    if (lock != null) //another thread may have just read it
+                        results[dv] = gridChunkCache.get(keys[dv]);
+                    if (results[dv] == null) {
+                        edvs.add(tDataVariables[dv]);
+                        edvsDV.add(dv);
+                    }
+                }
+                if (edvs.size() > 0) {
+                    PrimitiveArray lowResults[] = lowGetSourceDataFromFile(tDecompFullName, 
+                        edvs.toArray(new EDV[edvs.size()]), tReadConstraints);
+                    for (int i = 0; i < lowResults.length; i++) {
+                        int dv = edvsDV.get(i);
+                        results[dv] = lowResults[i];
+                        gridChunkCache.put(keys[dv], tFullName, lowResults[i]); //stores a copy
+                    }
+                }
+            } finally {
+                if (lock != null)
+                    lock.unlock();
+            }
+        }
+
+        //get the requested subset of the aligned blocks
+        for (int dv = 0; dv < nDV; dv++) {
+            if (readConstraints[dv] != tConstraints)
+                results[dv] = GridChunkCache.subsetOfBlock(results[dv], 
+                    readConstraints[dv], tConstraints);
+        }
+        return results;
+    }
+
     /** 
      * This is the low-level request corresponding to what is actually in the file. 
      *
@@ -2285,6 +2547,41 @@ public abstract class EDDGridFromFiles extends EDDGrid{
     public abstract PrimitiveArray[] lowGetSourceDataFromFile(String tFullName, 
         EDV tDataVariables[], IntArray tConstraints) throws Throwable;
 
+    /**
+     * This estimates the number of source files that a data request with 
+     * these constraints will read (for EDDGrid.estimateCost):
+     * the files which have at least one of the requested axis0 values.
+     *
+     * @param constraints the start, stride, stop for each axis variable
+     * @return the number of files
+     * @throws Throwable if trouble
+     */
+    protected long estimateNFiles(IntArray constraints) throws Throwable {
+        Table tFileTable = getFileTable();
+        IntArray ftNValues    = (IntArray)tFileTable.getColumn(FT_N_VALUES_COL);
+        IntArray ftStartIndex = (IntArray)tFileTable.getColumn(FT_START_INDEX_COL);
+        int nFiles = ftStartIndex.size();
+        int axis0Start  = constraints.get(0);
+        int axis0Stride = constraints.get(1);
+        int axis0Stop   = constraints.get(2);
+        if (nFiles == 0 || axis0Start > axis0Stop)
+            return 0;
+        int first = ftStartIndex.binaryFindLastLE(0,     nFiles - 1, PAOne.fromInt(axis0Start));
+        int last  = ftStartIndex.binaryFindLastLE(first, nFiles - 1, PAOne.fromInt(axis0Stop));
+        if (axis0Stride == 1)
+            return last - first + 1;
+        long n = 0;
+        for (int ftRow = first; ftRow <= last; ftRow++) {
+            //is the first requested index at or after this file's start in this file?
+            int fStart = Math.max(ftStartIndex.get(ftRow), axis0Start);
+            long index = axis0Start + 
+                ((fStart - axis0Start + axis0Stride - 1L) / axis0Stride) * axis0Stride;
+            if (index <= Math.min(ftStartIndex.get(ftRow) + ftNValues.get(ftRow) - 1L, axis0Stop))
+                n++;
+        }
+        return n;
+    }
+
     /** 
      * This gets data (not yet standardized) from the data source for this EDDGrid.     
      * Because this is called by GridDataAccessor, the request won't be the 
@@ -2307,6 +2604,19 @@ public abstract class EDDGridFromFiles extends EDDGrid{
     public PrimitiveArray[] getSourceData(Table tDirTable, Table tFileTable,
         EDV tDataVariables[], IntArray tConstraints) 
         throws Throwable {
+        return getSourceData(tDirTable, tFileTable, tDataVariables, tConstraints, true);
+    }
+
+    /**
+     * This variant of getSourceData can bypass the timeSeriesCache and gridChunkCache
+     * (e.g., for TimeSeriesCache's builder, which reads all of the data once).
+     *
+     * @param tUseCaches if false, the data is read from the files and 
+     *   isn't added to gridChunkCache
+     */
+    public PrimitiveArray[] getSourceData(Table tDirTable, Table tFileTable,
+        EDV tDataVariables[], IntArray tConstraints, boolean tUseCaches) 
+        throws Throwable {
 
         //get a local reference to dirTable and fileTable
         try {
@@ -2330,6 +2640,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         DoubleArray ftMax        = (DoubleArray)tFileTable.getColumn(FT_MAX_COL);
         StringArray ftCsvValues  = (StringArray)tFileTable.getColumn(FT_CSV_VALUES_COL);
         IntArray    ftStartIndex = (IntArray)   tFileTable.getColumn(FT_START_INDEX_COL);
+        StringArray ftChunkShapes = (StringArray)tFileTable.getColumn(FT_CHUNK_SHAPES_COL);
 
         //make results[]
         int nav = axisVariables.length;
@@ -2345,6 +2656,17 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             results[nav + dvi] = PrimitiveArray.factory(
                 tDataVariables[dvi].sourceDataPAType(), 64, false);
         }
+
+        //a long time series at a few points? try to get it from the timeSeriesCache
+        TimeSeriesCache tTimeSeriesCache = tUseCaches? timeSeriesCache : null;
+        if (tTimeSeriesCache != null) {
+            PrimitiveArray tsResults[] = tTimeSeriesCache.getData(tDataVariables, tConstraints);
+            if (tsResults != null) {
+                System.arraycopy(tsResults, 0, results, nav, ndv);
+                return results;
+            }
+        }
+
         IntArray ttConstraints = (IntArray)tConstraints.clone();
         int nFiles = ftStartIndex.size();
         int axis0Start  = tConstraints.get(0);
@@ -2382,7 +2704,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             PrimitiveArray[] tResults;
             try {
                 tResults = getSourceDataFromFile(tFileDir, tFileName, //it calls ensureInCache()
-                    tDataVariables, ttConstraints);
+                    tDataVariables, ttConstraints, ftChunkShapes.get(ftRow), tNValues, tUseCaches);
                 //String2.log("!tResults[0]=" + tResults[0].toString());
             } catch (Throwable t) {
                 EDStatic.rethrowClientAbortException(t);  //first thing in catch{}
@@ -2401,7 +2723,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                 try {
                     Thread.sleep(1000); //not Math2.sleep(1000);
                     tResults = getSourceDataFromFile(tFileDir, tFileName, 
-                        tDataVariables, ttConstraints);
+                        tDataVariables, ttConstraints, ftChunkShapes.get(ftRow), tNValues, tUseCaches);
                 } catch (Throwable t2) {
                     EDStatic.rethrowClientAbortException(t2);  //first thing in catch{}
 
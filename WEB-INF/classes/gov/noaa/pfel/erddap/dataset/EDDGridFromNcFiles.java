@@ -6570,6 +6570,75 @@ expected =
         String2.log("\nEDDGridFromNcFiles.testGenerateDatasetsXml passed the test.");
     }
 
+    /**
+     * This tests EDDGrid.estimateCost and EDDGridFromFiles.estimateNFiles,
+     * notably with axis0 strides that skip some of the files.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testEstimateCost() throws Throwable {
+        String2.log("\n*** EDDGridFromNcFiles.testEstimateCost()\n");
+        EDDGridFromNcFiles eddGrid = (EDDGridFromNcFiles)oneFromDatasetsXml(null, "testGriddedNcFiles"); 
+        int timeBpe  = eddGrid.axisVariables()[0].destinationBytesPerElement();
+        int xWindBpe = eddGrid.findDataVariableByDestinationName("x_wind").destinationBytesPerElement();
+        RequestCost rc;
+
+        //3 files: 20080101_03 has time[0:2], 20080104_07 has [3:6], 20080108_10 has [7:9]
+        Table tFileTable = eddGrid.getFileTable();
+        Test.ensureEqual(tFileTable.getColumn(FT_START_INDEX_COL).toString(), "0, 3, 7", "");
+        Test.ensureEqual(tFileTable.getColumn(FT_N_VALUES_COL).toString(),    "3, 4, 3", "");
+
+        //stride=1, all in 1 file
+        rc = eddGrid.estimateCost(null, "x_wind[3:1:6][0][100][100]", ".csv");
+        Test.ensureEqual(rc.nFiles, 1, "");
+        Test.ensureEqual(rc.nRows, 4, "");
+        Test.ensureEqual(rc.nBytes, 4 * xWindBpe, "");
+        Test.ensureEqual(rc.estimated, true, "");
+
+        //stride=1, across a file boundary
+        rc = eddGrid.estimateCost(null, "x_wind[2:1:3][0][100][100]", ".csv");
+        Test.ensureEqual(rc.nFiles, 2, "");
+        Test.ensureEqual(rc.nRows, 2, "");
+
+        //0, 4, 8: a value in each file
+        rc = eddGrid.estimateCost(null, "x_wind[0:4:9][0][100][100]", ".csv");
+        Test.ensureEqual(rc.nFiles, 3, "");
+        Test.ensureEqual(rc.nRows, 3, "");
+        Test.ensureEqual(rc.nBytes, 3 * xWindBpe, "");
+
+        //0, 9 and 2, 7: the stride skips over the middle file
+        rc = eddGrid.estimateCost(null, "x_wind[0:9:9][0][100][100]", ".csv");
+        Test.ensureEqual(rc.nFiles, 2, "");
+        Test.ensureEqual(rc.nRows, 2, "");
+        rc = eddGrid.estimateCost(null, "x_wind[2:5:9][0][100][100]", ".csv");
+        Test.ensureEqual(rc.nFiles, 2, "");
+
+        //3, 6: stop is in the last file, but the last value is in the middle file
+        rc = eddGrid.estimateCost(null, "x_wind[3:3:8][0][100][100]", ".csv");
+        Test.ensureEqual(rc.nFiles, 1, "");
+        Test.ensureEqual(rc.nRows, 2, "");
+
+        //1, 6: start and stop are in different files than the last value
+        rc = eddGrid.estimateCost(null, "x_wind[1:5:9][0][100][100]", ".csv");
+        Test.ensureEqual(rc.nFiles, 2, "");
+
+        //estimateNFiles directly: 4, 8
+        Test.ensureEqual(eddGrid.estimateNFiles(new IntArray(new int[]{
+            4,4,9, 0,1,0, 100,1,100, 100,1,100})), 2, "");
+
+        //axis variables are in memory: no files
+        rc = eddGrid.estimateCost(null, "time[0:4:9]", ".csv");
+        Test.ensureEqual(rc.nFiles, 0, "");
+        Test.ensureEqual(rc.nRows, 3, "");
+        Test.ensureEqual(rc.nBytes, 3 * timeBpe, "");
+
+        //invalid query
+        rc = eddGrid.estimateCost(null, "zztop[0]", ".csv");
+        Test.ensureTrue(rc == RequestCost.UNKNOWN, "rc=" + rc);
+
+        String2.log("\nEDDGridFromNcFiles.testEstimateCost passed the test.");
+    }
+
     /**
      * This tests the EDDGridFromFiles.update().
      *
@@ -15256,6 +15325,7 @@ expected =
                     if (test == 14) testGenerateDatasetsXmlGroups();
                     if (test == 15) testGenerateDatasetsXmlGroups2();
                     if (test == 16) testGenerateDatasetsXmlStructures(); 
+                    if (test == 17) testEstimateCost();
 
                     if (test == 20) testAVDVSameSource();
                     if (test == 21) test2DVSameSource();
@@ -137,7 +137,7 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
         Attributes sourceDataAttributes[]) throws Throwable {
 
         String getWhat = "globalAttributes";
-        NetcdfFile ncFile = NcHelper.openFile(tFullName); //may throw exception
+        NetcdfFile ncFile = NcHelper.acquireFile(tFullName); //may throw exception. Usually from NcHelper.filePool
         String group = "";
         int groupSlashCount = 0;
         try {
@@ -207,11 +207,11 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
             NcHelper.getGroupAttributes(ncFile.findGroup(group), sourceGlobalAttributes);
 
             //I care about this exception
-            ncFile.close();
+            NcHelper.releaseFile(ncFile); //return it to the pool
 
         } catch (Throwable t) {
             try {
-                ncFile.close(); //make sure it is explicitly closed
+                NcHelper.discardFile(ncFile); //make sure it is explicitly closed
             } catch (Throwable t2) {
                 //don't care
             }
@@ -243,7 +243,7 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
         StringArray sourceAxisNames, StringArray sourceDataNames) throws Throwable {
 
         String getWhat = "?";
-        NetcdfFile ncFile = NcHelper.openFile(tFullName); //may throw exception
+        NetcdfFile ncFile = NcHelper.acquireFile(tFullName); //may throw exception. Usually from NcHelper.filePool
         try {
             PrimitiveArray[] avPa = new PrimitiveArray[sourceAxisNames.size()];
 
@@ -282,12 +282,12 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
             }
 
             //I care about this exception
-            ncFile.close();
+            NcHelper.releaseFile(ncFile); //return it to the pool
             return avPa;
 
         } catch (Throwable t) {
             try {
-                ncFile.close(); //make sure it is explicitly closed
+                NcHelper.discardFile(ncFile); //make sure it is explicitly closed
             } catch (Throwable t2) {
                 //don't care
             }
@@ -335,7 +335,7 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
         int nValues = -1; //not yet calculated
         EDV edv = null;
 
-        NetcdfFile ncFile = NcHelper.openFile(tFullName); //may throw exception
+        NetcdfFile ncFile = NcHelper.acquireFile(tFullName); //may throw exception. Usually from NcHelper.filePool
         try {
 
             for (int dvi = 0; dvi < ndv; dvi++) {
@@ -414,13 +414,13 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
             }
 
             //I care about this exception
-            ncFile.close();
+            NcHelper.releaseFile(ncFile); //return it to the pool
             return paa;
 
         } catch (Throwable t) {
             //make sure it is explicitly closed
             try {   
-                ncFile.close();    
+                NcHelper.discardFile(ncFile);    
             } catch (Throwable t2) {
                 String2.log("Error while trying to close " + tFullName +
                     "\n" + MustBe.throwableToShortString(t2));
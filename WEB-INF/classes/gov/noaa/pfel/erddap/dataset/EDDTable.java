@@ -3118,8 +3118,17 @@ public abstract class EDDTable extends EDD {
             throw new TimeoutException("Timeout waiting for lock on EDDTable .ncHeader cacheFullName.");
         try {
 
-            if (File2.isFile(cacheFullName)) { //don't 'touch()'; files for latest data will change
+            boolean reused = ResponseCache.isReusable(cacheFullName);
+            if (!reused) {
+                //if the old (stale) file is still being read, make the new file with another name
+                String newName = ResponseCache.nameForNewFile(cacheFullName);
+                if (fullName.equals(cacheFullName))
+                    fullName = newName;
+                cacheFullName = newName;
+            }
+            if (reused) { //don't 'touch()'; files for latest data will change
                 if (verbose) String2.log("  reusing cached " + cacheFullName);
+                ResponseCache.reuse(datasetID, cacheFullName);
 
             } else if (fileTypeName.equals(".nc") || 
                        fileTypeName.equals(".ncHeader")) {
@@ -3247,49 +3256,56 @@ public abstract class EDDTable extends EDD {
 
                 File2.isFile(cacheFullName, 5); //for possible waiting thread, wait till file is visible via operating system
             } 
+            if (!reused)
+                ResponseCache.add(datasetID, cacheFullName);
+            ResponseCache.beginRead(cacheFullName); //so it isn't evicted while it is used below
         } finally {
             lock.unlock();
         }
 
-        //if ncXHeader (.ncHeader, .nc4Header, .ncCFHeader, .ncCFMAHeader), create the underlying .nc file
-        if (ncXHeader) {
-            //thread-safe creation of the file 
-            //(If there are almost simultaneous requests for the same one, only one thread will make it.)
-            fullName = String2.canonical(fullName);
-            ReentrantLock lock2 = String2.canonicalLock(fullName);
-            if (!lock2.tryLock(String2.longTimeoutSeconds, TimeUnit.SECONDS))
-                throw new TimeoutException("Timeout waiting for lock on EDDTable ncXHeader fullName.");
-            try {
+        try {
+            //if ncXHeader (.ncHeader, .nc4Header, .ncCFHeader, .ncCFMAHeader), create the underlying .nc file
+            if (ncXHeader) {
+                //thread-safe creation of the file 
+                //(If there are almost simultaneous requests for the same one, only one thread will make it.)
+                fullName = String2.canonical(fullName);
+                ReentrantLock lock2 = String2.canonicalLock(fullName);
+                if (!lock2.tryLock(String2.longTimeoutSeconds, TimeUnit.SECONDS))
+                    throw new TimeoutException("Timeout waiting for lock on EDDTable ncXHeader fullName.");
+                try {
 
-                if (!File2.isFile(fullName)) {
-                    String error = String2.writeToFile(fullName + random, 
-                        NcHelper.ncdump(cacheFullName, "-h"), String2.UTF_8); //!!!this doesn't do anything to internal " in a String attribute value.
-                    if (error.length() == 0) {
-                        File2.rename(fullName + random, fullName); //make available in an instant
-                        File2.isFile(fullName, 5); //for possible waiting thread, wait till file is visible via operating system
-                    } else {
-                        throw new RuntimeException(error);
+                    if (!File2.isFile(fullName)) {
+                        String error = String2.writeToFile(fullName + random, 
+                            NcHelper.ncdump(cacheFullName, "-h"), String2.UTF_8); //!!!this doesn't do anything to internal " in a String attribute value.
+                        if (error.length() == 0) {
+                            File2.rename(fullName + random, fullName); //make available in an instant
+                            File2.isFile(fullName, 5); //for possible waiting thread, wait till file is visible via operating system
+                        } else {
+                            throw new RuntimeException(error);
+                        }
                     }
+                } finally {
+                    lock2.unlock();
                 }
-            } finally {
-                lock2.unlock();
             }
-        }
 
-        //copy file to outputStream
-        //(I delayed getting actual outputStream as long as possible.)
-        OutputStream out = outputStreamSource.outputStream(
-            ncXHeader? String2.UTF_8 : 
-            fileTypeName.equals(".kml")? String2.UTF_8 : "");
-        try {
-            if (!File2.copy(fullName, out)) { 
-                //outputStream contentType already set,
-                //so I can't go back to html and display error message
-                //note than the message is thrown if user cancels the transmission; so don't email to me
-                throw new SimpleException(String2.ERROR + " while transmitting file.");
+            //copy file to outputStream
+            //(I delayed getting actual outputStream as long as possible.)
+            OutputStream out = outputStreamSource.outputStream(
+                ncXHeader? String2.UTF_8 : 
+                fileTypeName.equals(".kml")? String2.UTF_8 : "");
+            try {
+                if (!File2.copy(fullName, out)) { 
+                    //outputStream contentType already set,
+                    //so I can't go back to html and display error message
+                    //note than the message is thrown if user cancels the transmission; so don't email to me
+                    throw new SimpleException(String2.ERROR + " while transmitting file.");
+                }
+            } finally {
+                try {out.close();} catch (Exception e) {} //downloads of e.g., erddap2.css don't work right if not closed. (just if gzip'd?)
             }
         } finally {
-            try {out.close();} catch (Exception e) {} //downloads of e.g., erddap2.css don't work right if not closed. (just if gzip'd?)
+            ResponseCache.endRead(cacheFullName);
         }
 
         //done
@@ -5043,7 +5059,7 @@ public abstract class EDDTable extends EDD {
                 writer.write(atts.toNcoJsonString("      "));
                 writer.write(
                     "      \"data\": [");
-                DataInputStream dis = twawm.dataInputStream(col);
+                ColumnSpillFile.Reader reader = twawm.columnReader(col);
                 try {
                     //create the bufferPA
                     PrimitiveArray pa = null; 
@@ -5056,7 +5072,7 @@ public abstract class EDDTable extends EDD {
                         }
                         pa.clear();
                         pa.setMaxIsMV(twawm.columnMaxIsMV(col)); //reset after clear()
-                        pa.readDis(dis, nToRead);
+                        reader.read(pa, nToRead);
                         if (isChar) {
                             //write it as one string with chars concatenated
                             //see "md5_abc" in in http://dust.ess.uci.edu/tmp/in.json.fmt2
@@ -5093,7 +5109,7 @@ public abstract class EDDTable extends EDD {
                         nRowsRead += nToRead;
                     }
                 } finally {
-                    dis.close();
+                    reader.close();
                 }
                 if (isChar)
                     writer.write('\"'); //terminate the string
@@ -5229,7 +5245,7 @@ public abstract class EDDTable extends EDD {
                 int ncOffset = 0;
                 int bufferSize = EDStatic.partialRequestMaxCells;
                 PrimitiveArray pa = null;
-                DataInputStream dis = twawm.dataInputStream(col);
+                ColumnSpillFile.Reader reader = twawm.columnReader(col);
                 try {
                     PAType colType = twawm.columnType(col);
                     Array array;
@@ -5243,7 +5259,7 @@ public abstract class EDDTable extends EDD {
                         }
                         pa.clear();
                         pa.setMaxIsMV(twawm.columnMaxIsMV(col)); //reset it after clear()
-                        pa.readDis(dis, bufferSize);                    
+                        reader.read(pa, bufferSize);                    
                         if (debugMode) String2.log(">> col=" + col + " nToGo=" + nToGo + 
                             " ncOffset=" + ncOffset + " bufferSize=" + bufferSize + 
                             " pa.capacity=" + pa.capacity() + " pa.size=" + pa.size());
@@ -5279,7 +5295,7 @@ public abstract class EDDTable extends EDD {
                         //String2.log("col=" + col + " bufferSize=" + bufferSize + " isString?" + (colType == PAType.STRING));
                     }
                 } finally {
-                    dis.close();
+                    reader.close();
                 }
             }
 
@@ -5393,6 +5409,269 @@ public abstract class EDDTable extends EDD {
     }
 
 
+    /**
+     * The rows of a TableWriterAllWithMetadata's data, grouped by the values 
+     * in key columns (e.g., timeseries_id, or trajectory_id and profile_id), 
+     * for saveAsNcCF1 and saveAsNcCF2. See makeNcCFGroups.
+     */
+    private static class NcCFGroups {
+        int nGroups;
+        PrimitiveArray keyPAs[]; //the key values of each group
+        int firstRow[];          //the twawm row number of the first row of each group
+        int nRows[];             //the number of rows in each group
+        int firstObs[];          //the first row of each group in a contiguous ragged array
+        int maxNRows;            //the max of nRows
+        int sortedGroup[];       //unsorted group number (in rowGroupFileName) -> group number
+        String rowGroupFileName; //temp file with the unsorted group number (an int) of each row
+    }
+
+    /**
+     * This groups the rows of twawm's data by the values in the key columns.
+     * This just reads the key columns (in chunks), so it needs very little memory
+     * (a few values per group), regardless of the number of rows.
+     * The groups are sorted by the key values (like PrimitiveArray.rank).
+     * Each row's group number is written to a temp file, which the caller
+     * must delete.
+     *
+     * @param twawm the data (after finish())
+     * @param keyCols the twawm column numbers of the key columns (most important first)
+     * @param rowGroupFileName the name for the temp file
+     * @return the groups
+     * @throws Throwable if trouble (e.g., twawm has >= Integer.MAX_VALUE rows)
+     */
+    private static NcCFGroups makeNcCFGroups(TableWriterAllWithMetadata twawm, 
+        int keyCols[], String rowGroupFileName) throws Throwable {
+
+        Math2.ensureArraySizeOkay(twawm.nRows(), "ncCF"); 
+        int nRows = (int)twawm.nRows(); //safe since checked above
+        int nKeys = keyCols.length;
+        int chunkSize = EDStatic.partialRequestMaxCells;
+        NcCFGroups groups = new NcCFGroups();
+        groups.rowGroupFileName = rowGroupFileName;
+        groups.keyPAs = new PrimitiveArray[nKeys];
+        PrimitiveArray chunks[] = new PrimitiveArray[nKeys];
+        for (int key = 0; key < nKeys; key++) {
+            groups.keyPAs[key] = twawm.columnEmptyPA(keyCols[key]);
+            chunks[key]        = twawm.columnEmptyPA(keyCols[key]);
+        }
+        HashMap<String, Integer> groupOf = new HashMap();
+        IntArray firstRow = new IntArray();
+        IntArray groupNRows = new IntArray();
+        StringBuilder sb = new StringBuilder();
+
+        ColumnSpillFile.Reader readers[] = new ColumnSpillFile.Reader[nKeys];
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(rowGroupFileName)));
+        try {
+            for (int key = 0; key < nKeys; key++) 
+                readers[key] = twawm.columnReader(keyCols[key]);
+            int row = 0;
+            while (row < nRows) {
+                int n = Math.min(chunkSize, nRows - row);
+                for (int key = 0; key < nKeys; key++) {
+                    chunks[key].clear();
+                    chunks[key].setMaxIsMV(twawm.columnMaxIsMV(keyCols[key])); //reset it after clear()
+                    readers[key].read(chunks[key], n);
+                }
+                for (int i = 0; i < n; i++) {
+                    String tKey;
+                    if (nKeys == 1) {
+                        tKey = chunks[0].getString(i);
+                    } else {
+                        sb.setLength(0);
+                        for (int key = 0; key < nKeys; key++) 
+                            sb.append(chunks[key].getString(i)).append('\u0000');
+                        tKey = sb.toString();
+                    }
+                    Integer group = groupOf.get(tKey);
+                    if (group == null) {
+                        //found a new group
+                        group = new Integer(firstRow.size());
+                        groupOf.put(tKey, group);
+                        for (int key = 0; key < nKeys; key++) 
+                            groups.keyPAs[key].addFromPA(chunks[key], i);
+                        firstRow.add(row + i);
+                        groupNRows.add(0);
+                    }
+                    int g = group.intValue();
+                    groupNRows.array[g]++;
+                    dos.writeInt(g);
+                }
+                row += n;
+            }
+        } finally {
+            for (int key = 0; key < nKeys; key++) 
+                if (readers[key] != null) 
+                    readers[key].close();
+            dos.close();
+        }
+        groupOf = null; //conserve memory
+
+        //sort the groups by the key values
+        int nGroups = firstRow.size();
+        ArrayList tTable = new ArrayList();
+        int keys[] = new int[nKeys];
+        boolean ascending[] = new boolean[nKeys];
+        for (int key = 0; key < nKeys; key++) {
+            tTable.add(groups.keyPAs[key]);
+            keys[key] = key;
+            ascending[key] = true;
+        }
+        int rank[] = PrimitiveArray.rank(tTable, keys, ascending);
+        for (int key = 0; key < nKeys; key++) 
+            groups.keyPAs[key].reorder(rank);
+        firstRow.reorder(rank);
+        groupNRows.reorder(rank);
+        groups.nGroups = nGroups;
+        groups.firstRow = firstRow.toArray();
+        groups.nRows = groupNRows.toArray();
+        groups.sortedGroup = new int[nGroups];
+        groups.firstObs = new int[nGroups];
+        int obs = 0;
+        for (int g = 0; g < nGroups; g++) {
+            groups.sortedGroup[rank[g]] = g;
+            groups.firstObs[g] = obs;
+            obs += groups.nRows[g];
+            groups.maxNRows = Math.max(groups.maxNRows, groups.nRows[g]);
+        }
+        return groups;
+    }
+
+    /**
+     * This reads the values of one of twawm's columns at specific rows
+     * (in chunks, so it needs very little memory).
+     *
+     * @param twawm the data (after finish())
+     * @param col the twawm column number
+     * @param rows the twawm row numbers (in any order, but no duplicates)
+     * @return a PrimitiveArray with the values from rows[0], rows[1], ...
+     * @throws Throwable if trouble
+     */
+    private static PrimitiveArray readNcCFRows(TableWriterAllWithMetadata twawm, 
+        int col, int rows[]) throws Throwable {
+
+        int nRows = (int)twawm.nRows(); //safe since checked by makeNcCFGroups
+        int chunkSize = EDStatic.partialRequestMaxCells;
+        int order[] = (new IntArray(rows)).rank(true); //order[k] is the index in rows of the k-th lowest row
+        PrimitiveArray picked = PrimitiveArray.factory(twawm.columnType(col), rows.length, false);
+        picked.setMaxIsMV(twawm.columnMaxIsMV(col));
+        PrimitiveArray chunk = twawm.columnEmptyPA(col);
+        ColumnSpillFile.Reader reader = twawm.columnReader(col);
+        try {
+            int row = 0;
+            int k = 0;
+            while (k < rows.length && row < nRows) {
+                int n = Math.min(chunkSize, nRows - row);
+                chunk.clear();
+                chunk.setMaxIsMV(twawm.columnMaxIsMV(col)); //reset it after clear()
+                reader.read(chunk, n);
+                while (k < rows.length && rows[order[k]] < row + n) 
+                    picked.addFromPA(chunk, rows[order[k++]] - row);
+                row += n;
+            }
+        } finally {
+            reader.close();
+        }
+
+        //picked is in row order; put it in the order of rows[]
+        int rank[] = new int[rows.length];
+        for (int k = 0; k < rows.length; k++) 
+            rank[order[k]] = k;
+        picked.reorder(rank);
+        return picked;
+    }
+
+    /**
+     * This writes one of twawm's columns (an obs variable) to an .ncCF or .ncCFMA file,
+     * one chunk at a time (so it needs very little memory), with each group's rows 
+     * stored contiguously (in their original order).
+     *
+     * @param twawm the data (after finish())
+     * @param col the twawm column number
+     * @param groups from makeNcCFGroups
+     * @param outerIndex for a MultidimensionalArray var (e.g., obsVar[feature][obs]),
+     *    outerIndex[group] has the group's indices for the leading dimensions.
+     *    For a contiguous ragged array (obsVar[obs]), use null.
+     * @param ncWriter
+     * @param var the variable in ncWriter
+     * @throws Throwable if trouble
+     */
+    private static void writeNcCFObsColumn(TableWriterAllWithMetadata twawm, int col, 
+        NcCFGroups groups, int outerIndex[][], NetcdfFormatWriter ncWriter, 
+        Variable var) throws Throwable {
+
+        int nRows = (int)twawm.nRows(); //safe since checked by makeNcCFGroups
+        int chunkSize = EDStatic.partialRequestMaxCells;
+        int nOuter = outerIndex == null? 0 : outerIndex[0].length;
+        int origin[] = new int[nOuter + 1];
+        int shape[]  = new int[nOuter + 1];
+        Arrays.fill(shape, 1);
+        int nWritten[] = new int[groups.nGroups];
+        PrimitiveArray chunk = twawm.columnEmptyPA(col);
+        PrimitiveArray subsetPa = null;
+        IntArray chunkGroup = new IntArray();
+        ColumnSpillFile.Reader reader = twawm.columnReader(col);
+        DataInputStream groupDis = new DataInputStream(
+            File2.getBufferedInputStream(groups.rowGroupFileName));
+        try {
+            int row = 0;
+            while (row < nRows) {
+                int n = Math.min(chunkSize, nRows - row);
+                chunk.clear();
+                chunk.setMaxIsMV(twawm.columnMaxIsMV(col)); //reset it after clear()
+                reader.read(chunk, n);
+                chunkGroup.clear();
+                for (int i = 0; i < n; i++) 
+                    chunkGroup.add(groups.sortedGroup[groupDis.readInt()]);
+
+                //stable sort the chunk by group, so each group's rows are together
+                int rank[] = chunkGroup.rank(true);
+                chunk.reorder(rank);
+                chunkGroup.reorder(rank);
+
+                //write each group's rows
+                int start = 0;
+                while (start < n) {
+                    int g = chunkGroup.get(start);
+                    int stop = start + 1;
+                    while (stop < n && chunkGroup.get(stop) == g) 
+                        stop++;
+                    for (int d = 0; d < nOuter; d++) 
+                        origin[d] = outerIndex[g][d];
+                    origin[nOuter] = (outerIndex == null? groups.firstObs[g] : 0) + nWritten[g];
+                    shape[nOuter] = stop - start;
+                    subsetPa = chunk.subset(subsetPa, start, 1, stop - 1);
+                    NcHelper.write(true, ncWriter, var, origin, shape, subsetPa); //nc3Mode
+                    nWritten[g] += stop - start;
+                    start = stop;
+                }
+                row += n;
+            }
+        } finally {
+            reader.close();
+            groupDis.close();
+        }
+    }
+
+    /**
+     * This makes a PrimitiveArray with n missing values for an nc3 variable.
+     *
+     * @param type the column's PAType (LONG and ULONG are stored as DOUBLE in nc3 files)
+     * @param safeMV the variable's safeDestinationMissingValue
+     * @param n the number of values
+     * @return a PrimitiveArray with n missing values
+     */
+    private static PrimitiveArray ncCFMissingValues(PAType type, double safeMV, int n) {
+        if (type == PAType.LONG || type == PAType.ULONG)
+            type = PAType.DOUBLE; //since nc3 doesn't support longs
+        PrimitiveArray pa = PrimitiveArray.factory(type, n, false);
+        if (pa instanceof StringArray)
+            pa.addNStrings(n, "");
+        else
+            pa.addNDoubles(n, safeMV); //not via a String: e.g., CharArray would just use its first char
+        return pa;
+    }
+
     /**
      * Create a one-level TimeSeries, Trajectory, or Profile .ncCF or .ncCFMA file
      * (Discrete Sampling Geometries).
@@ -5445,6 +5724,7 @@ public abstract class EDDTable extends EDD {
         int randomInt = Math2.random(Integer.MAX_VALUE);
 
         NetcdfFormatWriter ncWriter = null;
+        NcCFGroups groups = null;
         try {
             NetcdfFormatWriter.Builder ncCF = null;
 
@@ -5467,48 +5747,17 @@ public abstract class EDDTable extends EDD {
             if (idPo < 0) //but already checked before calling this method
                 throw new SimpleException(EDStatic.queryError + "The .nc file must have " + idName);
 
-            //read id PA from flatNc file
-            PrimitiveArray idPA = twawm.column(idPo);
-            //String2.log("  idPA=" + idPA.toString());
-
-            //rank id rows
-            //!!! this assumes already sorted by time/depth/... and will stay sorted when rearranged. 
-            //  PrimitiveArray.rank promises stable sort.
-            ArrayList tTable = new ArrayList();
-            tTable.add(idPA);
-            int rank[] = PrimitiveArray.rank(tTable, new int[]{0}, new boolean[]{true});
-            tTable = null;
-            //String2.log("  rank=" + String2.toCSSVString(rank));
-
-            //find unique features (e.g., station|profile|trajectory): 
-            int totalNObs = idPA.size();
-            //first row has first feature (first row in CF file for each feature)
-            IntArray featureFirstRow = new IntArray(); //'row' after data is sorted
-            featureFirstRow.add(0);            
-            int prevFirstRow = 0;                      //'row' after data is sorted
-            IntArray featureNRows = new IntArray();  
-            BitSet featureKeep = new BitSet(); //initially all false
-            featureKeep.set(0);                        //'row' after data is sorted
-            //'row' after data is sorted
-            for (int row = 1; row < totalNObs; row++) {  //1 since comparing to previous row
-                if (idPA.compare(rank[row - 1], rank[row]) != 0) {
-                    //found a new feature
-                    featureFirstRow.add(row);             //for this feature
-                    featureNRows.add(row - prevFirstRow); //for the previous feature
-                    featureKeep.set(row);
-                    prevFirstRow = row;
-                }
-            }
-            featureNRows.add(totalNObs - prevFirstRow);
-            int maxFeatureNRows = Math2.roundToInt(
-                featureNRows.calculateStats()[PrimitiveArray.STATS_MAX]);
-            int nFeatures = featureFirstRow.size();
+            //group the rows by feature (e.g., station|profile|trajectory),
+            //  reading just the id column (in chunks), not all of the data
+            //!!! this assumes already sorted by time/depth/... and the rows of each 
+            //  feature stay in that order (like PrimitiveArray.rank's stable sort). 
+            groups = makeNcCFGroups(twawm, new int[]{idPo}, ncCFName + randomInt + ".groups");
+            int totalNObs = (int)twawm.nRows(); //safe since checked by makeNcCFGroups
+            int nFeatures = groups.nGroups;
+            int featureNRows[] = groups.nRows;
+            int maxFeatureNRows = groups.maxNRows;
             if (reallyVerbose) String2.log("  nFeatures=" + nFeatures + 
-                "\n  featureFirstRow=" + featureFirstRow.toString() +
-                "\n  featureNRows="    + featureNRows.toString() +
                 "\n  maxFeatureNRows=" + maxFeatureNRows);
-            //conserve memory
-            idPA = null;
 
 //do a fileSize check here.  <2GB?
 
@@ -5649,69 +5898,55 @@ public abstract class EDDTable extends EDD {
             ncWriter = ncCF.build();
 
             //write the variables  
-            //One var at a time makes it reasonably memory efficient.
-            //This needs to reorder the values, which needs all values at once, so can't do in chunks.
+            //One var at a time, one chunk at a time, so memory use depends on 
+            //the chunk size and the number of features, not the number of rows.
+            int outerIndex[][] = null; //for nodcMode obsVar[feature][obs]
+            if (nodcMode) {
+                outerIndex = new int[nFeatures][];
+                for (int feature = 0; feature < nFeatures; feature++) 
+                    outerIndex[feature] = new int[]{feature};
+            }
             for (int col = 0; col < ncNCols; col++) {
                 EDV tEdv = colEdv[col];
                 double tSafeMV = tEdv.safeDestinationMissingValue();
                 Variable newVar = ncWriter.findVariable(newVars[col].getFullName()); //because newVars has Variable.Builders
-                PrimitiveArray pa = twawm.column(col);
-                //first re-order
-                pa.reorder(rank);
-
-                //convert LongArray to DoubleArray (since nc3 doesn't support longs)
-                if (pa instanceof LongArray ||
-                    pa instanceof ULongArray)
-                    pa = new DoubleArray(pa);  //    pa = new StringArray(pa);
 
                 if (isFeatureVar[col]) {
-                    //write featureVar[feature]
-                    pa.justKeep(featureKeep);
-                    NcHelper.write(nc3Mode, ncWriter, newVar, 0, pa); 
+                    //write featureVar[feature] (the value from each feature's first row)
+                    NcHelper.write(nc3Mode, ncWriter, newVar, 0, 
+                        readNcCFRows(twawm, col, groups.firstRow)); 
 
                 } else if (nodcMode) {
                     //write nodc obsVar[feature][obs]
-                    int origin[] = {0, 0};
+                    writeNcCFObsColumn(twawm, col, groups, outerIndex, ncWriter, newVar);
+
+                    //and write missing values
+                    PrimitiveArray mvPa = ncCFMissingValues(twawm.columnType(col), 
+                        tSafeMV, maxFeatureNRows);
                     PrimitiveArray subsetPa = null;
+                    int origin[] = {0, 0};
                     for (int feature = 0; feature < nFeatures; feature++) { 
-                        //write the data for this feature
-                        origin[0] = feature;
-                        origin[1] = 0;
-                        int firstRow = featureFirstRow.get(feature);
-                        int tNRows   = featureNRows.get(feature);
-                        int stopRow  = firstRow + tNRows - 1;
-                        subsetPa = pa.subset(subsetPa, firstRow, 1, stopRow);
-                        NcHelper.write(nc3Mode, ncWriter, newVar, 
-                            origin, new int[]{1, tNRows}, subsetPa);         
-
-                        //and write missing values
+                        int tNRows = featureNRows[feature];
                         if (tNRows < maxFeatureNRows) {
+                            origin[0] = feature;
                             origin[1] = tNRows;
-                            //String2.log("  writeMVs: feature=" + feature + " origin[1]=" + origin[1] + 
-                            //  " tNRows=" + tNRows + " maxFeatureNRows=" + maxFeatureNRows);
-                            tNRows = maxFeatureNRows - tNRows;
-                            subsetPa.clear();
-                            //if (tEdv.destinationDataPAType() == PAType.LONG)
-                            //    subsetPa.addNStrings(tNRows, "" + tSafeMV);
-                            //else 
-                            if (subsetPa instanceof StringArray)
-                                subsetPa.addNStrings(tNRows, "");
-                            else
-                                subsetPa.addNDoubles(tNRows, tSafeMV);
+                            int nmv = maxFeatureNRows - tNRows;
+                            subsetPa = mvPa.subset(subsetPa, 0, 1, nmv - 1);
                             NcHelper.write(nc3Mode, ncWriter, newVar, 
-                                origin, new int[]{1, tNRows}, subsetPa);         
+                                origin, new int[]{1, nmv}, subsetPa);         
                         }
                     }
 
                 } else {
                     //write obsVar[obs]
-                    NcHelper.write(nc3Mode, ncWriter, newVar, 0, pa); 
+                    writeNcCFObsColumn(twawm, col, groups, null, ncWriter, newVar);
                 }
             }
 
             //write the rowSize values
             if (!nodcMode)
-                NcHelper.write(nc3Mode, ncWriter, ncWriter.findVariable(rowSizeVar.getFullName()), 0, featureNRows); 
+                NcHelper.write(nc3Mode, ncWriter, ncWriter.findVariable(rowSizeVar.getFullName()), 0, 
+                    new IntArray(featureNRows)); 
 
             //if close throws Throwable, it is trouble
             ncWriter.close(); //it calls flush() and doesn't like flush called separately
@@ -5734,6 +5969,10 @@ public abstract class EDDTable extends EDD {
             }
 
             throw t;
+
+        } finally {
+            if (groups != null)
+                File2.delete(groups.rowGroupFileName);
         }
 
     }  //end of saveAsNcCF1
@@ -5802,6 +6041,7 @@ public abstract class EDDTable extends EDD {
         int randomInt = Math2.random(Integer.MAX_VALUE);
 
         NetcdfFormatWriter ncWriter = null;
+        NcCFGroups groups = null;
         try {
             NetcdfFormatWriter.Builder ncCF = null;
 
@@ -5836,87 +6076,44 @@ public abstract class EDDTable extends EDD {
                 throw new SimpleException(EDStatic.queryError + 
                     "The .nc file must have " + pidName);
 
-            //read oid ('feature'_id) and pid (profile_id) PA from flatNc file
-            PrimitiveArray oidPA = twawm.column(oidPo);
-            PrimitiveArray pidPA = twawm.column(pidPo);
-            //String2.log("  oidPA=" + oidPA.toString());
-            //String2.log("  pidPA=" + pidPA.toString());
-
-            //rank oid+pid rows
-            //!!! this assumes already sorted by time/depth/... and will stay sorted when re-sorted. 
-            //  PrimitiveArray.rank promises stable sort.
-            ArrayList tTable = new ArrayList();
-            tTable.add(oidPA);
-            tTable.add(pidPA);
-            int rank[] = PrimitiveArray.rank(tTable, new int[]{0,1}, new boolean[]{true,true});
-            tTable = null;
-            int tTableNRows = oidPA.size();
-            //String2.log("  rank=" + String2.toCSSVString(rank));
+            //group the rows by profile (oid ('feature'_id) and pid (profile_id)),
+            //  reading just those columns (in chunks), not all of the data
+            //!!! this assumes already sorted by time/depth/... and the rows of each 
+            //  profile stay in that order (like PrimitiveArray.rank's stable sort). 
+            groups = makeNcCFGroups(twawm, new int[]{oidPo, pidPo}, ncCFName + randomInt + ".groups");
+            int tTableNRows = (int)twawm.nRows(); //safe since checked by makeNcCFGroups
+            int nProfiles = groups.nGroups;
+            int nObsPerProfile[] = groups.nRows;
+            int maxObsPerProfile = groups.maxNRows;
 
             //find unique features (timeseries|trajectory):
-            //featureFirstRow (first row in CF file for each feature)            
-            IntArray featureIndex = new IntArray();    //'feature' number for each profile
-            featureIndex.add(0);                      
-            IntArray profileIndexInThisFeature = new IntArray();  //0,1,2, 0,1,2,3, ...
-            int tProfileIndexInThisFeature = 0; //first is #0
-            profileIndexInThisFeature.add(tProfileIndexInThisFeature);
-            BitSet featureKeep = new BitSet();         //initially all false
-            featureKeep.set(0);                        //'row' after data is sorted
-            int nFeatures = 1;
+            //profiles are sorted by oid, then pid, so each feature's profiles are together.
+            //Keeping the tests separate allows profile_id to be only unique within a 'feature' 
+            //  (it doesn't have to be globally unique)
+            PrimitiveArray oidPA = groups.keyPAs[0]; //one value per profile
+            int featureIndex[] = new int[nProfiles];              //'feature' number for each profile
+            int profileIndexInThisFeature[] = new int[nProfiles]; //0,1,2, 0,1,2,3, ...
             IntArray nProfilesPerFeature = new IntArray();
-            nProfilesPerFeature.add(1);                //for the initial row
-
-            //find unique profiles:
-            //profileFirstRow (first row in CF file for each profile)
-            IntArray profileFirstObsRow = new IntArray(); //'row' after data is sorted
-            profileFirstObsRow.add(0);                    //first row has first profile
-            int prevFirstRow = 0;                      //'row' after data is sorted
-            IntArray nObsPerProfile = new IntArray();  
-            BitSet profileKeep = new BitSet(); //initially all false
-            profileKeep.set(0);                        //'row' after data is sorted
-
-            //'row' after data is sorted
-            for (int row = 1; row < tTableNRows; row++) {  //1 since comparing to previous row
-                //keeping the tests separate and using featureChanged allows 
-                //   profile_id to be only unique within an 'feature' 
-                //   (it doesn't have to be globally unique)
-                boolean featureChanged = false;                
-                if (oidPA.compare(rank[row - 1], rank[row]) != 0) {
+            IntArray featureFirstRow = new IntArray(); //twawm row of the first row of each feature's first profile
+            int nFeatures = 0;
+            int maxProfilesPerFeature = 0;
+            for (int profile = 0; profile < nProfiles; profile++) {
+                if (profile == 0 || oidPA.compare(profile - 1, profile) != 0) {
                     //found a new feature
-                    featureChanged = true;
-                    featureKeep.set(row);
                     nFeatures++;
-                    nProfilesPerFeature.add(0); 
-                    tProfileIndexInThisFeature = -1;
-                }
-                if (featureChanged || pidPA.compare(rank[row - 1], rank[row]) != 0) {
-                    //found a new profile
-                    featureIndex.add(nFeatures - 1);      //yes, one for each profile
-                    tProfileIndexInThisFeature++;
-                    profileIndexInThisFeature.add(tProfileIndexInThisFeature);
-                    nProfilesPerFeature.set(nFeatures - 1, tProfileIndexInThisFeature + 1);
-                    profileFirstObsRow.add(row);             //for this profile
-                    nObsPerProfile.add(row - prevFirstRow); //for the previous profile
-                    profileKeep.set(row);
-                    prevFirstRow = row;
+                    nProfilesPerFeature.add(0);
+                    featureFirstRow.add(groups.firstRow[profile]);
                 }
+                featureIndex[profile] = nFeatures - 1;
+                profileIndexInThisFeature[profile] = nProfilesPerFeature.get(nFeatures - 1);
+                nProfilesPerFeature.set(nFeatures - 1, profileIndexInThisFeature[profile] + 1);
+                maxProfilesPerFeature = Math.max(maxProfilesPerFeature, 
+                    profileIndexInThisFeature[profile] + 1);
             }
-            nObsPerProfile.add(tTableNRows - prevFirstRow);
-            int nProfiles = profileFirstObsRow.size();
-            int maxObsPerProfile = Math2.roundToInt(
-                nObsPerProfile.calculateStats()[PrimitiveArray.STATS_MAX]);
-            int maxProfilesPerFeature = Math2.roundToInt(
-                nProfilesPerFeature.calculateStats()[PrimitiveArray.STATS_MAX]);
+            oidPA = null;
             if (reallyVerbose) String2.log(
                   "  nFeatures="           + nFeatures + 
-                //"\n  nProfilesPerFeature=" + nProfilesPerFeature.toString() +  //these can be really long
                 "\n  nProfiles="           + nProfiles);
-                //"\n  featureIndex="        + featureIndex.toString() +
-                //"\n  profileFirstObsRow="  + profileFirstObsRow.toString() +
-                //"\n  nObsPerProfile="      + nObsPerProfile.toString());
-            //conserve memory
-            oidPA = null;
-            pidPA = null;
 
             //** Create the .ncCF file
             ncCF = NetcdfFormatWriter.createNewNetcdf3(ncCFName + randomInt);
@@ -6084,27 +6281,32 @@ public abstract class EDDTable extends EDD {
             ncWriter = ncCF.build();
 
             //write the variables  
-            //One var at a time makes it reasonably memory efficient.
-            //This needs to reorder the values, which needs all values at once, so can't do in chunks.
+            //One var at a time, one chunk at a time, so memory use depends on 
+            //the chunk size and the number of profiles, not the number of rows.
+            int outerIndex[][] = null; //for nodcMode obsVar[feature][profile][obs]
+            if (nodcMode) {
+                outerIndex = new int[nProfiles][];
+                for (int profile = 0; profile < nProfiles; profile++) 
+                    outerIndex[profile] = new int[]{
+                        featureIndex[profile], profileIndexInThisFeature[profile]};
+            }
             for (int col = 0; col < ncNCols; col++) {
                 Variable newVar = ncWriter.findVariable(newVars[col].getFullName()); //because newVars has Variable.Builders
-                PrimitiveArray pa = twawm.column(col);
                 EDV tEdv = colEdv[col];
                 double tSafeMV = tEdv.safeDestinationMissingValue();
 
-                //first re-order
-                pa.reorder(rank);
-                if (pa instanceof LongArray ||
-                    pa instanceof ULongArray)
-                    pa = new DoubleArray(pa); // was StringArray(pa);
-
                 if (isFeatureVar[col]) {
-                    //write featureVar[feature]
-                    pa.justKeep(featureKeep);
-                    NcHelper.write(nc3Mode, ncWriter, newVar, 0, pa);
+                    //write featureVar[feature] (the value from each feature's first row)
+                    NcHelper.write(nc3Mode, ncWriter, newVar, 0, 
+                        readNcCFRows(twawm, col, featureFirstRow.toArray()));
 
                 } else if (isProfileVar[col]) {
-                    pa.justKeep(profileKeep);
+                    //the value from each profile's first row
+                    PrimitiveArray pa = readNcCFRows(twawm, col, groups.firstRow);
+                    if (pa instanceof LongArray ||
+                        pa instanceof ULongArray)
+                        pa = new DoubleArray(pa); // was StringArray(pa);
+
                     if (nodcMode) {
                         //write nodc profileVar[feature][profile]
                         int origin[] = new int[2];
@@ -6127,9 +6329,6 @@ public abstract class EDDTable extends EDD {
                             if (nmv > 0) {
                                 origin[1] = tnProfiles;
                                 tpa.clear();
-                                //if (tEdv.destinationDataPAType() == PAType.LONG)
-                                //    tpa.addNStrings(nmv, "" + tSafeMV);
-                                //else 
                                 if (tpa instanceof StringArray) 
                                     tpa.addNStrings(nmv, "");
                                 else
@@ -6146,45 +6345,37 @@ public abstract class EDDTable extends EDD {
 
                 } else if (nodcMode) {
                     //write nodc obsVar[feature][profile][obs] as MultidimensionalArray
-                    int origin[] = {0, 0, 0};
                     
                     //fill with mv
-                    PrimitiveArray subsetPa = PrimitiveArray.factory(
-                        pa.elementType(), maxObsPerProfile, 
-                        pa.elementType() == PAType.STRING? "" : "" + tSafeMV);
+                    int origin[] = {0, 0, 0};
+                    PrimitiveArray mvPa = ncCFMissingValues(twawm.columnType(col), 
+                        tSafeMV, maxObsPerProfile);
                     int shape[] = {1, 1, maxObsPerProfile};
                     for (int feature = 0; feature < nFeatures; feature++) { 
                         origin[0] = feature;
                         for (int profile = 0; profile < maxProfilesPerFeature; profile++) { 
                             origin[1] = profile;
                             NcHelper.write(nc3Mode, ncWriter, newVar,
-                                origin, shape, subsetPa);
+                                origin, shape, mvPa);
                         }
                     }
+                    mvPa = null;
 
-                    //write obsVar[feature][profile][obs] as MultidimensionalArray
-                    for (int profile = 0; profile < nProfiles; profile++) { 
-                        origin[0] = featureIndex.get(profile);  //feature#
-                        origin[1] = profileIndexInThisFeature.get(profile);
-                        origin[2] = 0;
-                        int firstRow = profileFirstObsRow.get(profile);
-                        int tNRows   = nObsPerProfile.get(profile);
-                        int stopRow  = firstRow + tNRows - 1;
-                        subsetPa = pa.subset(subsetPa, firstRow, 1, stopRow);
-                        shape[2] = tNRows;
-                        NcHelper.write(nc3Mode, ncWriter, newVar, origin, shape, subsetPa);         
-                    }
+                    //write obsVar[feature][profile][obs]
+                    writeNcCFObsColumn(twawm, col, groups, outerIndex, ncWriter, newVar);
 
                 } else {
                     //write obsVar[obs] as Contiguous Ragged Array
-                    NcHelper.write(nc3Mode, ncWriter, newVar, 0, pa);
+                    writeNcCFObsColumn(twawm, col, groups, null, ncWriter, newVar);
                 }
             }
 
             if (!nodcMode) {
                 //write the featureIndex and rowSize values
-                NcHelper.write(nc3Mode, ncWriter, ncWriter.findVariable(  indexVar.getFullName()), 0, featureIndex); 
-                NcHelper.write(nc3Mode, ncWriter, ncWriter.findVariable(rowSizeVar.getFullName()), 0, nObsPerProfile); 
+                NcHelper.write(nc3Mode, ncWriter, ncWriter.findVariable(  indexVar.getFullName()), 0, 
+                    new IntArray(featureIndex)); 
+                NcHelper.write(nc3Mode, ncWriter, ncWriter.findVariable(rowSizeVar.getFullName()), 0, 
+                    new IntArray(nObsPerProfile)); 
             }
 
             //if close throws Throwable, it is trouble
@@ -6208,7 +6399,11 @@ public abstract class EDDTable extends EDD {
             }
 
             throw t;
-        } 
+
+        } finally {
+            if (groups != null)
+                File2.delete(groups.rowGroupFileName);
+        }
 
     }  //end of saveAsNcCF2
 
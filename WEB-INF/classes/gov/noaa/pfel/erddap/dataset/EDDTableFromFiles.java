@@ -47,9 +47,8 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
 import java.util.Enumeration;
@@ -140,6 +139,12 @@ public abstract class EDDTableFromFiles extends EDDTable{
         FT_SORTED_SPACING_COL=4;
     //then 3 cols for each dataVariable: sourceName + _min_|_max_|_hasNaN starting at dv0
     protected final static int dv0 = 5;
+    /** The subdirectory of datasetDir() which holds the optional row group table 
+        for each data file (see EDStatic.tableRowGroupSize). */
+    public final static String ROW_GROUP_DIR = "rowGroups/";
+    /** The file in datasetDir() with a memory-mapped copy of the fileTable 
+        (see MappedFileTable), used if !fileTableInMemory. */
+    public final static String MAPPED_FILE_TABLE_FILENAME = "fileTable.col";
     int     fileTableSortColumns[];   //null if not active
     boolean fileTableSortAscending[]; //size matches fileTableSortcolumns, all true
 
@@ -157,6 +162,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
     protected boolean fileTableInMemory = false;
     protected Table dirTable; //one column with dir names
     protected Table fileTable;
+    protected volatile MappedFileTable mappedFileTable; //cached mapping of MAPPED_FILE_TABLE_FILENAME, may be null
 
     //things just for EDDTableFromHttpGet
     public final static String HTTP_GET_REQUIRED_VARIABLES  = "httpGetRequiredVariables";
@@ -1410,6 +1416,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                         if (reallyVerbose) 
                             String2.log("previously valid file now missing: " + 
                                 dirList.get(dirI) + fileS);
+                        deleteRowGroupTable(dirList.get(dirI), fileS);
                     }
                 }
                 if (verbose)
@@ -1484,6 +1491,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                             removeCumTime -= System.currentTimeMillis();
                             fileTable.removeRow(fileListPo);
                             removeCumTime += System.currentTimeMillis();
+                            deleteRowGroupTable(dirList.get(dirI), fileS);
                         }
                         //go on to next tFile
                         if (logThis)
@@ -1517,6 +1525,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                     removeCumTime -= System.currentTimeMillis();
                     fileTable.removeRow(fileListPo);  //may be slow
                     removeCumTime += System.currentTimeMillis();
+                    deleteRowGroupTable(dirList.get(dirI), fileS);
                     //tFileListPo isn't incremented, so it will be considered again in next iteration
                     continue;
                 }
@@ -1550,6 +1559,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                     //set the values on the fileTable row     throws throwable
                     setFileTableRow(fileTable, fileListPo, tDirI, tFileS, tLastMod, tSize, 
                         tTable, logThis? tFileListPo : -1);
+                    saveRowGroupTable(fileTable, dirList.get(tDirI), tFileS, tLastMod, tTable);
                     tFileListPo++;
                     fileListPo++;
 
@@ -1567,6 +1577,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                     removeCumTime -= System.currentTimeMillis();
                     fileTable.removeRow(fileListPo);
                     removeCumTime += System.currentTimeMillis();
+                    deleteRowGroupTable(dirList.get(tDirI), tFileS);
                     tFileListPo++;
                     if (System.currentTimeMillis() - tLastMod > 30 * Calendar2.MILLIS_PER_MINUTE &&
                         !(t instanceof TimeoutException &&
@@ -2346,6 +2357,276 @@ public abstract class EDDTableFromFiles extends EDDTable{
         }
     }
 
+    /**
+     * This indicates if this subclass can read just some row ranges of a file
+     * (see rowGroupRanges()), so it is worthwhile to make a row group table for each file.
+     * Subclasses that can, should override this.
+     *
+     * @return true if this subclass supports row groups
+     */
+    protected boolean supportsRowGroups() {
+        return false;
+    }
+
+    /**
+     * This returns the name of the row group table file for a data file.
+     *
+     * @param tFileDir the data file's directory 
+     * @param tFileName the data file's name.ext
+     * @return the full name of the row group table file 
+     */
+    protected String rowGroupFileName(String tFileDir, String tFileName) {
+        return datasetDir() + ROW_GROUP_DIR + String2.md5Hex12(tFileDir + tFileName) + ".nc";
+    }
+
+    /**
+     * This deletes a data file's row group table (if any), 
+     * e.g., because the data file was removed from the fileTable.
+     *
+     * @param tFileDir the data file's directory 
+     * @param tFileName the data file's name.ext
+     */
+    protected void deleteRowGroupTable(String tFileDir, String tFileName) {
+        String rgFileName = rowGroupFileName(tFileDir, tFileName);
+        if (File2.isFile(rgFileName))
+            File2.delete(rgFileName); 
+    }
+
+    /**
+     * If EDStatic.tableRowGroupSize &gt; 0 and this subclass supportsRowGroups(),
+     * this makes and saves the row group table for a data file.
+     * A row group table has the same [dv]_min_, [dv]_max_, [dv]_hasNaN_ columns 
+     * as the fileTable (but starting at column 0), 
+     * with one row for each group of tableRowGroupSize rows in the data file.
+     * Its global attributes include the sourceDataNames and sourceDataTypes,
+     * so rowGroupRanges() can tell if it was made for a different set of variables.
+     * Otherwise, this deletes the file's old row group table (if any).
+     * Trouble here isn't an error: it is logged and the data file will just be
+     * read in its entirety.
+     *
+     * @param fileTable the fileTable (just used to get the column types)
+     * @param tFileDir the data file's directory 
+     * @param tFileName the data file's name.ext
+     * @param tLastMod the data file's lastModified time (millis)
+     * @param tTable all of the data from the data file, 
+     *   after setFileTableRow() has standardized the missing values.
+     */
+    protected void saveRowGroupTable(Table fileTable, String tFileDir, String tFileName, 
+        long tLastMod, Table tTable) {
+
+        String rgFileName = rowGroupFileName(tFileDir, tFileName);
+        int rgSize = EDStatic.tableRowGroupSize;
+        int nRows = tTable.nRows();
+        if (rgSize <= 0 || nRows <= rgSize || cacheFromUrl != null || !supportsRowGroups()) {
+            deleteRowGroupTable(tFileDir, tFileName);
+            return;
+        }
+
+        int random = Math2.random(Integer.MAX_VALUE);
+        try {
+            int nGroups = (nRows - 1) / rgSize + 1;
+            Table rgTable = new Table();
+            int ndv = sourceDataTypes.length;
+            for (int dv = 0; dv < ndv; dv++) {
+                PrimitiveArray minPA = PrimitiveArray.factory(
+                    fileTable.getColumn(dv0 + dv*3 + 0).elementType(), nGroups, false);
+                PrimitiveArray maxPA = PrimitiveArray.factory(
+                    fileTable.getColumn(dv0 + dv*3 + 1).elementType(), nGroups, false);
+                ByteArray hasNaNPA = new ByteArray(nGroups, false);
+                rgTable.addColumn(fileTable.getColumnName(dv0 + dv*3 + 0), minPA);
+                rgTable.addColumn(fileTable.getColumnName(dv0 + dv*3 + 1), maxPA);
+                rgTable.addColumn(fileTable.getColumnName(dv0 + dv*3 + 2), hasNaNPA);
+
+                int c = tTable.findColumnNumber(sourceDataNames.get(dv));
+                PrimitiveArray pa = c < 0? null : tTable.getColumn(c);
+                PAType tPaPAType = pa == null? null : pa.elementType();
+                for (int g = 0; g < nGroups; g++) {
+                    if (pa == null) {
+                        //var isn't in this file: unknown min, max, hasNaN 
+                        minPA.addString("");    
+                        maxPA.addString("");
+                        hasNaNPA.addString("");
+                        continue;
+                    }
+                    PrimitiveArray gpa = pa.subset(g * rgSize, 1, 
+                        Math.min(nRows, (g + 1) * rgSize) - 1);
+                    //same logic as setFileTableRow
+                    if (tPaPAType == PAType.STRING ||
+                        tPaPAType == PAType.CHAR ||
+                        tPaPAType == PAType.LONG ||
+                        tPaPAType == PAType.ULONG) {
+                        String nMinMax[] = gpa.getNMinMax(); 
+                        int tn = String2.parseInt(nMinMax[0]);
+                        minPA.addString(tn > 0? nMinMax[1] : "");
+                        maxPA.addString(tn > 0? nMinMax[2] : "");
+                        hasNaNPA.add(tn < gpa.size()? (byte)1 : (byte)0);
+                    } else {
+                        double stats[] = gpa.calculateStats();
+                        int tn = Math2.roundToInt(stats[PrimitiveArray.STATS_N]);
+                        minPA.addDouble(tn > 0? stats[PrimitiveArray.STATS_MIN] : Double.NaN);
+                        maxPA.addDouble(tn > 0? stats[PrimitiveArray.STATS_MAX] : Double.NaN);
+                        hasNaNPA.add(tn < gpa.size()? (byte)1 : (byte)0);
+                    }
+                }
+            }
+            Attributes gatts = rgTable.globalAttributes();
+            gatts.set("lastModified", tLastMod);
+            gatts.set("nRows",        nRows);
+            gatts.set("rowGroupSize", rgSize);
+            gatts.set("sourceDataNames", sourceDataNames.toString());
+            gatts.set("sourceDataTypes", String2.toCSSVString(sourceDataTypes));
+
+            File2.makeDirectory(datasetDir() + ROW_GROUP_DIR);
+            rgTable.saveAsEnhancedFlatNc(rgFileName + random); //throws exceptions
+            File2.rename(rgFileName + random, rgFileName);
+            if (debugMode) String2.log(">> saved rowGroupTable nGroups=" + nGroups + 
+                " for " + tFileDir + tFileName);
+
+        } catch (Throwable t) {
+            String2.log(String2.ERROR + " while saving rowGroupTable for " + 
+                tFileDir + tFileName + ":\n" + MustBe.throwableToString(t));
+            File2.delete(rgFileName + random);
+            File2.delete(rgFileName);
+        }
+    }
+
+    /**
+     * For subclasses which supportsRowGroups(), this uses the data file's 
+     * row group table to find the ranges of rows which may have data matching
+     * the source constraints.
+     * See lowGetSourceDataFromFile for a description of the parameters.
+     *
+     * @return null if all rows should be read (e.g., there is no up-to-date 
+     *   row group table or no constraints), 
+     *   else pairs of first,last (inclusive) row numbers (size=0 if no rows match).
+     *   This never throws an exception; trouble just leads to null.
+     */
+    protected IntArray rowGroupRanges(String tFileDir, String tFileName, 
+        StringArray sourceConVars, StringArray sourceConOps, StringArray sourceConValues) {
+
+        if (sourceConVars == null || sourceConVars.size() == 0 || 
+            EDStatic.tableRowGroupSize <= 0 || cacheFromUrl != null || !supportsRowGroups())
+            return null;
+        String rgFileName = rowGroupFileName(tFileDir, tFileName);
+        if (!File2.isFile(rgFileName))
+            return null;
+
+        try {
+            Table rgTable = new Table();
+            rgTable.readEnhancedFlatNc(rgFileName, null);
+            Attributes gatts = rgTable.globalAttributes();
+            if (gatts.getLong("lastModified") != File2.getLastModified(tFileDir + tFileName))
+                return null; //out-of-date
+            if (!sourceDataNames.toString().equals(gatts.getString("sourceDataNames")) ||
+                !String2.toCSSVString(sourceDataTypes).equals(gatts.getString("sourceDataTypes"))) {
+                //made for a different set of variables (e.g., datasets.xml changed)
+                if (reallyVerbose) String2.log("  rowGroupTable for " + tFileName + 
+                    " has different dataVariables, so I deleted it.");
+                File2.delete(rgFileName);
+                return null;
+            }
+
+            //gather the constraints on dataVariables 
+            int nCon = sourceConVars.size();
+            IntArray conDv = new IntArray(); 
+            ArrayList<PAType> conPAType = new ArrayList();
+            StringArray conOps    = new StringArray();
+            StringArray conValues = new StringArray();
+            for (int con = 0; con < nCon; con++) {
+                int dv = sourceDataNames.indexOf(sourceConVars.get(con));
+                if (dv < 0) 
+                    continue;
+                conDv.add(dv);
+                conPAType.add(dataVariables[dv].sourceDataPAType());
+                conOps.add(sourceConOps.get(con));
+                conValues.add(sourceConValues.get(con));
+            }
+            if (conDv.size() == 0)
+                return null;
+            
+            IntArray ranges = rowGroupRanges(rgTable, gatts.getInt("rowGroupSize"), 
+                gatts.getInt("nRows"), conDv.toArray(), 
+                conPAType.toArray(new PAType[conPAType.size()]), 
+                conOps.toArray(), conValues.toArray());
+            if (reallyVerbose) String2.log("  rowGroupRanges for " + tFileName + 
+                ": nGroups=" + rgTable.nRows() + " nRanges=" + (ranges.size() / 2));
+            return ranges;
+
+        } catch (Throwable t) {
+            String2.log(String2.ERROR + " while reading rowGroupTable for " + 
+                tFileDir + tFileName + ":\n" + MustBe.throwableToString(t));
+            return null;
+        }
+    }
+
+    /**
+     * This does the work for rowGroupRanges(): it tests each row group
+     * (with the same tests that are used to reject whole files) and 
+     * merges adjacent row groups which may have matching data into ranges.
+     *
+     * @param rgTable a row group table (see saveRowGroupTable)
+     * @param rowGroupSize the number of rows in each row group
+     * @param nRows the number of rows in the data file 
+     * @param conDv the dataVariable number of each constraint
+     * @param conPAType the source PAType of each constraint's variable
+     * @param conOps the constraint operators
+     * @param conValues the constraint source values
+     * @return pairs of first,last (inclusive) row numbers (size=0 if no rows match).
+     */
+    public static IntArray rowGroupRanges(Table rgTable, int rowGroupSize, int nRows, 
+        int conDv[], PAType conPAType[], String conOps[], String conValues[]) {
+
+        int nGroups = rgTable.nRows();
+        int nCon = conDv.length;
+        double conValuesD[] = new double[nCon];
+        for (int con = 0; con < nCon; con++) 
+            conValuesD[con] = String2.parseDouble(conValues[con]);
+
+        IntArray ranges = new IntArray();
+        for (int g = 0; g < nGroups; g++) {
+            boolean ok = true;
+            for (int con = 0; con < nCon; con++) {
+                int dv = conDv[con];
+                String op = conOps[con];
+                PAType tPAType = conPAType[con];
+                boolean isCharOrString = tPAType == PAType.CHAR || tPAType == PAType.STRING;
+                if (op.equals(PrimitiveArray.REGEX_OP)) {
+                    if (isCharOrString &&
+                        !isOK(rgTable.getStringData(dv*3 + 0, g), 
+                              rgTable.getStringData(dv*3 + 1, g), 
+                              rgTable.getIntData(   dv*3 + 2, g), op, conValues[con])) 
+                        ok = false;
+                } else if (isCharOrString) {
+                    if (!isOK(rgTable.getStringData(dv*3 + 0, g), 
+                              rgTable.getStringData(dv*3 + 1, g), 
+                              rgTable.getIntData(   dv*3 + 2, g), op, conValues[con])) 
+                        ok = false;
+                } else {
+                    if (!isOK(tPAType, 
+                              rgTable.getDoubleData(dv*3 + 0, g), 
+                              rgTable.getDoubleData(dv*3 + 1, g), 
+                              rgTable.getIntData(   dv*3 + 2, g), op, conValuesD[con])) 
+                        ok = false;
+                }
+                if (!ok) 
+                    break;
+            }
+            if (!ok)
+                continue;
+
+            int first = g * rowGroupSize;
+            int last  = Math.min(nRows, (g + 1) * rowGroupSize) - 1;
+            int size = ranges.size();
+            if (size > 0 && ranges.get(size - 1) == first - 1) 
+                ranges.set(size - 1, last);  //extend the previous range
+            else {
+                ranges.add(first);
+                ranges.add(last);
+            }
+        }
+        return ranges;
+    }
+
     /** 
      * This is used to make a new minMaxTable just before saving a changed fileTable.
      *
@@ -2442,7 +2723,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
         ArrayList<WatchEvent.Kind> eventKinds = new ArrayList();
         StringArray contexts  = new StringArray();
         int nEvents = watchDirectory.getEvents(eventKinds, contexts);
-        if (nEvents == 0) {
+        if (nEvents == 0 && pendingFileEvents.size() == 0) {
             if (reallyVerbose) String2.log(msg + "found 0 events.");
             return false; //no changes
         }
@@ -2453,6 +2734,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                 if (reallyVerbose) String2.log(msg +  
                     "caught OVERFLOW event in " + contexts.get(evi) + 
                     ", so I called requestReloadASAP() instead of making changes here."); 
+                pendingFileEvents = new StringArray(); //the reload will deal with them
                 requestReloadASAP();
                 return false; 
             }
@@ -2478,6 +2760,10 @@ public abstract class EDDTableFromFiles extends EDDTable{
                 keep.set(evi);
         }
         contexts.justKeep(keep);        
+
+        //Coalesce with events not yet processed by previous calls and
+        //just process a batch of up to EDStatic.updateMaxEvents files now.
+        contexts = takeFileEventBatch(contexts);
         nEvents = contexts.size();
         if (nEvents == 0) {
             if (reallyVerbose) String2.log(msg + 
@@ -2485,15 +2771,6 @@ public abstract class EDDTableFromFiles extends EDDTable{
             return false; //no changes
         }
 
-        //If too many events, call for reload.
-        //This method isn't as nearly as efficient as full reload.
-        if (nEvents > 10) {
-            if (reallyVerbose) String2.log(msg + nEvents + 
-                ">10 file events, so I called requestReloadASAP() instead of making changes here."); 
-            requestReloadASAP();
-            return false;
-        }
-
         //get BadFile and FileTable info and make local copies
         ConcurrentHashMap badFileMap = readBadFileMap(); //already a copy of what's in file
         Table tDirTable  = getDirTableCopy();   //not null, throws Throwable
@@ -2511,6 +2788,13 @@ public abstract class EDDTableFromFiles extends EDDTable{
         LongArray   ftSize          =   (LongArray)tFileTable.getColumn(FT_SIZE_COL);           //3
         DoubleArray ftSortedSpacing = (DoubleArray)tFileTable.getColumn(FT_SORTED_SPACING_COL); //4
 
+        //If several events, index the fileTable so each file is found quickly.
+        //Rows of removed files are just noted here and removed all at once below
+        //  (so row numbers in the index stay valid).
+        HashMap<String,Integer> fileTableIndex = nEvents > 1? 
+            makeFileTableIndex(ftDirIndex, ftFileList) : null;
+        BitSet removeRows = new BitSet();
+
         //for each changed file
         int nChanges = 0; //BadFiles or FileTable
         for (int evi = 0; evi < nEvents; evi++) {
@@ -2525,6 +2809,9 @@ public abstract class EDDTableFromFiles extends EDDTable{
             //dirIndex   (dirName may not be in dirList!)
             int dirIndex = dirList.indexOf(dirName); //linear search, but should be short list
 
+            //the file changed, so don't reuse pooled NetcdfFiles for it
+            NcHelper.invalidateFile(fullName);
+
             //if it is an existing file, see if it is valid
             if (File2.isFile(fullName)) {
                 //test that dataVariable units/etc are identical
@@ -2583,7 +2870,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                         //If file name already in tFileTable, find it.
                         //Don't take shortcut, e.g., binary search with tMin.
                         //It is possible file had wrong name/wrong value before.
-                        fileListPo = findInFileTable(dirIndex, fileName, 
+                        fileListPo = findInFileTable(fileTableIndex, dirIndex, fileName, 
                             tFileTable, ftDirIndex, ftFileList);
                     }
 
@@ -2602,9 +2889,11 @@ public abstract class EDDTableFromFiles extends EDDTable{
                         fileListPo = ftFileList.size(); 
                         tFileTable.insertBlankRow(fileListPo);
                     } //else use same row it was on before (can be inappropriate, but will sort below)
+                    long tLastMod = File2.getLastModified(fullName);
                     setFileTableRow(tFileTable, fileListPo, dirIndex, fileName,
-                        File2.getLastModified(fullName), File2.length(fullName), tTable, 
+                        tLastMod, File2.length(fullName), tTable, 
                         debugMode? evi : -1);
+                    saveRowGroupTable(tFileTable, dirName, fileName, tLastMod, tTable);
 
                 } else {
 
@@ -2614,9 +2903,12 @@ public abstract class EDDTableFromFiles extends EDDTable{
                     //File exists and is bad.
                     //Remove from tFileTable if it is there.
                     if (dirIndex >= 0) { //it might be in tFileTable
-                        if (removeFromFileTable(dirIndex, fileName, 
-                                tFileTable, ftDirIndex, ftFileList)) {
+                        int po = findInFileTable(fileTableIndex, dirIndex, fileName, 
+                            tFileTable, ftDirIndex, ftFileList);
+                        if (po >= 0) {
+                            removeRows.set(po);
                             nChanges++;
+                            deleteRowGroupTable(dirName, fileName);
                             if (verbose)
                                 String2.log(msg + 
                                     "removed from fileTable a file that is now bad/incompatible:\n  " + 
@@ -2648,9 +2940,12 @@ public abstract class EDDTableFromFiles extends EDDTable{
                     //Remove it from tFileTable if it's there.
                     //Don't take shortcut, e.g., by searching with tMin.
                     //It is possible file had wrong name/wrong value before.
-                    if (removeFromFileTable(dirIndex, fileName, 
-                            tFileTable, ftDirIndex, ftFileList)) {
+                    int po = findInFileTable(fileTableIndex, dirIndex, fileName, 
+                        tFileTable, ftDirIndex, ftFileList);
+                    if (po >= 0) {
+                        removeRows.set(po);
                         nChanges++;
+                        deleteRowGroupTable(dirName, fileName);
                         if (verbose)
                             String2.log(msg + 
                                 "removed from fileTable a file that now doesn't exist:\n  " + 
@@ -2672,6 +2967,10 @@ public abstract class EDDTableFromFiles extends EDDTable{
         if (nChanges > 0) {
 
             //first, change local info only
+            if (!removeRows.isEmpty()) {
+                removeRows.flip(0, tFileTable.nRows()); //now it's the rows to keep
+                tFileTable.justKeep(removeRows);
+            }
             if (fileTableSortColumns != null) {
                 //sort the tFileTable
                 long sortTime = System.currentTimeMillis();
@@ -2810,6 +3109,74 @@ public abstract class EDDTableFromFiles extends EDDTable{
         return tFileTable;
     }
 
+    /** 
+     * This gets a read-only view of the fileTable for use by one thread.
+     * If fileTableInMemory, this wraps the in-memory fileTable.
+     * Otherwise, this usually reads the fileTable in place from the memory-mapped
+     * MAPPED_FILE_TABLE_FILENAME (so it isn't read into memory for each request), 
+     * but falls back to reading fileTable.nc if the mapped file is missing or stale.
+     *
+     * @returns the view, not null
+     * @throw Throwable if trouble
+     */
+    public MappedFileTable getMappedFileTable() throws Throwable {
+        if (fileTableInMemory) 
+            return new MappedFileTable(getFileTable());
+
+        String mappedName = datasetDir() + MAPPED_FILE_TABLE_FILENAME;
+        long mappedLastMod = File2.getLastModified(mappedName); //0 if trouble
+        if (mappedLastMod > 0) {
+            MappedFileTable mft = mappedFileTable;
+            try {
+                if (mft == null || mft.fileLastMod() != mappedLastMod) {
+                    mft = MappedFileTable.read(mappedName);
+                    mappedFileTable = mft;
+                }
+            } catch (Throwable t) {
+                String2.log(String2.ERROR + " while mapping " + mappedName + 
+                    " (so fileTable.nc will be used):\n" + MustBe.throwableToString(t));
+                mft = null;
+                mappedFileTable = null;
+                File2.delete(mappedName);
+            }
+            //is it a copy of the current fileTable.nc?
+            if (mft != null &&
+                mft.sourceLastMod() == File2.getLastModified(datasetDir() + FILE_TABLE_FILENAME) &&
+                mft.nColumns() == dv0 + dataVariables.length * 3)
+                return mft.view();
+        }
+        mappedFileTable = null;
+        return new MappedFileTable(getFileTable());
+    }
+
+    /**
+     * This calls EDD.saveDirTableFileTableBadFiles, then (if !fileTableInMemory)
+     * saves a memory-mapped copy of the fileTable (see getMappedFileTable).
+     * Trouble saving the mapped copy isn't fatal: the mapped copy is deleted
+     * and requests use fileTable.nc.
+     *
+     * @throws Throwable if trouble saving the dirTable, fileTable, or badFiles
+     */
+    public void saveDirTableFileTableBadFiles(int tStandardizeWhat, 
+        Table dirTable, Table fileTable, 
+        ConcurrentHashMap badFileMap) throws Throwable {
+
+        String mappedName = datasetDir() + MAPPED_FILE_TABLE_FILENAME;
+        super.saveDirTableFileTableBadFiles(tStandardizeWhat, dirTable, fileTable, badFileMap);
+        if (fileTableInMemory) {
+            File2.delete(mappedName);
+            return;
+        }
+        try {
+            MappedFileTable.write(fileTable, mappedName, 
+                File2.getLastModified(datasetDir() + FILE_TABLE_FILENAME));
+        } catch (Throwable t) {
+            String2.log(String2.ERROR + " while saving " + mappedName + 
+                " (so fileTable.nc will be used):\n" + MustBe.throwableToString(t));
+            File2.delete(mappedName);
+        }
+    }
+
     /** 
      * Try to load the dirTable or fileTable.
      * fileTable PrimitiveArrays: 0=ftDirIndex 1=ftFileList 2=ftLastMod 3=ftSize 4=ftSortedSpacing, 
@@ -3385,6 +3752,193 @@ public abstract class EDDTableFromFiles extends EDDTable{
         return table;
     }
 
+    /**
+     * This tests if a file might have data which matches the constraints,
+     * based on the file's min, max, and hasNaN values in the fileTable.
+     *
+     * @param tFileTable the fileTable
+     * @param f the file's row in tFileTable
+     * @param conVars the constraint sourceNames (from getSourceQueryFromDapQuery)
+     * @param conOps the constraint operators
+     * @param conValues the constraint values (timeStamp constraints other than regex are epochSeconds)
+     * @param cdvi the index in dataVariables of each conVar
+     * @param conValuesD conValues as doubles
+     * @return false if the file can be rejected because it has no matching data
+     */
+    protected boolean fileMightMatch(MappedFileTable tFileTable, int f, 
+        StringArray conVars, StringArray conOps, StringArray conValues,
+        int cdvi[], double conValuesD[]) {
+
+        int nCon = conVars.size();
+        for (int con = 0; con < nCon; con++) {
+            String op = conOps.get(con);
+            int dv = cdvi[con];
+            EDV edv = dataVariables[dv];
+            PAType conEdvSourcePAType = edv.sourceDataPAType();
+            if (op.equals(PrimitiveArray.REGEX_OP)) {
+                //only reject a file based on regex_op if file has just one String value
+                //(since numbers may be further processed)
+                if (conEdvSourcePAType == PAType.CHAR ||
+                    conEdvSourcePAType == PAType.STRING) {
+                    String tMin = tFileTable.getStringData(dv0 + dv*3 + 0, f);
+                    String tMax = tFileTable.getStringData(dv0 + dv*3 + 1, f);
+                    int    tNaN = tFileTable.getIntData(   dv0 + dv*3 + 2, f); 
+                    if (//tMin.equals(tMax) && //this is tested by isOK for regex
+                        !isOK(tMin, tMax, tNaN, op, conValues.get(con))) {
+                        if (debugMode) 
+                            String2.log("file " + f + 
+                                " rejected because failed String test " +
+                                conVars.get(con) + op + String2.toJson(conValues.get(con), 256) + 
+                                " when file min=" + String2.toJson(tMin, 256) + 
+                                ", max=" + String2.toJson(tMax, 256) + 
+                                ", hasNaN=" + (tNaN != 0) + ".");
+                        return false;
+                    }
+                } //else don't reject based on this constraint
+
+
+            } else if (edv instanceof EDVTimeStamp) {
+                //conValue is epochSeconds (not source time units), so convert fMin,fMax to epSeconds
+                EDVTimeStamp tdv = (EDVTimeStamp)edv;
+                if (conEdvSourcePAType == PAType.STRING &&
+                    (!tdv.sourceTimeFormat().toLowerCase().startsWith("yyyy") ||
+                     Double.isNaN(conValuesD[con]))) {
+                    //strings are sorted incorrectly by e.g., MM/dd/yyyy
+                    //  so tests vs min,max are invalid
+                    //test comparing to NaN are unreliable
+                    //so test all files
+
+                } else {
+                    //numeric timestamp, or yyyy... String timestamp
+                    double fMin = tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv*3 + 0, f));
+                    double fMax = tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv*3 + 1, f));
+                    int    fNaN = tFileTable.getIntData(dv0 + dv*3 + 2, f);
+                    //if min/max String times are invalid, act as if far in past/future
+                    if (Double.isNaN(fMin))  
+                        fMin = -1e100;
+                    if (Double.isNaN(fMax))
+                        fMax = 1e100;
+
+                    //2018-07-05 removed: now, given updateEveryNMillis, assume that info about files is perfectly up-to-data
+                    /*
+                    //if fMax is in 20 hours ago to 4 hours in future, set fMax to Now+4hours)
+                    // 4hrs avoids clock drift problems
+                    double secondsNowP4 = System.currentTimeMillis() / 1000 + 4 * Calendar2.SECONDS_PER_HOUR;
+                    if (!Double.isNaN(fMax) && 
+                        secondsNowP4 - fMax > 0 &&
+                        secondsNowP4 - fMax < Calendar2.SECONDS_PER_DAY &&
+                        !isFromHttpGet) {  //but HttpGet is assumed to be perfectly up-to-date
+                        if (reallyVerbose) 
+                            String2.log("file " + tdv.destinationName() + 
+                              " maxTime is within last 24hrs, so ERDDAP is pretending file maxTime is now+4hours.");
+                        fMax = secondsNowP4;
+                    }
+                    */
+
+                    //String2.log(">> test file=" + f + " fMin=" + fMin + " fMax=" + fMax + " op='" + op + "' conValuesD[con]=" + conValuesD[con]);
+                    if (!isOK(PAType.STRING, //test all times with full precision
+                        fMin, fMax, fNaN, op, conValuesD[con])) { //test w epochSeconds
+                        if (debugMode) 
+                            String2.log("file " + f + 
+                                " rejected because failed time test " +
+                                conVars.get(con) + op + conValues.get(con) +
+                                "(" + Calendar2.safeEpochSecondsToIsoStringTZ(conValuesD[con], "\"\"") + 
+                                ") when file min=" + fMin + " max=" + fMax + 
+                                ", hasNaN=" + (fNaN != 0) + ".");
+                        return false;
+                    }                  
+                }
+
+            } else if (conEdvSourcePAType == PAType.CHAR ||
+                       conEdvSourcePAType == PAType.STRING) {
+                //String variables
+                String fMin = tFileTable.getStringData(dv0 + dv*3 + 0, f);
+                String fMax = tFileTable.getStringData(dv0 + dv*3 + 1, f);
+                int    fNaN = tFileTable.getIntData(   dv0 + dv*3 + 2, f);
+                if (!isOK(fMin, fMax, fNaN, op, conValues.get(con))) {
+                    if (debugMode) 
+                        String2.log("file " + f + 
+                            " rejected because failed String test " +
+                            conVars.get(con) + op + String2.toJson(conValues.get(con), 256) + 
+                            " when file min=" + String2.toJson(fMin, 256) + 
+                            ", max=" + String2.toJson(fMax, 256) + 
+                            ", hasNaN=" + (fNaN != 0) + ".");
+                    return false;
+                }
+
+            } else {
+                //numeric variables (and not PrimitiveArray.REGEX_OP)
+                double fMin = tFileTable.getDoubleData(dv0 + dv*3 + 0, f); 
+                double fMax = tFileTable.getDoubleData(dv0 + dv*3 + 1, f); 
+                int    fNaN = tFileTable.getIntData(   dv0 + dv*3 + 2, f);
+                if (!isOK(conEdvSourcePAType, fMin, fMax, fNaN, op, conValuesD[con])) {
+                    if (debugMode) 
+                        String2.log("file " + f + 
+                            " rejected because failed numeric test " +
+                            conVars.get(con) + op + conValues.get(con) + 
+                            " when file min=" + fMin + ", max=" + fMax + 
+                            ", hasNaN=" + (fNaN != 0) + ".");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This estimates the cost of a data request (see EDD.estimateCost)
+     * without reading any data files:
+     * the files which might have matching data (based on the fileTable's
+     * min, max, and hasNaN values, as in getDataForDapQuery), 
+     * the sum of their sizes, and the number of rows in them
+     * (estimated from the sizes and the data variables' source data types).
+     * Since the rows aren't tested, nRows is an upper bound.
+     *
+     * @param loggedInAs  the name of the logged in user (or null if not logged in).
+     * @param userDapQuery the part of the user's request after the '?', still percentEncoded.
+     * @param fileTypeName e.g., .csv
+     * @return the estimate. If the query can't be parsed, 
+     *    this returns RequestCost.UNKNOWN.
+     */
+    public RequestCost estimateCost(String loggedInAs, String userDapQuery, String fileTypeName) {
+        try {
+            StringArray resultsVariables = new StringArray();
+            StringArray conVars   = new StringArray();
+            StringArray conOps    = new StringArray();
+            StringArray conValues = new StringArray(); 
+            getSourceQueryFromDapQuery(userDapQuery, resultsVariables, 
+                conVars, conOps, conValues); //timeStamp constraints other than regex are epochSeconds
+            int nCon = conVars.size();
+            int cdvi[] = new int[nCon];
+            double conValuesD[] = new double[nCon];
+            for (int con = 0; con < nCon; con++) {
+                cdvi[con] = String2.indexOf(dataVariableSourceNames(), conVars.get(con));
+                conValuesD[con] = String2.parseDouble(conValues.get(con));
+            }
+
+            MappedFileTable tFileTable = getMappedFileTable();
+            int nFiles = tFileTable.nRows();
+            long nMatch = 0;
+            double nBytes = 0;
+            for (int f = 0; f < nFiles; f++) {
+                if (fileMightMatch(tFileTable, f, conVars, conOps, conValues, cdvi, conValuesD)) {
+                    nMatch++;
+                    nBytes += tFileTable.getLongData(FT_SIZE_COL, f);
+                }
+            }
+
+            //bytes per row (of the variables that are stored in the files)
+            int rowNBytes = 0;
+            for (int dv = 0; dv < dataVariables.length; dv++) 
+                if (!dataVariables[dv].isFixedValue())
+                    rowNBytes += PAType.elementSize(dataVariables[dv].sourceDataPAType());
+            return new RequestCost(nMatch, nBytes, 
+                rowNBytes == 0? -1 : Math.floor(nBytes / rowNBytes));
+        } catch (Throwable t) {
+            return RequestCost.UNKNOWN;
+        }
+    }
+
     /** 
      * This gets the data (chunk by chunk) from this EDDTable for the 
      * OPeNDAP DAP-style query and writes it to the TableWriter. 
@@ -3414,14 +3968,10 @@ public abstract class EDDTableFromFiles extends EDDTable{
         boolean isFromHttpGet = "EDDTableFromHttpGet".equals(className);
 
         //get a local reference to dirTable and fileTable
+        //(if !fileTableInMemory, fileTable is usually read in place from the mapped file)
         Table tDirTable  = getDirTable();
-        Table tFileTable = getFileTable();
+        MappedFileTable tFileTable = getMappedFileTable();
         StringArray dirList         = (StringArray)tDirTable.getColumn(0);
-        ShortArray  ftDirIndex      =  (ShortArray)tFileTable.getColumn(0);
-        StringArray ftFileList      = (StringArray)tFileTable.getColumn(1);        
-        LongArray   ftLastMod       =   (LongArray)tFileTable.getColumn(2);
-        LongArray   ftSize          =   (LongArray)tFileTable.getColumn(3);
-        DoubleArray ftSortedSpacing = (DoubleArray)tFileTable.getColumn(4);
 
 
         //no need to further prune constraints. 
@@ -3436,8 +3986,8 @@ public abstract class EDDTableFromFiles extends EDDTable{
             resultsVariables.get(0).equals(columnNameForExtract)) {
 
             Table table = new Table();
-            PrimitiveArray names = (StringArray)(tFileTable.getColumn(
-                dv0 + extractedColNameIndex*3 + 0).clone());
+            PrimitiveArray names = tFileTable.getColumnCopy(
+                dv0 + extractedColNameIndex*3 + 0);
             PrimitiveArray unique = names.makeIndices(new IntArray()); //it returns unique values, sorted
             table.addColumn(columnNameForExtract, unique);
 
@@ -3673,135 +4223,16 @@ public abstract class EDDTableFromFiles extends EDDTable{
         int nReadNoMatch = 0; 
         int tnThreads = nThreads >= 1 && nThreads < Integer.MAX_VALUE? nThreads : EDStatic.nTableThreads; 
         ArrayList<FutureTask> futureTasks = new ArrayList();
-        ExecutorService executorService = null;
+        //All requests share one server-wide pool (see EDStatic.tableThreadPool).
+        ThreadPoolExecutor threadPool = tnThreads > 1? EDStatic.tableThreadPool() : null;
         try {
             FILE_LOOP:
             for (int f = 0; f < nFiles; f++) {
-                if (Thread.interrupted()) { 
-                    if (executorService != null)
-                        executorService.shutdownNow();
+                if (Thread.interrupted())  //pending tasks are cancelled in 'finally' below
                     throw new InterruptedException(); //consume the interrupted status
-                }
 
                 //can file be rejected based on constraints?
-                boolean ok = true;
-                for (int con = 0; con < nCon; con++) {
-                    String op = conOps.get(con);
-                    int dv = cdvi[con];
-                    EDV edv = dataVariables[dv];
-                    PAType conEdvSourcePAType = edv.sourceDataPAType();
-                    if (op.equals(PrimitiveArray.REGEX_OP)) {
-                        //only reject a file based on regex_op if file has just one String value
-                        //(since numbers may be further processed)
-                        if (conEdvSourcePAType == PAType.CHAR ||
-                            conEdvSourcePAType == PAType.STRING) {
-                            String tMin = tFileTable.getStringData(dv0 + dv*3 + 0, f);
-                            String tMax = tFileTable.getStringData(dv0 + dv*3 + 1, f);
-                            int    tNaN = tFileTable.getIntData(   dv0 + dv*3 + 2, f); 
-                            if (//tMin.equals(tMax) && //this is tested by isOK for regex
-                                !isOK(tMin, tMax, tNaN, op, conValues.get(con))) {
-                                if (debugMode) 
-                                    String2.log("file " + f + 
-                                        " rejected because failed String test " +
-                                        conVars.get(con) + op + String2.toJson(conValues.get(con), 256) + 
-                                        " when file min=" + String2.toJson(tMin, 256) + 
-                                        ", max=" + String2.toJson(tMax, 256) + 
-                                        ", hasNaN=" + (tNaN != 0) + ".");
-                                ok = false;
-                                break;
-                            }
-                        } //else don't reject based on this constraint
-
-
-                    } else if (edv instanceof EDVTimeStamp) {
-                        //conValue is epochSeconds (not source time units), so convert fMin,fMax to epSeconds
-                        EDVTimeStamp tdv = (EDVTimeStamp)edv;
-                        if (conEdvSourcePAType == PAType.STRING &&
-                            (!tdv.sourceTimeFormat().toLowerCase().startsWith("yyyy") ||
-                             Double.isNaN(conValuesD[con]))) {
-                            //strings are sorted incorrectly by e.g., MM/dd/yyyy
-                            //  so tests vs min,max are invalid
-                            //test comparing to NaN are unreliable
-                            //so test all files
-
-                        } else {
-                            //numeric timestamp, or yyyy... String timestamp
-                            double fMin = tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv*3 + 0, f));
-                            double fMax = tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv*3 + 1, f));
-                            int    fNaN = tFileTable.getIntData(dv0 + dv*3 + 2, f);
-                            //if min/max String times are invalid, act as if far in past/future
-                            if (Double.isNaN(fMin))  
-                                fMin = -1e100;
-                            if (Double.isNaN(fMax))
-                                fMax = 1e100;
-
-                            //2018-07-05 removed: now, given updateEveryNMillis, assume that info about files is perfectly up-to-data
-                            /*
-                            //if fMax is in 20 hours ago to 4 hours in future, set fMax to Now+4hours)
-                            // 4hrs avoids clock drift problems
-                            double secondsNowP4 = System.currentTimeMillis() / 1000 + 4 * Calendar2.SECONDS_PER_HOUR;
-                            if (!Double.isNaN(fMax) && 
-                                secondsNowP4 - fMax > 0 &&
-                                secondsNowP4 - fMax < Calendar2.SECONDS_PER_DAY &&
-                                !isFromHttpGet) {  //but HttpGet is assumed to be perfectly up-to-date
-                                if (reallyVerbose) 
-                                    String2.log("file " + tdv.destinationName() + 
-                                      " maxTime is within last 24hrs, so ERDDAP is pretending file maxTime is now+4hours.");
-                                fMax = secondsNowP4;
-                            }
-                            */
-
-                            //String2.log(">> test file=" + f + " fMin=" + fMin + " fMax=" + fMax + " op='" + op + "' conValuesD[con]=" + conValuesD[con]);
-                            if (!isOK(PAType.STRING, //test all times with full precision
-                                fMin, fMax, fNaN, op, conValuesD[con])) { //test w epochSeconds
-                                if (debugMode) 
-                                    String2.log("file " + f + 
-                                        " rejected because failed time test " +
-                                        conVars.get(con) + op + conValues.get(con) +
-                                        "(" + Calendar2.safeEpochSecondsToIsoStringTZ(conValuesD[con], "\"\"") + 
-                                        ") when file min=" + fMin + " max=" + fMax + 
-                                        ", hasNaN=" + (fNaN != 0) + ".");
-                                ok = false;
-                                break;
-                            }                  
-                        }
-
-                    } else if (conEdvSourcePAType == PAType.CHAR ||
-                               conEdvSourcePAType == PAType.STRING) {
-                        //String variables
-                        String fMin = tFileTable.getStringData(dv0 + dv*3 + 0, f);
-                        String fMax = tFileTable.getStringData(dv0 + dv*3 + 1, f);
-                        int    fNaN = tFileTable.getIntData(   dv0 + dv*3 + 2, f);
-                        if (!isOK(fMin, fMax, fNaN, op, conValues.get(con))) {
-                            if (debugMode) 
-                                String2.log("file " + f + 
-                                    " rejected because failed String test " +
-                                    conVars.get(con) + op + String2.toJson(conValues.get(con), 256) + 
-                                    " when file min=" + String2.toJson(fMin, 256) + 
-                                    ", max=" + String2.toJson(fMax, 256) + 
-                                    ", hasNaN=" + (fNaN != 0) + ".");
-                            ok = false;
-                            break;
-                        }
-
-                    } else {
-                        //numeric variables (and not PrimitiveArray.REGEX_OP)
-                        double fMin = tFileTable.getDoubleData(dv0 + dv*3 + 0, f); 
-                        double fMax = tFileTable.getDoubleData(dv0 + dv*3 + 1, f); 
-                        int    fNaN = tFileTable.getIntData(   dv0 + dv*3 + 2, f);
-                        if (!isOK(conEdvSourcePAType, fMin, fMax, fNaN, op, conValuesD[con])) {
-                            if (debugMode) 
-                                String2.log("file " + f + 
-                                    " rejected because failed numeric test " +
-                                    conVars.get(con) + op + conValues.get(con) + 
-                                    " when file min=" + fMin + ", max=" + fMax + 
-                                    ", hasNaN=" + (fNaN != 0) + ".");
-                            ok = false;
-                            break;
-                        }
-                    }
-                }
-                if (!ok) {
+                if (!fileMightMatch(tFileTable, f, conVars, conOps, conValues, cdvi, conValuesD)) {
                     nNotRead++;
                     continue;
                 }
@@ -3874,9 +4305,9 @@ public abstract class EDDTableFromFiles extends EDDTable{
                 //Read all data from file within minSorted to maxSorted.
                 //This throws Throwable if trouble. I think that's appropriate.
                 Table table;
-                int tDirIndex = ftDirIndex.get(f);
+                int tDirIndex = tFileTable.getIntData(FT_DIR_INDEX_COL, f);
                 String tDir = dirList.get(tDirIndex);
-                String tName = ftFileList.get(f);
+                String tName = tFileTable.getStringData(FT_FILE_LIST_COL, f);
                 String tExtractValue = extractedColNameIndex >= 0?
                     tFileTable.getStringData(dv0 + extractedColNameIndex*3 + 0, f) :
                     null;
@@ -3890,26 +4321,26 @@ public abstract class EDDTableFromFiles extends EDDTable{
                     " thread=" + Thread.currentThread().getName() + 
                     " task=" + task,
                     this, loggedInAs, requestUrl, userDapQuery, 
-                    tDirIndex, tDir, tName, ftLastMod.get(f),
+                    tDirIndex, tDir, tName, tFileTable.getLongData(FT_LAST_MOD_COL, f),
                     resultsVariables, resultsTypes, 
-                    ftSortedSpacing.get(f), minSorted, maxSorted, 
+                    tFileTable.getDoubleData(FT_SORTED_SPACING_COL, f), minSorted, maxSorted, 
                     sourceConVars, sourceConOps, sourceConValues)); 
                 futureTasks.add(futureTask);
-                //To isolate requests, I make a new executorService each time.
-                if (tnThreads > 1) {
-                    if (executorService == null) 
-                        executorService = Executors.newFixedThreadPool(tnThreads - 1);
-                    executorService.submit(futureTask);
+                //This request's fair share of the shared threadPool is 
+                //at most tnThreads pending tasks (see below).
+                if (threadPool != null) {
+                    threadPool.execute(futureTask);
                 } else {
                     futureTask.run();
                 }
                 task++;
 
-                //if executorService is full, process a result
+                //if this request has its share of pending tasks, process a result
                 if (task - nProcessed >= tnThreads) {
                     //get results table from a futureTask
                     //Put null that position in futureTasks so it can be gc'd after this method
                     futureTask = futureTasks.set(nProcessed++, null);                
+                    futureTask.run(); //if threadPool hasn't started this task yet (it's busy), do it in this thread
                     Table resultsTable = (Table)(futureTask.get());   //blocks until done, throws ExecutionException
                     if (resultsTable == null) {
                         nReadNoMatch++;
@@ -3931,6 +4362,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                 //get results table from a futureTask
                 //Put null in that position in futureTasks so it can be gc'd after this method
                 FutureTask futureTask = futureTasks.set(nProcessed++, null);                
+                futureTask.run(); //if threadPool hasn't started this task yet (it's busy), do it in this thread
                 Table resultsTable = (Table)(futureTask.get());   //blocks until done, throws ExecutionException
                 if (resultsTable == null) {
                     nReadNoMatch++;
@@ -3967,10 +4399,15 @@ public abstract class EDDTableFromFiles extends EDDTable{
             }
 
         } finally {
-            //shut everything down
-            if (executorService != null) {
-                try {executorService.shutdownNow();} catch (Exception e) {}
-                executorService = null;
+            //cancel this request's pending tasks (e.g., if the client disconnected)
+            //but leave the shared threadPool running for other requests
+            for (int i = nProcessed; i < futureTasks.size(); i++) {
+                FutureTask futureTask = futureTasks.get(i);
+                if (futureTask != null) {
+                    try {futureTask.cancel(true);} catch (Exception e) {}
+                    if (threadPool != null)
+                        threadPool.remove(futureTask); //if still in the queue
+                }
             }
             futureTasks = null;
         }
@@ -4336,6 +4773,42 @@ public abstract class EDDTableFromFiles extends EDDTable{
 
     }
 
+    /** Test rowGroupRanges() */
+    public static void testRowGroupRanges() {
+        String2.log("\n* EDDTableFromFiles.testRowGroupRanges");
+        //2 vars: a double and a String, 4 groups of 10 rows, 35 rows in file
+        Table rgTable = new Table();
+        rgTable.addColumn("d_min_",    new DoubleArray(new double[]{0, 10, 20, 30}));
+        rgTable.addColumn("d_max_",    new DoubleArray(new double[]{9, 19, 29, 34}));
+        rgTable.addColumn("d_hasNaN_", new ByteArray(  new byte[]  {0, 0, 1, 1}));
+        rgTable.addColumn("s_min_",    new StringArray(new String[]{"a", "a", "b", "c"}));
+        rgTable.addColumn("s_max_",    new StringArray(new String[]{"a", "b", "b", "c"}));
+        rgTable.addColumn("s_hasNaN_", new ByteArray(  new byte[]  {0, 0, 0, 0}));
+        PAType dType[] = {PAType.DOUBLE};
+        PAType sType[] = {PAType.STRING};
+
+        //numeric
+        Test.ensureEqual(rowGroupRanges(rgTable, 10, 35, new int[]{0}, dType, 
+            new String[]{">="}, new String[]{"15"}).toString(), "10, 34", "");
+        Test.ensureEqual(rowGroupRanges(rgTable, 10, 35, new int[]{0}, dType, 
+            new String[]{"<"}, new String[]{"10"}).toString(), "0, 9", "");
+        Test.ensureEqual(rowGroupRanges(rgTable, 10, 35, new int[]{0}, dType, 
+            new String[]{"="}, new String[]{"NaN"}).toString(), "20, 34", "");
+        Test.ensureEqual(rowGroupRanges(rgTable, 10, 35, new int[]{0}, dType, 
+            new String[]{">"}, new String[]{"100"}).toString(), "", "");
+
+        //String 
+        Test.ensureEqual(rowGroupRanges(rgTable, 10, 35, new int[]{1}, sType, 
+            new String[]{"="}, new String[]{"b"}).toString(), "10, 29", "");
+        Test.ensureEqual(rowGroupRanges(rgTable, 10, 35, new int[]{1}, sType, 
+            new String[]{PrimitiveArray.REGEX_OP}, new String[]{"[ac]"}).toString(), "0, 19, 30, 34", "");
+
+        //2 constraints 
+        Test.ensureEqual(rowGroupRanges(rgTable, 10, 35, new int[]{0, 1}, 
+            new PAType[]{PAType.DOUBLE, PAType.STRING}, 
+            new String[]{"<", "!="}, new String[]{"25", "b"}).toString(), "0, 19", "");
+    }
+
     /** Quick test of regex */
     public static void testRegex() {
 
@@ -4360,7 +4833,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? -1 : 1;
+            lastTest = interactive? -1 : 2;
         String msg = "\n^^^ EDDTableFromFiles.test(" + interactive + ") test=";
 
         for (int test = firstTest; test <= lastTest; test++) {
@@ -4374,6 +4847,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
                 } else {
                     if (test ==  0) testIsOK();
                     if (test ==  1) testRegex();
+                    if (test ==  2) testRowGroupRanges();
                 }
 
                 String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
@@ -192,6 +192,14 @@ public class EDDTableFromNcFiles extends EDDTableFromFiles {
     }
 
 
+    /**
+     * This indicates that this subclass can read just some row ranges of a file.
+     * (Table.readNDNc only uses them for files where the variables have 1 dimension.)
+     */
+    protected boolean supportsRowGroups() {
+        return true;
+    }
+
     /**
      * This gets source data from one file.
      * See documentation in EDDTableFromFiles.
@@ -212,10 +220,17 @@ public class EDDTableFromNcFiles extends EDDTableFromFiles {
             tFileDir + tFileName, fileDir, decompressedDirectory(), 
             EDStatic.decompressedCacheMaxGB, true); //reuseExisting
         if (mustGetData) {
+            //if there is a row group table, just read the row groups which may have matching data
+            IntArray rowRanges = rowGroupRanges(tFileDir, tFileName, 
+                sourceConVars, sourceConOps, sourceConValues);
+            if (rowRanges != null && rowRanges.size() == 0) {
+                if (reallyVerbose) String2.log("  no row groups in " + tFileName + " have matching data");
+                return table; //empty
+            }
             table.readNDNc(decompFullName, sourceDataNames.toArray(),
                 standardizeWhat,
                 sortedSpacing >= 0 && !Double.isNaN(minSorted)? sortedColumnSourceName : null,
-                minSorted, maxSorted);
+                minSorted, maxSorted, rowRanges);
             //String2.log("  EDDTableFromNcFiles.lowGetSourceDataFromFile table.nRows=" + table.nRows());
             //table.saveAsDDS(System.out, "s");
         } else {
@@ -16314,6 +16329,62 @@ expected =
         Test.ensureEqual(results, expected, "\nresults=\n" + results);
     }
 
+    /**
+     * This tests EDDTableFromFiles.estimateCost with the fileTable of 
+     * a real dataset (miniNdbc has 1 file per station).
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testEstimateCost() throws Throwable {
+        String2.log("\n*** EDDTableFromNcFiles.testEstimateCost()\n");
+        EDDTableFromNcFiles eddTable = (EDDTableFromNcFiles)oneFromDatasetsXml(null, "miniNdbc"); 
+        MappedFileTable tFileTable = eddTable.getMappedFileTable();
+        int nFiles = tFileTable.nRows();
+        Test.ensureEqual(nFiles, 4, "");
+        long totalNBytes = 0, size41025 = -1;
+        for (int f = 0; f < nFiles; f++) {
+            long size = tFileTable.getLongData(FT_SIZE_COL, f);
+            totalNBytes += size;
+            if (tFileTable.getStringData(FT_FILE_LIST_COL, f).equals("NDBC_41025_met.nc"))
+                size41025 = size;
+        }
+        Test.ensureTrue(size41025 > 0, "size41025=" + size41025);
+        int rowNBytes = 0;
+        for (int dv = 0; dv < eddTable.dataVariables().length; dv++) 
+            if (!eddTable.dataVariables()[dv].isFixedValue())
+                rowNBytes += PAType.elementSize(eddTable.dataVariables()[dv].sourceDataPAType());
+        RequestCost rc;
+
+        //no constraints: all files
+        rc = eddTable.estimateCost(null, "station,time,atmp", ".csv");
+        Test.ensureEqual(rc.nFiles, 4, "");
+        Test.ensureEqual(rc.nBytes, totalNBytes, "");
+        Test.ensureEqual(rc.nRows, Math.floor(totalNBytes / (double)rowNBytes), "");
+        Test.ensureEqual(rc.estimated, true, "");
+
+        //a String constraint that just 1 file's min/max allows
+        rc = eddTable.estimateCost(null, "station,time,atmp&station=\"41025\"", ".csv");
+        Test.ensureEqual(rc.nFiles, 1, "");
+        Test.ensureEqual(rc.nBytes, size41025, "");
+
+        //a numeric constraint: 41025 has the max longitude (-75.402, the others are <= -78.489)
+        rc = eddTable.estimateCost(null, "station,time,atmp&longitude>-76", ".csv");
+        Test.ensureEqual(rc.nFiles, 1, "");
+        Test.ensureEqual(rc.nBytes, size41025, "");
+
+        //a time constraint after the max time (2015-01-23T22:00:00Z)
+        rc = eddTable.estimateCost(null, "station,time,atmp&time>=2016-01-01", ".csv");
+        Test.ensureEqual(rc.nFiles, 0, "");
+        Test.ensureEqual(rc.nBytes, 0, "");
+        Test.ensureEqual(rc.nRows, 0, "");
+
+        //invalid query
+        rc = eddTable.estimateCost(null, "zztop", ".csv");
+        Test.ensureTrue(rc == RequestCost.UNKNOWN, "rc=" + rc);
+
+        String2.log("\nEDDTableFromNcFiles.testEstimateCost passed the test.");
+    }
+
     /**
      * This tests the EDDTableFromFiles.update().
      * This tests with a variable from the file name, a fixed value variable,
@@ -16616,6 +16687,301 @@ expected =
 
     }
 
+    /**
+     * This tests that an update processes at most EDStatic.updateMaxEvents
+     * file events (so a user's request isn't held up by a burst of changed files)
+     * and leaves the rest for the LoadDatasets thread (via requestReloadASAP).
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testUpdateMaxEvents() throws Throwable {
+        String2.log("\n*** EDDTableFromNcFiles.testUpdateMaxEvents()\n");
+        EDDTableFromNcFiles eddTable = (EDDTableFromNcFiles)oneFromDatasetsXml(null, "miniNdbc"); 
+        String dataDir = eddTable.fileDir;
+        String flagName = EDStatic.fullResetFlagDirectory + eddTable.datasetID();
+        int oUpdateMaxEvents = EDStatic.updateMaxEvents;
+        try {
+            EDStatic.updateMaxEvents = 10;
+            File2.delete(flagName);
+
+            //25 events for files that don't exist (so they don't change the fileTable)
+            StringArray events = new StringArray();
+            for (int i = 0; i < 25; i++)
+                events.add(dataDir + "NDBC_zz" + String2.zeroPad("" + i, 3) + "_met.nc");
+            eddTable.pendingFileEvents = events;
+
+            //each update processes 1 batch and flags the dataset for a reload
+            Test.ensureEqual(eddTable.lowUpdate("testUpdateMaxEvents: ", System.currentTimeMillis()), 
+                false, "");
+            Test.ensureEqual(eddTable.pendingFileEvents.size(), 15, "");
+            Test.ensureEqual(eddTable.pendingFileEvents.get(0), dataDir + "NDBC_zz010_met.nc", "");
+            Test.ensureTrue(File2.isFile(flagName), "flagName=" + flagName);
+            File2.delete(flagName);
+
+            eddTable.lowUpdate("testUpdateMaxEvents: ", System.currentTimeMillis());
+            Test.ensureEqual(eddTable.pendingFileEvents.size(), 5, "");
+            Test.ensureTrue(File2.isFile(flagName), "flagName=" + flagName);
+            File2.delete(flagName);
+
+            //the last batch fits, so no reload
+            eddTable.lowUpdate("testUpdateMaxEvents: ", System.currentTimeMillis());
+            Test.ensureEqual(eddTable.pendingFileEvents.size(), 0, "");
+            Test.ensureEqual(File2.isFile(flagName), false, "flagName=" + flagName);
+            Test.ensureEqual(eddTable.getFileTable().nRows(), 4, "");
+
+        } finally {
+            EDStatic.updateMaxEvents = oUpdateMaxEvents;
+            File2.delete(flagName);
+        }
+        String2.log("\nEDDTableFromNcFiles.testUpdateMaxEvents passed the test.");
+    }
+
+    /**
+     * This tests that .ncCF and .ncCFMA files made in small chunks
+     * (so features and profiles span chunk boundaries) are the same as 
+     * files made in one chunk, and that the .ncCFMA padding of a char
+     * variable is the missing value.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testNcCFChunks() throws Throwable {
+        String2.log("\n*** EDDTableFromNcFiles.testNcCFChunks()\n");
+        String dataDir = EDStatic.fullTestCacheDirectory + "ncCFChunks/";
+        String dir = EDStatic.fullTestCacheDirectory;
+        File2.makeDirectory(dataDir);
+        //stations with unequal numbers of profiles and obs
+        String2.writeToFile(dataDir + "ncCFChunks.csv", 
+            "station,profile,time,latitude,longitude,depth,charVar,floatVar\n" +
+            "A,1,2020-01-01T00:00:00Z,30,-120,0,a,1.5\n" +
+            "A,1,2020-01-01T00:00:00Z,30,-120,10,b,2.5\n" +
+            "A,1,2020-01-01T00:00:00Z,30,-120,20,c,3.5\n" +
+            "A,2,2020-01-02T00:00:00Z,30,-120,0,d,4.5\n" +
+            "A,2,2020-01-02T00:00:00Z,30,-120,10,e,5.5\n" +
+            "B,3,2020-01-01T00:00:00Z,31,-121,0,f,6.5\n" +
+            "C,4,2020-01-01T00:00:00Z,32,-122,0,g,7.5\n" +
+            "C,4,2020-01-01T00:00:00Z,32,-122,10,h,8.5\n" +
+            "C,4,2020-01-01T00:00:00Z,32,-122,20,i,9.5\n" +
+            "C,4,2020-01-01T00:00:00Z,32,-122,30,j,10.5\n" +
+            "C,5,2020-01-02T00:00:00Z,32,-122,0,k,11.5\n" +
+            "C,6,2020-01-03T00:00:00Z,32,-122,0,l,12.5\n" +
+            "C,6,2020-01-03T00:00:00Z,32,-122,10,m,13.5\n",
+            String2.ISO_8859_1);
+
+        int oPartialRequestMaxCells = EDStatic.partialRequestMaxCells;
+        try {
+            for (int tsp = 0; tsp < 2; tsp++) {
+                String id = tsp == 0? "testNcCFChunksTS" : "testNcCFChunksTSP";
+                String cfRoleVar = 
+"    <dataVariable>\n" +
+"        <sourceName>profile</sourceName>\n" +
+"        <destinationName>profile</destinationName>\n" +
+"        <dataType>int</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"cf_role\">profile_id</att>\n" +
+"            <att name=\"ioos_category\">Identifier</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n";
+                String xml = 
+"<dataset type=\"EDDTableFromAsciiFiles\" datasetID=\"" + id + "\" active=\"true\">\n" +
+"    <reloadEveryNMinutes>1440</reloadEveryNMinutes>\n" +
+"    <fileDir>" + dataDir + "</fileDir>\n" +
+"    <fileNameRegex>ncCFChunks\\.csv</fileNameRegex>\n" +
+"    <recursive>false</recursive>\n" +
+"    <metadataFrom>last</metadataFrom>\n" +
+"    <charset>ISO-8859-1</charset>\n" +
+"    <columnSeparator>,</columnSeparator>\n" +
+"    <columnNamesRow>1</columnNamesRow>\n" +
+"    <firstDataRow>2</firstDataRow>\n" +
+"    <addAttributes>\n" +
+"        <att name=\"cdm_data_type\">" + (tsp == 0? "TimeSeries" : "TimeSeriesProfile") + "</att>\n" +
+"        <att name=\"cdm_timeseries_variables\">station, latitude, longitude</att>\n" +
+(tsp == 0? "" : 
+"        <att name=\"cdm_profile_variables\">profile, time</att>\n") +
+"        <att name=\"subsetVariables\">station, latitude, longitude</att>\n" +
+"        <att name=\"Conventions\">COARDS, CF-1.6, ACDD-1.3</att>\n" +
+"        <att name=\"infoUrl\">https://erddap.github.io/</att>\n" +
+"        <att name=\"institution\">NOAA</att>\n" +
+"        <att name=\"license\">[standard]</att>\n" +
+"        <att name=\"summary\">A test of .ncCF and .ncCFMA files made in chunks.</att>\n" +
+"        <att name=\"title\">Test .ncCF Chunks</att>\n" +
+"    </addAttributes>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>station</sourceName>\n" +
+"        <destinationName>station</destinationName>\n" +
+"        <dataType>String</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"cf_role\">timeseries_id</att>\n" +
+"            <att name=\"ioos_category\">Identifier</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+(tsp == 0? "" : cfRoleVar) +
+"    <dataVariable>\n" +
+"        <sourceName>time</sourceName>\n" +
+"        <destinationName>time</destinationName>\n" +
+"        <dataType>String</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Time</att>\n" +
+"            <att name=\"units\">yyyy-MM-dd&#39;T&#39;HH:mm:ss&#39;Z&#39;</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>latitude</sourceName>\n" +
+"        <destinationName>latitude</destinationName>\n" +
+"        <dataType>double</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Location</att>\n" +
+"            <att name=\"units\">degrees_north</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>longitude</sourceName>\n" +
+"        <destinationName>longitude</destinationName>\n" +
+"        <dataType>double</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Location</att>\n" +
+"            <att name=\"units\">degrees_east</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>depth</sourceName>\n" +
+"        <destinationName>depth</destinationName>\n" +
+"        <dataType>double</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Location</att>\n" +
+"            <att name=\"units\">m</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>charVar</sourceName>\n" +
+"        <destinationName>charVar</destinationName>\n" +
+"        <dataType>char</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Unknown</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>floatVar</sourceName>\n" +
+"        <destinationName>floatVar</destinationName>\n" +
+"        <dataType>float</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Unknown</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"</dataset>\n";
+                EDD.deleteCachedDatasetInfo(id);
+                EDDTable eddTable = (EDDTable)oneFromXmlFragment(null, xml);
+                String query = (tsp == 0? "station," : "station,profile,") + 
+                    "time,latitude,longitude,depth,charVar,floatVar";
+                char mv = String2.toIso88591Char(Math2.roundToChar(
+                    eddTable.findDataVariableByDestinationName("charVar").safeDestinationMissingValue()));
+
+                for (int ma = 0; ma < 2; ma++) {
+                    String fileType = ma == 0? ".ncCF" : ".ncCFMA";
+
+                    //all in one chunk
+                    EDStatic.partialRequestMaxCells = oPartialRequestMaxCells;
+                    String tName = eddTable.makeNewFileForDapQuery(null, null, query, dir, 
+                        eddTable.className() + "_" + id + "_whole", fileType); 
+                    String expected = NcHelper.ncdump(dir + tName, "");
+
+                    //in chunks of 3 rows, so features and profiles span chunk boundaries
+                    EDStatic.partialRequestMaxCells = 3;
+                    tName = eddTable.makeNewFileForDapQuery(null, null, query, dir, 
+                        eddTable.className() + "_" + id + "_chunks", fileType); 
+                    String results = NcHelper.ncdump(dir + tName, "");
+                    //ignore the file name and the times in history
+                    String timeRegex = "\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}Z";
+                    Test.ensureEqual(
+                        results.substring(results.indexOf('\n')).replaceAll(timeRegex, "[TIME]"),
+                        expected.substring(expected.indexOf('\n')).replaceAll(timeRegex, "[TIME]"), 
+                        "id=" + id + " fileType=" + fileType);
+
+                    //.ncCFMA charVar[feature][obs] or [feature][profile][obs] is padded with mv
+                    if (ma == 1) {
+                        String p = "" + mv;
+                        expected = tsp == 0?
+                            "abcde" + p + p +   "f" + p + p + p + p + p + p +   "ghijklm" :
+                            "abc" + p +   "de" + p + p +   p + p + p + p +
+                            "f" + p + p + p +   p + p + p + p +   p + p + p + p +
+                            "ghij" +   "k" + p + p + p +   "lm" + p + p;
+                        NetcdfFile nc = NcHelper.openFile(dir + tName);
+                        try {
+                            Array array = nc.findVariable("charVar").read();
+                            StringBuilder sb = new StringBuilder();
+                            IndexIterator it = array.getIndexIterator();
+                            while (it.hasNext())
+                                sb.append(it.getCharNext());
+                            Test.ensureEqual(sb.toString(), expected, "id=" + id);
+                        } finally {
+                            nc.close();
+                        }
+                    }
+                }
+            }
+        } finally {
+            EDStatic.partialRequestMaxCells = oPartialRequestMaxCells;
+        }
+        String2.log("\nEDDTableFromNcFiles.testNcCFChunks passed the test.");
+    }
+
+    /**
+     * This tests that a row group table is ignored (and deleted) if it was made
+     * for different dataVariables, and that it is deleted when its data file
+     * is removed from the fileTable.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testRowGroupTables() throws Throwable {
+        String2.log("\n*** EDDTableFromNcFiles.testRowGroupTables()\n");
+        int oTableRowGroupSize = EDStatic.tableRowGroupSize;
+        EDDTableFromNcFiles eddTable = null;
+        String dataDir = null;
+        String name24 = "NDBC_41024_met.nc";
+        try {
+            EDStatic.tableRowGroupSize = 100;
+            EDD.deleteCachedDatasetInfo("miniNdbc");  //so the constructor reads all the files
+            eddTable = (EDDTableFromNcFiles)oneFromDatasetsXml(null, "miniNdbc"); 
+            dataDir = eddTable.fileDir;
+            String name25 = "NDBC_41025_met.nc";
+            String rgName25 = eddTable.rowGroupFileName(dataDir, name25);
+            String rgName24 = eddTable.rowGroupFileName(dataDir, name24);
+            Test.ensureTrue(File2.isFile(rgName25), "rgName25=" + rgName25);
+            Test.ensureTrue(File2.isFile(rgName24), "rgName24=" + rgName24);
+
+            //an up-to-date row group table is used
+            StringArray conVars   = new StringArray(new String[]{
+                eddTable.dataVariables()[eddTable.timeIndex].sourceName()});
+            StringArray conOps    = new StringArray(new String[]{">="});
+            StringArray conValues = new StringArray(new String[]{"1.4e9"});
+            IntArray ranges = eddTable.rowGroupRanges(dataDir, name25, conVars, conOps, conValues);
+            Test.ensureTrue(ranges != null && ranges.size() > 0, "ranges=" + ranges);
+
+            //a row group table made for different dataVariables is ignored and deleted
+            Table rgTable = new Table();
+            rgTable.readEnhancedFlatNc(rgName25, null);
+            rgTable.globalAttributes().set("sourceDataNames", "station, junk");
+            rgTable.saveAsEnhancedFlatNc(rgName25);
+            Test.ensureEqual(eddTable.rowGroupRanges(dataDir, name25, conVars, conOps, conValues), 
+                null, "");
+            Test.ensureEqual(File2.isFile(rgName25), false, "rgName25=" + rgName25);
+
+            //when a file is removed from the fileTable, its row group table is deleted
+            File2.rename(dataDir, name24, name24 + "2");
+            eddTable.pendingFileEvents = new StringArray(new String[]{dataDir + name24});
+            eddTable.lowUpdate("testRowGroupTables: ", System.currentTimeMillis());
+            Test.ensureEqual(eddTable.getFileTable().nRows(), 3, "");
+            Test.ensureEqual(File2.isFile(rgName24), false, "rgName24=" + rgName24);
+
+        } finally {
+            if (dataDir != null && !File2.isFile(dataDir + name24) && 
+                File2.isFile(dataDir + name24 + "2"))
+                File2.rename(dataDir, name24 + "2", name24);
+            EDStatic.tableRowGroupSize = oTableRowGroupSize;
+            EDD.deleteCachedDatasetInfo("miniNdbc");  
+        }
+        String2.log("\nEDDTableFromNcFiles.testRowGroupTables passed the test.");
+    }
+
     /**
      * This tests the EDDTableFromFiles quickRestart().
      *
@@ -19178,9 +19544,13 @@ expected = "java.io.IOException: HTTP status code=404 java.io.FileNotFoundExcept
                     if (test == 61) testIgor();
                     if (test == 62) testTimeSince19000101();
                     if (test == 63) testHardFlag();
+                    if (test == 64) testEstimateCost();
+                    if (test == 65) testUpdateMaxEvents();
+                    if (test == 66) testNcCFChunks();
 
                     if (test == 67) testNThreads();
                     if (test == 68) testBigRequest(0); //usually, firstTest=0.  very slow -- just run this occasionally
+                    if (test == 69) testRowGroupTables();
 
                     if (test == 70 && doSlowTestsToo) testNThreads2("cwwcNDBCMet", -3, 3);  //nThreads    very slow
                     if (test == 71 && doSlowTestsToo) testCacheFiles(false); //deleteDataFiles?  //requires gtsppBest, very slow, not usually run    
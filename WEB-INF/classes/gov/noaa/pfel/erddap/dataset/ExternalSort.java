@@ -0,0 +1,593 @@
+/*
+ * ExternalSort Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.SimpleException;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * ExternalSort sorts the rows in a (finished) TableWriterAll which may have
+ * more rows than fit in memory (e.g., for orderBy on a 200M row response),
+ * and writes the sorted rows to another TableWriter in chunks.
+ *
+ * <p>The rows are read in runs of runNRows() rows. Each run is sorted in memory
+ * and written to a temporary TableWriterAll (in the same cache directory).
+ * Then the runs are k-way merged (in several passes if there are more than
+ * maxNWays runs).
+ *
+ * <p>For orderByMax, orderByMin, etc., a Reducer (e.g., Table.orderByMax)
+ * is applied to each run and to each chunk of merged rows.
+ * Since the merged rows are sorted, the groups are contiguous, so only the
+ * reduced rows of the last group of a chunk need to be carried to the next chunk.
+ *
+ * <p>The sort is stable and ascending, like Table.ascendingSort
+ * (or Table.ascendingSortIgnoreCase).
+ */
+public class ExternalSort {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** The approximate number of bytes of data in each run (which is sorted in memory). */
+    public static long runNBytes = Math.max(4L * Math2.BytesPerMB, Math2.alwaysOkayMemoryRequest / 4);
+
+    /** The minimum number of rows in each run. */
+    public static int minRunNRows = 1000;
+
+    /** The maximum number of runs which are merged at once. */
+    public static int maxNWays = 64;
+
+    /**
+     * Something which sorts a table by the keys (like ascendingSort) and
+     * then reduces the rows in each group (e.g., Table.orderByMax).
+     * Reducing the reduced rows of a group plus more rows of that group must
+     * be the same as reducing all of the rows of the group.
+     */
+    public interface Reducer {
+        void reduce(Table table) throws Exception;
+    }
+
+    /** Something which receives chunks of sorted rows. */
+    private interface Sink {
+        void write(Table table) throws Throwable;
+    }
+
+    /** This reads one run's rows in chunks. */
+    private static class Cursor {
+        final TableWriterAll run;
+        final int runIndex;
+        final ColumnSpillFile.Reader readers[];
+        final Table table;
+        final int bufferNRows;
+        long nRemaining;
+        int row = 0;
+
+        Cursor(TableWriterAll tRun, int tRunIndex, int tBufferNRows) throws Throwable {
+            run = tRun;
+            runIndex = tRunIndex;
+            bufferNRows = tBufferNRows;
+            nRemaining = run.nRows();
+            table = run.makeEmptyTable();
+            int nColumns = run.nColumns();
+            readers = new ColumnSpillFile.Reader[nColumns];
+            for (int col = 0; col < nColumns; col++)
+                readers[col] = run.columnReader(col);
+        }
+
+        /** This reads the next chunk of rows. It returns false if there are no more rows. */
+        boolean refill() throws Throwable {
+            table.removeAllRows();
+            row = 0;
+            if (nRemaining <= 0)
+                return false;
+            int n = (int)Math.min(bufferNRows, nRemaining);
+            for (int col = 0; col < readers.length; col++)
+                readers[col].read(table.getColumn(col), n);
+            nRemaining -= n;
+            return true;
+        }
+
+        void close() {
+            for (int col = 0; col < readers.length; col++)
+                readers[col].close();
+        }
+    }
+
+    /**
+     * This applies the reducer to chunks of sorted rows and writes the
+     * results to otherTableWriter, holding back the last (perhaps incomplete) group.
+     */
+    private static class GroupSink implements Sink {
+        final Table emptyTable;
+        final int keys[];
+        final Reducer reducer;
+        final int nGroupKeys;
+        final boolean switchMVs;
+        final TableWriter otherTableWriter;
+        Table carry = null;
+        long nRowsWritten = 0;
+
+        GroupSink(Table tEmptyTable, int tKeys[], Reducer tReducer, int tNGroupKeys,
+            boolean tSwitchMVs, TableWriter tOtherTableWriter) {
+            emptyTable = tEmptyTable;
+            keys = tKeys;
+            reducer = tReducer;
+            nGroupKeys = tNGroupKeys;
+            switchMVs = tSwitchMVs;
+            otherTableWriter = tOtherTableWriter;
+        }
+
+        public void write(Table table) throws Throwable {
+            if (reducer == null) {
+                emit(table);
+                return;
+            }
+            if (carry != null) {
+                carry.append(table);
+                table = carry;
+                carry = null;
+            }
+            reducer.reduce(table);
+            int nRows = table.nRows();
+            if (nRows == 0)
+                return;
+
+            //the last group may continue in the next chunk, so hold it back
+            int start = nRows - 1;
+            while (start > 0 && sameGroup(table, start - 1, start))
+                start--;
+            carry = table.subset(start, 1, nRows - 1);
+            table.removeRows(start, nRows);
+            emit(table);
+        }
+
+        boolean sameGroup(Table table, int row1, int row2) {
+            for (int kc = nGroupKeys - 1; kc >= 0; kc--) {
+                if (table.getColumn(keys[kc]).compare(row1, row2) != 0)
+                    return false;
+            }
+            return true;
+        }
+
+        void emit(Table table) throws Throwable {
+            if (table.nRows() == 0)
+                return;
+            if (switchMVs)
+                table.temporarilySwitchNaNToFakeMissingValues(keys);
+            nRowsWritten += table.nRows();
+            otherTableWriter.writeSome(table);
+        }
+
+        void finish() throws Throwable {
+            if (carry != null) {
+                emit(carry);
+                carry = null;
+            }
+            if (nRowsWritten == 0)
+                otherTableWriter.writeAllAndFinish(emptyTable); //as if the whole table were reduced to 0 rows
+            else otherTableWriter.finish();
+        }
+    }
+
+    /**
+     * This returns the number of rows in each run for this twa.
+     *
+     * @param twa a finished TableWriterAll
+     */
+    public static int runNRows(TableWriterAll twa) {
+        int bytesPerRow = Math.max(1, twa.makeEmptyTable().estimatedBytesPerRow());
+        return Math2.narrowToInt(Math.max(minRunNRows,
+            Math.min(Integer.MAX_VALUE / 2, runNBytes / bytesPerRow)));
+    }
+
+    /**
+     * This returns true if twa has too many rows to be sorted in memory,
+     * so it should be sorted with sort().
+     *
+     * @param twa a finished TableWriterAll
+     */
+    public static boolean isNeeded(TableWriterAll twa) {
+        return twa.nRows() > runNRows(twa);
+    }
+
+    /**
+     * This returns true if the orderBy names are all simple column names
+     * (not, e.g., time/1day), so that (if they are columns in the table) 
+     * keyColumns() won't return null and the rows can be sorted with sort().
+     * TableWriters use this to decide whether they can skip
+     * TableWriterAll.ensureColumnFitsInMemory.
+     *
+     * @param orderBy the names of the orderBy columns
+     */
+    public static boolean canSortBy(String orderBy[]) {
+        for (int k = 0; k < orderBy.length; k++)
+            if (orderBy[k].indexOf('/') >= 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * This returns the column numbers of the orderBy columns in twa,
+     * or null if any of them isn't a simple column name (e.g., time/1day,
+     * which Table.orderByX methods round in a temporary column),
+     * in which case the rows must be sorted in memory.
+     *
+     * @param twa a finished TableWriterAll
+     * @param orderBy the names of the orderBy columns
+     */
+    public static int[] keyColumns(TableWriterAll twa, String orderBy[]) {
+        int keys[] = new int[orderBy.length];
+        for (int k = 0; k < orderBy.length; k++) {
+            keys[k] = String2.indexOf(twa.columnNames(), orderBy[k].trim());
+            if (keys[k] < 0)
+                return null;
+        }
+        return keys;
+    }
+
+    /**
+     * This sorts the rows in twa by the keys (ascending),
+     * optionally reduces each group, and writes the results to otherTableWriter
+     * (with writeSome() then finish()).
+     * This doesn't release twa's resources.
+     *
+     * @param twa a finished TableWriterAll with the unsorted rows
+     * @param keys the key column numbers (most to least important). May be length=0.
+     * @param ignoreCase if true, StringArrays are sorted in a case-insensitive way
+     *    (like Table.ascendingSortIgnoreCase)
+     * @param convertMVs if true, missing values in the key columns are converted
+     *    to standard missing values (so they sort consistently, like the
+     *    Table.orderByX methods do) and converted back before the rows are written.
+     * @param reducer if not null, this is applied to each run and to each chunk of
+     *    merged rows (instead of sorting them).
+     * @param nGroupKeys the number of keys which define a group for the reducer
+     *    (e.g., keys.length-1 for orderByMax, keys.length for orderByLimit).
+     * @param otherTableWriter the tableWriter that receives the sorted rows
+     * @throws Throwable if trouble
+     */
+    public static void sort(TableWriterAll twa, int keys[], boolean ignoreCase,
+        boolean convertMVs, Reducer reducer, int nGroupKeys,
+        TableWriter otherTableWriter) throws Throwable {
+
+        long time = System.currentTimeMillis();
+        long nRows = twa.nRows();
+        int runNRows = runNRows(twa);
+        int nColumns = twa.nColumns();
+        ArrayList<TableWriterAll> runs = new ArrayList();
+        ArrayList<TableWriterAll> newRuns = null; //the runs being made by a merge pass
+        int nRunsCreated = 0;
+        boolean someConverted = false;
+        try {
+            //make the sorted runs
+            ColumnSpillFile.Reader readers[] = new ColumnSpillFile.Reader[nColumns];
+            try {
+                for (int col = 0; col < nColumns; col++)
+                    readers[col] = twa.columnReader(col);
+                long nDone = 0;
+                while (nDone < nRows) {
+                    int n = (int)Math.min(runNRows, nRows - nDone);
+                    Table table = twa.makeEmptyTable();
+                    for (int col = 0; col < nColumns; col++)
+                        readers[col].read(table.getColumn(col), n);
+                    nDone += n;
+                    if (convertMVs && table.temporarilyConvertToStandardMissingValues(keys))
+                        someConverted = true;
+                    if (reducer == null)
+                        sort(table, keys, ignoreCase);
+                    else reducer.reduce(table);
+                    if (table.nRows() == 0)
+                        continue;
+                    TableWriterAll run = makeRun(twa, nRunsCreated++);
+                    runs.add(run);
+                    run.writeSome(table);
+                    run.finish();
+                }
+            } finally {
+                for (int col = 0; col < nColumns; col++)
+                    if (readers[col] != null)
+                        readers[col].close();
+            }
+            if (verbose) String2.log("ExternalSort made " + runs.size() +
+                " runs of <=" + runNRows + " rows (nRows=" + nRows + ")");
+
+            //if there are too many runs, merge groups of runs into longer runs
+            while (runs.size() > maxNWays) {
+                newRuns = new ArrayList();
+                for (int i = 0; i < runs.size(); i += maxNWays) {
+                    List<TableWriterAll> someRuns = runs.subList(i, Math.min(runs.size(), i + maxNWays));
+                    if (someRuns.size() == 1) {
+                        newRuns.add(someRuns.get(0));
+                        continue;
+                    }
+                    TableWriterAll run = makeRun(twa, nRunsCreated++);
+                    newRuns.add(run);
+                    merge(someRuns, keys, ignoreCase, runNRows, run::writeSome);
+                    run.finish();
+                    for (TableWriterAll oldRun : someRuns)
+                        oldRun.releaseResources();
+                }
+                runs = newRuns;
+                newRuns = null;
+            }
+
+            //merge the runs and write to otherTableWriter
+            GroupSink groupSink = new GroupSink(twa.makeEmptyTable(), keys, reducer,
+                nGroupKeys, someConverted, otherTableWriter);
+            merge(runs, keys, ignoreCase, runNRows, groupSink);
+            groupSink.finish();
+
+            if (verbose) String2.log("ExternalSort.sort done. nRows=" + nRows +
+                " nRunsCreated=" + nRunsCreated + " nRowsWritten=" + groupSink.nRowsWritten +
+                " TIME=" + (System.currentTimeMillis() - time) + "ms");
+
+        } finally {
+            for (TableWriterAll run : runs)
+                run.releaseResources();
+            if (newRuns != null)
+                for (TableWriterAll run : newRuns)
+                    run.releaseResources();
+        }
+    }
+
+    /** This sorts a table by the keys (ascending). */
+    private static void sort(Table table, int keys[], boolean ignoreCase) {
+        if (keys.length == 0)
+            return;
+        if (ignoreCase)
+            table.ascendingSortIgnoreCase(keys);
+        else table.ascendingSort(keys);
+    }
+
+    /** This makes a TableWriterAll for a run. */
+    private static TableWriterAll makeRun(TableWriterAll twa, int runNumber) {
+        TableWriterAll run = new TableWriterAll(null, null, twa.dir,
+            twa.fileNameNoExt + ".run" + runNumber);
+        run.ensureColumnFitsInMemory = false;
+        return run;
+    }
+
+    /**
+     * This merges the sorted runs (k-way) and writes the merged rows to the sink in chunks.
+     * Rows with equal keys are written in run order, so the sort is stable.
+     */
+    private static void merge(List<TableWriterAll> runs, final int keys[],
+        final boolean ignoreCase, int runNRows, Sink sink) throws Throwable {
+
+        int nRuns = runs.size();
+        if (nRuns == 0)
+            return;
+        int bufferNRows = Math.max(minRunNRows / 10, runNRows / (nRuns + 1));
+        int chunkNRows = bufferNRows;
+
+        Comparator<Cursor> comparator = new Comparator<Cursor>() {
+            public int compare(Cursor c1, Cursor c2) {
+                for (int k = 0; k < keys.length; k++) {
+                    PrimitiveArray pa1 = c1.table.getColumn(keys[k]);
+                    PrimitiveArray pa2 = c2.table.getColumn(keys[k]);
+                    int result = ignoreCase?
+                        pa1.compareIgnoreCase(c1.row, pa2, c2.row) :
+                        pa1.compare(c1.row, pa2, c2.row);
+                    if (result != 0)
+                        return result;
+                }
+                return Integer.compare(c1.runIndex, c2.runIndex);
+            }};
+
+        PriorityQueue<Cursor> queue = new PriorityQueue(nRuns, comparator);
+        ArrayList<Cursor> cursors = new ArrayList();
+        try {
+            for (int i = 0; i < nRuns; i++) {
+                Cursor cursor = new Cursor(runs.get(i), i, bufferNRows);
+                cursors.add(cursor);
+                if (cursor.refill())
+                    queue.add(cursor);
+            }
+
+            int nColumns = runs.get(0).nColumns();
+            Table chunk = runs.get(0).makeEmptyTable();
+            while (!queue.isEmpty()) {
+                Cursor cursor = queue.poll();
+                Cursor next = queue.peek();
+
+                //take this cursor's rows while they sort before the next cursor's row
+                int first = cursor.row;
+                int n = cursor.table.nRows();
+                do {
+                    cursor.row++;
+                } while (cursor.row < n &&
+                    (next == null || comparator.compare(cursor, next) < 0));
+                for (int col = 0; col < nColumns; col++)
+                    chunk.getColumn(col).addFromPA(cursor.table.getColumn(col),
+                        first, cursor.row - first);
+
+                if (chunk.nRows() >= chunkNRows) {
+                    sink.write(chunk);
+                    chunk = runs.get(0).makeEmptyTable();
+                }
+                if (cursor.row < n || cursor.refill())
+                    queue.add(cursor);
+            }
+            if (chunk.nRows() > 0)
+                sink.write(chunk);
+        } finally {
+            for (Cursor cursor : cursors)
+                cursor.close();
+        }
+    }
+
+    /**
+     * This makes a TableWriterAll with the test table (which has
+     * several times minRunNRows rows).
+     */
+    private static TableWriterAll makeTestTwa(String dir, Table table) throws Throwable {
+        TableWriterAll twa = new TableWriterAll(null, null, dir, "ExternalSortTest");
+        int nRows = table.nRows();
+        for (int row = 0; row < nRows; row += 777)
+            twa.writeSome(table.subset(row, 1, Math.min(nRows, row + 777) - 1));
+        twa.finish();
+        return twa;
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** ExternalSort.basicTest");
+        String dir = File2.getSystemTempDirectory();
+        long oRunNBytes = runNBytes;
+        int oMaxNWays = maxNWays;
+        try {
+            //tiny runs (minRunNRows rows) and 3-way merges, so there are several passes
+            runNBytes = 1;
+            maxNWays = 3;
+
+            int nRows = 10 * minRunNRows + 17;
+            StringArray station = new StringArray();
+            IntArray time = new IntArray();
+            IntArray row = new IntArray();
+            for (int i = 0; i < nRows; i++) {
+                station.add((i % 7 == 0? "S" : "s") + (i % 13));
+                time.add(i % 100 == 0? Integer.MAX_VALUE : (i * 7919) % 1000); //with mv's
+                row.add(i);
+            }
+            Table table = new Table();
+            table.addColumn("station", station);
+            table.addColumn("time", time);
+            table.addColumn("row", row);
+            time.setMaxIsMV(true);
+
+            //orderBy: same as the stable in-memory sort
+            TableWriterAll twa = makeTestTwa(dir, table);
+            Test.ensureTrue(isNeeded(twa), "");
+            TableWriterAll results = new TableWriterAll(null, null, dir, "ExternalSortResults");
+            sort(twa, new int[]{0, 1}, false, false, null, 0, results);
+            Table expected = (Table)table.clone();
+            expected.ascendingSort(new int[]{0, 1});
+            Test.ensureEqual(results.cumulativeTable().dataToString(), expected.dataToString(), "");
+            twa.releaseResources();
+            results.releaseResources();
+
+            //distinct (case-insensitive), with lots of duplicates
+            Table dupTable = (Table)table.clone();
+            dupTable.removeColumn(2);
+            twa = makeTestTwa(dir, dupTable);
+            results = new TableWriterAll(null, null, dir, "ExternalSortResults");
+            sort(twa, new int[]{0, 1}, true, false,
+                t -> {t.leftToRightSortIgnoreCase(t.nColumns()); t.removeDuplicates();},
+                2, results);
+            expected = (Table)dupTable.clone();
+            expected.leftToRightSortIgnoreCase(2);
+            expected.removeDuplicates();
+            Test.ensureEqual(results.cumulativeTable().dataToString(), expected.dataToString(), "");
+            twa.releaseResources();
+            results.releaseResources();
+
+            //orderByMax, orderByMin, orderByLimit (groups span runs and chunks)
+            for (int which = 0; which < 3; which++) {
+                final int keys[] = {0, 1};
+                Reducer reducer =
+                    which == 0? t -> t.orderByMax(keys) :
+                    which == 1? t -> t.orderByMin(keys) :
+                                t -> t.orderByLimit(new int[]{0}, 3);
+                twa = makeTestTwa(dir, table);
+                results = new TableWriterAll(null, null, dir, "ExternalSortResults");
+                sort(twa, which == 2? new int[]{0} : keys, false, true, reducer,
+                    1, results);
+                expected = (Table)table.clone();
+                reducer.reduce(expected);
+                Test.ensureEqual(results.cumulativeTable().dataToString(),
+                    expected.dataToString(), "which=" + which);
+                twa.releaseResources();
+                results.releaseResources();
+            }
+
+            //if the sort fails, the runs' files are deleted
+            final int nReduceCalls[] = {0};
+            twa = makeTestTwa(dir, table);
+            results = new TableWriterAll(null, null, dir, "ExternalSortResults");
+            try {
+                sort(twa, new int[]{0}, false, false,
+                    t -> {if (++nReduceCalls[0] > 11) throw new Exception("test failure");
+                          t.orderByLimit(new int[]{0}, 3);}, //11 runs, then fail while merging
+                    1, results);
+                throw new SimpleException("Shouldn't get here.");
+            } catch (Exception e) {
+                Test.ensureEqual(e.getMessage(), "test failure", "");
+            }
+            twa.releaseResources();
+            results.releaseResources();
+            String runFiles[] = new File(dir).list();
+            for (int i = 0; i < runFiles.length; i++)
+                Test.ensureTrue(!runFiles[i].startsWith("ExternalSortTest.run"), runFiles[i]);
+
+            //canSortBy
+            Test.ensureTrue( canSortBy(new String[]{"station", "time"}), "");
+            Test.ensureTrue(!canSortBy(new String[]{"station", "time/1day"}), "");
+        } finally {
+            runNBytes = oRunNBytes;
+            maxNWays = oMaxNWays;
+        }
+        String2.log("ExternalSort.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ ExternalSort.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,599 @@
+/*
+ * GridChunkCache Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.ByteArray;
+import com.cohort.array.CharArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.array.UByteArray;
+import com.cohort.array.UIntArray;
+import com.cohort.array.ULongArray;
+import com.cohort.array.UShortArray;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * GridChunkCache is a server-wide, byte-budgeted, least-recently-used cache
+ * of the decoded data values (PrimitiveArrays) that EDDGridFromFiles datasets
+ * read from their data files, so that popular chunks of popular files
+ * (e.g., the most recent time point) don't have to be reread and decoded
+ * for every request.
+ *
+ * <p>An entry is identified by the datasetID, the data file's name and
+ * lastModified time, the variable's sourceName, and the constraints
+ * (see key()). Since the lastModified time is part of the key,
+ * a changed file is never served from the cache.
+ * Entries for a file are also removed (see invalidate()) when the
+ * dataset's update() or reload notices that the file has changed or been deleted.
+ *
+ * <p>For chunked (e.g., NetCDF-4 and HDF5) files, EDDGridFromFiles reads
+ * chunk-aligned blocks (see chunkAlignedConstraints()), so the library decompresses
+ * each chunk once, and consecutive partial requests (e.g., the next time point)
+ * get their values from the cached block (see subsetOfBlock()).
+ *
+ * <p>The values are stored off-heap (in direct ByteBuffers),
+ * so the cache doesn't enlarge the Java heap or slow down garbage collection.
+ * (The JVM's -XX:MaxDirectMemorySize must be larger than the cache's maxBytes.)
+ * String values aren't cached.
+ * get() always returns a new PrimitiveArray, so callers may modify it.
+ *
+ * <p>This is thread safe.
+ */
+public class GridChunkCache {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** One cached PrimitiveArray. */
+    private static class Entry {
+        final String fullName; //the data file
+        final PAType paType;
+        final boolean maxIsMV;
+        final int size;
+        final ByteBuffer buffer; //direct. Never changed after put(), so use duplicate() to read it.
+
+        Entry(String tFullName, PAType tPAType, boolean tMaxIsMV, int tSize, ByteBuffer tBuffer) {
+            fullName = tFullName;
+            paType = tPAType;
+            maxIsMV = tMaxIsMV;
+            size = tSize;
+            buffer = tBuffer;
+        }
+    }
+
+    /** key -&gt; Entry, in access order (least recently used first). */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap(1024, 0.75f, true);
+    private long maxBytes;
+    private long totalBytes = 0;
+    private long nHits = 0, nMisses = 0, nEvicted = 0, nInvalidated = 0, nTooBig = 0;
+
+    /**
+     * The constructor.
+     *
+     * @param tMaxBytes the maximum number of bytes of data values in the cache.
+     *   0 turns off the cache.
+     */
+    public GridChunkCache(long tMaxBytes) {
+        maxBytes = Math.max(0, tMaxBytes);
+    }
+
+    /**
+     * This makes the key for a chunk.
+     *
+     * @param datasetID the dataset's datasetID
+     *   (different datasets may read the same file differently, e.g., unpacked)
+     * @param fullName the full name of the (decompressed) data file
+     * @param lastModified the file's lastModified time (millis)
+     * @param sourceName the variable's sourceName
+     * @param constraints the start, stride, stop for each axis variable
+     *   in the file, as passed to lowGetSourceDataFromFile
+     * @return the key
+     */
+    public static String key(String datasetID, String fullName, long lastModified,
+        String sourceName, IntArray constraints) {
+        return datasetID + "\n" + fullName + "\n" + lastModified + "\n" +
+            sourceName + "\n" + constraints.toString();
+    }
+
+    /** This returns the maximum number of bytes of data values in the cache (0 if it is off). */
+    public long maxBytes() {
+        synchronized (index) {
+            return maxBytes;
+        }
+    }
+
+    /** This indicates if the cache is turned on (maxBytes &gt; 0). */
+    public boolean isActive() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * This changes the maximum number of bytes in the cache
+     * (e.g., from &lt;gridChunkCacheMaxMB&gt; in datasets.xml) and evicts entries if needed.
+     *
+     * @param tMaxBytes 0 turns off the cache (and removes all entries)
+     */
+    public void setMaxBytes(long tMaxBytes) {
+        synchronized (index) {
+            maxBytes = Math.max(0, tMaxBytes);
+            evict();
+        }
+    }
+
+    /**
+     * This gets a copy of a cached PrimitiveArray.
+     *
+     * @param key from key()
+     * @return a new PrimitiveArray with the values, or null if the key isn't in the cache.
+     */
+    public PrimitiveArray get(String key) {
+        Entry entry;
+        synchronized (index) {
+            if (maxBytes <= 0)
+                return null;
+            entry = index.get(key); //makes it the most recently used
+            if (entry == null) {
+                nMisses++;
+                return null;
+            }
+            nHits++;
+        }
+
+        //decode outside of the lock
+        ByteBuffer bb = entry.buffer.duplicate().order(ByteOrder.nativeOrder());
+        int n = entry.size;
+        Object ar;
+        switch (entry.paType) {
+            case BYTE:  case UBYTE:  {byte   a[] = new byte[n];   bb.get(a);                 ar = a; break;}
+            case SHORT: case USHORT: {short  a[] = new short[n];  bb.asShortBuffer().get(a); ar = a; break;}
+            case CHAR:               {char   a[] = new char[n];   bb.asCharBuffer().get(a);  ar = a; break;}
+            case INT:   case UINT:   {int    a[] = new int[n];    bb.asIntBuffer().get(a);   ar = a; break;}
+            case LONG:  case ULONG:  {long   a[] = new long[n];   bb.asLongBuffer().get(a);  ar = a; break;}
+            case FLOAT:              {float  a[] = new float[n];  bb.asFloatBuffer().get(a); ar = a; break;}
+            case DOUBLE:             {double a[] = new double[n]; bb.asDoubleBuffer().get(a); ar = a; break;}
+            default: throw new RuntimeException(String2.ERROR +
+                " in GridChunkCache.get: unexpected paType=" + entry.paType);
+        }
+        PrimitiveArray pa = PrimitiveArray.factory(ar, entry.paType.toString().startsWith("U"));
+        if (entry.maxIsMV)
+            pa.setMaxIsMV(true);
+        return pa;
+    }
+
+    /**
+     * This puts a copy of a PrimitiveArray in the cache.
+     * StringArrays and PrimitiveArrays that are too big
+     * (more than 1/4 of maxBytes) aren't cached.
+     *
+     * @param key from key()
+     * @param fullName the name of the data file, as used by invalidate()
+     * @param pa the PrimitiveArray (it isn't changed)
+     * @return true if it was cached
+     */
+    public boolean put(String key, String fullName, PrimitiveArray pa) {
+        PAType paType = pa.elementType();
+        if (maxBytes <= 0 || paType == PAType.STRING)
+            return false;
+        int n = pa.size();
+        long nBytes = (long)n * pa.elementSize();
+        if (nBytes > maxBytes / 4) {
+            synchronized (index) {
+                nTooBig++;
+            }
+            return false;
+        }
+
+        //encode outside of the lock
+        ByteBuffer bb = ByteBuffer.allocateDirect((int)nBytes).order(ByteOrder.nativeOrder());
+        switch (paType) {
+            case BYTE:   bb.put(((ByteArray)pa).array, 0, n); break;
+            case UBYTE:  bb.put(((UByteArray)pa).array, 0, n); break;
+            case SHORT:  bb.asShortBuffer().put(((ShortArray)pa).array, 0, n); break;
+            case USHORT: bb.asShortBuffer().put(((UShortArray)pa).array, 0, n); break;
+            case CHAR:   bb.asCharBuffer().put(((CharArray)pa).array, 0, n); break;
+            case INT:    bb.asIntBuffer().put(((IntArray)pa).array, 0, n); break;
+            case UINT:   bb.asIntBuffer().put(((UIntArray)pa).array, 0, n); break;
+            case LONG:   bb.asLongBuffer().put(((LongArray)pa).array, 0, n); break;
+            case ULONG:  bb.asLongBuffer().put(((ULongArray)pa).array, 0, n); break;
+            case FLOAT:  bb.asFloatBuffer().put(((FloatArray)pa).array, 0, n); break;
+            case DOUBLE: bb.asDoubleBuffer().put(((DoubleArray)pa).array, 0, n); break;
+            default: return false;
+        }
+        bb.clear(); //position=0
+        Entry entry = new Entry(fullName, paType, pa.getMaxIsMV(), n, bb);
+
+        synchronized (index) {
+            if (maxBytes <= 0)
+                return false;
+            Entry old = index.put(key, entry);
+            if (old != null)
+                totalBytes -= old.buffer.capacity();
+            totalBytes += nBytes;
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * While the cache is over budget, this removes the least recently used entries.
+     * The caller must be synchronized on index.
+     */
+    private void evict() {
+        if (totalBytes <= maxBytes)
+            return;
+        Iterator<Entry> it = index.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next();
+            totalBytes -= entry.buffer.capacity();
+            it.remove();
+            nEvicted++;
+        }
+    }
+
+    /**
+     * This removes all of the entries for a data file,
+     * e.g., because the file has changed or been deleted.
+     *
+     * @param fullName the name of the data file
+     * @return the number of entries removed
+     */
+    public int invalidate(String fullName) {
+        int n = 0;
+        synchronized (index) {
+            Iterator<Entry> it = index.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.fullName.equals(fullName)) {
+                    totalBytes -= entry.buffer.capacity();
+                    it.remove();
+                    n++;
+                }
+            }
+            nInvalidated += n;
+        }
+        if (verbose && n > 0) String2.log("GridChunkCache invalidated " + n + " entries for " + fullName);
+        return n;
+    }
+
+    /** This returns the number of entries in the cache. */
+    public int size() {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+
+    /** This returns the total number of bytes of data values in the cache. */
+    public long totalBytes() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * This parses one variable's chunk shape from a fileTable chunkShapes value
+     * (see EDDGridFromFiles.chunkShapesString).
+     *
+     * @param chunkShapes for each dataVariable, e.g., "1,64,64" (or "" if unknown), separated by ';'
+     * @param dvi the dataVariable's index
+     * @return the chunk shape, or null if unknown or invalid
+     */
+    public static int[] parseChunkShape(String chunkShapes, int dvi) {
+        if (!String2.isSomething(chunkShapes))
+            return null;
+        String parts[] = String2.split(chunkShapes, ';');
+        if (dvi < 0 || dvi >= parts.length || parts[dvi].length() == 0)
+            return null;
+        int shape[] = String2.csvToIntArray(parts[dvi]);
+        for (int i = 0; i < shape.length; i++)
+            if (shape[i] < 1 || shape[i] == Integer.MAX_VALUE)
+                return null;
+        return shape;
+    }
+
+    /**
+     * This returns the chunk-aligned version of a read's constraints:
+     * along each axis where the read doesn't start and end on chunk boundaries
+     * and the stride is less than the chunk size (so the chunks are shared
+     * with neighboring reads), the read is widened to whole chunks (with stride=1).
+     * Other axes are unchanged.
+     *
+     * @param constraints the start, stride, stop for each of the file's axes
+     * @param chunkShape the variable's chunk shape in the file (may be null)
+     * @param axisSizes the size of each of the file's axes
+     * @return the aligned constraints, or null if they would be the same as constraints
+     *   (or chunkShape is null or doesn't match)
+     */
+    public static IntArray chunkAlignedConstraints(IntArray constraints, int chunkShape[], int axisSizes[]) {
+        int nAxes = constraints.size() / 3;
+        if (chunkShape == null || chunkShape.length != nAxes || axisSizes.length != nAxes)
+            return null;
+        IntArray aligned = null;
+        for (int a = 0; a < nAxes; a++) {
+            int start  = constraints.get(a * 3);
+            int stride = constraints.get(a * 3 + 1);
+            int stop   = constraints.get(a * 3 + 2);
+            int c = chunkShape[a];
+            if (c <= 1 || stride >= c)
+                continue;
+            int aStart = (start / c) * c;
+            int aStop = Math.min(axisSizes[a] - 1, (stop / c) * c + c - 1);
+            if (aStart == start && aStop == stop && stride == 1)
+                continue;
+            if (aligned == null)
+                aligned = (IntArray)constraints.clone();
+            aligned.set(a * 3,     aStart);
+            aligned.set(a * 3 + 1, 1);
+            aligned.set(a * 3 + 2, aStop);
+        }
+        return aligned;
+    }
+
+    /**
+     * This returns the number of values in a read with these constraints.
+     *
+     * @param constraints the start, stride, stop for each axis
+     * @return the number of values (a long, so it won't overflow)
+     */
+    public static long nValues(IntArray constraints) {
+        long n = 1;
+        for (int a = 0; a < constraints.size() / 3; a++)
+            n *= (constraints.get(a * 3 + 2) - constraints.get(a * 3)) / constraints.get(a * 3 + 1) + 1;
+        return n;
+    }
+
+    /**
+     * This extracts the values for the requested constraints from
+     * the values of a (row-major) block that was read with blockConstraints.
+     *
+     * @param block the block's values. This is changed and returned.
+     * @param blockConstraints the start, stride, stop for each axis of the block,
+     *   e.g., from chunkAlignedConstraints
+     * @param constraints the requested start, stride, stop for each axis,
+     *   which must be within the block and fall on its strides.
+     * @return block (modified to hold just the requested values)
+     */
+    public static PrimitiveArray subsetOfBlock(PrimitiveArray block, IntArray blockConstraints,
+        IntArray constraints) {
+        int nAxes = constraints.size() / 3;
+        int shape[]  = new int[nAxes];
+        int first[]  = new int[nAxes];
+        int stride[] = new int[nAxes];
+        int last[]   = new int[nAxes];
+        for (int a = 0; a < nAxes; a++) {
+            int bStart  = blockConstraints.get(a * 3);
+            int bStride = blockConstraints.get(a * 3 + 1);
+            shape[a]  = (blockConstraints.get(a * 3 + 2) - bStart) / bStride + 1;
+            first[a]  = (constraints.get(a * 3)     - bStart) / bStride;
+            stride[a] =  constraints.get(a * 3 + 1) / bStride;
+            last[a]   = (constraints.get(a * 3 + 2) - bStart) / bStride;
+        }
+        if (block.size() != nValues(blockConstraints))
+            throw new RuntimeException(String2.ERROR + " in GridChunkCache.subsetOfBlock: block.size=" +
+                block.size() + " != nValues(blockConstraints)=" + nValues(blockConstraints));
+
+        //walk through the requested values (the rightmost axis varies fastest)
+        BitSet keep = new BitSet(block.size());
+        int current[] = first.clone();
+        while (true) {
+            int index = 0;
+            for (int a = 0; a < nAxes; a++)
+                index = index * shape[a] + current[a];
+            keep.set(index);
+
+            int a = nAxes - 1;
+            while (a >= 0) {
+                current[a] += stride[a];
+                if (current[a] <= last[a])
+                    break;
+                current[a] = first[a];
+                a--;
+            }
+            if (a < 0)
+                break;
+        }
+        block.justKeep(keep);
+        return block;
+    }
+
+    /** This removes all entries from the cache and resets the counts. */
+    public void clear() {
+        synchronized (index) {
+            index.clear();
+            totalBytes = 0;
+            nHits = 0;
+            nMisses = 0;
+            nEvicted = 0;
+            nInvalidated = 0;
+            nTooBig = 0;
+        }
+    }
+
+    /**
+     * This returns a string with statistics for the status page, e.g.,
+     * "GridChunkCache: nChunks=12, nMB=34 (of 256), nHits=56, nMisses=12, hitRate=82%, nEvicted=0, nInvalidated=3, nTooBig=0".
+     */
+    public String statistics() {
+        synchronized (index) {
+            long total = nHits + nMisses;
+            return "GridChunkCache: nChunks=" + index.size() +
+                ", nMB=" + (totalBytes / Math2.BytesPerMB) +
+                " (of " + (maxBytes / Math2.BytesPerMB) + ")" +
+                ", nHits=" + nHits + ", nMisses=" + nMisses +
+                ", hitRate=" + (total == 0? "NaN" : (Math2.roundToLong(nHits * 100.0 / total) + "%")) +
+                ", nEvicted=" + nEvicted + ", nInvalidated=" + nInvalidated +
+                ", nTooBig=" + nTooBig;
+        }
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** GridChunkCache.basicTest");
+        GridChunkCache cache = new GridChunkCache(4000);
+        IntArray con = new IntArray(new int[]{0, 1, 9, 0, 2, 10});
+        String k1 = key("myID", "/data/a.nc", 1000, "sst", con);
+        Test.ensureEqual(k1, "myID\n/data/a.nc\n1000\nsst\n0, 1, 9, 0, 2, 10", "");
+        Test.ensureTrue(!k1.equals(key("myID", "/data/a.nc", 1001, "sst", con)), "");
+
+        //round trip each type (with maxIsMV)
+        PrimitiveArray pas[] = {
+            new ByteArray(new byte[]{-1, 0, 127}),
+            new UByteArray(new byte[]{-1, 0, 127}),
+            new ShortArray(new short[]{-1, 0, 32767}),
+            new UShortArray(new short[]{-1, 0, 32767}),
+            new CharArray(new char[]{'a', '\uffff', 'z'}),
+            new IntArray(new int[]{-1, 0, Integer.MAX_VALUE}),
+            new UIntArray(new int[]{-1, 0, Integer.MAX_VALUE}),
+            new LongArray(new long[]{-1, 0, Long.MAX_VALUE}),
+            new ULongArray(new long[]{-1, 0, Long.MAX_VALUE}),
+            new FloatArray(new float[]{-1.5f, Float.NaN, 3e38f}),
+            new DoubleArray(new double[]{-1.5, Double.NaN, 1e300})};
+        pas[5].setMaxIsMV(true);
+        for (int i = 0; i < pas.length; i++) {
+            String k = key("myID", "/data/a.nc", 1000, "var" + i, con);
+            Test.ensureEqual(cache.get(k), null, "");
+            Test.ensureTrue(cache.put(k, "/data/a.nc", pas[i]), "");
+            PrimitiveArray pa = cache.get(k);
+            Test.ensureEqual(pa.elementType(), pas[i].elementType(), "i=" + i);
+            Test.ensureEqual(pa.toString(), pas[i].toString(), "i=" + i);
+            Test.ensureEqual(pa.getMaxIsMV(), pas[i].getMaxIsMV(), "i=" + i);
+            Test.ensureTrue(pa != pas[i], ""); //a copy
+        }
+        Test.ensureEqual(cache.size(), pas.length, "");
+        Test.ensureEqual(cache.totalBytes(), 3 * (1+1+2+2+2+4+4+8+8+4+8), "");
+
+        //the returned copy may be changed
+        DoubleArray da = (DoubleArray)cache.get(key("myID", "/data/a.nc", 1000, "var10", con));
+        da.set(0, 99);
+        Test.ensureEqual(cache.get(key("myID", "/data/a.nc", 1000, "var10", con)).getDouble(0), -1.5, "");
+
+        //Strings and too big arrays aren't cached
+        Test.ensureEqual(cache.put("s", "/data/a.nc", new StringArray(new String[]{"a"})), false, "");
+        Test.ensureEqual(cache.put("big", "/data/a.nc", new DoubleArray(new double[200])), false, "");
+        Test.ensureEqual(cache.get("s"), null, "");
+
+        //invalidate
+        String kb = key("myID", "/data/b.nc", 1000, "sst", con);
+        cache.put(kb, "/data/b.nc", new IntArray(new int[]{1, 2, 3}));
+        Test.ensureEqual(cache.invalidate("/data/a.nc"), pas.length, "");
+        Test.ensureEqual(cache.size(), 1, "");
+        Test.ensureEqual(cache.totalBytes(), 12, "");
+        Test.ensureEqual(cache.get(kb).toString(), "1, 2, 3", "");
+
+        //eviction of the least recently used
+        cache.clear();
+        for (int i = 0; i < 10; i++) //10 * 800 bytes, so only 5 fit
+            cache.put("k" + i, "/data/c.nc", new DoubleArray(new double[100]));
+        Test.ensureEqual(cache.size(), 5, "");
+        Test.ensureEqual(cache.totalBytes(), 4000, "");
+        Test.ensureEqual(cache.get("k4"), null, "");
+        Test.ensureTrue(cache.get("k5") != null, "");
+        cache.put("k10", "/data/c.nc", new DoubleArray(new double[100])); //evicts k6 (k5 was just used)
+        Test.ensureTrue(cache.get("k5") != null, "");
+        Test.ensureEqual(cache.get("k6"), null, "");
+        String stats = cache.statistics();
+        Test.ensureTrue(stats.startsWith("GridChunkCache: nChunks=5, nMB=0 (of 0), nHits=2, nMisses=2, hitRate=50%, nEvicted=6"), stats);
+
+        //turn it off
+        cache.setMaxBytes(0);
+        Test.ensureEqual(cache.isActive(), false, "");
+        Test.ensureEqual(cache.size(), 0, "");
+        Test.ensureEqual(cache.put("k0", "/data/c.nc", new DoubleArray(new double[1])), false, "");
+        Test.ensureEqual(cache.get("k0"), null, "");
+
+        //parseChunkShape
+        Test.ensureEqual(String2.toCSSVString(parseChunkShape("1,64,64;;8,1,2", 0)), "1, 64, 64", "");
+        Test.ensureEqual(parseChunkShape("1,64,64;;8,1,2", 1), null, "");
+        Test.ensureEqual(String2.toCSSVString(parseChunkShape("1,64,64;;8,1,2", 2)), "8, 1, 2", "");
+        Test.ensureEqual(parseChunkShape("1,64,64;;8,1,2", 3), null, "");
+        Test.ensureEqual(parseChunkShape("1,a,64", 0), null, "");
+        Test.ensureEqual(parseChunkShape("", 0), null, "");
+
+        //chunkAlignedConstraints   time[10] with chunks of 4, lat[7] with chunks of 3, lon[100] not chunked
+        int chunkShape[] = {4, 3, 1};
+        int axisSizes[] = {10, 7, 100};
+        IntArray aligned = chunkAlignedConstraints(new IntArray(new int[]{5,1,5, 4,1,4, 0,1,99}), chunkShape, axisSizes);
+        Test.ensureEqual(aligned.toString(), "4, 1, 7, 3, 1, 5, 0, 1, 99", "");
+        aligned = chunkAlignedConstraints(new IntArray(new int[]{9,1,9, 6,1,6, 3,2,9}), chunkShape, axisSizes);
+        Test.ensureEqual(aligned.toString(), "8, 1, 9, 6, 1, 6, 3, 2, 9", ""); //clipped at end of axis
+        aligned = chunkAlignedConstraints(new IntArray(new int[]{0,4,8, 0,1,5, 0,1,99}), chunkShape, axisSizes);
+        Test.ensureEqual(aligned, null, ""); //already aligned, and stride >= chunk size
+        Test.ensureEqual(chunkAlignedConstraints(new IntArray(new int[]{5,1,5}), chunkShape, axisSizes), null, "");
+        Test.ensureEqual(chunkAlignedConstraints(new IntArray(new int[]{5,1,5, 4,1,4, 0,1,99}), null, axisSizes), null, "");
+
+        //subsetOfBlock
+        IntArray blockCon = new IntArray(new int[]{4,1,7, 3,1,5, 0,2,4}); //4 x 3 x 3
+        Test.ensureEqual(nValues(blockCon), 36, "");
+        IntArray block = new IntArray(0, 35);
+        Test.ensureEqual(subsetOfBlock((IntArray)block.clone(), blockCon,
+            new IntArray(new int[]{5,1,5, 4,1,4, 0,2,4})).toString(), "12, 13, 14", "");
+        Test.ensureEqual(subsetOfBlock((IntArray)block.clone(), blockCon,
+            new IntArray(new int[]{4,3,7, 3,2,5, 2,2,4})).toString(), "1, 2, 7, 8, 28, 29, 34, 35", "");
+        Test.ensureEqual(subsetOfBlock((IntArray)block.clone(), blockCon, blockCon).toString(), 
+            block.toString(), "");
+
+        String2.log("GridChunkCache.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ GridChunkCache.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -24,14 +24,15 @@ import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 import gov.noaa.pfel.erddap.variable.EDVGridAxis;
 
+import java.io.DataOutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
  
 
@@ -101,9 +102,9 @@ public class GridDataAccessor {
     protected long totalNBytes;
     protected int nThreads; //constructor will set to be a valid number
     protected int chunk = 0; //the next chunk to be gotten by getChunk
-    protected int task = 0; //the number of the next task to be submitted to ExecutorService
+    protected int task = 0; //the number of the next task to be submitted to threadPool
     protected ArrayList<FutureTask> futureTasks = new ArrayList();
-    protected ExecutorService executorService;
+    protected ThreadPoolExecutor threadPool; //the shared EDStatic.gridThreadPool(), or null if nThreads=1
 
     protected Table tDirTable, tFileTable; //null, unless eddGrid is EDDGridFromFiles
 
@@ -579,8 +580,10 @@ public class GridDataAccessor {
             //If first call to getChunk, actually start getting actual data.
             //Don't do this in constructor because some users of GridDataAccessor
             //  just want to check request sizes and that no errors in request.
-            if (executorService == null && nThreads > 1) {
-                executorService = Executors.newFixedThreadPool(Math.max(1, nThreads-1));
+            //With nThreads>1, nThreads-1 chunks are prefetched (queued in the
+            //  server-wide gridThreadPool) ahead of the chunk currently being written.
+            if (threadPool == null && nThreads > 1) {
+                threadPool = EDStatic.gridThreadPool();
                 for (int thread = 1; thread < nThreads; thread++) //yes, 1, so nThreads-1
                     startAnotherTask();
                 //String2.pressEnterToContinue("\nstackTrace=\n" + MustBe.stackTrace() + 
@@ -595,15 +598,15 @@ public class GridDataAccessor {
                     "at chunk=" + chunk + " driverIndex.current=" + String2.toCSSVString(driverIndex.getCurrent()));
             //Put null that position in futureTasks so it can be gc'd after this method
             FutureTask futureTask = futureTasks.set(chunk, null);                
+            //If the pool hasn't started this task yet (all threads are busy), 
+            //  this thread does the work itself (else run() does nothing).
+            futureTask.run();
             tPartialDataValues = (PrimitiveArray[])(futureTask.get());   //blocks until done, throws ExecutionException
 
         } catch (Throwable t) {
             //throwable while getting a chunk
-            //shut everything down
-            if (executorService != null) {
-                try {executorService.shutdownNow();} catch (Exception e) {}
-                executorService = null;
-            }
+            //cancel this request's other tasks (the shared pool keeps running)
+            cancelPendingTasks();
             futureTasks = null;
 
             while (t instanceof ExecutionException) //may be doubly wrapped
@@ -638,7 +641,7 @@ public class GridDataAccessor {
     /** 
      * This increments the driver index (so done in calling thead),
      * creates another FutureTask (or null) from a new GetChunkCallable,
-     * adds it (or null) to futureTasks and executorService (if active).
+     * adds it (or null) to futureTasks and threadPool (if active).
      * If beyond end of driveIndex, this doesn't create a futureTask.
      *
      */ 
@@ -647,13 +650,31 @@ public class GridDataAccessor {
         if (tb) {
             FutureTask futureTask = new FutureTask(new GetChunkCallable(task, this));  
             futureTasks.add(futureTask);
-            if (executorService == null)   //just this thread
+            if (threadPool == null)   //just this thread
                  futureTask.run();
-            else executorService.submit(futureTask);
+            else threadPool.execute(futureTask);
             task++;
-        } else {
-            if (executorService != null) {
-                try {executorService.shutdown();} catch (Exception e) {} //it's done
+        }
+    }
+
+    /**
+     * This cancels this request's tasks which haven't finished 
+     * and removes them from the shared threadPool's queue.
+     * Other requests' tasks are unaffected.
+     */
+    protected void cancelPendingTasks() {
+        ArrayList<FutureTask> tFutureTasks = futureTasks;
+        if (tFutureTasks == null)
+            return;
+        for (int i = chunk; i < tFutureTasks.size(); i++) {
+            FutureTask futureTask = tFutureTasks.get(i);
+            if (futureTask == null || futureTask.isDone())
+                continue;
+            try {
+                futureTask.cancel(true);
+                if (threadPool != null)
+                    threadPool.remove(futureTask);
+            } catch (Throwable t) {
             }
         }
     }
@@ -721,9 +742,19 @@ class GetChunkCallable implements Callable {
             }
 
             //get the data
+            //If there is a per-dataset limit, wait for a permit, so only that many
+            //  chunk reads (from all requests) hit this dataset's source at once.
             PrimitiveArray partialResults[] = null;
-            partialResults = gda.eddGrid.getSourceData(gda.tDirTable, gda.tFileTable, 
-                gda.dataVariables, partialConstraints);
+            Semaphore semaphore = EDStatic.gridChunkReadSemaphore(gda.eddGrid.datasetID());
+            if (semaphore != null)
+                semaphore.acquire();  //throws InterruptedException
+            try {
+                partialResults = gda.eddGrid.getSourceData(gda.tDirTable, gda.tFileTable, 
+                    gda.dataVariables, partialConstraints);
+            } finally {
+                if (semaphore != null)
+                    semaphore.release();
+            }
 
             //there is similar code in GridDataAccessor and Table.decodeCharsAndStrings()
             for (int dv = 0; dv < gda.dataVariables.length; dv++) {
@@ -906,6 +937,21 @@ class GetChunkCallable implements Callable {
         partialDataValues[dv].writeToRAF(raf, (int)partialIndex.getIndex());
     }
 
+    /**
+     * Call this after increment() to write the current data value 
+     * to a DataOutputStream (in the same format as writeToRAF).
+     * This is much faster than writeToRAF when writing all of the values
+     * in order, since the DataOutputStream can be buffered.
+     * This doesn't work for Strings.
+     *
+     * @param dv a dataVariable number in the query
+     * @param dos the DataOutputStream
+     * @throws Exception if trouble
+     */
+    public void writeToDOS(int dv, DataOutputStream dos) throws Exception {
+        partialDataValues[dv].writeDos(dos, (int)partialIndex.getIndex());
+    }
+
     /**
      * Call this after increment() to write the current data value 
      * to a Random Access File.
@@ -937,18 +983,13 @@ class GetChunkCallable implements Callable {
         tFileTable = null;
         try { 
             if (futureTasks != null) { 
+                cancelPendingTasks();
                 futureTasks.clear();
                 futureTasks = null;
             }
         } catch (Throwable t) {
         }
-        try {
-            if (executorService != null) {
-                executorService.shutdownNow();
-                executorService = null;
-            }
-        } catch (Throwable t) {
-        }
+        threadPool = null; //the shared pool is never shut down here
     }
 
 
@@ -16,16 +16,25 @@ import com.cohort.util.String2;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 
 /** 
  * This class provides random access to the grid data requested by a 
  * grid data query to an EDDGrid.
- * It first stores all of the data in RandomAccessFiles.
- * Then it allows random access to those files.
- * This doesn't work for String data (the Strings are treated as doubles internally,
- * so become the values from String2.parseDouble(s)).
+ * If the data is small (see inMemoryMaxBytes), this just stores it in memory 
+ * (via GridDataRandomAccessorInMemory).
+ * Otherwise, it first stores all of the data in files (1 per data variable)
+ * in the dataset's cache directory, then memory-maps the files 
+ * (read only), so random access to a value is just a read from the 
+ * MappedByteBuffer (no seek or read syscall per value).
+ * Files are only used for numeric data. String data is only supported
+ * if it is small enough to be stored in memory.
  *
  * <p>[FUTURE: This could be revised to work with Strings:
  * 1) make isString[nDv]
@@ -49,48 +58,120 @@ public class GridDataRandomAccessor {
      */
     public static boolean verbose = false; 
 
+    /**
+     * If the data (all data variables) needs &lt;= this number of bytes, 
+     * the data is stored in memory instead of in files.
+     * The default is 10MB. Set this to -1 to always use files.
+     */
+    public static long inMemoryMaxBytes = 10 * Math2.BytesPerMB;
+
+    /** 
+     * The files are memory-mapped in segments of this many bytes
+     * (since a MappedByteBuffer can't be bigger than 2GB). 
+     * This is a multiple of all element sizes, so no value spans 2 segments.
+     */
+    protected final static int SEGMENT_SHIFT = 30;  //so 1GB
+    protected final static long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
     
     //things the constructor generates
     protected NDimensionalIndex gdaTotalIndex;
     protected String rafName;
     protected PAType dataPAType[]; //1 per data variable
-    protected RandomAccessFile dataRaf[]; //1 per data variable
+    protected int dataElementSize[]; //1 per data variable
+    protected ByteBuffer dataBuffer[][]; //[dv][segment] the memory-mapped files
+    protected GridDataRandomAccessorInMemory inMemory; //if not null, this is used instead of files
 
     /**
      * This sets everything up (i.e., gets all the data and stores it in 
-     * RandomAccessFiles).
+     * memory or in memory-mapped files).
      *
      * @param tGridDataAccessor a rowMajor gridDataAccessor
      * @throws Throwable if trouble
      */
     public GridDataRandomAccessor(GridDataAccessor gridDataAccessor) throws Throwable {
+        //small enough to store in memory?
+        EDV dataVars[] = gridDataAccessor.dataVariables();
+        int nDv = dataVars.length;
+        long nValues = gridDataAccessor.totalIndex().size();
+        long nBytes = 0;
+        boolean hasString = false;
+        for (int dv = 0; dv < nDv; dv++) {
+            PAType tPAType = dataVars[dv].destinationDataPAType();
+            hasString = hasString || tPAType == PAType.STRING;
+            nBytes += nValues * PAType.elementSize(tPAType);
+        }
+        if (nValues < Integer.MAX_VALUE && nBytes <= inMemoryMaxBytes) {
+            if (verbose) String2.log("GridDataRandomAccessor is storing " + nBytes + " bytes in memory.");
+            inMemory = new GridDataRandomAccessorInMemory(gridDataAccessor); //it calls releaseGetResources
+            gdaTotalIndex = inMemory.gdaTotalIndex;
+            dataPAType = inMemory.dataPAType;
+            return;
+        }
+
+        DataOutputStream dos[] = null;
         try {
             if (!gridDataAccessor.rowMajor())
                 throw new Exception("GridDataRandomAccessor.constructor requires the gridDataAccessor to be rowMajor.");
+            if (hasString)
+                throw new Exception("GridDataRandomAccessor doesn't support String data with nBytes=" + 
+                    nBytes + " (more than inMemoryMaxBytes=" + inMemoryMaxBytes + ").");
 
-            //make the dataRaf's
-            EDV dataVars[] = gridDataAccessor.dataVariables();
-            int nDv = dataVars.length;
-            dataRaf = new RandomAccessFile[nDv];
+            //make the data files
+            dos = new DataOutputStream[nDv];
             dataPAType = new PAType[nDv];
+            dataElementSize = new int[nDv];
             String tQuery = gridDataAccessor.userDapQuery();
             rafName = gridDataAccessor.eddGrid().cacheDirectory() + //dir created by EDD.ensureValid
                 String2.md5Hex12(tQuery == null? "" : tQuery) + "_" +
                 Math2.random(Integer.MAX_VALUE) + "_";
             for (int dv = 0; dv < nDv; dv++) {
                 dataPAType[dv] = dataVars[dv].destinationDataPAType();
-                dataRaf[dv] = new RandomAccessFile(rafName + dv, "rw");            
+                dataElementSize[dv] = PAType.elementSize(dataPAType[dv]);
+                dos[dv] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(rafName + dv)));
             }
 
-            //get all the data
+            //get all the data  (written in order, so buffered)
             while (gridDataAccessor.increment()) {
                 for (int dv = 0; dv < nDv; dv++)
-                    gridDataAccessor.writeToRAF(dv, dataRaf[dv]); //this doesn't work for Strings
-                    //2020-03-12 was PrimitiveArray.rafWriteDouble( //this doesn't work for Strings
-                    //   dataRaf[dv], dataPAType[dv], gridDataAccessor.getDataValueAsDouble(dv));
+                    gridDataAccessor.writeToDOS(dv, dos[dv]); 
+            }
+            for (int dv = 0; dv < nDv; dv++) {
+                dos[dv].close();
+                dos[dv] = null;
             }
             gdaTotalIndex = gridDataAccessor.totalIndex();
+
+            //memory-map the files
+            dataBuffer = new ByteBuffer[nDv][];
+            for (int dv = 0; dv < nDv; dv++) {
+                RandomAccessFile raf = new RandomAccessFile(rafName + dv, "r");
+                try {
+                    FileChannel channel = raf.getChannel();
+                    long fileSize = channel.size();
+                    int nSegments = Math2.narrowToInt((fileSize + SEGMENT_MASK) >> SEGMENT_SHIFT);
+                    dataBuffer[dv] = new ByteBuffer[nSegments];
+                    for (int seg = 0; seg < nSegments; seg++) {
+                        long start = ((long)seg) << SEGMENT_SHIFT;
+                        dataBuffer[dv][seg] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            start, Math.min(SEGMENT_MASK + 1, fileSize - start));
+                    }
+                } finally {
+                    raf.close(); //the mapping stays valid after the channel is closed
+                }
+            }
+            if (verbose) String2.log("GridDataRandomAccessor mapped " + nBytes + " bytes in " + 
+                nDv + " files.");
         } finally {
+            if (dos != null) {
+                for (int dv = 0; dv < nDv; dv++) {
+                    try {
+                        if (dos[dv] != null)
+                            dos[dv].close();
+                    } catch (Throwable t2) {
+                    }
+                }
+            }
             gridDataAccessor.releaseGetResources();
         }
     }
@@ -113,7 +194,11 @@ public class GridDataRandomAccessor {
      * @param throws Throwable if trouble
      */
     public PAOne getDataValueAsPAOne(int current[], int dv, PAOne paOne) throws Throwable {
-        return paOne.readFromRAF(dataRaf[dv], 0, gdaTotalIndex.setCurrent(current));
+        if (inMemory != null)
+            return inMemory.getDataValueAsPAOne(current, dv, paOne);
+        long byteIndex = gdaTotalIndex.setCurrent(current) * dataElementSize[dv];
+        return paOne.readFromByteBuffer(dataBuffer[dv][(int)(byteIndex >> SEGMENT_SHIFT)], 
+            (int)(byteIndex & SEGMENT_MASK));
     }
 
     /**
@@ -133,10 +218,9 @@ public class GridDataRandomAccessor {
 
 
     /** 
-     * This closes the files.
+     * This releases the memory-mapped files (or the in-memory data).
      * It is recommended, but not required, that users of this class call this 
-     * (or closeAndDelete) when they are done using this instance.
-     * This is also called by finalize. 
+     * (or releaseResources) when they are done using this instance.
      * This won't throw an Exception.
      * 
      */
@@ -145,21 +229,9 @@ public class GridDataRandomAccessor {
         //leave files for the fullCacheDirectory cleaner to catch,
         //and reuse the data (File2.touch() the files) 
         //if another identical request arrives before files are deleted.
-        try {
-            if (dataRaf != null) {
-                int nDv = dataRaf.length;
-                for (int dv = 0; dv < nDv; dv++) {
-                    try {
-                        if (dataRaf[dv] != null)
-                            dataRaf[dv].close(); //will already by closed if this method already called           
-                        dataRaf[dv] = null;
-                    } catch (Throwable t2) {
-                        //String2.log(MustBe.throwableToString(t2));
-                    }
-                }
-            }
-        } catch (Throwable t) {
-        }
+        //A MappedByteBuffer is unmapped when it is garbage collected.
+        dataBuffer = null;
+        inMemory = null;
     }
 
     /** 
@@ -172,16 +244,18 @@ public class GridDataRandomAccessor {
     public void releaseResources() {
         close();
         try {
-            if (dataRaf != null) {
-                int nDv = dataRaf.length;
+            if (rafName != null && dataPAType != null) {
+                int nDv = dataPAType.length;
                 for (int dv = 0; dv < nDv; dv++) {
                     try {
+                        //On Windows, this fails until the mapping is garbage collected. 
+                        //Then the cache directory cleaner will delete the file.
                         File2.delete(rafName + dv);
                     } catch (Throwable t2) {
                         //String2.log(MustBe.throwableToString(t2));
                     }
                 }
-                dataRaf = null;
+                rafName = null;
             }
         } catch (Throwable t) {
         }
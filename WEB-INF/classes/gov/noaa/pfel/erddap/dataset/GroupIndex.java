@@ -0,0 +1,481 @@
+/*
+ * GroupIndex Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * GroupIndex assigns a group number (0, 1, 2, ... in the order the groups are
+ * first seen) to each distinct combination of key values,
+ * e.g., for hash aggregation (orderByCount, orderByMean) without sorting the rows.
+ *
+ * <p>Numeric key values are hashed as primitives (not as Strings or boxed objects):
+ * each key level has a map from a value to a small value id,
+ * and a map from (the previous level's node, value id) to this level's node.
+ * The last level's nodes are the group numbers.
+ *
+ * <p>Use it like this, for each row:
+ * <pre>
+ * groupIndex.startRow();
+ * groupIndex.add(stationID);  //for each key
+ * groupIndex.add(time);
+ * int group = groupIndex.endRow();
+ * </pre>
+ * For each key, always use the same add() variant (e.g., add(double)).
+ *
+ * <p>This isn't thread safe.
+ */
+public class GroupIndex {
+
+    /**
+     * The maximum number of bytes that a GroupIndex (and the caller's
+     * per-group data) should use. See isTooBig().
+     */
+    public static long maxNBytes = Math.max(Math2.BytesPerMB, Math2.alwaysOkayMemoryRequest / 4);
+
+    /** A long to int open-addressing hash map (so the keys aren't boxed). The values must be &gt;= 0. */
+    private static class LongIntMap {
+        long keys[];
+        int values[];  //-1 = empty
+        int size = 0;
+        int shift;     //64 - log2(keys.length)
+
+        LongIntMap() {
+            clear();
+        }
+
+        void clear() {
+            keys = new long[16];
+            values = new int[16];
+            Arrays.fill(values, -1);
+            size = 0;
+            shift = 60;
+        }
+
+        /** 
+         * This returns the slot for the key in a table with 2^(64-shift) slots:
+         * the high bits of key*2^64/goldenRatio (Fibonacci hashing),
+         * so all of the slots are used, however big the table gets.
+         */
+        static int slot(long key, int shift) {
+            return (int)((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        /** This returns the value for the key, or (if there is none) puts and returns newValue. */
+        int getOrPut(long key, int newValue) {
+            int mask = keys.length - 1;
+            int i = slot(key, shift);
+            while (values[i] >= 0) {
+                if (keys[i] == key)
+                    return values[i];
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = newValue;
+            if (++size * 2 > keys.length)
+                rehash();
+            return newValue;
+        }
+
+        void rehash() {
+            long oKeys[] = keys;
+            int oValues[] = values;
+            keys = new long[oKeys.length * 2];
+            values = new int[oKeys.length * 2];
+            Arrays.fill(values, -1);
+            size = 0;
+            shift--;
+            for (int i = 0; i < oKeys.length; i++)
+                if (oValues[i] >= 0)
+                    getOrPut(oKeys[i], oValues[i]);
+        }
+
+        long nBytes() {
+            return keys.length * 12L;
+        }
+    }
+
+    private final int nKeys;
+    private final LongIntMap valueIds[];  //numeric value -> value id
+    private final HashMap<String, Integer> stringIds[];  //String value -> value id
+    private final int nValueIds[];
+    private final LongIntMap children[];  //(previous level's node << 32 | value id) -> node
+    private final int nNodes[];
+    private boolean someRows = false;
+
+    //the current row
+    private int level = 0;
+    private int node = 0;
+
+    /**
+     * The constructor.
+     *
+     * @param tNKeys the number of key values for each row. 0 is okay (then all rows are in group 0).
+     */
+    public GroupIndex(int tNKeys) {
+        nKeys = tNKeys;
+        valueIds  = new LongIntMap[nKeys];
+        stringIds = new HashMap[nKeys];
+        nValueIds = new int[nKeys];
+        children  = new LongIntMap[nKeys];
+        nNodes    = new int[nKeys];
+        for (int k = 0; k < nKeys; k++) {
+            valueIds[k]  = new LongIntMap();
+            stringIds[k] = new HashMap();
+            children[k]  = new LongIntMap();
+        }
+    }
+
+    /** This removes all of the groups. */
+    public void clear() {
+        for (int k = 0; k < nKeys; k++) {
+            valueIds[k].clear();
+            stringIds[k].clear();
+            nValueIds[k] = 0;
+            children[k].clear();
+            nNodes[k] = 0;
+        }
+        someRows = false;
+        level = 0;
+        node = 0;
+    }
+
+    /** Call this before adding the key values for a row. */
+    public void startRow() {
+        level = 0;
+        node = 0;
+    }
+
+    /** This adds the next key value for the current row. */
+    public void add(double d) {
+        add(Double.doubleToLongBits(d)); //NaNs are all the same
+    }
+
+    /** This adds the next key value for the current row. */
+    public void add(long l) {
+        LongIntMap map = valueIds[level];
+        int id = map.getOrPut(l, nValueIds[level]);
+        if (id == nValueIds[level])
+            nValueIds[level]++;
+        addValueId(id);
+    }
+
+    /** This adds the next key value for the current row. */
+    public void add(String s) {
+        HashMap<String, Integer> map = stringIds[level];
+        Integer id = map.get(s);
+        if (id == null) {
+            id = nValueIds[level]++;
+            map.put(s, id);
+        }
+        addValueId(id);
+    }
+
+    private void addValueId(int id) {
+        int n = nNodes[level];
+        node = children[level].getOrPut(((long)node << 32) | id, n);
+        if (node == n)
+            nNodes[level]++;
+        level++;
+    }
+
+    /**
+     * Call this after adding all of the key values for a row.
+     *
+     * @return the row's group number (0.., in the order the groups were first seen).
+     *    If it equals nGroups()-1 and nGroups() just increased, this is a new group.
+     * @throws RuntimeException if the wrong number of keys were added
+     */
+    public int endRow() {
+        if (level != nKeys)
+            throw new RuntimeException(String2.ERROR + " in GroupIndex.endRow: nKeysAdded=" +
+                level + " != nKeys=" + nKeys);
+        someRows = true;
+        return nKeys == 0? 0 : node;
+    }
+
+    /**
+     * This returns the group number for a row of key columns
+     * (with one add() call per key, based on the column's type).
+     *
+     * @param keyPAs the key columns
+     * @param row the row number
+     * @return the row's group number
+     */
+    public int group(PrimitiveArray keyPAs[], int row) {
+        startRow();
+        for (int k = 0; k < nKeys; k++) {
+            PrimitiveArray pa = keyPAs[k];
+            PAType paType = pa.elementType();
+            if (paType == PAType.STRING || paType == PAType.CHAR)
+                add(pa.getString(row));
+            else if (pa.isIntegerType())
+                add(pa.getLong(row));
+            else add(pa.getDouble(row));
+        }
+        return endRow();
+    }
+
+    /** The number of groups so far. */
+    public int nGroups() {
+        return nKeys == 0? (someRows? 1 : 0) : nNodes[nKeys - 1];
+    }
+
+    /** An estimate of the number of bytes used by this GroupIndex. */
+    public long nBytes() {
+        long sum = 0;
+        for (int k = 0; k < nKeys; k++)
+            sum += valueIds[k].nBytes() + children[k].nBytes() +
+                stringIds[k].size() * 64L;
+        return sum;
+    }
+
+    /**
+     * This returns true if this GroupIndex and the caller's per-group data
+     * use more than maxNBytes, so the caller should switch to sort-based aggregation.
+     *
+     * @param nBytesPerGroup the number of bytes of the caller's data for each group
+     */
+    public boolean isTooBig(long nBytesPerGroup) {
+        return nBytes() + nGroups() * nBytesPerGroup > maxNBytes;
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** GroupIndex.basicTest");
+
+        //2 keys: station (String) and day (double)
+        GroupIndex gi = new GroupIndex(2);
+        String stations[] = {"a", "b", "a", "c", "b", "a"};
+        double days[]     = {  1,   1,   1,   2,   2, Double.NaN};
+        int groups[] = new int[stations.length];
+        for (int i = 0; i < stations.length; i++) {
+            gi.startRow();
+            gi.add(stations[i]);
+            gi.add(days[i]);
+            groups[i] = gi.endRow();
+        }
+        Test.ensureEqual(String2.toCSSVString(groups), "0, 1, 0, 2, 3, 4", "");
+        Test.ensureEqual(gi.nGroups(), 5, "");
+
+        //NaNs are all the same
+        gi.startRow();
+        gi.add("a");
+        gi.add(Double.longBitsToDouble(0x7ff8000000000123L));
+        Test.ensureEqual(gi.endRow(), 4, "");
+
+        //lots of groups (so the maps are rehashed), with longs
+        gi = new GroupIndex(2);
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 100000; i++) {
+                gi.startRow();
+                gi.add((long)(i % 1000));
+                gi.add((long)(i / 1000) * 1000000000000L);
+                Test.ensureEqual(gi.endRow(), i, "");
+            }
+        }
+        Test.ensureEqual(gi.nGroups(), 100000, "");
+        Test.ensureTrue(gi.nBytes() > 100000 * 12L, "nBytes=" + gi.nBytes());
+        gi.clear();
+        Test.ensureEqual(gi.nGroups(), 0, "");
+
+        //slots use all of the bits of a big table (2^26 slots), not just the low 24
+        int maxSlot = 0;
+        for (long key = 0; key < 1000; key++) {
+            int slot = LongIntMap.slot(key, 64 - 26);
+            Test.ensureTrue(slot >= 0 && slot < (1 << 26), "slot=" + slot);
+            maxSlot = Math.max(maxSlot, slot);
+        }
+        Test.ensureTrue(maxSlot >= (1 << 24), "maxSlot=" + maxSlot);
+        Test.ensureEqual(LongIntMap.slot(-1, 60) >>> 4, 0, ""); //16 slots
+
+        //0 keys: everything is in group 0
+        gi = new GroupIndex(0);
+        Test.ensureEqual(gi.nGroups(), 0, "");
+        gi.startRow();
+        Test.ensureEqual(gi.endRow(), 0, "");
+        Test.ensureEqual(gi.nGroups(), 1, "");
+
+        //wrong number of keys
+        gi = new GroupIndex(1);
+        gi.startRow();
+        try {
+            gi.endRow();
+            throw new RuntimeException("shouldn't get here");
+        } catch (RuntimeException e) {
+            Test.ensureTrue(e.getMessage().indexOf("nKeysAdded=0 != nKeys=1") >= 0, e.getMessage());
+        }
+
+        String2.log("GroupIndex.basicTest finished");
+    }
+
+    /** 
+     * This makes rows [first, first+n) of the testSpill table:
+     * 7 stations * 40 days = 280 groups, with the rows of each group spread 
+     * across all of the chunks.
+     */
+    private static Table makeSpillTestChunk(int first, int n) {
+        StringArray station = new StringArray();
+        IntArray day = new IntArray();
+        DoubleArray value = new DoubleArray();
+        DoubleArray dir = new DoubleArray();
+        StringArray quality = new StringArray();
+        for (int row = first; row < first + n; row++) {
+            station.add("s" + (row % 7));
+            day.add((row / 7) % 40);
+            value.add(row % 13 == 0? Double.NaN : ((row * 37) % 101) / 10.0);
+            dir.add(row % 11 == 0? Double.NaN : 
+                row % 7 == 1? 90 : (row * 29) % 360); //station s1's dir's are allSame
+            quality.add(row % 7 == 0? "q" + (row % 3) : "ok");
+        }
+        Table table = new Table();
+        table.addColumn("station", station);
+        table.addColumn("day", day);
+        table.addColumn("value", value);
+        table.addColumn("dir", dir);
+        table.addColumn("quality", quality);
+        table.columnAttributes(3).set("units", "degrees_true");
+        return table;
+    }
+
+    /** 
+     * This feeds the testSpill table (in chunks) to an orderByCount or orderByMean 
+     * TableWriter and returns the results.
+     */
+    private static Table spillTestResults(String dir, boolean mean) throws Throwable {
+        TableWriterAll results = new TableWriterAll(null, null, dir, "GroupIndexSpillResults");
+        TableWriterAll tw = mean?
+            new TableWriterOrderByMean( null, null, dir, "GroupIndexSpill", results, "station,day") :
+            new TableWriterOrderByCount(null, null, dir, "GroupIndexSpill", results, "station,day");
+        int nRows = 2000;
+        for (int row = 0; row < nRows; row += 97)
+            tw.writeSome(makeSpillTestChunk(row, Math.min(nRows, row + 97) - row));
+        tw.finish();
+        Table table = results.cumulativeTable();
+        results.releaseResources();
+        return table;
+    }
+
+    /** 
+     * This tests that when there are too many groups (isTooBig), 
+     * the orderByCount and orderByMean TableWriters' spill path 
+     * (writing partial results, then combining them)
+     * gets the same results as the in-memory path.
+     */
+    public static void testSpill() throws Throwable {
+        String2.log("\n*** GroupIndex.testSpill");
+        String dir = File2.getSystemTempDirectory();
+        long oMaxNBytes = maxNBytes;
+        long oRunNBytes = ExternalSort.runNBytes;
+        int oMinRunNRows = ExternalSort.minRunNRows;
+        try {
+            //orderByCount
+            Table expected = spillTestResults(dir, false);
+            Test.ensureEqual(expected.nRows(), 280, "");
+            String expectedString = expected.dataToString();
+            maxNBytes = 1; //so writeSome spills the groups after each chunk
+            Test.ensureEqual(spillTestResults(dir, false).dataToString(), expectedString, "");
+            //and too many partial counts to combine in memory, so ExternalSort combines them
+            ExternalSort.runNBytes = 1;
+            ExternalSort.minRunNRows = 100;
+            Test.ensureEqual(spillTestResults(dir, false).dataToString(), expectedString, "");
+            ExternalSort.runNBytes = oRunNBytes;
+            ExternalSort.minRunNRows = oMinRunNRows;
+
+            //orderByMean (the means are the same, except for rounding errors)
+            maxNBytes = oMaxNBytes;
+            expected = spillTestResults(dir, true);
+            Test.ensureEqual(expected.nRows(), 280, "");
+            maxNBytes = 1; 
+            Table results = spillTestResults(dir, true);
+            Test.ensureEqual(results.getColumnNamesCSVString(), 
+                expected.getColumnNamesCSVString(), "");
+            Test.ensureEqual(results.nRows(), expected.nRows(), "");
+            int nCols = expected.nColumns();
+            int nRows = expected.nRows();
+            for (int col = 0; col < nCols; col++) {
+                PrimitiveArray ePa = expected.getColumn(col);
+                PrimitiveArray rPa = results.getColumn(col);
+                for (int row = 0; row < nRows; row++) {
+                    String msg = "col=" + expected.getColumnName(col) + " row=" + row;
+                    if (ePa.isFloatingPointType()) {
+                        double e = ePa.getDouble(row);
+                        double r = rPa.getDouble(row);
+                        if (!Double.isNaN(e) || !Double.isNaN(r))
+                            Test.ensureAlmostEqual(9, r, e, msg);
+                    } else {
+                        Test.ensureEqual(rPa.getString(row), ePa.getString(row), msg);
+                    }
+                }
+            }
+            //s1's dir's are allSame, so the mean is exactly 90
+            Test.ensureEqual(results.getColumn("dir").getDouble(
+                results.getColumn("station").indexOf("s1")), 90, "");
+
+        } finally {
+            maxNBytes = oMaxNBytes;
+            ExternalSort.runNBytes = oRunNBytes;
+            ExternalSort.minRunNRows = oMinRunNRows;
+        }
+        String2.log("GroupIndex.testSpill finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 1;
+        String msg = "\n^^^ GroupIndex.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                    if (test ==  1) testSpill();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
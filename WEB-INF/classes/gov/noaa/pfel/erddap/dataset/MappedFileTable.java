@@ -0,0 +1,413 @@
+/*
+ * MappedFileTable Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.ByteArray;
+import com.cohort.array.CharArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.array.UByteArray;
+import com.cohort.array.UIntArray;
+import com.cohort.array.ULongArray;
+import com.cohort.array.UShortArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This is a read-only view of an EDDTableFromFiles fileTable, either
+ * memory-mapped from a simple columnar file (so the data stays off of the Java heap
+ * and is read in place) or wrapping an in-memory Table.
+ * The get...Data methods return exactly what the same methods in Table return.
+ *
+ * <p>The file has the data for each column (in order), then a footer
+ * with the information about each column, then the long offset of the footer.
+ * Numeric columns are stored as raw big-endian values.
+ * String columns are stored as nRows+1 int offsets, then the UTF-8 bytes.
+ * Each column's data is mapped separately, so each column must be &lt; 2GB.
+ *
+ * <p>The cached instance of a mapped file is shared by all threads.
+ * Each request must call view() to get its own instance.
+ */
+public class MappedFileTable {
+
+    /** "EFT1" */
+    public final static int MAGIC = 0x45465431;
+
+    private Table table; //if wrapping an in-memory table, else null
+    private long fileLastMod; //of the mapped file
+    private long sourceLastMod; //of the file that the table was copied from (e.g., fileTable.nc)
+    private int nRows;
+    private String columnNames[];
+    private PAType paTypes[];
+    private boolean maxIsMVs[];
+    private ByteBuffer buffers[];       //numeric values, or String offsets
+    private ByteBuffer stringBuffers[]; //String UTF-8 bytes (or null)
+    private PrimitiveArray scratch[];   //1 element PA for each numeric column, used to decode values
+
+    /** This wraps an in-memory table. */
+    public MappedFileTable(Table tTable) {
+        table = tTable;
+        nRows = table.nRows();
+    }
+
+    /** This is used by read() and view(). */
+    private MappedFileTable() {
+    }
+
+    /**
+     * This returns a new instance (sharing the mapped data) for use by one thread.
+     */
+    public MappedFileTable view() {
+        if (table != null)
+            return this;
+        MappedFileTable mft = new MappedFileTable();
+        mft.fileLastMod   = fileLastMod;
+        mft.sourceLastMod = sourceLastMod;
+        mft.nRows         = nRows;
+        mft.columnNames   = columnNames;
+        mft.paTypes       = paTypes;
+        mft.maxIsMVs      = maxIsMVs;
+        mft.buffers       = buffers;
+        mft.stringBuffers = stringBuffers;
+        mft.makeScratch();
+        return mft;
+    }
+
+    private void makeScratch() {
+        int nCols = columnNames.length;
+        scratch = new PrimitiveArray[nCols];
+        for (int col = 0; col < nCols; col++)
+            if (paTypes[col] != PAType.STRING)
+                scratch[col] = PrimitiveArray.factory(paTypes[col], 1, true)
+                    .setMaxIsMV(maxIsMVs[col]);
+    }
+
+    /** This returns the lastModified time of the mapped file (or 0 if wrapping a Table). */
+    public long fileLastMod() {
+        return fileLastMod;
+    }
+
+    /** 
+     * This returns the lastModified time of the file that the table was copied from
+     * (as specified when the file was written), or 0 if wrapping a Table. 
+     */
+    public long sourceLastMod() {
+        return sourceLastMod;
+    }
+
+    /** This returns the number of rows. */
+    public int nRows() {
+        return nRows;
+    }
+
+    /** This returns the number of columns. */
+    public int nColumns() {
+        return table != null? table.nColumns() : columnNames.length;
+    }
+
+    /** This returns the name of a column. */
+    public String getColumnName(int col) {
+        return table != null? table.getColumnName(col) : columnNames[col];
+    }
+
+    /** This returns the value as Table.getStringData would. */
+    public String getStringData(int col, int row) {
+        if (table != null)
+            return table.getStringData(col, row);
+        if (paTypes[col] == PAType.STRING) {
+            ByteBuffer offsets = buffers[col];
+            int start = offsets.getInt(row * 4);
+            int end   = offsets.getInt(row * 4 + 4);
+            byte bar[] = new byte[end - start];
+            ByteBuffer sb = stringBuffers[col].duplicate(); //own position
+            sb.position(start);
+            sb.get(bar);
+            return String2.utf8BytesToString(bar);
+        }
+        return loadScratch(col, row).getString(0);
+    }
+
+    /** This returns the value as Table.getDoubleData would. */
+    public double getDoubleData(int col, int row) {
+        if (table != null)
+            return table.getDoubleData(col, row);
+        if (paTypes[col] == PAType.STRING)
+            return String2.parseDouble(getStringData(col, row));
+        return loadScratch(col, row).getDouble(0);
+    }
+
+    /** This returns the value as Table.getNiceDoubleData would. */
+    public double getNiceDoubleData(int col, int row) {
+        if (table != null)
+            return table.getNiceDoubleData(col, row);
+        if (paTypes[col] == PAType.STRING)
+            return String2.parseDouble(getStringData(col, row));
+        return loadScratch(col, row).getNiceDouble(0);
+    }
+
+    /** This returns the value as Table.getLongData would. */
+    public long getLongData(int col, int row) {
+        if (table != null)
+            return table.getLongData(col, row);
+        if (paTypes[col] == PAType.STRING)
+            return String2.parseLong(getStringData(col, row));
+        return loadScratch(col, row).getLong(0);
+    }
+
+    /** This returns the value as Table.getIntData would. */
+    public int getIntData(int col, int row) {
+        if (table != null)
+            return table.getIntData(col, row);
+        if (paTypes[col] == PAType.STRING)
+            return String2.parseInt(getStringData(col, row));
+        return loadScratch(col, row).getInt(0);
+    }
+
+    /**
+     * This makes an on-heap copy of a column.
+     * Use this sparingly -- it defeats the purpose of mapping the file.
+     */
+    public PrimitiveArray getColumnCopy(int col) {
+        if (table != null)
+            return (PrimitiveArray)(table.getColumn(col).clone());
+        PrimitiveArray pa = PrimitiveArray.factory(paTypes[col], nRows, false);
+        if (paTypes[col] == PAType.STRING) {
+            for (int row = 0; row < nRows; row++)
+                pa.addString(getStringData(col, row));
+        } else {
+            pa.setMaxIsMV(maxIsMVs[col]);
+            for (int row = 0; row < nRows; row++)
+                pa.addFromPA(loadScratch(col, row), 0);
+        }
+        return pa;
+    }
+
+    /** This puts the raw value from the buffer in the column's scratch PA. */
+    private PrimitiveArray loadScratch(int col, int row) {
+        PrimitiveArray pa = scratch[col];
+        ByteBuffer bb = buffers[col];
+        switch (paTypes[col]) {
+            case BYTE:   ((ByteArray)  pa).array[0] = bb.get(      row);     break;
+            case UBYTE:  ((UByteArray) pa).array[0] = bb.get(      row);     break;
+            case SHORT:  ((ShortArray) pa).array[0] = bb.getShort( row * 2); break;
+            case USHORT: ((UShortArray)pa).array[0] = bb.getShort( row * 2); break;
+            case CHAR:   ((CharArray)  pa).array[0] = bb.getChar(  row * 2); break;
+            case INT:    ((IntArray)   pa).array[0] = bb.getInt(   row * 4); break;
+            case UINT:   ((UIntArray)  pa).array[0] = bb.getInt(   row * 4); break;
+            case LONG:   ((LongArray)  pa).array[0] = bb.getLong(  row * 8); break;
+            case ULONG:  ((ULongArray) pa).array[0] = bb.getLong(  row * 8); break;
+            case FLOAT:  ((FloatArray) pa).array[0] = bb.getFloat( row * 4); break;
+            case DOUBLE: ((DoubleArray)pa).array[0] = bb.getDouble(row * 8); break;
+            default: throw new RuntimeException(String2.ERROR +
+                " in MappedFileTable: unexpected elementType: " + paTypes[col]);
+        }
+        return pa;
+    }
+
+    /**
+     * This writes a table (e.g., a fileTable) to a columnar file.
+     * The file is written to fileName + random, then renamed to fileName.
+     *
+     * @param table
+     * @param fileName
+     * @param sourceLastMod the lastModified time of the file that the table 
+     *    was copied from (e.g., fileTable.nc), so readers can tell if this file is stale.
+     * @throws Exception if trouble (and the temporary file is deleted)
+     */
+    public static void write(Table table, String fileName, long sourceLastMod) throws Exception {
+        long time = System.currentTimeMillis();
+        int nRows = table.nRows();
+        int nCols = table.nColumns();
+        long offsets[] = new long[nCols];
+        long stringOffsets[] = new long[nCols];
+        String tFileName = fileName + Math2.random(Integer.MAX_VALUE);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(tFileName)));
+        try {
+            long po = 0;
+            for (int col = 0; col < nCols; col++) {
+                PrimitiveArray pa = table.getColumn(col);
+                offsets[col] = po;
+                if (pa.elementType() == PAType.STRING) {
+                    StringArray sa = (StringArray)pa;
+                    byte bars[][] = new byte[nRows][];
+                    long tOffset = 0;
+                    for (int row = 0; row < nRows; row++) {
+                        bars[row] = String2.stringToUtf8Bytes(sa.get(row));
+                        dos.writeInt((int)tOffset);
+                        tOffset += bars[row].length;
+                        if (tOffset >= Integer.MAX_VALUE)
+                            throw new RuntimeException("column=" + table.getColumnName(col) +
+                                " has too many characters.");
+                    }
+                    dos.writeInt((int)tOffset);
+                    po += 4L * (nRows + 1);
+                    stringOffsets[col] = po;
+                    for (int row = 0; row < nRows; row++)
+                        dos.write(bars[row]);
+                    po += tOffset;
+                } else {
+                    for (int row = 0; row < nRows; row++) {
+                        switch (pa.elementType()) {
+                            case BYTE:   dos.writeByte(  ((ByteArray)  pa).array[row]); break;
+                            case UBYTE:  dos.writeByte(  ((UByteArray) pa).array[row]); break;
+                            case SHORT:  dos.writeShort( ((ShortArray) pa).array[row]); break;
+                            case USHORT: dos.writeShort( ((UShortArray)pa).array[row]); break;
+                            case CHAR:   dos.writeChar(  ((CharArray)  pa).array[row]); break;
+                            case INT:    dos.writeInt(   ((IntArray)   pa).array[row]); break;
+                            case UINT:   dos.writeInt(   ((UIntArray)  pa).array[row]); break;
+                            case LONG:   dos.writeLong(  ((LongArray)  pa).array[row]); break;
+                            case ULONG:  dos.writeLong(  ((ULongArray) pa).array[row]); break;
+                            case FLOAT:  dos.writeFloat( ((FloatArray) pa).array[row]); break;
+                            case DOUBLE: dos.writeDouble(((DoubleArray)pa).array[row]); break;
+                            default: throw new RuntimeException(String2.ERROR +
+                                " in MappedFileTable: unexpected elementType: " + pa.elementType());
+                        }
+                    }
+                    po += (long)pa.elementSize() * nRows;
+                    stringOffsets[col] = po;
+                }
+            }
+
+            //the footer
+            long footerPo = po;
+            dos.writeInt(MAGIC);
+            dos.writeLong(sourceLastMod);
+            dos.writeInt(nRows);
+            dos.writeInt(nCols);
+            for (int col = 0; col < nCols; col++) {
+                PrimitiveArray pa = table.getColumn(col);
+                dos.writeUTF(table.getColumnName(col));
+                dos.writeUTF(pa.elementTypeString());
+                dos.writeBoolean(pa.getMaxIsMV());
+                dos.writeLong(offsets[col]);
+                dos.writeLong(stringOffsets[col]);
+            }
+            dos.writeLong(footerPo);
+            dos.close();
+            dos = null;
+            File2.rename(tFileName, fileName);
+            if (EDD.reallyVerbose) String2.log("MappedFileTable.write(" + fileName +
+                ") nRows=" + nRows + " time=" + (System.currentTimeMillis() - time) + "ms");
+        } catch (Exception e) {
+            if (dos != null)
+                try {dos.close();} catch (Exception e2) {}
+            File2.delete(tFileName);
+            throw e;
+        }
+    }
+
+    /**
+     * This maps a file created by write().
+     * The mappings remain valid after the file is replaced or deleted
+     * (on Linux and Mac OS), and are released when this object is garbage collected.
+     *
+     * @param fileName
+     * @return a MappedFileTable for use by the calling thread.
+     *   Call view() to get an instance for use by each other thread.
+     * @throws Exception if trouble (e.g., no such file, or invalid file)
+     */
+    public static MappedFileTable read(String fileName) throws Exception {
+        MappedFileTable mft = new MappedFileTable();
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            mft.fileLastMod = File2.getLastModified(fileName);
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            raf.seek(fileSize - 8);
+            long footerPo = raf.readLong();
+            raf.seek(footerPo);
+            Test.ensureEqual(raf.readInt(), MAGIC, "Invalid MappedFileTable file: " + fileName);
+            mft.sourceLastMod = raf.readLong();
+            int nRows = raf.readInt();
+            int nCols = raf.readInt();
+            mft.nRows         = nRows;
+            mft.columnNames   = new String[nCols];
+            mft.paTypes       = new PAType[nCols];
+            mft.maxIsMVs      = new boolean[nCols];
+            mft.buffers       = new ByteBuffer[nCols];
+            mft.stringBuffers = new ByteBuffer[nCols];
+            long offsets[]       = new long[nCols];
+            long stringOffsets[] = new long[nCols];
+            for (int col = 0; col < nCols; col++) {
+                mft.columnNames[col] = raf.readUTF();
+                mft.paTypes[col]     = PAType.fromCohortString(raf.readUTF());
+                mft.maxIsMVs[col]    = raf.readBoolean();
+                offsets[col]         = raf.readLong();
+                stringOffsets[col]   = raf.readLong();
+            }
+            for (int col = 0; col < nCols; col++) {
+                long end = col == nCols - 1? footerPo : offsets[col + 1];
+                mft.buffers[col] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    offsets[col], stringOffsets[col] - offsets[col]);
+                if (mft.paTypes[col] == PAType.STRING)
+                    mft.stringBuffers[col] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        stringOffsets[col], end - stringOffsets[col]);
+            }
+        } finally {
+            raf.close(); //the mappings remain valid
+        }
+        mft.makeScratch();
+        return mft;
+    }
+
+    /**
+     * This tests the methods in this class.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** MappedFileTable.basicTest");
+        Table table = new Table();
+        table.addColumn("dirIndex", new ShortArray(new short[]{0, 1, 1}));
+        table.addColumn("fileList", new StringArray(new String[]{"a.nc", "b\u00fc.nc", ""}));
+        table.addColumn("lastMod",  new LongArray(new long[]{10, 20, Long.MAX_VALUE}));
+        table.addColumn("bMin",     new ByteArray(new byte[]{-1, 0, Byte.MAX_VALUE}).setMaxIsMV(true));
+        table.addColumn("fMax",     new FloatArray(new float[]{1.5f, Float.NaN, 32.83333f}));
+        table.addColumn("ulMax",    new ULongArray(new long[]{-1, 0, 5}));
+        table.addColumn("cMin",     new CharArray(new char[]{'a', '\u20ac', Character.MAX_VALUE}));
+        String fileName = File2.getSystemTempDirectory() + "MappedFileTable.basicTest.col";
+        File2.delete(fileName);
+        write(table, fileName, 12345);
+        MappedFileTable mft = read(fileName).view();
+        Test.ensureEqual(mft.sourceLastMod(), 12345, "");
+        MappedFileTable wrapped = new MappedFileTable(table);
+        Test.ensureEqual(mft.nRows(), 3, "");
+        Test.ensureEqual(mft.nColumns(), table.nColumns(), "");
+        for (int col = 0; col < table.nColumns(); col++) {
+            Test.ensureEqual(mft.getColumnName(col), table.getColumnName(col), "col=" + col);
+            Test.ensureEqual(mft.getColumnCopy(col).toString(),
+                         wrapped.getColumnCopy(col).toString(), "col=" + col);
+            for (int row = 0; row < 3; row++) {
+                String msg = "col=" + col + " row=" + row;
+                Test.ensureEqual(mft.getStringData(    col, row), table.getStringData(    col, row), msg);
+                Test.ensureEqual(mft.getDoubleData(    col, row), table.getDoubleData(    col, row), msg);
+                Test.ensureEqual(mft.getNiceDoubleData(col, row), table.getNiceDoubleData(col, row), msg);
+                Test.ensureEqual(mft.getIntData(       col, row), table.getIntData(       col, row), msg);
+                Test.ensureEqual(mft.getLongData(      col, row), table.getLongData(      col, row), msg);
+            }
+        }
+        mft = null;
+        File2.delete(fileName);
+    }
+
+}
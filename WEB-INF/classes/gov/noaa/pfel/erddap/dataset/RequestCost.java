@@ -0,0 +1,221 @@
+/*
+ * RequestCost Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.erddap.util.RequestScheduler;
+
+/**
+ * RequestCost holds an estimate (made before the request is executed,
+ * see EDD.estimateCost) of how much work a data request will be:
+ * the number of source files it will read, the number of bytes of data values
+ * it will get from the source, the number of rows in the response,
+ * and (from those) the number of seconds it will take.
+ *
+ * <p>It is used by EDStatic.requestScheduler (the request's cost),
+ * by the requestMaxEstimatedSeconds limit in datasets.xml,
+ * and by the .cost fileType (so users can see the cost of a request before making it).
+ *
+ * <p>Instances are immutable.
+ */
+public class RequestCost {
+
+    /** The assumed rate at which data values are read from the source (bytes/second). */
+    public static double bytesPerSecond = 50 * Math2.BytesPerMB;
+
+    /** The assumed time needed to open each source file (seconds). */
+    public static double secondsPerFile = 0.01;
+
+    /** The cost of a request if there is no better estimate: RequestScheduler.DEFAULT_COST KB. */
+    public final static RequestCost UNKNOWN =
+        new RequestCost(-1, RequestScheduler.DEFAULT_COST * 1024.0, -1, false);
+
+    /** The number of source files that will be read (or -1 if unknown). */
+    public final long nFiles;
+
+    /** The number of bytes of data values that will be read from the source. */
+    public final double nBytes;
+
+    /** The number of rows in the response (or -1 if unknown). */
+    public final double nRows;
+
+    /** False if this is just a default (e.g., UNKNOWN), not an estimate for the request. */
+    public final boolean estimated;
+
+    /**
+     * The constructor for an estimate.
+     *
+     * @param tNFiles the number of source files that will be read (or -1 if unknown)
+     * @param tNBytes the number of bytes of data values that will be read
+     *    (a double, so huge requests don't overflow)
+     * @param tNRows the number of rows in the response (or -1 if unknown)
+     */
+    public RequestCost(long tNFiles, double tNBytes, double tNRows) {
+        this(tNFiles, tNBytes, tNRows, true);
+    }
+
+    private RequestCost(long tNFiles, double tNBytes, double tNRows, boolean tEstimated) {
+        nFiles = tNFiles;
+        nBytes = Math.max(0, tNBytes);
+        nRows = tNRows;
+        estimated = tEstimated;
+    }
+
+    /** The estimated number of seconds that the request will take. */
+    public double seconds() {
+        return nBytes / bytesPerSecond + Math.max(0, nFiles) * secondsPerFile;
+    }
+
+    /**
+     * The request's cost for RequestScheduler.admit:
+     * the estimated seconds expressed as KB read at bytesPerSecond
+     * (so a request for many small files costs more than its bytes alone).
+     *
+     * @return the cost in KB, 1+
+     */
+    public long kb() {
+        return Math.max(1, Math2.roundToLong(seconds() * bytesPerSecond / 1024)); //roundToLong of huge -> Long.MAX_VALUE
+    }
+
+    /**
+     * This indicates if this request's estimated seconds exceed maxSeconds.
+     *
+     * @param maxSeconds the limit (e.g., EDStatic.requestMaxEstimatedSeconds).
+     *    &lt;=0 means there is no limit.
+     * @return true if the request is over budget.
+     *    A default (not estimated) cost is never over budget.
+     */
+    public boolean isOverBudget(int maxSeconds) {
+        return maxSeconds > 0 && estimated && seconds() > maxSeconds;
+    }
+
+    /**
+     * This returns a JSON object with this estimate (the response to a .cost request).
+     *
+     * @param datasetID the dataset's datasetID
+     * @param maxSeconds the limit (e.g., EDStatic.requestMaxEstimatedSeconds), &lt;=0 means no limit.
+     * @return a JSON object (with a trailing newline)
+     */
+    public String toJson(String datasetID, int maxSeconds) {
+        return
+            "{\n" +
+            "  \"datasetID\": " + String2.toJson(datasetID) + ",\n" +
+            "  \"estimated\": " + estimated + ",\n" +
+            "  \"nFiles\": " + (nFiles < 0? "null" : "" + nFiles) + ",\n" +
+            "  \"nBytes\": " + Math2.roundToLong(nBytes) + ",\n" +
+            "  \"nRows\": " + (nRows < 0? "null" : "" + Math2.roundToLong(nRows)) + ",\n" +
+            "  \"seconds\": " + String2.toJson(Math2.floatToDouble(seconds())) + ",\n" +
+            "  \"maxSeconds\": " + (maxSeconds > 0? "" + maxSeconds : "null") + ",\n" +
+            "  \"overBudget\": " + isOverBudget(maxSeconds) + "\n" +
+            "}\n";
+    }
+
+    /** This returns a short description, e.g., for log messages. */
+    public String toString() {
+        return "RequestCost{nFiles=" + nFiles + ", nBytes=" + Math2.roundToLong(nBytes) +
+            ", nRows=" + Math2.roundToLong(nRows) +
+            ", seconds=" + Math2.floatToDouble(seconds()) +
+            (estimated? "" : ", estimated=false") + "}";
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** RequestCost.basicTest");
+        double oBytesPerSecond = bytesPerSecond;
+        double oSecondsPerFile = secondsPerFile;
+        try {
+            bytesPerSecond = 1024 * 1024;
+            secondsPerFile = 0.5;
+
+            RequestCost rc = new RequestCost(4, 10 * 1024 * 1024, 1000);
+            Test.ensureEqual(rc.seconds(), 12, "");
+            Test.ensureEqual(rc.kb(), 12 * 1024, "");
+            Test.ensureEqual(rc.isOverBudget(0), false, "");
+            Test.ensureEqual(rc.isOverBudget(12), false, "");
+            Test.ensureEqual(rc.isOverBudget(11), true, "");
+            Test.ensureEqual(rc.toJson("myID", 11),
+                "{\n" +
+                "  \"datasetID\": \"myID\",\n" +
+                "  \"estimated\": true,\n" +
+                "  \"nFiles\": 4,\n" +
+                "  \"nBytes\": 10485760,\n" +
+                "  \"nRows\": 1000,\n" +
+                "  \"seconds\": 12,\n" +
+                "  \"maxSeconds\": 11,\n" +
+                "  \"overBudget\": true\n" +
+                "}\n", "");
+
+            //unknown nFiles and nRows
+            rc = new RequestCost(-1, 512, -1);
+            Test.ensureEqual(rc.seconds(), 512 / (1024.0 * 1024), "");
+            Test.ensureEqual(rc.kb(), 1, ""); //always 1+
+            String json = rc.toJson("myID", 0);
+            Test.ensureTrue(json.indexOf("\"nFiles\": null,") > 0, json);
+            Test.ensureTrue(json.indexOf("\"nRows\": null,") > 0, json);
+            Test.ensureTrue(json.indexOf("\"maxSeconds\": null,") > 0, json);
+
+            //huge requests don't overflow
+            rc = new RequestCost(1, 1e30, 1e29);
+            Test.ensureEqual(rc.kb(), Long.MAX_VALUE, "");
+            Test.ensureEqual(rc.isOverBudget(Integer.MAX_VALUE), true, "");
+
+            //the default is never over budget
+            Test.ensureEqual(UNKNOWN.kb(), RequestScheduler.DEFAULT_COST, "");
+            Test.ensureEqual(UNKNOWN.isOverBudget(1), false, "");
+            Test.ensureTrue(UNKNOWN.toJson("myID", 1).indexOf("\"estimated\": false,") > 0, "");
+        } finally {
+            bytesPerSecond = oBytesPerSecond;
+            secondsPerFile = oSecondsPerFile;
+        }
+
+        String2.log("RequestCost.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ RequestCost.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -24,17 +24,11 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.util.Arrays;
 
 /**
  * TableWriterAll provides a way to write a table to a series of 
- * DataOutputStreams (one per column) 
+ * ColumnSpillFiles (one per column, with compressed blocks of values) 
  * in chunks so that the whole table is available but doesn't have to be in memory 
  * at one time.
  * This is used by EDDTable.
@@ -58,11 +52,18 @@ public class TableWriterAll extends TableWriter {
     //set firstTime
     //POLICY: because this class may be used in more than one thread,
     //each instance makes unique temp files names by adding randomInt to name.
-    protected volatile DataOutputStream[] columnStreams;
+    protected volatile ColumnSpillFile.Writer[] columnStreams;
     protected volatile long totalNRows = 0; 
 
     protected Table cumulativeTable; //set by writeAllAndFinish, if used
 
+    /** 
+     * If true (the default), writeSome ensures that one column with all of the rows
+     * could be held in memory. Subclasses which don't need that 
+     * (e.g., because they will use ExternalSort, see ExternalSort.canSortBy) set this to false.
+     */
+    protected boolean ensureColumnFitsInMemory = true;
+
     /**
      * The constructor.
      * TableWriterAll will create several temporary files using the dir+name as
@@ -113,11 +114,11 @@ public class TableWriterAll extends TableWriter {
         //do firstTime stuff
         int nColumns = table.nColumns();
         if (firstTime) {
-            columnStreams = new DataOutputStream[nColumns];
+            columnStreams = new ColumnSpillFile.Writer[nColumns];
             for (int col = 0; col < nColumns; col++) {
                 String tFileName = columnFileName(col);
-                columnStreams[col] = new DataOutputStream(new BufferedOutputStream(
-                    new FileOutputStream(tFileName)));
+                columnStreams[col] = new ColumnSpillFile.Writer(tFileName, 
+                    table.getColumn(col));
                 if (col == 0 && reallyVerbose) 
                     String2.log("TableWriterAll nColumns=" + nColumns + 
                         " colNames=" + table.getColumnNamesCSVString() + " col0 file=" + tFileName);
@@ -127,15 +128,16 @@ public class TableWriterAll extends TableWriter {
         //avoid gathering more data than can be processed
         //(although in some cases, perhaps more could be handled)
         long newTotalNRows = totalNRows + table.nRows();
-        Math2.ensureArraySizeOkay(newTotalNRows, attributeTo);
-        Math2.ensureMemoryAvailable(newTotalNRows * 8, attributeTo); //to process one PA
+        if (ensureColumnFitsInMemory) {
+            Math2.ensureArraySizeOkay(newTotalNRows, attributeTo);
+            Math2.ensureMemoryAvailable(newTotalNRows * 8, attributeTo); //to process one PA
+        }
 
         //do everyTime stuff
         //write the data
         for (int col = 0; col < nColumns; col++) {
             Test.ensureNotNull(columnStreams[col], "columnStreams[" + col + "] is null! nColumns=" + nColumns);
-            PrimitiveArray pa = table.getColumn(col);
-            pa.writeDos(columnStreams[col]);
+            columnStreams[col].write(table.getColumn(col));
         }
         totalNRows = newTotalNRows;
     }
@@ -155,17 +157,27 @@ public class TableWriterAll extends TableWriter {
         if (columnStreams == null)
             throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
         //String2.log("TableWriterAll.finish  n columnStreams=" + columnStreams.length);
-        for (int col = 0; col < columnStreams.length; col++) {
-            //close the stream
-            try {if (columnStreams[col] != null) columnStreams[col].close();} catch (Exception e) {}
-            //an attempt to solve File2.delete problem on these files: it couldn't hurt
-            columnStreams[col] = null;  
+        long nStoredBytes = 0;
+        try {
+            for (int col = 0; col < columnStreams.length; col++) {
+                //close the stream (this writes the last block, so trouble is trouble)
+                columnStreams[col].close();
+                nStoredBytes += columnStreams[col].nStoredBytes();
+            }
+        } finally {
+            for (int col = 0; col < columnStreams.length; col++) {
+                if (columnStreams[col] != null) 
+                    columnStreams[col].abort(); //does nothing if already closed
+                //an attempt to solve File2.delete problem on these files: it couldn't hurt
+                columnStreams[col] = null;  
+            }
+            columnStreams = null;
         }
-        columnStreams = null;
 
         //diagnostic
         if (verbose)
-            String2.log("TableWriterAll done. TIME=" + 
+            String2.log("TableWriterAll done. nRows=" + totalNRows + 
+                " nStoredBytes=" + nStoredBytes + " TIME=" + 
                 (System.currentTimeMillis() - time) + "ms\n");
     }
 
@@ -192,11 +204,11 @@ public class TableWriterAll extends TableWriter {
         PrimitiveArray pa = PrimitiveArray.factory(columnType(col), 
             (int)totalNRows, false);  //safe since checked above
         pa.setMaxIsMV(columnMaxIsMV[col]);
-        DataInputStream dis = dataInputStream(col);
+        ColumnSpillFile.Reader reader = columnReader(col);
         try {
-            pa.readDis(dis, (int)totalNRows); //safe since checked above
+            reader.read(pa, (int)totalNRows); //safe since checked above
         } finally {
-            dis.close();
+            reader.close();
         }
         return pa;
     }
@@ -228,33 +240,32 @@ public class TableWriterAll extends TableWriter {
         PrimitiveArray pa = PrimitiveArray.factory(columnType(col), 
             (int)totalNRows, false);  //safe since checked above
         pa.setMaxIsMV(columnMaxIsMV[col]);
-        DataInputStream dis = dataInputStream(col);
+        ColumnSpillFile.Reader reader = columnReader(col);
         try {
-            pa.readDis(dis, Math.min(firstNRows, Math2.narrowToInt(totalNRows)));
+            reader.read(pa, Math.min(firstNRows, Math2.narrowToInt(totalNRows)));
         } finally { 
-            dis.close();
+            reader.close();
         }
         return pa;
     }
 
     /**
-     * Call this after finish() to get the data from a DataInputStream 
+     * Call this after finish() to get a ColumnSpillFile.Reader 
      * with all of the data for one of the columns.
-     * IT IS UP TO THE CALLER TO CLOSE THE DataInputStream.
-     * THIS USES ALMOST NO MEMORY.
+     * Use reader.read(pa, n) to read the next n values (in chunks).
+     * IT IS UP TO THE CALLER TO CLOSE THE Reader.
+     * THIS USES ALMOST NO MEMORY (one block of values).
      * 
      * <p>Missing values are still represented as destinationMissingValue or
      * destinationFillValue.
      * Use pa.table.convertToStandardMissingValues() if NaNs are needed.
      *
      * @param col   0..  the column number in the request (not the dataset)
-     * @return a DataInputStream ready to have the first element read
-     * @throws Throwable if trouble  (e.g., totalNRows > Integer.MAX_VALUE)
+     * @return a ColumnSpillFile.Reader ready to have the first element read
+     * @throws Throwable if trouble 
      */
-    public DataInputStream dataInputStream(int col) throws Throwable {
-        DataInputStream dis = new DataInputStream(File2.getDecompressedBufferedInputStream(
-            columnFileName(col)));
-        return dis;
+    public ColumnSpillFile.Reader columnReader(int col) throws Throwable {
+        return new ColumnSpillFile.Reader(columnFileName(col), columnEmptyPA(col));
     }
 
     public String columnFileName(int col) {
@@ -287,7 +298,9 @@ public class TableWriterAll extends TableWriter {
         Table table = makeEmptyTable();
 
         //ensure memory available    too bad this is after all data is gathered
+        //(and if ensureColumnFitsInMemory is false, writeSome didn't check)
         int nColumns = nColumns();
+        Math2.ensureArraySizeOkay(nRows(), "TableWriterAll.cumulativeTable");
         Math2.ensureMemoryAvailable(nColumns * nRows() * table.estimatedBytesPerRow(), //nRows() is a long
             "TableWriterAll.cumulativeTable");
 
@@ -313,8 +326,8 @@ public class TableWriterAll extends TableWriter {
             //delete columnStreams (if it was still saving data)
             if (columnStreams != null) {
                 for (int col = 0; col < columnStreams.length; col++) {
-                    //close the stream
-                    try {if (columnStreams[col] != null) columnStreams[col].close();} catch (Exception e) {}
+                    //close the stream (the data is no longer needed)
+                    if (columnStreams[col] != null) columnStreams[col].abort();
                     //an attempt to solve File2.delete problem on these files: it couldn't hurt
                     columnStreams[col] = null;  
                 }
@@ -58,6 +58,7 @@ public class TableWriterDistinct extends TableWriterAll {
 
         super(tEdd, tNewHistory, tDir, tFileNameNoExt); 
         otherTableWriter = tOtherTableWriter;
+        ensureColumnFitsInMemory = false; //see finish()
     }
 
 
@@ -102,6 +103,19 @@ public class TableWriterDistinct extends TableWriterAll {
         //close the dataOutputStreams
         super.finish();  //this throws Throwable if no data
 
+        //too many rows to sort in memory? sort them in runs, then merge them
+        if (ExternalSort.isNeeded(this)) {
+            int keys[] = new IntArray(0, nColumns() - 1).toArray();
+            try {
+                ExternalSort.sort(this, keys, true, false, 
+                    this::sortAndRemoveDuplicates, keys.length, otherTableWriter);
+            } finally {
+                releaseResources();
+            }
+            otherTableWriter = null;
+            return;
+        }
+
         //makeCumulativeTable
         Table table = cumulativeTable();   
         releaseResources();
@@ -49,6 +49,7 @@ public class TableWriterOrderBy extends TableWriterAll {
 
         super(tEdd, tNewHistory, tDir, tFileNameNoExt); 
         otherTableWriter = tOtherTableWriter;
+        ensureColumnFitsInMemory = false; //see finish()
         String err = EDStatic.queryError +
                "No column names were specified for 'orderBy'.";
         if (tOrderByCsv == null || tOrderByCsv.trim().length() == 0)
@@ -76,6 +77,20 @@ public class TableWriterOrderBy extends TableWriterAll {
 
         super.finish();
 
+        //too many rows to sort in memory? sort them in runs, then merge them
+        final int keys[] = ExternalSort.isNeeded(this)? 
+            ExternalSort.keyColumns(this, orderBy) : null;
+        if (keys != null) {
+            try {
+                ExternalSort.sort(this, keys, false, false, 
+                    null, 0, otherTableWriter);
+            } finally {
+                releaseResources();
+            }
+            otherTableWriter = null;
+            return;
+        }
+
         Table cumulativeTable = cumulativeTable();
         releaseResources();
         writeAllAndFinish(cumulativeTable);
@@ -89,6 +89,7 @@ public class TableWriterOrderByClosest extends TableWriterAll {
             throw new IllegalArgumentException(
                 EDStatic.queryError + Table.ORDER_BY_CLOSEST_ERROR + 
                 " (number=" + numberTimeUnits[0] + " must be a positive number)"); 
+        ensureColumnFitsInMemory = !ExternalSort.canSortBy(orderBy); //see finish()
     }
 
 
@@ -134,6 +135,20 @@ public class TableWriterOrderByClosest extends TableWriterAll {
 
         super.finish();
 
+        //too many rows to sort in memory? sort them in runs, then merge them
+        final int keys[] = ExternalSort.isNeeded(this)? 
+            ExternalSort.keyColumns(this, orderBy) : null;
+        if (keys != null) {
+            try {
+                ExternalSort.sort(this, keys, false, true, 
+                    t -> t.orderByClosest(keys, numberTimeUnits), keys.length - 1, otherTableWriter);
+            } finally {
+                releaseResources();
+            }
+            otherTableWriter = null;
+            return;
+        }
+
         Table cumulativeTable = cumulativeTable();
         releaseResources();
         cumulativeTable.orderByClosest(orderBy, numberTimeUnits); //it handles missing_values and _FillValues temporarily
@@ -16,11 +16,14 @@ import java.util.Arrays;
 import java.util.BitSet;
 
 /**
- * TableWriterDistinct provides a way to gather all rows,
- * sort them, then write to some other TableWriter.
- * This functions like SQL's ORDER BY.
+ * TableWriterOrderByCount provides a way to count the non-missing values
+ * of each column for each group of orderBy values, 
+ * then write the sorted results to some other TableWriter.
  *
- * <p>This sort is stable: equal elements will not be reordered as a result of the sort.
+ * <p>The counts are gathered with a hash aggregation as chunks of data arrive 
+ * (see GroupIndex), so the rows don't have to be sorted.
+ * Only if there are too many groups to hold in memory are the partial counts
+ * written to the column files, and then sorted and combined in finish().
  *
  * <p>This doesn't do anything to missing values and doesn't assume they are
  * stored as NaN or fake missing values.
@@ -37,6 +40,10 @@ public class TableWriterOrderByCount extends TableWriterAll {
     protected TableWriter otherTableWriter;
     public String orderBy[];
 
+    //the hash aggregation (see writeSome)
+    protected GroupIndex groupIndex;
+    protected Table groupsTable; //one row per group: the key values and the counts
+
     /**
      * The constructor.
      *
@@ -56,14 +63,12 @@ public class TableWriterOrderByCount extends TableWriterAll {
         orderBy = String2.isSomething(tOrderByCsv)?
             String2.split(tOrderByCsv, ','):
             new String[0]; //size==0 is okay
+        ensureColumnFitsInMemory = false; //see finish()
     }
 
 
     /**
-     * This adds the current contents of table (a chunk of data) to the OutputStream.
-     * This calls ensureCompatible each time it is called.
-     * If this is the first time this is called, this does first time things
-     *   (e.g., call OutputStreamSource.outputStream() and write file header).
+     * This adds the current contents of table (a chunk of data) to the counts.
      * The number of columns, the column names, and the types of columns 
      *   must be the same each time this is called.
      *
@@ -78,19 +83,68 @@ public class TableWriterOrderByCount extends TableWriterAll {
         if (table.nRows() == 0) 
             return;
 
-        //to save time and disk space, this just does a partial job 
-        //  (remove non-max rows from this partial table)
-        //  and leaves perfect job to finish()
+        //count each group in this chunk 
+        //(this rounds the keys, e.g., time/1day, and converts the other columns to counts)
         table.orderByCount(orderBy); //this handles missingValues and _FillValues permanently
+        int nRows = table.nRows();
+        int nCols = table.nColumns();
+        int keyCols[] = table.keyColumnNamesToNumbers("orderByCount", keyColumnNames());
+        int nKeyCols = keyCols.length;
+        boolean isKeyCol[] = new boolean[nCols]; //all false
+        PrimitiveArray keyPAs[] = new PrimitiveArray[nKeyCols];
+        for (int kc = 0; kc < nKeyCols; kc++) {
+            isKeyCol[keyCols[kc]] = true;
+            keyPAs[kc] = table.getColumn(keyCols[kc]);
+        }
+
+        //first time? make groupsTable (like table, but empty)
+        if (groupsTable == null) {
+            groupsTable = new Table();
+            groupsTable.globalAttributes().set(table.globalAttributes());
+            for (int col = 0; col < nCols; col++) {
+                PrimitiveArray pa = table.getColumn(col);
+                groupsTable.addColumn(col, table.getColumnName(col), 
+                    PrimitiveArray.factory(pa.elementType(), 8, false).setMaxIsMV(pa.getMaxIsMV()),
+                    (Attributes)table.columnAttributes(col).clone());
+            }
+            groupIndex = new GroupIndex(nKeyCols);
+        }
 
-        //ensure the table's structure is the same as before
-        //and write to dataOutputStreams
-        super.writeSome(table);
+        //add this chunk's counts to the groups' counts
+        for (int row = 0; row < nRows; row++) {
+            int group = groupIndex.group(keyPAs, row);
+            if (group == groupsTable.nRows()) {
+                //a new group: copy the key values and counts
+                for (int col = 0; col < nCols; col++)
+                    groupsTable.getColumn(col).addFromPA(table.getColumn(col), row);
+            } else {
+                for (int col = 0; col < nCols; col++) {
+                    if (!isKeyCol[col]) {
+                        PrimitiveArray pa = groupsTable.getColumn(col);
+                        pa.setInt(group, pa.getInt(group) + table.getColumn(col).getInt(row));
+                    }
+                }
+            }
+        }
+
+        //too many groups to hold in memory? 
+        //write the partial counts to the column files, so finish() will combine them
+        if (groupIndex.isTooBig(groupsTable.estimatedBytesPerRow())) {
+            if (verbose) String2.log("TableWriterOrderByCount: writing the counts for " + 
+                groupIndex.nGroups() + " groups to the column files.");
+            super.writeSome(groupsTable);
+            groupsTable.removeAllRows();
+            groupIndex.clear();
+        }
     }
 
+    /** The orderBy column names, without rounding (e.g., time, not time/1day). */
+    private String[] keyColumnNames() {
+        return Arrays.stream(orderBy).map((s)->s.split("/")[0]).toArray(size -> new String[size]);
+    }
 
     /**
-     * This processes the cumulativeTable, then writes it to otherTableWriter
+     * This processes the counts, then writes them to otherTableWriter
      * If ignoreFinish=true, nothing will be done.
      *
      * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
@@ -99,36 +153,25 @@ public class TableWriterOrderByCount extends TableWriterAll {
         if (ignoreFinish) 
             return;
 
+        //write the (remaining) groups to the column files
+        if (groupsTable != null) {
+            super.writeSome(groupsTable);
+            groupsTable = null;
+            groupIndex = null;
+        }
         super.finish();
 
-        Table cumTable = cumulativeTable();
-        releaseResources();
-
-        //combine results
+        //set the counts' metadata
         //missing_value and _FillValue are all done. All data are counts.
-        int nRows = cumTable.nRows();
-        int nCols = cumTable.nColumns();
-        int keyCols[] = cumTable.keyColumnNamesToNumbers("orderByCount",
-            // just get the column names, ignoring rounding e.g. time not time/1day
-            Arrays.stream(orderBy).map((s)->s.split("/")[0]).toArray(size -> new String[size]));
-        int nKeyCols = keyCols.length;
-
-        //sort based on keys
-        if (nKeyCols > 0)
-            cumTable.ascendingSort(keyCols); 
-        //String2.log(dataToString());
-
-        //note which are keyCol
+        int nCols = nColumns();
+        final int keyCols[] = makeEmptyTable().keyColumnNamesToNumbers("orderByCount", 
+            keyColumnNames());
         boolean isKeyCol[] = new boolean[nCols]; //all false
-        for (int kc = 0; kc < nKeyCols; kc++)
+        for (int kc = 0; kc < keyCols.length; kc++)
             isKeyCol[keyCols[kc]] = true;
-
-        //get pas and set units to "count"
-        PrimitiveArray pas[] = new PrimitiveArray[nCols];
         for (int col = 0; col < nCols; col++) {
-            pas[col] = cumTable.getColumn(col);
             if (!isKeyCol[col]) {
-                Attributes atts = cumTable.columnAttributes(col);
+                Attributes atts = columnAttributes(col); //makeEmptyTable() uses these
                 atts.set(   "_FillValue", Integer.MAX_VALUE);
                 atts.remove("actual_range");
                 atts.remove("cf_role");
@@ -144,6 +187,52 @@ public class TableWriterOrderByCount extends TableWriterAll {
             }
         }
 
+        //too many partial counts to sort in memory? sort them in runs, then merge them
+        if (ExternalSort.isNeeded(this)) {
+            try {
+                ExternalSort.sort(this, keyCols, false, false, 
+                    t -> combineCounts(t, keyCols), keyCols.length, otherTableWriter);
+            } finally {
+                releaseResources();
+            }
+            otherTableWriter = null;
+            return;
+        }
+
+        Table cumTable = cumulativeTable();
+        releaseResources();
+        combineCounts(cumTable, keyCols);
+
+        //send results to otherTableWriter;
+        otherTableWriter.writeAllAndFinish(cumTable);
+        otherTableWriter = null;
+    }
+
+    /**
+     * This sorts a table of partial counts by the keyCols, 
+     * then combines the counts for each group into one row.
+     *
+     * @param cumTable a table with key columns and count columns
+     * @param keyCols the key column numbers
+     */
+    private static void combineCounts(Table cumTable, int keyCols[]) {
+        int nRows = cumTable.nRows();
+        int nCols = cumTable.nColumns();
+        int nKeyCols = keyCols.length;
+
+        //sort based on keys
+        if (nKeyCols > 0)
+            cumTable.ascendingSort(keyCols); 
+        //String2.log(dataToString());
+
+        //note which are keyCol
+        boolean isKeyCol[] = new boolean[nCols]; //all false
+        for (int kc = 0; kc < nKeyCols; kc++)
+            isKeyCol[keyCols[kc]] = true;
+        PrimitiveArray pas[] = new PrimitiveArray[nCols];
+        for (int col = 0; col < nCols; col++) 
+            pas[col] = cumTable.getColumn(col);
+
         //walk through the table
         int resultsRow = -1;
         BitSet keep = new BitSet(nRows); //all false
@@ -180,10 +269,6 @@ public class TableWriterOrderByCount extends TableWriterAll {
 
         //just keep new group 
         cumTable.justKeep(keep);
-
-        //send results to otherTableWriter;
-        otherTableWriter.writeAllAndFinish(cumTable);
-        otherTableWriter = null;
     }
 
     //This uses super.writeAllAndFinish() because writeSome stores processed info
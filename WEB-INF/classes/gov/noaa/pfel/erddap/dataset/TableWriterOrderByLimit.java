@@ -75,6 +75,7 @@ public class TableWriterOrderByLimit extends TableWriterAll {
             throw new IllegalArgumentException(
                 EDStatic.queryError + Table.ORDER_BY_LIMIT_ERROR + 
                 " (limit=" + csv[csv.length - 1] + " must be a positive integer)"); 
+        ensureColumnFitsInMemory = !ExternalSort.canSortBy(orderBy); //see finish()
     }
 
 
@@ -120,6 +121,20 @@ public class TableWriterOrderByLimit extends TableWriterAll {
 
         super.finish();
 
+        //too many rows to sort in memory? sort them in runs, then merge them
+        final int keys[] = ExternalSort.isNeeded(this)? 
+            ExternalSort.keyColumns(this, orderBy) : null;
+        if (keys != null) {
+            try {
+                ExternalSort.sort(this, keys, false, true, 
+                    t -> t.orderByLimit(keys, limitN), keys.length, otherTableWriter);
+            } finally {
+                releaseResources();
+            }
+            otherTableWriter = null;
+            return;
+        }
+
         Table cumulativeTable = cumulativeTable();
         releaseResources();
         cumulativeTable.orderByLimit(orderBy, limitN); //this handles missingValues and _FillValues temporarily
@@ -14,6 +14,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.cohort.array.Attributes;
+import com.cohort.array.DoubleArray;
 import com.cohort.array.IntArray;
 import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
@@ -38,6 +39,10 @@ import gov.noaa.pfel.erddap.variable.EDV;
  * <p>This uses the incremental-averaging algorithm to calculate the means, e.g.,
  * https://math.stackexchange.com/questions/106700/incremental-averageing
  *
+ * <p>If there are too many groups to hold in memory (see GroupIndex.isTooBig),
+ * the partial means (with their counts) are written to the column files,
+ * and finish() combines the partial means for each group.
+ *
  * @author Bob Simons (bob.simons@noaa.gov) 2018-09-11
  * @author Rob Fuller (rob.fuller@marine.ie) 2018-09-11
  * @author Adam Leadbetter (adam.leadbetter@marine.ie) 2018-09-11
@@ -48,16 +53,17 @@ public class TableWriterOrderByMean extends TableWriterAll {
     //set by constructor
     protected final TableWriter otherTableWriter;
     public String orderBy[];
-    // maintains count of the number of values in average
-    protected final Map<String,int[]> counts = new HashMap<String,int[]>();
-    protected final Map<String,Integer> rowmap = new HashMap<String,Integer>();
-    // used when calculating degree means at the end, one key for each row.
-    protected final StringArray keymap = new StringArray();
-    protected final Map<String,DegreesAccumulator> degreesMap = new HashMap<String,DegreesAccumulator>();
+    // finds the row (group) in meansTable for each combination of key values
+    protected GroupIndex groupIndex;
+    // maintains count of the number of values in average, one int[nCols] for each row.
+    protected final ArrayList<int[]> counts = new ArrayList<int[]>();
+    // used when calculating degree means at the end, one DegreesAccumulator[nCols] (or null) for each row.
+    protected final ArrayList<DegreesAccumulator[]> degrees = new ArrayList<DegreesAccumulator[]>();
 
     protected Attributes oColumnAtts[] = null; //from incoming table or edd
     
     private int[] keyCols;
+    private Table.Rounder[] keyRounders; //for each keyCol, null if none
     private String cellMethods = null;
     private BitSet isKeyCol;
     private BitSet cannotMeanCol;
@@ -66,6 +72,7 @@ public class TableWriterOrderByMean extends TableWriterAll {
     private BitSet wasDecimalCol;
     private int timeCol = -1;
     private boolean configured = false;
+    private boolean spilled = false; //true if partial means were written to the column files
     private Table meansTable;
     private final Map<String,Table.Rounder> rounders = new HashMap<String,Table.Rounder>();
 
@@ -138,48 +145,46 @@ public class TableWriterOrderByMean extends TableWriterAll {
             //note that metadata hasn't been changed yet
         }
 
-        StringBuilder sbKey = new StringBuilder();
         double[] roundedValue = new double[nCols];
         BitSet isRounded = new BitSet(nCols);
         ROW:
         for (int row = 0; row < nRows; row++) {
-            sbKey.setLength(0);
+            //find the group (the row in meansTable) via a hash of the key values (not Strings)
+            groupIndex.startRow();
             for (int i=0; i<keyCols.length; i++) {
                 int col = keyCols[i];
                 PrimitiveArray column = table.getColumn(col);
-                String columnName = table.getColumnName(col);
                 if (column.isFloatingPointType() || column.isIntegerType()) {
                     double value = column.getNiceDouble(row);
-                    if (rounders.containsKey(columnName)) {
+                    if (keyRounders[i] != null) {
                         if (Double.isNaN(value)) {
                             // No value, cannot group by this...
                             continue ROW;
                         }
-                        value = rounders.get(columnName).round(value);
+                        value = keyRounders[i].round(value);
                         isRounded.set(col);
                         roundedValue[col] = value;
                     }
-                    sbKey.append(value);
+                    groupIndex.add(value);
                 } else {
-                    sbKey.append(column.getString(row));
+                    groupIndex.add(column.getString(row));
                 }
-                sbKey.append(":");
             }
-            String key = sbKey.toString();
-            int[] tCounts = counts.get(key);
-            if (tCounts == null) {
+            int idx = groupIndex.endRow();
+            int[] tCounts;
+            if (idx == counts.size()) {
+                //a new group
                 tCounts = new int[nCols];
-                int idx = counts.size();
-                counts.put(key, tCounts);
+                counts.add(tCounts);
+                degrees.add(null);
                 for (int col=0;col<nCols;col++) {
                     PrimitiveArray column = table.getColumn(col);
                     String value = column.getRawString(row);
                     meansTable.getColumn(col).addString(value);
                 }
-                rowmap.put(key, idx);
-                keymap.add(key);
+            } else {
+                tCounts = counts.get(idx);
             }
-            int idx = rowmap.get(key);
             for (int col=0;col<nCols;col++) {
                 PrimitiveArray column = table.getColumn(col);
                 if (cannotMeanCol.get(col)) {
@@ -201,11 +206,11 @@ public class TableWriterOrderByMean extends TableWriterAll {
                 }
                 //String2.log(">> row=" + row + " col=" + col + " val=" + value + " mean=" + mean);
                 if (degreesTrueCol.get(col)) {
-                    accumulateDegreesTrue(key + ":" + col, value);
+                    accumulateDegrees(idx, col, true, value);
                     continue;
                 }
                 if (degreesCol.get(col)) {
-                    accumulateDegrees(key + ":" + col, value);
+                    accumulateDegrees(idx, col, false, value);
                     continue;
                 }
                 tCounts[col] += 1;
@@ -218,6 +223,179 @@ public class TableWriterOrderByMean extends TableWriterAll {
                 meansTable.setDoubleData(col, idx, mean);
             }
         }
+
+        //too many groups to hold in memory? 
+        //write the partial means to the column files, so finish() will combine them
+        if (groupIndex.isTooBig(meansTable.estimatedBytesPerRow() + 4L * nCols)) {
+            if (verbose) String2.log("TableWriterOrderByMean: writing the partial means for " + 
+                groupIndex.nGroups() + " groups to the column files.");
+            super.writeSome(partialTable());
+            spilled = true;
+            meansTable.removeAllRows();
+            counts.clear();
+            degrees.clear();
+            groupIndex.clear();
+        }
+    }
+
+    /** This returns true if col's values are averaged with the incremental-averaging algorithm. */
+    private boolean isMeanCol(int col) {
+        return !isKeyCol.get(col) && !cannotMeanCol.get(col) && 
+            !degreesCol.get(col) && !degreesTrueCol.get(col);
+    }
+
+    /**
+     * This makes a table with the partial means of the current groups,
+     * with extra columns (at the end) with the information needed to combine them:
+     * the count for each mean column, and the count, meanx and meany 
+     * for each degrees column (whose value is the degrees if allSame, else NaN).
+     * The table shares meansTable's columns.
+     */
+    private Table partialTable() {
+        int nCols = meansTable.nColumns();
+        int nRows = meansTable.nRows();
+        Table partial = new Table();
+        for (int col = 0; col < nCols; col++) 
+            partial.addColumn(meansTable.getColumnName(col), meansTable.getColumn(col));
+        for (int col = 0; col < nCols; col++) {
+            String colName = meansTable.getColumnName(col);
+            if (isMeanCol(col)) {
+                IntArray n = new IntArray(nRows, false);
+                for (int row = 0; row < nRows; row++)
+                    n.add(counts.get(row)[col]);
+                partial.addColumn(colName + "_orderByMean_n", n);
+            } else if (degreesCol.get(col) || degreesTrueCol.get(col)) {
+                IntArray n = new IntArray(nRows, false);
+                DoubleArray x = new DoubleArray(nRows, false);
+                DoubleArray y = new DoubleArray(nRows, false);
+                for (int row = 0; row < nRows; row++) {
+                    DegreesAccumulator accums[] = degrees.get(row);
+                    DegreesAccumulator accum = accums == null? null : accums[col];
+                    n.add(accum == null? 0 : accum.count);
+                    x.add(accum == null? Double.NaN : accum.meanx);
+                    y.add(accum == null? Double.NaN : accum.meany);
+                    meansTable.setDoubleData(col, row, 
+                        accum == null || !accum.allSame? Double.NaN : accum.deg);
+                }
+                partial.addColumn(colName + "_orderByMean_n", n);
+                partial.addColumn(colName + "_orderByMean_x", x);
+                partial.addColumn(colName + "_orderByMean_y", y);
+            }
+        }
+        return partial;
+    }
+
+    /**
+     * This sorts a table of partial means (from partialTable()) by the keyCols, 
+     * combines the partial means for each group into one row,
+     * then removes the extra columns.
+     *
+     * @param table a table of partial means
+     */
+    private void combinePartialMeans(Table table) {
+        int nRows = table.nRows();
+        int nCols = oColumnAtts.length;
+        int nKeyCols = keyCols.length;
+
+        //sort based on keys
+        if (nKeyCols > 0)
+            table.sort(keyCols);
+
+        PrimitiveArray pas[] = new PrimitiveArray[nCols];
+        PrimitiveArray nPas[] = new PrimitiveArray[nCols]; //null if none
+        PrimitiveArray xPas[] = new PrimitiveArray[nCols];
+        PrimitiveArray yPas[] = new PrimitiveArray[nCols];
+        for (int col = 0; col < nCols; col++) {
+            pas[col] = table.getColumn(col);
+            String colName = table.getColumnName(col);
+            int nCol = table.findColumnNumber(colName + "_orderByMean_n");
+            if (nCol >= 0)
+                nPas[col] = table.getColumn(nCol);
+            if (degreesCol.get(col) || degreesTrueCol.get(col)) {
+                xPas[col] = table.getColumn(colName + "_orderByMean_x");
+                yPas[col] = table.getColumn(colName + "_orderByMean_y");
+            }
+        }
+
+        //walk through the table
+        int resultsRow = -1;
+        BitSet keep = new BitSet(nRows); //all false
+        for (int row = 0; row < nRows; row++) { 
+
+            //isNewGroup?
+            boolean isNewGroup = true;
+            if (row > 0) {
+                isNewGroup = false;
+                for (int kc = nKeyCols - 1; kc >= 0; kc--) { //count down more likely to find change sooner
+                    if (pas[keyCols[kc]].compare(row - 1, row) != 0) {
+                        isNewGroup = true;
+                        break;
+                    }
+                }
+            }
+            if (isNewGroup) {
+                resultsRow = row;  //results for this group will be merged onto this row
+                keep.set(row);
+                continue;
+            }
+
+            //combine this row's partial means with resultsRow's
+            for (int col = 0; col < nCols; col++) {
+                if (isKeyCol.get(col))
+                    continue;
+                PrimitiveArray pa = pas[col];
+                if (cannotMeanCol.get(col)) {
+                    // Keep the value only if all rows are the same.
+                    String prev = pa.getRawString(resultsRow);
+                    if (!("".equals(prev)||prev.equals(pa.getRawString(row)))) 
+                        pa.setString(resultsRow, "");
+                    continue;
+                }
+                if (nPas[col] == null)
+                    continue;
+                int ni = nPas[col].getInt(row);
+                if (ni == 0) 
+                    continue;
+                int nr = nPas[col].getInt(resultsRow);
+                int n = nr + ni;
+                nPas[col].setInt(resultsRow, n);
+                if (xPas[col] == null) {
+                    double mean = pa.getDouble(resultsRow);
+                    pa.setDouble(resultsRow, nr == 0? pa.getDouble(row) :
+                        mean + (pa.getDouble(row) - mean) * ni / n);
+                } else {
+                    double deg = pa.getDouble(resultsRow);
+                    pa.setDouble(resultsRow, nr == 0 || deg == pa.getDouble(row)? 
+                        pa.getDouble(row) : Double.NaN); //NaN if not allSame
+                    for (PrimitiveArray xy : new PrimitiveArray[]{xPas[col], yPas[col]}) {
+                        double mean = xy.getDouble(resultsRow);
+                        xy.setDouble(resultsRow, nr == 0? xy.getDouble(row) :
+                            mean + (xy.getDouble(row) - mean) * ni / n);
+                    }
+                }
+            }
+        }
+        table.justKeep(keep);
+
+        //calculate the degree means (as DegreesAccumulator.getMean() does)
+        nRows = table.nRows();
+        for (int col = 0; col < nCols; col++) {
+            if (xPas[col] == null)
+                continue;
+            boolean isDegreesTrue = degreesTrueCol.get(col);
+            for (int row = 0; row < nRows; row++) {
+                double d = Double.NaN;
+                if (nPas[col].getInt(row) > 0) {
+                    d = pas[col].getDouble(row);
+                    if (Double.isNaN(d))
+                        d = Math.toDegrees(Math.atan2(yPas[col].getDouble(row), xPas[col].getDouble(row)));
+                    d = isDegreesTrue? Math2.angle0360(d) : Math2.anglePM180(d);
+                }
+                pas[col].setDouble(row, d);
+            }
+        }
+
+        table.removeColumns(nCols, table.nColumns());
     }
     
 
@@ -265,6 +443,10 @@ public class TableWriterOrderByMean extends TableWriterAll {
             }
         });
         keyCols = tKeyCols.stream().mapToInt(i -> i).toArray();
+        keyRounders = new Table.Rounder[nKeyCols];
+        for (int k = 0; k < nKeyCols; k++)
+            keyRounders[k] = rounders.get(table.getColumnName(keyCols[k]));
+        groupIndex = new GroupIndex(nKeyCols);
         String colName[] = new String[ncols];
         String dataType[] = new String[ncols];
         oColumnAtts = new Attributes[ncols];
@@ -346,23 +528,18 @@ public class TableWriterOrderByMean extends TableWriterAll {
     }
 
 
-    private void accumulateDegrees(String key, double value) {
-        DegreesAccumulator accum = degreesMap.get(key);
-        if (accum == null) {
-            accum = new DegreesAccumulator(false); //not degrees true
-            degreesMap.put(key, accum);
+    private void accumulateDegrees(int idx, int col, boolean isDegreesTrue, double value) {
+        DegreesAccumulator accums[] = degrees.get(idx);
+        if (accums == null) {
+            accums = new DegreesAccumulator[meansTable.nColumns()];
+            degrees.set(idx, accums);
         }
-        //String2.log(">> accumulateDegrees " + key + " value=" + value);
-        accum.add(value);
-    }
-
-    private void accumulateDegreesTrue(String key, double value) {
-        DegreesAccumulator accum = degreesMap.get(key);
+        DegreesAccumulator accum = accums[col];
         if (accum == null) {
-            accum = new DegreesAccumulator(true); //is degrees true
-            degreesMap.put(key, accum);
+            accum = new DegreesAccumulator(isDegreesTrue); 
+            accums[col] = accum;
         }
-        //String2.log(">> accumulateDegrees " + key + " value=" + value);
+        //String2.log(">> accumulateDegrees idx=" + idx + " col=" + col + " value=" + value);
         accum.add(value);
     }
 
@@ -378,11 +555,11 @@ public class TableWriterOrderByMean extends TableWriterAll {
                 degreesTrueCol.get(col)) {
                 int nRows = meansTable.nRows();
                 for (int row = 0; row < nRows; row++) {
-                    String key = keymap.get(row)+":"+col;
-                    DegreesAccumulator accum = degreesMap.get(key); //will be null if 0 values for that group
+                    DegreesAccumulator accums[] = degrees.get(row);
+                    DegreesAccumulator accum = accums == null? null : accums[col]; //will be null if 0 values for that group
                     meansTable.setDoubleData(col, row, 
                         accum == null? Double.NaN : accum.getMean());
-                    //String2.log(">> " + key + " row=" + row + (accum == null? " null" : " mean=" + accum.getMean()));
+                    //String2.log(">> row=" + row + " col=" + col + (accum == null? " null" : " mean=" + accum.getMean()));
                     //if (accum != null) 
                     //    meansTable.setDoubleData(col, row, accum.getMean());
                 }
@@ -434,16 +611,22 @@ public class TableWriterOrderByMean extends TableWriterAll {
             return;
        
         if (keyCols != null) {
-            calculateDegreeMeans();
-            useIntegersWhereSensible();
-            if (keyCols.length > 0) 
-                meansTable.sort(keyCols);
-            super.writeSome(meansTable);
+            if (spilled) {
+                super.writeSome(partialTable());
+            } else {
+                calculateDegreeMeans();
+                useIntegersWhereSensible();
+                if (keyCols.length > 0) 
+                    meansTable.sort(keyCols);
+                super.writeSome(meansTable);
+            }
         }
         super.finish();  //this ensures there is data and thus configured=true
 
         Table cumulativeTable = cumulativeTable();
         releaseResources();
+        if (spilled)
+            combinePartialMeans(cumulativeTable);
 
         //improve metadata
         int nColumns = cumulativeTable.nColumns();
@@ -465,9 +648,9 @@ public class TableWriterOrderByMean extends TableWriterAll {
 
         //clean up
         meansTable = null;
-        degreesMap.clear();
+        groupIndex = null;
+        degrees.clear();
         counts.clear();
-        rowmap.clear();
     }
 
 
@@ -59,6 +59,7 @@ public class TableWriterOrderByMinMax extends TableWriterAll {
         orderBy = String2.split(tOrderByCsv, ',');
         if (orderBy.length == 0)
             throw new SimpleException(err);
+        ensureColumnFitsInMemory = !ExternalSort.canSortBy(orderBy); //see finish()
     }
 
 
@@ -104,6 +105,20 @@ public class TableWriterOrderByMinMax extends TableWriterAll {
 
         super.finish();
 
+        //too many rows to sort in memory? sort them in runs, then merge them
+        final int keys[] = ExternalSort.isNeeded(this)? 
+            ExternalSort.keyColumns(this, orderBy) : null;
+        if (keys != null) {
+            try {
+                ExternalSort.sort(this, keys, false, true, 
+                    t -> t.orderByMinMax(keys), keys.length - 1, otherTableWriter);
+            } finally {
+                releaseResources();
+            }
+            otherTableWriter = null;
+            return;
+        }
+
         Table cumulativeTable = cumulativeTable();
         releaseResources();
         cumulativeTable.orderByMinMax(orderBy); //this handles missingValues and _FillValues temporarily
@@ -0,0 +1,848 @@
+/*
+ * TimeSeriesCache Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.variable.EDV;
+import gov.noaa.pfel.erddap.variable.EDVGridAxis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TimeSeriesCache is an optional (see &lt;timeSeriesCache&gt; in datasets.xml),
+ * per-dataset, derived copy of an EDDGridFromFiles dataset's data values,
+ * transposed so that the values for each point (each combination of
+ * the non-leftmost axes' indices) are contiguous along the leftmost (usually time) axis.
+ * Normally, a request for a long time series at one point has to open
+ * and read every file in the aggregation (thousands of files for a daily dataset).
+ * With this, it is one contiguous read per point and data variable.
+ *
+ * <p>The cache is built in the background (by one daemon thread per dataset,
+ * started by LoadDatasets after the dataset is in place, see EDDGridFromFiles.startTimeSeriesCache)
+ * in datasetDir()/timeSeries/, in batches of leftmost axis values,
+ * and each batch is available as soon as it has been written.
+ * Each dataVariable's values are stored (as raw, big-endian source values)
+ * in tile files, each with tilePoints points. In a tile file, each point
+ * has room for capacity leftmost axis values, so new values (e.g., new files
+ * with later times) are added without rewriting the existing values.
+ * If an already cached file changes or is deleted, or the other axes change,
+ * the cache is discarded and rebuilt (in a new generation directory,
+ * so readers of the old generation are never given inconsistent values).
+ *
+ * <p>EDDGridFromFiles.getSourceData (which GridDataAccessor calls)
+ * routes requests for at least minNTimes leftmost axis values
+ * at no more than maxNPoints points to getData() here.
+ * If the cache can't answer (e.g., it hasn't been built that far yet),
+ * getData returns null and the request is handled the normal way.
+ * String variables aren't cached.
+ *
+ * <p>This is thread safe.
+ */
+public class TimeSeriesCache {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** Requests for fewer leftmost axis values than this aren't routed to the cache. */
+    public static int minNTimes = 100;
+
+    /** Requests for more points (non-leftmost axis combinations) than this aren't routed to the cache. */
+    public static int maxNPoints = 100;
+
+    /** The number of points in each tile file. */
+    public static int tilePoints = 4096;
+
+    /** The approximate maximum number of bytes of source values read per build batch. */
+    public static long buildMaxBytes = 64L * Math2.BytesPerMB;
+
+    /** The subdirectory of datasetDir() which holds the cache. */
+    public final static String DIR_NAME = "timeSeries/";
+
+    /** The name of the file (in the cache directory) that describes the cache. */
+    public final static String STATE_FILENAME = "state.txt";
+
+    /** The TimeSeriesCache for each datasetID which has one. */
+    private final static ConcurrentHashMap<String, TimeSeriesCache> byDatasetID =
+        new ConcurrentHashMap();
+
+    /**
+     * The lock for each cache directory. A builder holds its directory's lock
+     * while it runs, so only one builder (in this JVM) works in a directory at a time.
+     */
+    private final static ConcurrentHashMap<String, Object> dirLocks =
+        new ConcurrentHashMap();
+
+    /** Server-wide statistics. */
+    private static volatile long nHits = 0, nNotReady = 0, nErrors = 0;
+
+    /**
+     * A description of the cache's contents. Instances are immutable.
+     * The cache has values for leftmost axis indices 0 to nTimes-1.
+     */
+    static class State {
+        final String generation;      //the name of the subdirectory with the tile files
+        final String shapeSignature;  //see shapeSignature()
+        final int capacity;           //the number of leftmost axis values per point in the tile files
+        final int nTimes;             //the number of leftmost axis values in the cache
+        final String filesSignature;  //see filesSignature()
+
+        State(String tGeneration, String tShapeSignature, int tCapacity, int tNTimes,
+            String tFilesSignature) {
+            generation = tGeneration;
+            shapeSignature = tShapeSignature;
+            capacity = tCapacity;
+            nTimes = tNTimes;
+            filesSignature = tFilesSignature;
+        }
+
+        /** This returns the contents of the STATE_FILENAME file. */
+        String toFileContents() {
+            return
+                "generation=" + generation + "\n" +
+                "shapeSignature=" + shapeSignature + "\n" +
+                "capacity=" + capacity + "\n" +
+                "nTimes=" + nTimes + "\n" +
+                "filesSignature=" + filesSignature + "\n";
+        }
+
+        /**
+         * This parses the contents of a STATE_FILENAME file.
+         *
+         * @return the State, or null if trouble
+         */
+        static State parse(String contents) {
+            if (contents == null)
+                return null;
+            String gen = null, shape = null, files = null;
+            int cap = -1, nt = -1;
+            String lines[] = String2.split(contents, '\n');
+            for (int i = 0; i < lines.length; i++) {
+                int po = lines[i].indexOf('=');
+                if (po <= 0)
+                    continue;
+                String name = lines[i].substring(0, po);
+                String value = lines[i].substring(po + 1);
+                if      (name.equals("generation"))     gen = value;
+                else if (name.equals("shapeSignature")) shape = value;
+                else if (name.equals("capacity"))       cap = String2.parseInt(value);
+                else if (name.equals("nTimes"))         nt = String2.parseInt(value);
+                else if (name.equals("filesSignature")) files = value;
+            }
+            if (!String2.isSomething(gen) || !String2.isSomething(shape) ||
+                !String2.isSomething(files) ||
+                cap <= 0 || cap == Integer.MAX_VALUE ||
+                nt < 0 || nt == Integer.MAX_VALUE || nt > cap)
+                return null;
+            return new State(gen, shape, cap, nt, files);
+        }
+    }
+
+    private final EDDGridFromFiles eddGrid;
+    private final String dir; //with trailing slash
+    private final Object lock = new Object(); //for state changes and for waking the builder
+    private volatile State ready = null; //null until (part of) the cache can be used
+    private volatile boolean stop = false;
+    private int changeCount = 0; //guarded by lock. Incremented when the fileTable changes.
+    private boolean wakeUp = false; //guarded by lock
+    private Thread builder = null;
+
+    /**
+     * The constructor. Use forDataset() instead.
+     */
+    private TimeSeriesCache(EDDGridFromFiles tEddGrid) {
+        eddGrid = tEddGrid;
+        dir = tEddGrid.datasetDir() + DIR_NAME;
+    }
+
+    /**
+     * This makes a TimeSeriesCache for the dataset and starts its
+     * background builder. If the datasetID already had a TimeSeriesCache
+     * (e.g., from before the dataset was reloaded), the old one is stopped
+     * and the new one continues (or discards and rebuilds) its work
+     * (after the old builder has finished).
+     * Only EDDGridFromFiles.startTimeSeriesCache (which LoadDatasets calls) should call this.
+     *
+     * @param tEddGrid the dataset
+     * @return the new TimeSeriesCache
+     */
+    public static TimeSeriesCache forDataset(EDDGridFromFiles tEddGrid) {
+        final TimeSeriesCache tsc = new TimeSeriesCache(tEddGrid);
+        TimeSeriesCache previous = byDatasetID.put(tEddGrid.datasetID(), tsc);
+        if (previous != null)
+            previous.stop();
+        tsc.builder = new Thread("TimeSeriesCache " + tEddGrid.datasetID()) {
+            public void run() {
+                //the previous builder may still be writing to the same directory
+                synchronized (dirLock(tsc.dir)) {
+                    if (!tsc.stop)
+                        tsc.build();
+                }
+            }
+        };
+        tsc.builder.setDaemon(true);
+        tsc.builder.start();
+        return tsc;
+    }
+
+    /**
+     * This stops and removes the datasetID's TimeSeriesCache (if any),
+     * e.g., because the dataset was removed or no longer has &lt;timeSeriesCache&gt;.
+     * The files are left in place (a new TimeSeriesCache will reuse them if they are still valid).
+     *
+     * @param tDatasetID the datasetID
+     */
+    public static void removeDataset(String tDatasetID) {
+        if (tDatasetID == null)
+            return;
+        TimeSeriesCache tsc = byDatasetID.remove(tDatasetID);
+        if (tsc != null)
+            tsc.stop();
+    }
+
+    /**
+     * This returns the lock for a cache directory.
+     *
+     * @param tDir the cache directory
+     * @return the lock (always the same object for the same tDir)
+     */
+    static Object dirLock(String tDir) {
+        Object newLock = new Object();
+        Object oldLock = dirLocks.putIfAbsent(tDir, newLock);
+        return oldLock == null? newLock : oldLock;
+    }
+
+    /** This tells the builder to stop (soon). */
+    void stop() {
+        stop = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * EDDGridFromFiles.lowUpdate calls this after it changes the dirTable and fileTable.
+     * If any of the cached values may have changed, the cache immediately
+     * stops answering requests and the builder rebuilds it.
+     * Otherwise (e.g., just new files at the end), the builder adds the new values.
+     *
+     * @param tDirTable the new dirTable
+     * @param tFileTable the new fileTable
+     */
+    public void fileTableChanged(Table tDirTable, Table tFileTable) {
+        synchronized (lock) {
+            changeCount++;
+            State s = ready;
+            if (s != null &&
+                (!s.shapeSignature.equals(shapeSignature()) ||
+                 !s.filesSignature.equals(filesSignature(tDirTable, tFileTable, s.nTimes)))) {
+                ready = null;
+                if (verbose) String2.log("TimeSeriesCache " + eddGrid.datasetID() +
+                    ": cached files changed, so the cache will be rebuilt.");
+            }
+            wakeUp = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * This indicates if a request with these constraints is for a long time series
+     * at a few points, so that it should be routed to the cache.
+     *
+     * @param tConstraints the start, stride, stop for each axis variable
+     * @return true if it should be routed to the cache
+     */
+    public static boolean isTimeSeriesRequest(IntArray tConstraints) {
+        int nav = tConstraints.size() / 3;
+        if (nav < 1)
+            return false;
+        if (nIndices(tConstraints, 0) < minNTimes)
+            return false;
+        long nPoints = 1;
+        for (int av = 1; av < nav; av++)
+            nPoints *= nIndices(tConstraints, av);
+        return nPoints <= maxNPoints;
+    }
+
+    /**
+     * This gets the source data values for a request from the cache (if possible).
+     *
+     * @param tDataVariables the requested data variables
+     * @param tConstraints the start, stride, stop for each axis variable
+     * @return the source data values (one PrimitiveArray per tDataVariable,
+     *    in the same order that EDDGridFromFiles.getSourceDataFromFile would return them)
+     *    or null if this request shouldn't be or can't be answered by the cache
+     *    (so the caller should get the data the normal way).
+     */
+    public PrimitiveArray[] getData(EDV tDataVariables[], IntArray tConstraints) {
+        if (!isTimeSeriesRequest(tConstraints))
+            return null;
+        State s = ready;
+        if (s == null || tConstraints.get(2) >= s.nTimes) {
+            nNotReady++;
+            return null;
+        }
+        try {
+            long time = System.currentTimeMillis();
+            EDVGridAxis axisVariables[] = eddGrid.axisVariables();
+            EDV dataVariables[] = eddGrid.dataVariables();
+            int axisSizes[] = axisSizes(axisVariables);
+            int points[] = requestedPoints(tConstraints, axisSizes);
+            int t0 = tConstraints.get(0);
+            int tStride = tConstraints.get(1);
+            int t1 = tConstraints.get(2);
+            int ndv = tDataVariables.length;
+            PrimitiveArray results[] = new PrimitiveArray[ndv];
+            for (int dv = 0; dv < ndv; dv++) {
+                int dvi = String2.indexOfObject(dataVariables, tDataVariables[dv]);
+                PAType type = tDataVariables[dv].sourceDataPAType();
+                if (dvi < 0 || type == PAType.STRING)
+                    return null;
+                PrimitiveArray series[] = new PrimitiveArray[points.length];
+                String genDir = dir + s.generation + "/";
+                for (int pi = 0; pi < points.length; pi++) {
+                    series[pi] = readSeries(genDir, dvi, type, points[pi], s.capacity, t0, t1);
+                    if (tStride > 1)
+                        series[pi] = series[pi].subset(0, tStride, t1 - t0);
+                }
+                results[dv] = interleave(series, type);
+            }
+            nHits++;
+            if (verbose) String2.log("TimeSeriesCache " + eddGrid.datasetID() +
+                ".getData nPoints=" + points.length + " constraints=" + tConstraints +
+                " time=" + (System.currentTimeMillis() - time) + "ms");
+            return results;
+        } catch (Throwable t) {
+            //e.g., the generation was just replaced and deleted
+            nErrors++;
+            String2.log("TimeSeriesCache " + eddGrid.datasetID() +
+                ".getData caught (so the data will be gotten the normal way):\n" +
+                MustBe.throwableToString(t));
+            return null;
+        }
+    }
+
+    /**
+     * The builder thread's main loop.
+     * It loads the saved state (if still valid), then adds values to
+     * (or rebuilds) the cache until the cache is complete,
+     * then waits for fileTableChanged() to wake it up.
+     */
+    private void build() {
+        State s = null;
+        try {
+            String sar[] = String2.readFromFile(dir + STATE_FILENAME, String2.ISO_8859_1, 1);
+            if (sar[0].length() == 0) {
+                s = State.parse(sar[1]);
+                if (s != null &&
+                    (!s.shapeSignature.equals(shapeSignature()) ||
+                     !s.filesSignature.equals(filesSignature(eddGrid.getDirTable(),
+                         eddGrid.getFileTable(), s.nTimes))))
+                    s = null;
+                if (s != null) {
+                    ready = s;
+                    if (verbose) String2.log("TimeSeriesCache " + eddGrid.datasetID() +
+                        ": reusing the cache with nTimes=" + s.nTimes);
+                }
+            }
+        } catch (Throwable t) {
+            s = null;
+        }
+
+        while (!stop) {
+            try {
+                addValues();
+            } catch (Throwable t) {
+                String2.log("TimeSeriesCache " + eddGrid.datasetID() +
+                    " builder caught:\n" + MustBe.throwableToString(t));
+                Math2.sleep(60000); //don't retry immediately
+            }
+
+            //wait till fileTableChanged() or stop()
+            synchronized (lock) {
+                while (!wakeUp && !stop) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+                wakeUp = false;
+            }
+        }
+    }
+
+    /**
+     * This adds new values to the cache (or rebuilds it) until it has
+     * all of the dataset's current values.
+     *
+     * @throws Throwable if trouble
+     */
+    private void addValues() throws Throwable {
+        long startTime = System.currentTimeMillis();
+        int startNTimes = -1;
+        while (!stop) {
+            int tChangeCount;
+            synchronized (lock) {
+                tChangeCount = changeCount;
+            }
+            Table tDirTable  = eddGrid.getDirTable();
+            Table tFileTable = eddGrid.getFileTable();
+            EDVGridAxis axisVariables[] = eddGrid.axisVariables();
+            EDV dataVariables[] = eddGrid.dataVariables();
+            int axisSizes[] = axisSizes(axisVariables);
+            int nTimesNow = axisSizes[0];
+            int nPoints = nPoints(axisSizes);
+            String tShapeSignature = shapeSignature();
+
+            //is a new generation needed?
+            State s = ready;
+            if (s == null ||
+                !s.shapeSignature.equals(tShapeSignature) ||
+                !s.filesSignature.equals(filesSignature(tDirTable, tFileTable, s.nTimes)) ||
+                nTimesNow > s.capacity) {
+                ready = null;
+                if (File2.isDirectory(dir))
+                    File2.deleteAllFiles(dir, true, true); //all old generations
+                s = new State("" + System.currentTimeMillis(), tShapeSignature,
+                    capacityFor(nTimesNow), 0, filesSignature(tDirTable, tFileTable, 0));
+                File2.makeDirectory(dir + s.generation);
+                if (verbose) String2.log("TimeSeriesCache " + eddGrid.datasetID() +
+                    ": starting generation=" + s.generation + " nTimes=" + nTimesNow +
+                    " nPoints=" + nPoints + " capacity=" + s.capacity);
+            }
+            if (startNTimes < 0)
+                startNTimes = s.nTimes;
+            if (s.nTimes >= nTimesNow)
+                break; //it's complete
+
+            //read a batch of leftmost axis values for all points, and write it to the tile files
+            int maxElementSize = 1;
+            for (int dvi = 0; dvi < dataVariables.length; dvi++)
+                maxElementSize = Math.max(maxElementSize,
+                    PAType.elementSize(dataVariables[dvi].sourceDataPAType()));
+            int batchNTimes = (int)Math.max(1, Math.min(nTimesNow - s.nTimes,
+                buildMaxBytes / ((long)nPoints * maxElementSize)));
+            IntArray constraints = new IntArray();
+            constraints.add(s.nTimes);
+            constraints.add(1);
+            constraints.add(s.nTimes + batchNTimes - 1);
+            for (int av = 1; av < axisSizes.length; av++) {
+                constraints.add(0);
+                constraints.add(1);
+                constraints.add(axisSizes[av] - 1);
+            }
+            String genDir = dir + s.generation + "/";
+            for (int dvi = 0; dvi < dataVariables.length && !stop; dvi++) {
+                if (dataVariables[dvi].sourceDataPAType() == PAType.STRING)
+                    continue;
+                //not via the caches: the builder reads everything once, and mustn't evict
+                //the hot values from gridChunkCache (or count as a timeSeriesCache miss)
+                PrimitiveArray pa[] = eddGrid.getSourceData(tDirTable, tFileTable,
+                    new EDV[]{dataVariables[dvi]}, constraints, false);
+                writeBatch(genDir, dvi, pa[axisSizes.length], nPoints, s.capacity, s.nTimes);
+            }
+
+            //publish the new values (unless the fileTable changed while they were being written)
+            State newS = new State(s.generation, s.shapeSignature, s.capacity,
+                s.nTimes + batchNTimes,
+                filesSignature(tDirTable, tFileTable, s.nTimes + batchNTimes));
+            synchronized (lock) {
+                if (stop || tChangeCount != changeCount)
+                    continue; //start over, with the new fileTable
+                String error = String2.writeToFile(dir + STATE_FILENAME + ".tmp",
+                    newS.toFileContents(), String2.ISO_8859_1);
+                if (error.length() > 0)
+                    throw new RuntimeException(error);
+                File2.rename(dir + STATE_FILENAME + ".tmp", dir + STATE_FILENAME);
+                ready = newS;
+            }
+        }
+        State s = ready;
+        if (verbose && s != null && s.nTimes > startNTimes)
+            String2.log("TimeSeriesCache " + eddGrid.datasetID() +
+                ": added nTimes=" + (s.nTimes - Math.max(0, startNTimes)) +
+                " (now nTimes=" + s.nTimes + ") in " +
+                (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * This returns a signature (a hash) of the things which determine the layout
+     * of the tile files: the size of each non-leftmost axis,
+     * the dataVariables' sourceNames and source data types, and tilePoints.
+     */
+    private String shapeSignature() {
+        EDVGridAxis axisVariables[] = eddGrid.axisVariables();
+        EDV dataVariables[] = eddGrid.dataVariables();
+        StringBuilder sb = new StringBuilder();
+        for (int av = 1; av < axisVariables.length; av++)
+            sb.append(axisVariables[av].sourceName() + "[" + axisVariables[av].sourceValues().size() + "]\n");
+        for (int dv = 0; dv < dataVariables.length; dv++)
+            sb.append(dataVariables[dv].sourceName() + " " + dataVariables[dv].sourceDataPAType() + "\n");
+        sb.append("tilePoints=" + tilePoints);
+        return String2.md5Hex12(sb.toString());
+    }
+
+    /**
+     * This returns a signature (a hash) of the files which have values
+     * for leftmost axis indices 0 to nTimes-1 (their names, lastModified times,
+     * and positions in the dataset), so changes to any of those files can be detected.
+     *
+     * @param tDirTable the dataset's dirTable
+     * @param tFileTable the dataset's fileTable (sorted by the leftmost axis values)
+     * @param nTimes the number of leftmost axis values
+     * @return the signature
+     */
+    static String filesSignature(Table tDirTable, Table tFileTable, int nTimes) {
+        StringArray dirList      = (StringArray)tDirTable.getColumn(0);
+        ShortArray  ftDirIndex   = (ShortArray) tFileTable.getColumn(EDDGridFromFiles.FT_DIR_INDEX_COL);
+        StringArray ftFileList   = (StringArray)tFileTable.getColumn(EDDGridFromFiles.FT_FILE_LIST_COL);
+        LongArray   ftLastMod    = (LongArray)  tFileTable.getColumn(EDDGridFromFiles.FT_LAST_MOD_COL);
+        IntArray    ftNValues    = (IntArray)   tFileTable.getColumn(EDDGridFromFiles.FT_N_VALUES_COL);
+        IntArray    ftStartIndex = (IntArray)   tFileTable.getColumn(EDDGridFromFiles.FT_START_INDEX_COL);
+        StringBuilder sb = new StringBuilder("nTimes=" + nTimes + "\n");
+        int nFiles = ftStartIndex.size();
+        for (int ftRow = 0; ftRow < nFiles && ftStartIndex.get(ftRow) < nTimes; ftRow++)
+            sb.append(dirList.get(ftDirIndex.get(ftRow)) + ftFileList.get(ftRow) +
+                " " + ftLastMod.get(ftRow) + " " + ftStartIndex.get(ftRow) +
+                " " + ftNValues.get(ftRow) + "\n");
+        return String2.md5Hex12(sb.toString());
+    }
+
+    /** The number of indices selected by the start, stride, stop for axis av. */
+    static int nIndices(IntArray tConstraints, int av) {
+        int start = tConstraints.get(av * 3);
+        int stop  = tConstraints.get(av * 3 + 2);
+        return stop < start? 0 : (stop - start) / tConstraints.get(av * 3 + 1) + 1;
+    }
+
+    /** The size of each axis. */
+    static int[] axisSizes(EDVGridAxis axisVariables[]) {
+        int sizes[] = new int[axisVariables.length];
+        for (int av = 0; av < axisVariables.length; av++)
+            sizes[av] = axisVariables[av].sourceValues().size();
+        return sizes;
+    }
+
+    /**
+     * The number of points (combinations of the non-leftmost axes' indices).
+     *
+     * @throws RuntimeException if too many
+     */
+    static int nPoints(int axisSizes[]) {
+        long n = 1;
+        for (int av = 1; av < axisSizes.length; av++)
+            n *= axisSizes[av];
+        Math2.ensureArraySizeOkay(n, "TimeSeriesCache");
+        return (int)n;
+    }
+
+    /**
+     * The number of leftmost axis values per point that a new generation has room for.
+     * The extra room lets the cache grow (e.g., with daily files) without being rebuilt.
+     */
+    static int capacityFor(int nTimes) {
+        long n = nTimes + Math.max(256L, nTimes / 4L);
+        return n >= Integer.MAX_VALUE? Integer.MAX_VALUE - 1 : (int)n;
+    }
+
+    /**
+     * This returns the point indices (in the order of the source values,
+     * i.e., the last axis varies fastest) of the non-leftmost axis indices
+     * selected by the constraints.
+     *
+     * @param tConstraints the start, stride, stop for each axis variable
+     * @param axisSizes the size of each axis
+     * @return the point indices
+     */
+    static int[] requestedPoints(IntArray tConstraints, int axisSizes[]) {
+        int nav = axisSizes.length;
+        long n = 1;
+        for (int av = 1; av < nav; av++)
+            n *= nIndices(tConstraints, av);
+        Math2.ensureArraySizeOkay(n, "TimeSeriesCache");
+        int points[] = new int[(int)n];
+        int current[] = new int[nav];
+        for (int av = 1; av < nav; av++)
+            current[av] = tConstraints.get(av * 3);
+        for (int pi = 0; pi < n; pi++) {
+            long p = 0;
+            for (int av = 1; av < nav; av++)
+                p = p * axisSizes[av] + current[av];
+            points[pi] = (int)p;
+
+            //increment, last axis fastest
+            for (int av = nav - 1; av >= 1; av--) {
+                current[av] += tConstraints.get(av * 3 + 1);
+                if (current[av] <= tConstraints.get(av * 3 + 2))
+                    break;
+                current[av] = tConstraints.get(av * 3);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * This interleaves the time series for several points into the order of
+     * the source values (leftmost axis slowest, points fastest).
+     *
+     * @param series one PrimitiveArray per point, all the same size
+     * @param type the elementType of the series
+     * @return a new PrimitiveArray
+     */
+    static PrimitiveArray interleave(PrimitiveArray series[], PAType type) {
+        int nPoints = series.length;
+        int nTimes = nPoints == 0? 0 : series[0].size();
+        if (nPoints == 1)
+            return series[0];
+        PrimitiveArray pa = PrimitiveArray.factory(type, nPoints * nTimes, false);
+        for (int ti = 0; ti < nTimes; ti++)
+            for (int pi = 0; pi < nPoints; pi++)
+                pa.addFromPA(series[pi], ti);
+        return pa;
+    }
+
+    /** The name of the tile file with a dataVariable's values for a point. */
+    static String tileFileName(String genDir, int dvi, int point) {
+        return genDir + "dv" + dvi + "_tile" + (point / tilePoints) + ".bin";
+    }
+
+    /**
+     * This writes a batch of one dataVariable's source values
+     * (for leftmost axis indices time0 to time0 + batch.size()/nPoints - 1 and all points)
+     * to the tile files.
+     *
+     * @param genDir the generation's directory (with trailing slash)
+     * @param dvi the dataVariable's index
+     * @param batch the source values, in source order (leftmost axis slowest)
+     * @param nPoints the number of points
+     * @param capacity the generation's capacity
+     * @param time0 the leftmost axis index of the first value in the batch
+     * @throws Exception if trouble
+     */
+    static void writeBatch(String genDir, int dvi, PrimitiveArray batch,
+        int nPoints, int capacity, int time0) throws Exception {
+
+        int batchNTimes = batch.size() / nPoints;
+        Test.ensureEqual(batchNTimes * nPoints, batch.size(), "TimeSeriesCache.writeBatch: batch.size is wrong.");
+        int elementSize = batch.elementSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(batchNTimes * elementSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int tile0 = 0; tile0 < nPoints; tile0 += tilePoints) {
+            RandomAccessFile raf = new RandomAccessFile(tileFileName(genDir, dvi, tile0), "rw");
+            try {
+                int tile1 = Math.min(nPoints, tile0 + tilePoints);
+                for (int p = tile0; p < tile1; p++) {
+                    baos.reset();
+                    for (int ti = 0; ti < batchNTimes; ti++)
+                        batch.writeDos(dos, ti * nPoints + p);
+                    dos.flush();
+                    raf.seek(((long)(p - tile0) * capacity + time0) * elementSize);
+                    raf.write(baos.toByteArray());
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * This reads one point's time series (leftmost axis indices t0 to t1, inclusive)
+     * for one dataVariable from its tile file.
+     *
+     * @param genDir the generation's directory (with trailing slash)
+     * @param dvi the dataVariable's index
+     * @param type the dataVariable's sourceDataPAType
+     * @param point the point's index
+     * @param capacity the generation's capacity
+     * @param t0 the first leftmost axis index
+     * @param t1 the last leftmost axis index
+     * @return a PrimitiveArray with the values
+     * @throws Exception if trouble
+     */
+    static PrimitiveArray readSeries(String genDir, int dvi, PAType type,
+        int point, int capacity, int t0, int t1) throws Exception {
+
+        int n = t1 - t0 + 1;
+        int elementSize = PAType.elementSize(type);
+        byte bytes[] = new byte[n * elementSize];
+        RandomAccessFile raf = new RandomAccessFile(tileFileName(genDir, dvi, point), "r");
+        try {
+            raf.seek(((long)(point % tilePoints) * capacity + t0) * elementSize);
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        PrimitiveArray pa = PrimitiveArray.factory(type, n, false);
+        pa.readDis(new DataInputStream(new ByteArrayInputStream(bytes)), n);
+        return pa;
+    }
+
+    /**
+     * This returns a one line summary of the TimeSeriesCaches' statistics
+     * (for the status page).
+     */
+    public static String statistics() {
+        int nReady = 0;
+        for (TimeSeriesCache tsc : byDatasetID.values())
+            if (tsc.ready != null)
+                nReady++;
+        return "TimeSeriesCache: nDatasets=" + byDatasetID.size() +
+            ", nReady=" + nReady +
+            ", nHits=" + nHits + ", nNotReady=" + nNotReady + ", nErrors=" + nErrors;
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** TimeSeriesCache.basicTest");
+        int oMinNTimes = minNTimes;
+        int oMaxNPoints = maxNPoints;
+        int oTilePoints = tilePoints;
+        String genDir = File2.getSystemTempDirectory() + "TimeSeriesCacheTest/";
+        try {
+            minNTimes = 5;
+            maxNPoints = 4;
+            tilePoints = 3;
+
+            //isTimeSeriesRequest
+            Test.ensureEqual(isTimeSeriesRequest(new IntArray(new int[]{0, 1, 4,   2, 1, 3,  0, 1, 1})), true, "");
+            Test.ensureEqual(isTimeSeriesRequest(new IntArray(new int[]{0, 1, 3,   2, 1, 3,  0, 1, 1})), false, ""); //too few times
+            Test.ensureEqual(isTimeSeriesRequest(new IntArray(new int[]{0, 2, 9,   2, 1, 3,  0, 1, 1})), true, "");
+            Test.ensureEqual(isTimeSeriesRequest(new IntArray(new int[]{0, 1, 4,   2, 1, 4,  0, 1, 1})), false, ""); //too many points
+            Test.ensureEqual(isTimeSeriesRequest(new IntArray(new int[]{0, 1, 4})), true, ""); //just the leftmost axis
+
+            //dirLock
+            Test.ensureTrue(dirLock(genDir) == dirLock(genDir), "");
+            Test.ensureTrue(dirLock(genDir) != dirLock(genDir + "2/"), "");
+
+            //capacityFor
+            Test.ensureEqual(capacityFor(0), 256, "");
+            Test.ensureEqual(capacityFor(10000), 12500, "");
+
+            //requestedPoints   axisSizes [time][3][4]
+            int axisSizes[] = new int[]{10, 3, 4};
+            Test.ensureEqual(nPoints(axisSizes), 12, "");
+            Test.ensureEqual(requestedPoints(new IntArray(new int[]{0, 1, 9,  1, 1, 2,  0, 3, 3}), axisSizes),
+                new int[]{4, 7, 8, 11}, "");
+            Test.ensureEqual(requestedPoints(new IntArray(new int[]{0, 1, 9,  2, 1, 2,  1, 1, 1}), axisSizes),
+                new int[]{9}, "");
+            Test.ensureEqual(requestedPoints(new IntArray(new int[]{0, 1, 9}), new int[]{10}),
+                new int[]{0}, "");
+
+            //interleave
+            PrimitiveArray series[] = new PrimitiveArray[]{
+                new IntArray(new int[]{1, 2, 3}), new IntArray(new int[]{11, 12, 13})};
+            Test.ensureEqual(interleave(series, PAType.INT).toString(), "1, 11, 2, 12, 3, 13", "");
+
+            //write 2 batches and read them back   [time=10][nPoints=5], value = time*100 + point
+            if (File2.isDirectory(genDir))
+                File2.deleteAllFiles(genDir, true, true);
+            File2.makeDirectory(genDir);
+            int nPoints = 5;
+            int capacity = 12;
+            for (int batch = 0; batch < 2; batch++) {
+                FloatArray fa = new FloatArray();
+                DoubleArray da = new DoubleArray();
+                for (int t = batch * 5; t < batch * 5 + 5; t++) {
+                    for (int p = 0; p < nPoints; p++) {
+                        fa.add(t * 100 + p);
+                        da.add(t * 100 + p + 0.5);
+                    }
+                }
+                writeBatch(genDir, 0, fa, nPoints, capacity, batch * 5);
+                writeBatch(genDir, 1, da, nPoints, capacity, batch * 5);
+            }
+            Test.ensureTrue(File2.isFile(genDir + "dv0_tile0.bin"), "");
+            Test.ensureTrue(File2.isFile(genDir + "dv0_tile1.bin"), ""); //points 3 and 4
+            Test.ensureEqual(readSeries(genDir, 0, PAType.FLOAT, 0, capacity, 0, 9).toString(),
+                "0.0, 100.0, 200.0, 300.0, 400.0, 500.0, 600.0, 700.0, 800.0, 900.0", "");
+            Test.ensureEqual(readSeries(genDir, 0, PAType.FLOAT, 4, capacity, 3, 6).toString(),
+                "304.0, 404.0, 504.0, 604.0", "");
+            Test.ensureEqual(readSeries(genDir, 1, PAType.DOUBLE, 2, capacity, 8, 9).toString(),
+                "802.5, 902.5", "");
+
+            //State
+            State s = new State("123", "abc", 12, 10, "def");
+            State s2 = State.parse(s.toFileContents());
+            Test.ensureEqual(s2.toFileContents(), s.toFileContents(), "");
+            Test.ensureEqual(State.parse("generation=123\nshapeSignature=abc\ncapacity=12\nnTimes=13\nfilesSignature=def\n"),
+                null, ""); //nTimes > capacity
+            Test.ensureEqual(State.parse(""), null, "");
+
+        } finally {
+            minNTimes = oMinNTimes;
+            maxNPoints = oMaxNPoints;
+            tilePoints = oTilePoints;
+            File2.deleteAllFiles(genDir, true, true);
+            File2.delete(genDir);
+        }
+
+        String2.log("TimeSeriesCache.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ TimeSeriesCache.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -61,6 +61,11 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
@@ -288,12 +293,45 @@ public static boolean developmentMode = false;
     public final static int DEFAULT_decompressedCacheMaxMinutesOld = 15;
     public final static int DEFAULT_nGridThreads = 1;
     public final static int DEFAULT_nTableThreads = 1;
+    public final static int DEFAULT_tableRowGroupSize = 0; //0=don't make row group tables
+    public final static int DEFAULT_tableThreadPoolSize = 0; //0=use the number of CPU cores
+    public final static int DEFAULT_gridThreadPoolSize = 0; //0=use the number of CPU cores
+    public final static int DEFAULT_gridMaxChunkReadsPerDataset = 0; //0=no per-dataset limit
+    public final static int DEFAULT_updateMaxEvents = 10;
+    public final static int DEFAULT_responseCacheMaxGB = 10; //for all datasets' response files together
+    public final static int DEFAULT_requestSchedulerMaxActive = 0; //0=no limit for all clients together
+    public final static int DEFAULT_requestMaxEstimatedSeconds = 0; //0=no limit
+    public final static int DEFAULT_ncFilePoolMaxOpen = 200; //0=don't pool NetcdfFiles
+    public final static int DEFAULT_gridChunkCacheMaxMB = 256; //0=don't cache grid data values
+    public final static int DEFAULT_dapMaxConnectionsPerDataset = 0; //0=no per-dataset limit, 1=one sub-request at a time
     public static String          DEFAULT_palettes[]   = null; //set when messages.xml is read
     public static HashSet<String> DEFAULT_palettes_set = null;  //set when messages.xml is read
     public static int decompressedCacheMaxGB         = DEFAULT_decompressedCacheMaxGB; 
     public static int decompressedCacheMaxMinutesOld = DEFAULT_decompressedCacheMaxMinutesOld; 
     public static int nGridThreads                   = DEFAULT_nGridThreads;  //will be a valid number 1+
     public static int nTableThreads                  = DEFAULT_nTableThreads; //will be a valid number 1+
+    public static int tableRowGroupSize              = DEFAULT_tableRowGroupSize; //0=off, else 100+
+    public static int tableThreadPoolSize            = DEFAULT_tableThreadPoolSize; //0=nCores, else 1+
+    private static ThreadPoolExecutor tableThreadPool = null; //created when first needed
+    public static int gridThreadPoolSize             = DEFAULT_gridThreadPoolSize; //0=nCores, else 1+
+    public static int gridMaxChunkReadsPerDataset    = DEFAULT_gridMaxChunkReadsPerDataset; //0=no limit, else 1+
+    private static ThreadPoolExecutor gridThreadPool = null; //created when first needed
+    public static int updateMaxEvents                = DEFAULT_updateMaxEvents; //will be a valid number 1+
+    public static int responseCacheMaxGB             = DEFAULT_responseCacheMaxGB; //will be a valid number 1+
+    public static int requestSchedulerMaxActive      = DEFAULT_requestSchedulerMaxActive; //0=no limit, else 1+
+    public static int requestMaxEstimatedSeconds     = DEFAULT_requestMaxEstimatedSeconds; //0=no limit, else 1+
+    public static int ncFilePoolMaxOpen              = DEFAULT_ncFilePoolMaxOpen; //0=off, else 1+
+    public static int gridChunkCacheMaxMB            = DEFAULT_gridChunkCacheMaxMB; //0=off, else 1+
+    public static int dapMaxConnectionsPerDataset    = DEFAULT_dapMaxConnectionsPerDataset; //0=no limit, else 1+
+    private static ThreadPoolExecutor dapThreadPool = null; //created when first needed
+    private static ConcurrentHashMap<String,Semaphore> dapConnectionSemaphores = 
+        new ConcurrentHashMap(); //datasetID -> Semaphore with dapMaxConnectionsPerDataset permits
+    private static volatile int dapConnectionSemaphoresPermits = DEFAULT_dapMaxConnectionsPerDataset;
+    public final static RequestScheduler requestScheduler = new RequestScheduler(
+        DEFAULT_requestSchedulerMaxActive, DEFAULT_ipAddressMaxRequestsActive);
+    private static ConcurrentHashMap<String,Semaphore> gridChunkReadSemaphores = 
+        new ConcurrentHashMap(); //datasetID -> Semaphore with gridMaxChunkReadsPerDataset permits
+    private static volatile int gridChunkReadSemaphoresPermits = DEFAULT_gridMaxChunkReadsPerDataset;
     public static String convertInterpolateRequestCSVExample = null;         //may be null or ""
     public static String convertInterpolateDatasetIDVariableList[] = new String[0]; //may be [0]
 
@@ -3877,6 +3915,16 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
         sb.append(SgtMap.rivers.statsString() + "\n");
         sb.append(SgtUtil.isBufferedImageAccelerated() + "\n");
         sb.append(String2.canonicalStatistics() + "\n");
+        sb.append(tableThreadPoolStatistics() + "\n");
+        sb.append(gridThreadPoolStatistics() + "\n");
+        sb.append(dapThreadPoolStatistics() + "\n");
+        sb.append(DapFetcher.statistics() + "\n");
+        sb.append(ResponseCache.statistics() + "\n");
+        sb.append(SingleFlight.statistics() + "\n");
+        sb.append(requestScheduler.statistics() + "\n");
+        sb.append(NcHelper.filePool.statistics() + "\n");
+        sb.append(EDDGridFromFiles.gridChunkCache.statistics() + "\n");
+        sb.append(TimeSeriesCache.statistics() + "\n");
         sb.append('\n');
 
     }
@@ -4228,6 +4276,225 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
             "</pre><hr><p>&nbsp;<p>\n";
     }
 
+    /**
+     * This applies requestSchedulerMaxActive and ipAddressMaxRequestsActive 
+     * to requestScheduler (e.g., after datasets.xml was reread).
+     */
+    public static void updateRequestScheduler() {
+        requestScheduler.setMaxActive(requestSchedulerMaxActive, ipAddressMaxRequestsActive);
+    }
+
+    /**
+     * This returns the server-wide pool of threads that EDDTableFromFiles datasets
+     * use to read data files when nThreads &gt; 1.
+     * All requests share this pool (instead of each request making its own
+     * ExecutorService), so threads aren't created and destroyed for each request,
+     * and idle threads work on whichever request's tasks are waiting.
+     * Each request limits how many of its tasks are pending at once (its nThreads),
+     * so one request can't monopolize the pool.
+     * If tableThreadPoolSize changed (e.g., datasets.xml was reread), 
+     * the pool is resized here.
+     *
+     * @return the shared pool
+     */
+    public static synchronized ThreadPoolExecutor tableThreadPool() {
+        tableThreadPool = makeOrResizeThreadPool(tableThreadPool, "tableThreadPool", 
+            tableThreadPoolSize);
+        return tableThreadPool;
+    }
+
+    /**
+     * This returns a one line summary of the tableThreadPool's activity (for the status page).
+     */
+    public static synchronized String tableThreadPoolStatistics() {
+        return threadPoolStatistics(tableThreadPool, "tableThreadPool");
+    }
+
+    /**
+     * This returns the server-wide pool of threads that GridDataAccessor uses
+     * to get chunks of data from EDDGrid datasets when nThreads &gt; 1.
+     * This is the grid equivalent of tableThreadPool(): all requests share
+     * the pool, so the total number of chunk reads in progress is bounded
+     * by gridThreadPoolSize (plus the requests' own threads).
+     * Each request queues at most nThreads-1 chunks ahead of the chunk it
+     * is currently writing (prefetching), so one request can't monopolize the pool.
+     *
+     * @return the shared pool
+     */
+    public static synchronized ThreadPoolExecutor gridThreadPool() {
+        gridThreadPool = makeOrResizeThreadPool(gridThreadPool, "gridThreadPool", 
+            gridThreadPoolSize);
+        return gridThreadPool;
+    }
+
+    /**
+     * This returns a one line summary of the gridThreadPool's activity (for the status page).
+     */
+    public static synchronized String gridThreadPoolStatistics() {
+        return threadPoolStatistics(gridThreadPool, "gridThreadPool") + 
+            " maxChunkReadsPerDataset=" + (gridMaxChunkReadsPerDataset > 0? 
+                "" + gridMaxChunkReadsPerDataset : "(no limit)");
+    }
+
+    /**
+     * This returns the semaphore which limits the number of chunk reads 
+     * which may be in progress at once (from all requests) for a given EDDGrid dataset.
+     * If gridMaxChunkReadsPerDataset changed (e.g., datasets.xml was reread),
+     * new semaphores are made (threads holding permits from old semaphores 
+     * just release them to the old semaphores).
+     *
+     * @param tDatasetID
+     * @return the semaphore, or null if there is no per-dataset limit
+     */
+    public static Semaphore gridChunkReadSemaphore(String tDatasetID) {
+        int permits = gridMaxChunkReadsPerDataset;
+        if (permits <= 0)
+            return null;
+        if (permits != gridChunkReadSemaphoresPermits) {
+            synchronized(gridChunkReadSemaphores) {
+                if (permits != gridChunkReadSemaphoresPermits) {
+                    gridChunkReadSemaphores.clear();
+                    gridChunkReadSemaphoresPermits = permits;
+                }
+            }
+        }
+        Semaphore semaphore = gridChunkReadSemaphores.get(tDatasetID);
+        if (semaphore == null) {
+            semaphore = new Semaphore(permits, true); //fair, so first come, first served
+            Semaphore oldSemaphore = gridChunkReadSemaphores.putIfAbsent(tDatasetID, semaphore);
+            if (oldSemaphore != null)
+                semaphore = oldSemaphore;
+        }
+        return semaphore;
+    }
+
+    /**
+     * This returns the server-wide pool of threads that EDDGridFromDap datasets
+     * use to get sub-requests from their remote OPeNDAP sources concurrently 
+     * (see DapFetcher). Since the threads mostly wait for the remote servers,
+     * the pool has dapMaxSubRequests() threads per CPU core.
+     * The number of sub-requests in progress for each dataset is limited by 
+     * dapConnectionSemaphore().
+     *
+     * @return the shared pool
+     */
+    public static synchronized ThreadPoolExecutor dapThreadPool() {
+        dapThreadPool = makeOrResizeThreadPool(dapThreadPool, "dapThreadPool", 
+            Math.max(2, Runtime.getRuntime().availableProcessors()) * dapMaxSubRequests());
+        return dapThreadPool;
+    }
+
+    /**
+     * This returns the maximum number of pieces that EDDGridFromDap splits 
+     * each data variable's request into (see DapFetcher.nPieces):
+     * dapMaxConnectionsPerDataset, or 4 if there is no per-dataset limit (0).
+     *
+     * @return the maximum number of sub-requests per data variable (1+)
+     */
+    public static int dapMaxSubRequests() {
+        return dapMaxConnectionsPerDataset > 0? dapMaxConnectionsPerDataset : 4;
+    }
+
+    /**
+     * This returns a one line summary of the dapThreadPool's activity (for the status page).
+     */
+    public static synchronized String dapThreadPoolStatistics() {
+        return threadPoolStatistics(dapThreadPool, "dapThreadPool") + 
+            " maxConnectionsPerDataset=" + (dapMaxConnectionsPerDataset > 0? 
+                "" + dapMaxConnectionsPerDataset : "(no limit)");
+    }
+
+    /**
+     * This returns the semaphore which limits the number of connections
+     * (sub-requests) which may be in progress at once (from all requests) 
+     * from a given EDDGridFromDap dataset to its remote source.
+     * If dapMaxConnectionsPerDataset changed (e.g., datasets.xml was reread),
+     * new semaphores are made (threads holding permits from old semaphores 
+     * just release them to the old semaphores).
+     *
+     * @param tDatasetID
+     * @return the semaphore, or null if there is no per-dataset limit
+     */
+    public static Semaphore dapConnectionSemaphore(String tDatasetID) {
+        int permits = dapMaxConnectionsPerDataset;
+        if (permits <= 0)
+            return null;
+        if (permits != dapConnectionSemaphoresPermits) {
+            synchronized(dapConnectionSemaphores) {
+                if (permits != dapConnectionSemaphoresPermits) {
+                    dapConnectionSemaphores.clear();
+                    dapConnectionSemaphoresPermits = permits;
+                }
+            }
+        }
+        Semaphore semaphore = dapConnectionSemaphores.get(tDatasetID);
+        if (semaphore == null) {
+            semaphore = new Semaphore(permits, true); //fair, so first come, first served
+            Semaphore oldSemaphore = dapConnectionSemaphores.putIfAbsent(tDatasetID, semaphore);
+            if (oldSemaphore != null)
+                semaphore = oldSemaphore;
+        }
+        return semaphore;
+    }
+
+    /**
+     * This makes a pool of daemon threads (if pool is null) or resizes it 
+     * (if nThreads changed).
+     * Callers must synchronize on EDStatic.class.
+     *
+     * @param pool the current pool (or null if not yet created)
+     * @param name the name of the pool (used for thread names and logging)
+     * @param nThreads the desired number of threads (0=use the number of CPU cores)
+     * @return the (possibly new) pool
+     */
+    private static ThreadPoolExecutor makeOrResizeThreadPool(ThreadPoolExecutor pool,
+        final String name, int nThreads) {
+
+        int n = nThreads > 0? nThreads : 
+            Math.max(2, Runtime.getRuntime().availableProcessors());
+        if (pool == null) {
+            final AtomicInteger threadNumber = new AtomicInteger(0);
+            pool = new ThreadPoolExecutor(n, n, 
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            pool.allowCoreThreadTimeOut(true); //so idle threads go away
+            String2.log(name + " was created with nThreads=" + n);
+        } else if (pool.getMaximumPoolSize() != n) {
+            //order matters: core can't be > max
+            if (n > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(n);
+                pool.setCorePoolSize(n);
+            } else {
+                pool.setCorePoolSize(n);
+                pool.setMaximumPoolSize(n);
+            }
+            String2.log(name + " was resized to nThreads=" + n);
+        }
+        return pool;
+    }
+
+    /**
+     * This returns a one line summary of a thread pool's activity (for the status page).
+     *
+     * @param pool the pool (or null if not yet created)
+     * @param name the name of the pool
+     */
+    private static String threadPoolStatistics(ThreadPoolExecutor pool, String name) {
+        if (pool == null)
+            return name + ": not yet used";
+        return name + ": maxThreads=" + pool.getMaximumPoolSize() + 
+            " currentThreads=" + pool.getPoolSize() + 
+            " activeThreads=" + pool.getActiveCount() + 
+            " queuedTasks=" + pool.getQueue().size() + 
+            " completedTasks=" + pool.getCompletedTaskCount();
+    }
+
     /** This interrupts/kill all of the thredds in runningThreads. 
      *  Erddap.destroy calls this when tomcat is stopped.
      */
@@ -4242,6 +4509,16 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
             //shutdown Cassandra clusters/sessions
             EDDTableFromCassandra.shutdown();
 
+            //shutdown the tableThreadPool and gridThreadPool
+            synchronized(EDStatic.class) {
+                if (tableThreadPool != null) 
+                    tableThreadPool.shutdownNow();
+                tableThreadPool = null;
+                if (gridThreadPool != null) 
+                    gridThreadPool.shutdownNow();
+                gridThreadPool = null;
+            }
+
             //interrupt all of them
             for (int i = 0; i < names.length; i++) {
                 try {
@@ -0,0 +1,384 @@
+/*
+ * RequestScheduler Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * RequestScheduler admits expensive requests (e.g., griddap and tabledap data
+ * requests, /files/ downloads) by weighted fair share per client
+ * (a logged in user or an IP address), so a few bulk downloaders can't
+ * starve interactive users.
+ *
+ * <p>At most clientMaxActive admitted requests are active at once for each client,
+ * and (optionally, if maxActive &gt; 0) at most maxActive for all clients.
+ * When a slot is free, the waiting request with the smallest finish tag
+ * is admitted (start-time fair queueing): each request gets
+ * startTag=max(virtualTime, the client's previous finishTag) and
+ * finishTag=startTag+cost, where cost is the request's estimated cost
+ * (e.g., the number of KB of data it will read).
+ * So each client gets an equal share of the server, and a client's
+ * cheap requests aren't stuck behind its (or other clients') big ones.
+ *
+ * <p>Cheap requests (e.g., metadata requests) should use the fast lane:
+ * i.e., they don't call admit() at all.
+ *
+ * <p>This is thread safe.
+ */
+public class RequestScheduler {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** The cost of a request if there is no better estimate (in KB). */
+    public final static long DEFAULT_COST = 1024;
+
+    /** Info about one client. */
+    private static class Client {
+        final String key;
+        int nActive = 0;
+        int nWaiting = 0;
+        double lastFinishTag = 0;
+
+        Client(String tKey) {
+            key = tKey;
+        }
+    }
+
+    /** A request which is waiting to be admitted. */
+    private static class Waiter implements Comparable<Waiter> {
+        final Client client;
+        final long seq;
+        final double startTag, finishTag;
+        boolean admitted = false;
+
+        Waiter(Client tClient, long tSeq, double tStartTag, double tFinishTag) {
+            client = tClient;
+            seq = tSeq;
+            startTag = tStartTag;
+            finishTag = tFinishTag;
+        }
+
+        public int compareTo(Waiter o) {
+            int c = Double.compare(finishTag, o.finishTag);
+            return c != 0? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    /** An admitted request. The caller must call release() (in a finally block) when it is done. */
+    public class Ticket {
+        private final Client client;
+        private boolean released = false;
+
+        private Ticket(Client tClient) {
+            client = tClient;
+        }
+
+        /** This releases the request's slot. Calling this more than once is harmless. */
+        public void release() {
+            synchronized (RequestScheduler.this) {
+                if (released)
+                    return;
+                released = true;
+                nActive--;
+                client.nActive--;
+                forgetIfIdle(client);
+                dispatch();
+            }
+        }
+    }
+
+    //all guarded by this
+    private int maxActive;
+    private int clientMaxActive;
+    private int nActive = 0;
+    private double virtualTime = 0;
+    private long seq = 0;
+    private long nAdmitted = 0, nWaited = 0, nTimedOut = 0;
+    private final HashMap<String, Client> clients = new HashMap();
+    private final TreeSet<Waiter> waiting = new TreeSet();
+
+    /**
+     * The constructor.
+     *
+     * @param tMaxActive the maximum number of active admitted requests (for all clients),
+     *   or &lt;=0 for no limit.
+     * @param tClientMaxActive the maximum number of active admitted requests for each client. 1+
+     */
+    public RequestScheduler(int tMaxActive, int tClientMaxActive) {
+        maxActive = Math.max(0, tMaxActive);
+        clientMaxActive = Math.max(1, tClientMaxActive);
+    }
+
+    /**
+     * This changes maxActive and clientMaxActive (e.g., because datasets.xml was reread).
+     *
+     * @param tMaxActive the maximum number of active admitted requests (for all clients),
+     *   or &lt;=0 for no limit.
+     * @param tClientMaxActive the maximum number of active admitted requests for each client. 1+
+     */
+    public synchronized void setMaxActive(int tMaxActive, int tClientMaxActive) {
+        maxActive = Math.max(0, tMaxActive);
+        clientMaxActive = Math.max(1, tClientMaxActive);
+        dispatch();
+    }
+
+    /**
+     * This waits until the request is admitted.
+     *
+     * @param clientKey identifies the client, e.g., loggedInAs or the ipAddress
+     * @param cost the estimated cost of the request (e.g., in KB). Values &lt; 1 are treated as 1.
+     * @param timeoutMillis the maximum time to wait
+     * @return the Ticket. The caller must call ticket.release() (in a finally block) when it is done.
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws TimeoutException if the request wasn't admitted within timeoutMillis
+     */
+    public synchronized Ticket admit(String clientKey, long cost, long timeoutMillis)
+        throws InterruptedException, TimeoutException {
+
+        Client client = clients.get(clientKey);
+        if (client == null) {
+            client = new Client(clientKey);
+            clients.put(clientKey, client);
+        }
+        double startTag = Math.max(virtualTime, client.lastFinishTag);
+        Waiter waiter = new Waiter(client, seq++, startTag, startTag + Math.max(1, cost));
+        client.lastFinishTag = waiter.finishTag;
+        client.nWaiting++;
+        waiting.add(waiter);
+        dispatch();
+
+        if (!waiter.admitted) {
+            nWaited++;
+            if (verbose) String2.log("RequestScheduler: " + clientKey + " is waiting (cost=" + cost +
+                " nActive=" + nActive + " nWaiting=" + waiting.size() + ")");
+            long stopTime = System.currentTimeMillis() + timeoutMillis;
+            try {
+                while (!waiter.admitted) {
+                    long remaining = stopTime - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        nTimedOut++;
+                        throw new TimeoutException(EDStatic.timeoutOtherRequests + " " +
+                            EDStatic.oneRequestAtATime);
+                    }
+                    wait(remaining);
+                }
+            } finally {
+                if (!waiter.admitted) {  //timed out or interrupted
+                    waiting.remove(waiter);
+                    client.nWaiting--;
+                    forgetIfIdle(client);
+                }
+            }
+        }
+        return new Ticket(client);
+    }
+
+    /**
+     * This admits waiting requests while there are free slots.
+     * The caller must be synchronized on this.
+     */
+    private void dispatch() {
+        boolean admittedSome = false;
+        while ((maxActive == 0 || nActive < maxActive) && !waiting.isEmpty()) {
+            //find the waiter with the smallest finishTag whose client has a free slot
+            Waiter next = null;
+            for (Waiter w : waiting) {
+                if (w.client.nActive < clientMaxActive) {
+                    next = w;
+                    break;
+                }
+            }
+            if (next == null)
+                break;
+            waiting.remove(next);
+            next.admitted = true;
+            next.client.nWaiting--;
+            next.client.nActive++;
+            nActive++;
+            nAdmitted++;
+            virtualTime = Math.max(virtualTime, next.startTag);
+            admittedSome = true;
+        }
+        if (admittedSome)
+            notifyAll();
+    }
+
+    /**
+     * This removes an idle client (so the clients map doesn't grow forever).
+     * That's fair: an idle client's next request starts at the current virtualTime.
+     * The caller must be synchronized on this.
+     */
+    private void forgetIfIdle(Client client) {
+        if (client.nActive == 0 && client.nWaiting == 0)
+            clients.remove(client.key);
+    }
+
+    /** This returns the number of active admitted requests. */
+    public synchronized int nActive() {
+        return nActive;
+    }
+
+    /** This returns the number of waiting requests. */
+    public synchronized int nWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * This returns a string with statistics for the status page, e.g.,
+     * "RequestScheduler: maxActive=8, clientMaxActive=2, nActive=3, nWaiting=0, nClients=2, nAdmitted=1234, nWaited=56, nTimedOut=0".
+     */
+    public synchronized String statistics() {
+        return "RequestScheduler: maxActive=" + maxActive +
+            ", clientMaxActive=" + clientMaxActive +
+            ", nActive=" + nActive +
+            ", nWaiting=" + waiting.size() +
+            ", nClients=" + clients.size() +
+            ", nAdmitted=" + nAdmitted +
+            ", nWaited=" + nWaited +
+            ", nTimedOut=" + nTimedOut;
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** RequestScheduler.basicTest");
+
+        //1 slot. A bulk client has 1 active and queues 3 more big requests,
+        //then an interactive client queues 1 small request.
+        final RequestScheduler rs = new RequestScheduler(1, 2);
+        Ticket bulk0 = rs.admit("bulk", 10000, 1000);
+        Test.ensureEqual(rs.nActive(), 1, "");
+
+        final StringBuffer order = new StringBuffer();
+        final Ticket tickets[] = new Ticket[4];
+        Thread threads[] = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int ti = i;
+            final String clientKey = i < 3? "bulk" : "interactive";
+            final long cost = i < 3? 10000 : 10;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        tickets[ti] = rs.admit(clientKey, cost, 10000);
+                        synchronized (order) {
+                            order.append(ti);
+                        }
+                        Math2.sleep(50);
+                        tickets[ti].release();
+                    } catch (Throwable t) {
+                        String2.log(MustBe.throwableToString(t));
+                    }
+                }};
+            threads[i].start();
+            Math2.sleep(100); //so they are queued in this order
+        }
+        Test.ensureEqual(rs.nWaiting(), 4, "");
+
+        //the interactive request is admitted first, then the bulk requests in order
+        bulk0.release();
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+        Test.ensureEqual(order.toString(), "3012", "");
+        Test.ensureEqual(rs.nActive(), 0, "");
+        Test.ensureEqual(rs.nWaiting(), 0, "");
+        Test.ensureEqual(rs.statistics(),
+            "RequestScheduler: maxActive=1, clientMaxActive=2, nActive=0, nWaiting=0, nClients=0, nAdmitted=5, nWaited=4, nTimedOut=0", "");
+
+        //clientMaxActive: a 3rd request from a client waits, even if there are free slots
+        rs.setMaxActive(10, 2);
+        Ticket a0 = rs.admit("a", 1, 1000);
+        Ticket a1 = rs.admit("a", 1, 1000);
+        Ticket b0 = rs.admit("b", 1, 1000);
+        try {
+            rs.admit("a", 1, 200);
+            throw new RuntimeException("shouldn't get here");
+        } catch (TimeoutException e) {
+            //expected
+        }
+        a0.release();
+        a0.release(); //harmless
+        Ticket a2 = rs.admit("a", 1, 1000);
+        a1.release();
+        a2.release();
+        b0.release();
+        Test.ensureEqual(rs.nActive(), 0, "");
+        Test.ensureTrue(rs.statistics().endsWith("nClients=0, nAdmitted=9, nWaited=5, nTimedOut=1"),
+            rs.statistics());
+
+        //maxActive=0: no limit for all clients, but clientMaxActive still applies
+        rs.setMaxActive(0, 2);
+        Ticket many[] = new Ticket[100];
+        for (int i = 0; i < many.length; i++)
+            many[i] = rs.admit("c" + (i / 2), 1, 200); //2 per client
+        Test.ensureEqual(rs.nActive(), 100, "");
+        Test.ensureEqual(rs.nWaiting(), 0, "");
+        try {
+            rs.admit("c0", 1, 200);
+            throw new RuntimeException("shouldn't get here");
+        } catch (TimeoutException e) {
+            //expected
+        }
+        for (int i = 0; i < many.length; i++)
+            many[i].release();
+        Test.ensureEqual(rs.nActive(), 0, "");
+        Test.ensureTrue(rs.statistics().startsWith("RequestScheduler: maxActive=0, clientMaxActive=2, nActive=0, nWaiting=0, nClients=0"),
+            rs.statistics());
+
+        String2.log("RequestScheduler.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ RequestScheduler.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,695 @@
+/*
+ * ResponseCache Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.coastwatch.util.SSR;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * This is the server-wide index of the response files (e.g., .png and .nc files
+ * made by EDDGrid and EDDTable respondToDapQuery) in the datasets'
+ * cache directories.
+ * The files are content-addressed: their names come from EDD.suggestFileName,
+ * which hashes the normalizedQuery() and the fileType.
+ *
+ * <p>When a response file is made, it is added to the index.
+ * When a response file is reused, it becomes the most recently used.
+ * Whenever the total size of the files in the index is more than
+ * EDStatic.responseCacheMaxGB, the least recently used files are deleted
+ * (for all datasets, not just the dataset that made the new file).
+ * The age-based sweep of the cache directory in RunLoadDatasets
+ * (see &lt;cacheMinutes&gt;) is still done.
+ *
+ * Files that are being sent to a user (see beginRead and endRead) aren't deleted
+ * to make room. If a file can't be deleted, it stays in the index (and in the total)
+ * and is tried again next time.
+ *
+ * <p>All of a dataset's response files are removed (see removeDataset)
+ * when the dataset is reloaded or unloaded and when an update()
+ * changes the dataset (e.g., its fileTable), since those files may now be wrong.
+ * Files that are being read or made at that time are just marked as stale:
+ * they aren't reused (see isReusable) and they are deleted when the 
+ * last reader is finished (see endRead).
+ *
+ * <p>This is thread safe. All methods are static and synchronized on the index.
+ */
+public class ResponseCache {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** The function parts of a query, e.g., orderBy("time") and distinct(). */
+    private final static Pattern FUNCTION_PATTERN = Pattern.compile("[a-zA-Z]\\w*\\(.*");
+
+    /** Info about one response file. */
+    private static class Entry {
+        final String datasetID;
+        final long nBytes;
+
+        Entry(String tDatasetID, long tNBytes) {
+            datasetID = tDatasetID;
+            nBytes = tNBytes;
+        }
+    }
+
+    /** fullFileName -&gt; Entry, in access order (least recently used first). */
+    private final static LinkedHashMap<String, Entry> index = new LinkedHashMap(1024, 0.75f, true);
+    /** fullFileName -&gt; the number of threads reading the file (see beginRead). Guarded by index. */
+    private final static HashMap<String, Integer> readers = new HashMap();
+    /** The full names of the files that removeDataset couldn't delete yet 
+        because they were being read or made. Guarded by index. */
+    private final static HashSet<String> stale = new HashSet();
+    private static long totalBytes = 0;
+    private static long nHits = 0, nMisses = 0, nEvicted = 0, nInvalidated = 0;
+
+    /**
+     * This returns a normalized version of a userDapQuery, so that
+     * queries that differ just in percent-encoding or in the order of the
+     * constraints and graphics (.xxx=) parameters have the same normalized form.
+     * The first part (the variable names or the grid subset) stays first
+     * and the function parts (e.g., orderBy(...), distinct(), units(...)) stay
+     * in their original order (at the end), since their order can be significant.
+     * Empty parts (e.g., from "&amp;&amp;") are removed.
+     *
+     * @param userDapQuery the part of the user's request after the '?',
+     *    still percent-encoded, may be null.
+     * @return the normalized (and percent-decoded) query
+     *    (or the just percent-decoded query if it can't be parsed).
+     */
+    public static String normalizeQuery(String userDapQuery) {
+        if (userDapQuery == null)
+            return "";
+        try {
+            String parts[] = Table.getDapQueryParts(userDapQuery); //decoded
+            if (parts.length <= 2)
+                return parts.length == 1? parts[0] :
+                    parts[1].length() == 0? parts[0] : parts[0] + "&" + parts[1];
+            StringArray sortable  = new StringArray();
+            StringArray functions = new StringArray();
+            for (int p = 1; p < parts.length; p++) {
+                if (parts[p].length() == 0)
+                    continue;
+                if (FUNCTION_PATTERN.matcher(parts[p]).matches())
+                    functions.add(parts[p]);
+                else sortable.add(parts[p]);
+            }
+            sortable.sort();
+            StringBuilder sb = new StringBuilder(parts[0]);
+            for (int i = 0; i < sortable.size(); i++)
+                sb.append('&').append(sortable.get(i));
+            for (int i = 0; i < functions.size(); i++)
+                sb.append('&').append(functions.get(i));
+            return sb.toString();
+        } catch (Exception e) {
+            //e.g., a missing closing doublequote. The request will fail later.
+            try {
+                return SSR.percentDecode(userDapQuery);
+            } catch (Exception e2) {
+                return userDapQuery;
+            }
+        }
+    }
+
+    /**
+     * This adds a newly made response file to the index,
+     * then deletes the least recently used files if the cache is over budget.
+     * If the file doesn't exist, this does nothing.
+     *
+     * @param datasetID the datasetID of the dataset that made the file
+     * @param fullName the full name of the file (dir + name + ext)
+     */
+    public static void add(String datasetID, String fullName) {
+        long nBytes = File2.length(fullName);
+        if (nBytes < 0)
+            return;
+        synchronized (index) {
+            Entry old = index.put(fullName, new Entry(datasetID, nBytes));
+            if (old == null)
+                nMisses++;
+            else totalBytes -= old.nBytes;
+            totalBytes += nBytes;
+            evict(fullName);
+        }
+    }
+
+    /**
+     * This notes that a response file was reused, so it becomes the most recently used.
+     * If the file isn't in the index (e.g., it was made before ERDDAP was restarted),
+     * it is added.
+     *
+     * @param datasetID the datasetID of the dataset that made the file
+     * @param fullName the full name of the file (dir + name + ext)
+     */
+    public static void reuse(String datasetID, String fullName) {
+        synchronized (index) {
+            if (index.get(fullName) != null) { //get() makes it the most recently used
+                nHits++;
+                return;
+            }
+            long nBytes = File2.length(fullName);
+            if (nBytes < 0)
+                return;
+            index.put(fullName, new Entry(datasetID, nBytes));
+            totalBytes += nBytes;
+            evict(fullName);
+        }
+    }
+
+    /**
+     * Call this (e.g., right after add() or reuse(), while still holding the file's
+     * String2.canonicalLock) before sending a response file to the user,
+     * so the file isn't evicted while it is being read.
+     * Always call endRead(fullName) afterwards (e.g., in a finally clause).
+     *
+     * @param fullName the full name of the file (dir + name + ext)
+     */
+    public static void beginRead(String fullName) {
+        synchronized (index) {
+            Integer n = readers.get(fullName);
+            readers.put(fullName, n == null? 1 : n + 1);
+        }
+    }
+
+    /**
+     * Call this when finished reading a file (see beginRead).
+     * If this was the last reader of a stale file (see removeDataset), 
+     * the file is deleted now (unless another thread is making it again, 
+     * in which case that thread's endRead will delete it).
+     *
+     * @param fullName the full name of the file (dir + name + ext). If null, nothing is done.
+     */
+    public static void endRead(String fullName) {
+        if (fullName == null)
+            return;
+        synchronized (index) {
+            Integer n = readers.get(fullName);
+            if (n != null && n > 1) {
+                readers.put(fullName, n - 1);
+                return;
+            }
+            readers.remove(fullName);
+            if (stale.contains(fullName)) {
+                ReentrantLock lock = String2.canonicalLock(fullName);
+                if (lock.tryLock()) {
+                    try {
+                        if (remove(fullName))
+                            nInvalidated++;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Responders call this (while holding the file's String2.canonicalLock)
+     * to see if an existing response file can be reused.
+     *
+     * @param fullName the full name of the file (dir + name + ext)
+     * @return true if the file exists and isn't stale (see removeDataset)
+     */
+    public static boolean isReusable(String fullName) {
+        if (!File2.isFile(fullName))
+            return false;
+        synchronized (index) {
+            return !stale.contains(fullName);
+        }
+    }
+
+    /**
+     * Responders call this (while holding the file's String2.canonicalLock)
+     * when a file isn't reusable, to get the name of the file to make.
+     * Usually, this is fullName. 
+     * But if fullName is a stale file which is still being read,
+     * it mustn't be replaced now, so this returns a unique name for a file
+     * that is just for this request (it is marked as stale, so endRead deletes it).
+     *
+     * @param fullName the full name of the file (dir + name + ext)
+     * @return the full name of the file to make
+     */
+    public static String nameForNewFile(String fullName) {
+        synchronized (index) {
+            if (!stale.contains(fullName))
+                return fullName;
+            if (!readers.containsKey(fullName)) {
+                //no one is using the stale file, and the caller will replace it
+                stale.remove(fullName);
+                return fullName;
+            }
+            String name = String2.canonical(File2.getDirectory(fullName) + 
+                File2.getNameNoExtension(fullName) + "_" + 
+                Math2.random(Integer.MAX_VALUE) + File2.getExtension(fullName));
+            stale.add(name);
+            return name;
+        }
+    }
+
+    /**
+     * This deletes a file (if it exists).
+     *
+     * @return true if the file is gone (it was deleted or it didn't exist)
+     */
+    private static boolean deleteFile(String fullName) {
+        return File2.delete(fullName) || !new File(fullName).exists();
+    }
+
+    /**
+     * This deletes a file and (if that succeeds) removes it from the index.
+     * The caller must be synchronized on index and hold the file's canonicalLock.
+     *
+     * @return true if the file is gone
+     */
+    private static boolean remove(String fullName) {
+        if (!deleteFile(fullName)) {
+            if (verbose) String2.log("ResponseCache couldn't delete " + fullName);
+            return false;
+        }
+        Entry entry = index.remove(fullName);
+        if (entry != null)
+            totalBytes -= entry.nBytes;
+        stale.remove(fullName);
+        return true;
+    }
+
+    /**
+     * While the cache is over budget, this deletes the least recently used files.
+     * Files that are locked (String2.canonicalLock) because another thread
+     * is making them, files which are being read (see beginRead),
+     * and files which can't be deleted (they'll be tried again next time) are skipped.
+     * The caller must be synchronized on index.
+     *
+     * @param keepName the full name of a file which mustn't be deleted
+     *   (the one that was just made or reused)
+     */
+    private static void evict(String keepName) {
+        long maxBytes = EDStatic.responseCacheMaxGB * Math2.BytesPerGB;
+        if (totalBytes <= maxBytes)
+            return;
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> me = it.next();
+            String name = me.getKey();
+            if (name.equals(keepName) || readers.containsKey(name))
+                continue;
+            ReentrantLock lock = String2.canonicalLock(name);
+            if (!lock.tryLock())
+                continue;
+            boolean deleted;
+            try {
+                deleted = deleteFile(name);
+            } finally {
+                lock.unlock();
+            }
+            if (!deleted) {
+                if (verbose) String2.log("ResponseCache couldn't delete " + name);
+                continue;
+            }
+            totalBytes -= me.getValue().nBytes;
+            it.remove();
+            stale.remove(name);
+            nEvicted++;
+            if (verbose) String2.log("ResponseCache evicted " + name);
+        }
+    }
+
+    /**
+     * This removes all of a dataset's files from the index and deletes them,
+     * e.g., because the dataset's data has changed.
+     * Files that are being read (see beginRead) or made (their String2.canonicalLock
+     * is locked) aren't deleted now. They are marked as stale, so they aren't reused, 
+     * and they are deleted by the last reader's endRead().
+     * Files which can't be deleted stay in the index (so evict() tries again later).
+     *
+     * @param datasetID
+     * @return the number of files removed now
+     */
+    public static int removeDataset(String datasetID) {
+        int n = 0;
+        synchronized (index) {
+            StringArray names = new StringArray();
+            for (Map.Entry<String, Entry> me : index.entrySet()) 
+                if (me.getValue().datasetID.equals(datasetID))
+                    names.add(me.getKey());
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                ReentrantLock lock = String2.canonicalLock(name);
+                if (readers.containsKey(name) || !lock.tryLock()) {
+                    stale.add(name);
+                    continue;
+                }
+                try {
+                    if (remove(name))
+                        n++;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            nInvalidated += n;
+        }
+        if (verbose && n > 0) String2.log("ResponseCache removed " + n + " files for datasetID=" + datasetID);
+        return n;
+    }
+
+    /**
+     * This removes the files which no longer exist
+     * (e.g., because of the age-based sweep of the cache directory) from the index.
+     *
+     * @return the number of files removed from the index
+     */
+    public static int removeDeletedFiles() {
+        int n = 0;
+        synchronized (index) {
+            Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> me = it.next();
+                if (!File2.isFile(me.getKey())) {
+                    totalBytes -= me.getValue().nBytes;
+                    it.remove();
+                    stale.remove(me.getKey());
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** This returns the number of files in the index. */
+    public static int size() {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+
+    /** This returns the total number of bytes of the files in the index. */
+    public static long totalBytes() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    /** This removes all files from the index (but doesn't delete them) and resets the counts. */
+    public static void clear() {
+        synchronized (index) {
+            index.clear();
+            readers.clear();
+            stale.clear();
+            totalBytes = 0;
+            nHits = 0;
+            nMisses = 0;
+            nEvicted = 0;
+            nInvalidated = 0;
+        }
+    }
+
+    /**
+     * This returns a string with statistics for the status page, e.g.,
+     * "ResponseCache: nFiles=12, nMB=34 (of 10240), nHits=56, nMisses=12, hitRate=82%, nEvicted=0, nInvalidated=3".
+     */
+    public static String statistics() {
+        synchronized (index) {
+            long total = nHits + nMisses;
+            return "ResponseCache: nFiles=" + index.size() +
+                ", nMB=" + (totalBytes / Math2.BytesPerMB) +
+                " (of " + (EDStatic.responseCacheMaxGB * 1024) + ")" +
+                ", nHits=" + nHits + ", nMisses=" + nMisses +
+                ", hitRate=" + (total == 0? "NaN" : (Math2.roundToLong(nHits * 100.0 / total) + "%")) +
+                ", nEvicted=" + nEvicted + ", nInvalidated=" + nInvalidated;
+        }
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** ResponseCache.basicTest");
+
+        //normalizeQuery
+        Test.ensureEqual(normalizeQuery(null), "", "");
+        Test.ensureEqual(normalizeQuery(""), "", "");
+        Test.ensureEqual(normalizeQuery("sst[0][0:10][0:10]"), "sst[0][0:10][0:10]", "");
+        Test.ensureEqual(normalizeQuery("sst%5B0%5D%5B0:10%5D%5B0:10%5D"), "sst[0][0:10][0:10]", "");
+        Test.ensureEqual(normalizeQuery("time,sst&"), "time,sst", "");
+        String expected = "time,sst&sst<20&time>=2020-01-01&orderBy(\"time\")&distinct()";
+        Test.ensureEqual(normalizeQuery("time,sst&time>=2020-01-01&sst<20&orderBy(\"time\")&distinct()"), expected, "");
+        Test.ensureEqual(normalizeQuery("time,sst&sst<20&orderBy(\"time\")&&time>=2020-01-01&distinct()"), expected, "");
+        Test.ensureEqual(normalizeQuery("time,sst&sst%3C20&time%3E=2020-01-01&orderBy(%22time%22)&distinct()"), expected, "");
+        //function order matters
+        Test.ensureEqual(normalizeQuery("time,sst&distinct()&orderBy(\"time\")"),
+            "time,sst&distinct()&orderBy(\"time\")", "");
+        //graphics parameters
+        Test.ensureEqual(normalizeQuery("sst[0][0:10][0:10]&.draw=surface&.colorBar=Rainbow"),
+                                        "sst[0][0:10][0:10]&.colorBar=Rainbow&.draw=surface", "");
+        //regex constraints with ( aren't functions
+        Test.ensureEqual(normalizeQuery("station&station=~\"(a|b)\"&depth>0"),
+                                        "station&depth>0&station=~\"(a|b)\"", "");
+        //invalid query is just decoded
+        Test.ensureEqual(normalizeQuery("station&station=%22a"), "station&station=\"a", "");
+
+        //index and LRU eviction
+        int oResponseCacheMaxGB = EDStatic.responseCacheMaxGB;
+        String dir = File2.getSystemTempDirectory() + "ResponseCacheTest/";
+        File2.makeDirectory(dir);
+        clear();
+        try {
+            //1GB budget; use 3 files that "are" 400MB each by adding them to the index directly
+            EDStatic.responseCacheMaxGB = 1;
+            String names[] = new String[4];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = dir + "f" + i + ".txt";
+                String2.writeToFile(names[i], "test " + i);
+            }
+            synchronized (index) {
+                for (int i = 0; i < 3; i++) {
+                    index.put(names[i], new Entry("testA", 400 * Math2.BytesPerMB));
+                    totalBytes += 400 * Math2.BytesPerMB;
+                }
+                evict(names[2]);
+            }
+            //1200MB > 1GB so the least recently used (f0) was deleted
+            Test.ensureEqual(size(), 2, "");
+            Test.ensureTrue(!File2.isFile(names[0]), "");
+            Test.ensureTrue( File2.isFile(names[1]), "");
+
+            //reusing f1 makes f2 the least recently used
+            reuse("testA", names[1]);
+            synchronized (index) {
+                index.put(names[3], new Entry("testB", 400 * Math2.BytesPerMB));
+                totalBytes += 400 * Math2.BytesPerMB;
+                evict(names[3]);
+            }
+            Test.ensureTrue( File2.isFile(names[1]), "");
+            Test.ensureTrue(!File2.isFile(names[2]), "");
+            Test.ensureEqual(size(), 2, "");
+            Test.ensureEqual(totalBytes(), 800 * Math2.BytesPerMB, "");
+
+            //a file that is being read isn't evicted
+            beginRead(names[1]);
+            synchronized (index) {
+                index.put(names[0], new Entry("testB", 400 * Math2.BytesPerMB));
+                totalBytes += 400 * Math2.BytesPerMB;
+                evict(names[0]);
+            }
+            Test.ensureTrue( File2.isFile(names[1]), "");
+            Test.ensureTrue(!File2.isFile(names[3]), ""); //so the next least recently used was evicted
+            Test.ensureEqual(size(), 2, "");
+            endRead(names[1]);
+            synchronized (index) {
+                index.remove(names[0]);
+                totalBytes -= 400 * Math2.BytesPerMB;
+                String2.writeToFile(names[3], "test 3");
+                index.put(names[3], new Entry("testB", 400 * Math2.BytesPerMB));
+                totalBytes += 400 * Math2.BytesPerMB;
+            }
+
+            //a file which can't be deleted stays in the index and the total
+            String undeletable = dir + "dir5.txt";
+            File2.makeDirectory(undeletable + "/sub"); //a non-empty directory can't be deleted
+            synchronized (index) {
+                index.put(undeletable, new Entry("testD", 400 * Math2.BytesPerMB));
+                totalBytes += 400 * Math2.BytesPerMB;
+                index.get(names[1]); //so undeletable is the least recently used
+                index.get(names[3]);
+                evict(names[3]);
+            }
+            Test.ensureEqual(size(), 2, ""); //names[1] was evicted instead
+            Test.ensureTrue(!File2.isFile(names[1]), "");
+            Test.ensureEqual(totalBytes(), 800 * Math2.BytesPerMB, "");
+            Test.ensureEqual(removeDataset("testD"), 0, "");
+            Test.ensureEqual(size(), 2, "");
+            File2.delete(undeletable + "/sub");
+            File2.delete(undeletable);
+            Test.ensureEqual(removeDataset("testD"), 1, ""); //now it is gone
+            synchronized (index) {
+                String2.writeToFile(names[1], "test 1");
+                index.put(names[1], new Entry("testA", 400 * Math2.BytesPerMB));
+                totalBytes += 400 * Math2.BytesPerMB;
+            }
+
+            //removeDataset
+            Test.ensureEqual(removeDataset("testA"), 1, "");
+            Test.ensureTrue(!File2.isFile(names[1]), "");
+            Test.ensureTrue( File2.isFile(names[3]), "");
+
+            //removeDeletedFiles
+            File2.delete(names[3]);
+            Test.ensureEqual(removeDeletedFiles(), 1, "");
+            Test.ensureEqual(size(), 0, "");
+            Test.ensureEqual(totalBytes(), 0, "");
+
+            //removeDataset doesn't delete a file that is being read: it is stale until endRead
+            String2.writeToFile(names[0], "test 0");
+            String2.writeToFile(names[1], "test 1");
+            add("testE", names[0]);
+            add("testE", names[1]);
+            beginRead(names[0]);
+            Test.ensureEqual(removeDataset("testE"), 1, ""); //just names[1]
+            Test.ensureTrue( File2.isFile(names[0]), "");
+            Test.ensureTrue(!File2.isFile(names[1]), "");
+            Test.ensureEqual(isReusable(names[0]), false, "");
+            Test.ensureEqual(size(), 1, "");
+            //a new request for it mustn't replace it, so it gets a unique name
+            String newName = nameForNewFile(names[0]);
+            Test.ensureTrue(!newName.equals(names[0]) && newName.startsWith(dir + "f0_") && 
+                newName.endsWith(".txt"), "newName=" + newName);
+            String2.writeToFile(newName, "test 0 new");
+            add("testE", newName);
+            beginRead(newName);
+            endRead(newName); //newName is just for that request
+            Test.ensureTrue(!File2.isFile(newName), "");
+            endRead(names[0]); //the last reader deletes it
+            Test.ensureTrue(!File2.isFile(names[0]), "");
+            Test.ensureEqual(size(), 0, "");
+            Test.ensureEqual(totalBytes(), 0, "");
+
+            //removeDataset doesn't delete a file that another thread is making (it holds the lock)
+            String2.writeToFile(names[0], "test 0");
+            add("testE", names[0]);
+            final ReentrantLock lock0 = String2.canonicalLock(names[0]);
+            final Object gate = new Object();
+            final boolean held[] = {false, false}; //locked, release
+            Thread maker = new Thread() {
+                public void run() {
+                    lock0.lock();
+                    try {
+                        synchronized (gate) {
+                            held[0] = true;
+                            gate.notifyAll();
+                            while (!held[1])
+                                try {gate.wait();} catch (InterruptedException e) {return;}
+                        }
+                    } finally {
+                        lock0.unlock();
+                    }
+                }};
+            maker.start();
+            synchronized (gate) {
+                while (!held[0])
+                    gate.wait();
+            }
+            Test.ensureEqual(removeDataset("testE"), 0, "");
+            Test.ensureTrue(File2.isFile(names[0]), "");
+            Test.ensureEqual(isReusable(names[0]), false, "");
+            synchronized (gate) {
+                held[1] = true;
+                gate.notifyAll();
+            }
+            maker.join();
+            //the maker then reads it, and its endRead deletes it
+            beginRead(names[0]);
+            endRead(names[0]);
+            Test.ensureTrue(!File2.isFile(names[0]), "");
+            Test.ensureEqual(size(), 0, "");
+
+            //a stale file that no one is reading is simply replaced
+            String2.writeToFile(names[0], "test 0");
+            add("testE", names[0]);
+            beginRead(names[0]);
+            removeDataset("testE");
+            synchronized (index) {
+                readers.remove(names[0]); //as if endRead couldn't delete it
+            }
+            Test.ensureEqual(nameForNewFile(names[0]), names[0], "");
+            Test.ensureEqual(isReusable(names[0]), true, "");
+            clear();
+
+            //add real files
+            String2.writeToFile(names[0], "test 0");
+            add("testC", names[0]);
+            Test.ensureEqual(totalBytes(), 6, "");
+            reuse("testC", names[0]);
+            reuse("testC", dir + "notInIndex.txt"); //not a hit
+            String stats = statistics();
+            Test.ensureTrue(stats.startsWith("ResponseCache: nFiles=1, nMB=0 (of 1024), nHits=2, nMisses=1, hitRate=67%"),
+                "stats=" + stats);
+        } finally {
+            EDStatic.responseCacheMaxGB = oResponseCacheMaxGB;
+            clear();
+            File2.deleteAllFiles(dir);
+        }
+
+        String2.log("ResponseCache.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ ResponseCache.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,433 @@
+/*
+ * SingleFlight Copyright 2021, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.SimpleException;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.erddap.dataset.OutputStreamSource;
+import gov.noaa.pfel.erddap.dataset.OutputStreamSourceSimple;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SingleFlight coalesces identical concurrent data requests
+ * (same datasetID, loggedInAs, fileType, and normalized query):
+ * the first request (the leader) makes the response as usual,
+ * while a copy of the bytes it sends is also written to a temporary file.
+ * Identical requests that arrive while the leader is working (the followers)
+ * wait for the leader to finish, then send that file.
+ * So when a popular link goes out, the data is only gotten (e.g., from a
+ * remote DAP server) and processed once.
+ *
+ * <p>If the leader fails, or its response is larger than maxBytes,
+ * the followers make their responses independently.
+ * Responses which EDDGrid and EDDTable already make as cached files
+ * (e.g., .nc and .png) are coalesced by String2.canonicalLock on the cached
+ * file's name, so Erddap doesn't use SingleFlight for them.
+ *
+ * <p>This is thread safe.
+ */
+public class SingleFlight {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /**
+     * If the leader's response is larger than this, the leader stops writing
+     * the temporary file and the followers make their responses independently.
+     */
+    public static long maxBytes = 100 * Math2.BytesPerMB;
+
+    /** key -&gt; the Flight for the request that is currently in progress */
+    private final static HashMap<String, Flight> flights = new HashMap();
+    private final static LongAdder nLeaders = new LongAdder();
+    private final static LongAdder nFollowersServed = new LongAdder();
+    private final static LongAdder nFollowersOnTheirOwn = new LongAdder();
+
+    /**
+     * This makes the key for a request.
+     *
+     * @param datasetID
+     * @param loggedInAs the name of the logged in user (or null if not logged in).
+     *    It is part of the key since some responses depend on it (e.g., http vs https urls).
+     * @param userDapQuery the part of the user's request after the '?', still percent-encoded.
+     * @param fileTypeName e.g., .csv
+     * @return the key
+     */
+    public static String key(String datasetID, String loggedInAs, String userDapQuery,
+        String fileTypeName) {
+        return datasetID + "\n" + (loggedInAs == null? "" : loggedInAs) + "\n" +
+            fileTypeName + "\n" + ResponseCache.normalizeQuery(userDapQuery);
+    }
+
+    /**
+     * This joins the flight for key. If there is no flight for key yet,
+     * a new one is started and the current thread is its leader.
+     * The caller must then call either flight.finish() (if leader)
+     * or flight.sendTo() (if follower).
+     *
+     * @param key from key()
+     * @param dir the directory (with slash at end) for the temporary file
+     * @return the flight
+     */
+    public static Flight join(String key, String dir) {
+        synchronized (flights) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight(key, dir + "singleFlight" + Math2.random(Integer.MAX_VALUE) + ".tmp");
+                flights.put(key, flight);
+                nLeaders.increment();
+            } else {
+                flight.nUsers++;
+            }
+            return flight;
+        }
+    }
+
+    /** This returns the number of flights currently in progress. */
+    public static int nInFlight() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+
+    /**
+     * This returns a string with statistics for the status page, e.g.,
+     * "SingleFlight: nInFlight=0, nLeaders=123, nFollowersServed=45, nFollowersOnTheirOwn=2".
+     */
+    public static String statistics() {
+        return "SingleFlight: nInFlight=" + nInFlight() +
+            ", nLeaders=" + nLeaders.sum() +
+            ", nFollowersServed=" + nFollowersServed.sum() +
+            ", nFollowersOnTheirOwn=" + nFollowersOnTheirOwn.sum();
+    }
+
+    /** The information about one request in progress. */
+    public static class Flight {
+        private final String key;
+        private final String tempFullName;
+        private final Thread leader = Thread.currentThread();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int nUsers = 1; //guarded by flights. When it becomes 0, the temp file is deleted.
+
+        //these are set by the leader's thread before done.countDown()
+        private OutputStream fileOut;
+        private long nBytes = 0;
+        private boolean fileOk = true;
+        private String characterEncoding = null; //null until leader calls outputStream()
+        private boolean ok = false;
+
+        private Flight(String tKey, String tTempFullName) {
+            key = tKey;
+            tempFullName = tTempFullName;
+        }
+
+        /** This returns true if the current thread is this flight's leader. */
+        public boolean isLeader() {
+            return leader == Thread.currentThread();
+        }
+
+        /**
+         * The leader uses this to wrap its outputStreamSource, so that
+         * a copy of the response is written to the temporary file.
+         *
+         * @param oss the leader's outputStreamSource
+         * @return the outputStreamSource the leader should use
+         */
+        public OutputStreamSource leaderOutputStreamSource(final OutputStreamSource oss) {
+            return new OutputStreamSource() {
+                private OutputStream tee;
+
+                public OutputStream outputStream(String tCharacterEncoding) throws Throwable {
+                    return outputStream(tCharacterEncoding, -1);
+                }
+
+                public OutputStream outputStream(String tCharacterEncoding, long contentLength)
+                    throws Throwable {
+                    if (tee == null) {
+                        OutputStream out = oss.outputStream(tCharacterEncoding, contentLength);
+                        characterEncoding = tCharacterEncoding == null? "" : tCharacterEncoding;
+                        try {
+                            fileOut = new BufferedOutputStream(new FileOutputStream(tempFullName));
+                        } catch (Throwable t) {
+                            String2.log("SingleFlight couldn't create " + tempFullName + ": " + t.toString());
+                            fileOk = false;
+                        }
+                        tee = new TeeOutputStream(out);
+                    }
+                    return tee;
+                }
+
+                public OutputStream existingOutputStream() {
+                    return tee;
+                }
+
+                public String usingCompression() {
+                    return oss.usingCompression();
+                }
+            };
+        }
+
+        /** This sends everything to out and (while fileOk) to fileOut. */
+        private class TeeOutputStream extends OutputStream {
+            private final OutputStream out;
+
+            TeeOutputStream(OutputStream tOut) {
+                out = tOut;
+            }
+
+            public void write(int b) throws IOException {
+                out.write(b);
+                if (fileOk) {
+                    try {
+                        nBytes++;
+                        if (nBytes > maxBytes)
+                            abandonFile();
+                        else fileOut.write(b);
+                    } catch (IOException e) {
+                        abandonFile();
+                    }
+                }
+            }
+
+            public void write(byte b[], int off, int len) throws IOException {
+                out.write(b, off, len);
+                if (fileOk) {
+                    try {
+                        nBytes += len;
+                        if (nBytes > maxBytes)
+                            abandonFile();
+                        else fileOut.write(b, off, len);
+                    } catch (IOException e) {
+                        abandonFile();
+                    }
+                }
+            }
+
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            public void close() throws IOException {
+                out.close();
+            }
+        }
+
+        /** The leader stops writing the temp file (e.g., because it is too big). */
+        private void abandonFile() {
+            fileOk = false;
+            closeFileOut();
+        }
+
+        private void closeFileOut() {
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } catch (Throwable t) {
+                    fileOk = false;
+                }
+                fileOut = null;
+            }
+        }
+
+        /**
+         * The leader must call this (in a finally block) when it is done.
+         * This removes the flight from the list of flights in progress
+         * (so subsequent requests start a new flight) and releases the followers.
+         *
+         * @param tOk true if the leader's response was made successfully
+         */
+        public void finish(boolean tOk) {
+            closeFileOut();
+            ok = tOk && fileOk && characterEncoding != null;
+            synchronized (flights) {
+                if (flights.get(key) == this)
+                    flights.remove(key);
+            }
+            done.countDown();
+            release();
+            if (verbose) String2.log("SingleFlight leader finished ok=" + ok + " nBytes=" + nBytes);
+        }
+
+        /**
+         * A follower calls this to wait for the leader, then send the leader's
+         * response to the follower's outputStreamSource.
+         * If this returns false, nothing has been sent, and the follower must
+         * make the response independently.
+         *
+         * @param oss the follower's outputStreamSource
+         * @return true if the response was sent
+         * @throws Throwable if trouble while sending the response
+         *   (the response is then committed, so the follower can't make it independently)
+         */
+        public boolean sendTo(OutputStreamSource oss) throws Throwable {
+            try {
+                if (!done.await(String2.longTimeoutSeconds, TimeUnit.SECONDS) ||
+                    !ok || !File2.isFile(tempFullName)) {
+                    nFollowersOnTheirOwn.increment();
+                    return false;
+                }
+                OutputStream out = oss.outputStream(characterEncoding);
+                if (!File2.copy(tempFullName, out))
+                    //outputStream contentType already set,
+                    //so I can't go back to html and display error message
+                    throw new SimpleException(String2.ERROR + " while transmitting file.");
+                nFollowersServed.increment();
+                if (verbose) String2.log("SingleFlight follower sent the leader's response (nBytes=" + nBytes + ")");
+                return true;
+            } finally {
+                release();
+            }
+        }
+
+        /** The leader and each follower release the flight when done with it. */
+        private void release() {
+            boolean delete;
+            synchronized (flights) {
+                delete = --nUsers == 0;
+            }
+            if (delete)
+                File2.delete(tempFullName);
+        }
+    }
+
+    /** Test this class. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** SingleFlight.basicTest");
+        String dir = File2.getSystemTempDirectory();
+        String key = key("testDataset", null, "time,sst&time>=2020-01-01&sst<20", ".csv");
+        Test.ensureEqual(key,
+            key("testDataset", null, "time,sst&sst%3C20&time%3E=2020-01-01", ".csv"), "");
+        Test.ensureTrue(!key.equals(key("testDataset", null, "time,sst&sst<20", ".csv")), "");
+        Test.ensureTrue(!key.equals(key("testDataset", "someone", "time,sst&time>=2020-01-01&sst<20", ".csv")), "");
+
+        //leader and followers
+        final Flight flight = join(key, dir);
+        Test.ensureTrue(flight.isLeader(), "");
+        Test.ensureEqual(nInFlight(), 1, "");
+        final String content = "time,sst\n2020-01-01T00:00:00Z,19.5\n";
+        final ByteArrayOutputStream baos[] = new ByteArrayOutputStream[3];
+        final boolean sent[] = new boolean[baos.length];
+        final Flight followerFlights[] = new Flight[baos.length];
+        Thread threads[] = new Thread[baos.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int ti = i;
+            baos[i] = new ByteArrayOutputStream();
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        followerFlights[ti] = SingleFlight.join(key, "unused/");
+                        sent[ti] = followerFlights[ti].sendTo(new OutputStreamSourceSimple(baos[ti]));
+                    } catch (Throwable t) {
+                        String2.log(MustBe.throwableToString(t));
+                    }
+                }};
+            threads[i].start();
+        }
+        Math2.sleep(500); //give the followers time to join
+        ByteArrayOutputStream leaderBaos = new ByteArrayOutputStream();
+        OutputStreamSource oss = flight.leaderOutputStreamSource(new OutputStreamSourceSimple(leaderBaos));
+        OutputStream out = oss.outputStream(String2.UTF_8);
+        out.write(String2.stringToUtf8Bytes(content));
+        out.close();
+        flight.finish(true);
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+        Test.ensureEqual(leaderBaos.toString(String2.UTF_8), content, "");
+        for (int i = 0; i < threads.length; i++) {
+            Test.ensureTrue(followerFlights[i] == flight, "i=" + i);
+            Test.ensureTrue(!followerFlights[i].isLeader(), "i=" + i);
+            Test.ensureTrue(sent[i], "i=" + i);
+            Test.ensureEqual(baos[i].toString(String2.UTF_8), content, "i=" + i);
+        }
+        Test.ensureEqual(nInFlight(), 0, "");
+        Test.ensureTrue(!File2.isFile(flight.tempFullName), ""); //the last user deleted it
+
+        //after the leader is finished, the next request starts a new flight
+        Flight flight2 = join(key, dir);
+        Test.ensureTrue(flight2 != flight && flight2.isLeader(), "");
+
+        //if the leader fails, followers are on their own
+        final Flight follower[] = new Flight[1];
+        final boolean followerSent[] = {true};
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    follower[0] = SingleFlight.join(key, "unused/");
+                    followerSent[0] = follower[0].sendTo(new OutputStreamSourceSimple(new ByteArrayOutputStream()));
+                } catch (Throwable t) {
+                    String2.log(MustBe.throwableToString(t));
+                }
+            }};
+        thread.start();
+        Math2.sleep(500);
+        flight2.finish(false);
+        thread.join();
+        Test.ensureTrue(follower[0] == flight2, "");
+        Test.ensureTrue(!followerSent[0], "");
+        Test.ensureEqual(nInFlight(), 0, "");
+
+        String2.log("SingleFlight.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ SingleFlight.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/* 
+ * BenchmarkData Copyright 2021, NOAA.
+ * See the LICENSE.txt file in WEB-INF/classes/gov/noaa/pfel/erddap.
+ */
+package gov.noaa.pfel.erddap.benchmark;
+
+import com.cohort.array.*;
+import com.cohort.util.Calendar2;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+import java.util.Random;
+
+/**
+ * This makes the synthetic data used by the benchmarks.
+ * The data is made from a fixed random seed, so every run (and every release) 
+ * benchmarks the same data.
+ * The table looks like a typical EDDTableFromFiles result: 
+ * a low-cardinality station column, then time, latitude, longitude, 
+ * depth, temperature and a QC flag.
+ */
+public class BenchmarkData {
+
+    /** The seed for all of the synthetic data. */
+    public static final long SEED = 20210601L;
+
+    /** The number of distinct stations in makeTable. */
+    public static final int N_STATIONS = 100;
+
+    /** The first time (seconds since 1970-01-01) in makeTable. */
+    public static final double FIRST_TIME = 1.5e9; //2017-07-14
+
+    /**
+     * This makes a table with nRows rows, sorted by station, then time.
+     *
+     * @param nRows the number of rows
+     * @param shuffle if true, the rows are in random order (e.g., for sort benchmarks)
+     * @return a new table
+     */
+    public static Table makeTable(int nRows, boolean shuffle) {
+        Random random = new Random(SEED);
+        StringArray station = new StringArray(nRows, false);
+        DoubleArray time    = new DoubleArray(nRows, false);
+        FloatArray  lat     = new FloatArray( nRows, false);
+        FloatArray  lon     = new FloatArray( nRows, false);
+        ShortArray  depth   = new ShortArray( nRows, false);
+        FloatArray  temp    = new FloatArray( nRows, false);
+        ByteArray   qc      = new ByteArray(  nRows, false);
+        int rowsPerStation = Math.max(1, nRows / N_STATIONS);
+        for (int row = 0; row < nRows; row++) {
+            int st = Math.min(N_STATIONS - 1, row / rowsPerStation);
+            station.add("station" + st);
+            time.add(FIRST_TIME + (row % rowsPerStation) * 3600);
+            lat.add(-60 + st * 1.2f);
+            lon.add(-180 + st * 3.6f);
+            depth.add((short)(random.nextInt(10) * 5));
+            temp.add(random.nextFloat() * 30);
+            qc.add((byte)(random.nextInt(20) == 0? 4 : 1));
+        }
+
+        Table table = new Table();
+        table.addColumn("station",     station);
+        table.addColumn("time",        time);
+        table.addColumn("latitude",    lat);
+        table.addColumn("longitude",   lon);
+        table.addColumn("depth",       depth);
+        table.addColumn("temperature", temp);
+        table.addColumn("qc",          qc);
+        table.columnAttributes(1).set("units", Calendar2.SECONDS_SINCE_1970);
+        table.columnAttributes(5).set("units", "degree_C");
+
+        if (shuffle) {
+            int rank[] = new int[nRows];
+            for (int row = 0; row < nRows; row++)
+                rank[row] = row;
+            for (int row = nRows - 1; row > 0; row--) {
+                int other = random.nextInt(row + 1);
+                int ti = rank[row]; rank[row] = rank[other]; rank[other] = ti;
+            }
+            for (int col = 0; col < table.nColumns(); col++)
+                table.getColumn(col).reorder(rank);
+        }
+        return table;
+    }
+
+    /**
+     * This makes a CSV string with n random numbers 
+     * (e.g., for PrimitiveArray.csvFactory benchmarks).
+     */
+    public static String makeNumericCsv(int n) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(n * 10);
+        for (int i = 0; i < n; i++) 
+            sb.append(i == 0? "" : ", ").append(random.nextInt(2000000) / 100.0);
+        return sb.toString();
+    }
+
+    /**
+     * This makes a CSV string with n quoted and unquoted Strings 
+     * (e.g., for StringArray.fromCSV benchmarks).
+     */
+    public static String makeStringCsv(int n) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(n * 16);
+        for (int i = 0; i < n; i++) {
+            int r = random.nextInt(N_STATIONS);
+            sb.append(i == 0? "" : ", ").append(
+                r % 3 == 0? "\"station, " + r + "\"" : "station" + r);
+        }
+        return sb.toString();
+    }
+
+    /** 
+     * This makes n ISO 8601 time strings 
+     * (e.g., for Calendar2.isoStringToEpochSeconds benchmarks).
+     */
+    public static String[] makeIsoTimes(int n) {
+        Random random = new Random(SEED);
+        String sar[] = new String[n];
+        for (int i = 0; i < n; i++) 
+            sar[i] = Calendar2.epochSecondsToIsoStringTZ(FIRST_TIME + random.nextInt(100000000));
+        return sar;
+    }
+}
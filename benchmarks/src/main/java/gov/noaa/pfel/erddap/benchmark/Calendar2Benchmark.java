@@ -0,0 +1,53 @@
+/* 
+ * Calendar2Benchmark Copyright 2021, NOAA.
+ * See the LICENSE.txt file in WEB-INF/classes/gov/noaa/pfel/erddap.
+ */
+package gov.noaa.pfel.erddap.benchmark;
+
+import com.cohort.util.Calendar2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks for Calendar2's time parsing (used for every ISO time constraint
+ * and for every time value in ASCII source files).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class Calendar2Benchmark {
+
+    public static final int N = 1000;
+
+    private String isoTimes[];
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        isoTimes = BenchmarkData.makeIsoTimes(N);
+    }
+
+    /** Parse N ISO 8601 times. */
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public double isoStringToEpochSeconds() {
+        double sum = 0;
+        for (int i = 0; i < N; i++)
+            sum += Calendar2.isoStringToEpochSeconds(isoTimes[i]);
+        return sum;
+    }
+
+    /** Format N epochSeconds as ISO 8601 times (the reverse of isoStringToEpochSeconds). */
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int epochSecondsToIsoStringTZ() {
+        int sum = 0;
+        for (int i = 0; i < N; i++)
+            sum += Calendar2.epochSecondsToIsoStringTZ(BenchmarkData.FIRST_TIME + i * 3599.0).length();
+        return sum;
+    }
+}
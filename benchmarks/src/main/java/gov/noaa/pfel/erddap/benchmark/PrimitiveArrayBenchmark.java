@@ -0,0 +1,98 @@
+/* 
+ * PrimitiveArrayBenchmark Copyright 2021, NOAA.
+ * See the LICENSE.txt file in WEB-INF/classes/gov/noaa/pfel/erddap.
+ */
+package gov.noaa.pfel.erddap.benchmark;
+
+import com.cohort.array.*;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks for PrimitiveArray sort, rank and reorder,
+ * and for parsing CSV into PrimitiveArrays.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PrimitiveArrayBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int nRows;
+
+    /** The shuffled source table. Don't modify this. */
+    private Table table;
+    private String numericCsv;
+    private String stringCsv;
+
+    /** Copies of the columns, remade before each invocation (since sort and reorder modify them). */
+    private DoubleArray time;
+    private StringArray station;
+    private int rank[];
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        table = BenchmarkData.makeTable(nRows, true);
+        numericCsv = BenchmarkData.makeNumericCsv(nRows / 10);
+        stringCsv  = BenchmarkData.makeStringCsv(nRows / 10);
+        rank = table.getColumn(1).rank(true);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        station = (StringArray)table.getColumn(0).clone();
+        time    = (DoubleArray)table.getColumn(1).clone();
+    }
+
+    @Benchmark
+    public DoubleArray sortDouble() {
+        time.sort();
+        return time;
+    }
+
+    @Benchmark
+    public StringArray sortString() {
+        station.sort();
+        return station;
+    }
+
+    @Benchmark
+    public int[] rankDouble() {
+        return time.rank(true);
+    }
+
+    /** Rank by station, then time (like Table.sort and orderBy). */
+    @Benchmark
+    public int[] rankMultiColumn() {
+        return PrimitiveArray.rank(java.util.Arrays.asList(station, time), 
+            new int[]{0, 1}, new boolean[]{true, true});
+    }
+
+    @Benchmark
+    public StringArray reorderString() {
+        station.reorder(rank);
+        return station;
+    }
+
+    @Benchmark
+    public DoubleArray reorderDouble() {
+        time.reorder(rank);
+        return time;
+    }
+
+    @Benchmark
+    public PrimitiveArray parseDoubleCsv() {
+        return PrimitiveArray.csvFactory(PAType.DOUBLE, numericCsv);
+    }
+
+    @Benchmark
+    public StringArray parseStringCsv() {
+        return StringArray.fromCSV(stringCsv);
+    }
+}
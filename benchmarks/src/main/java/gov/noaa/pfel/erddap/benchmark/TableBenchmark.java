@@ -0,0 +1,86 @@
+/* 
+ * TableBenchmark Copyright 2021, NOAA.
+ * See the LICENSE.txt file in WEB-INF/classes/gov/noaa/pfel/erddap.
+ */
+package gov.noaa.pfel.erddap.benchmark;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks for the Table hot paths: sort, orderBy*, and subsetViaDapQuery.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class TableBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int nRows;
+
+    /** The shuffled source table. Don't modify this. */
+    private Table source;
+
+    /** A copy of source, remade before each invocation (since the methods modify it). */
+    private Table table;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        source = BenchmarkData.makeTable(nRows, true);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        table = (Table)source.clone();
+    }
+
+    @Benchmark
+    public Table sortByStationTime() {
+        table.sort(new int[]{0, 1}, new boolean[]{true, true});
+        return table;
+    }
+
+    @Benchmark
+    public Table orderByMax() throws Exception {
+        table.orderByMax(new String[]{"station", "time"});
+        return table;
+    }
+
+    @Benchmark
+    public Table orderByMinMax() throws Exception {
+        table.orderByMinMax(new String[]{"station", "time"});
+        return table;
+    }
+
+    @Benchmark
+    public Table orderByCount() throws Exception {
+        table.orderByCount(new String[]{"station"});
+        return table;
+    }
+
+    @Benchmark
+    public Table orderByClosest() throws Exception {
+        table.orderByClosest("station,time/1day");
+        return table;
+    }
+
+    @Benchmark
+    public Table orderByLimit() throws Exception {
+        table.orderByLimit("station,10");
+        return table;
+    }
+
+    /** Typical constraints: a station regex, a time range and a QC flag. */
+    @Benchmark
+    public int subsetViaDapQuery() throws Exception {
+        return table.subsetViaDapQuery(
+            "station,time,temperature&station=~\"station(1|2).*\"" +
+            "&time>=1500000000&time<1500360000&qc=1");
+    }
+}
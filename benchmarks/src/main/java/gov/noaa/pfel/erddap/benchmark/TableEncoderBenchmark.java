@@ -0,0 +1,84 @@
+/* 
+ * TableEncoderBenchmark Copyright 2021, NOAA.
+ * See the LICENSE.txt file in WEB-INF/classes/gov/noaa/pfel/erddap.
+ */
+package gov.noaa.pfel.erddap.benchmark;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks for the text encoders which the TableWriters 
+ * (.csv, .json, .nccsv) use.
+ * The TableWriter classes themselves need an EDD and a running ERDDAP
+ * (EDStatic), so these benchmark the Table methods with the same encoding code.
+ * The output goes to a stream which just counts the bytes, so the disk isn't measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class TableEncoderBenchmark {
+
+    @Param({"100000"})
+    public int nRows;
+
+    private Table table;
+
+    /** An OutputStream which just counts the bytes (and gives them to the Blackhole). */
+    static class CountingOutputStream extends OutputStream {
+        final Blackhole blackhole;
+        long count = 0;
+
+        CountingOutputStream(Blackhole tBlackhole) {
+            blackhole = tBlackhole;
+        }
+
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte b[], int off, int len) {
+            count += len;
+            blackhole.consume(b);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        table = BenchmarkData.makeTable(nRows, false);
+    }
+
+    @Benchmark
+    public long csv(Blackhole blackhole) throws Exception {
+        CountingOutputStream cos = new CountingOutputStream(blackhole);
+        table.saveAsCsvASCII(cos);
+        return cos.count;
+    }
+
+    @Benchmark
+    public long json(Blackhole blackhole) throws Exception {
+        CountingOutputStream cos = new CountingOutputStream(blackhole);
+        table.saveAsJson(cos, 1, true); //timeColumn=1
+        return cos.count;
+    }
+
+    @Benchmark
+    public long nccsv(Blackhole blackhole) throws Exception {
+        CountingOutputStream cos = new CountingOutputStream(blackhole);
+        Writer writer = new OutputStreamWriter(cos, StandardCharsets.UTF_8);
+        table.saveAsNccsv(false, true, 0, Integer.MAX_VALUE, writer); 
+        writer.flush();
+        return cos.count;
+    }
+}